@@ -0,0 +1,82 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.generator.Billow;
+import ca.dhlevi.libnoise.generator.Perlin;
+import ca.dhlevi.libnoise.generator.RidgedMultifractal;
+import ca.dhlevi.libnoise.generator.Voronoi;
+
+// Point evaluation of the generators, reported per sample
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark
+{
+    private Points points;
+    private Module perlin;
+    private Module billow;
+    private Module ridged;
+    private Module voronoi;
+
+    @Setup
+    public void setup()
+    {
+        points = new Points(1);
+        perlin = new Perlin();
+        billow = new Billow();
+        ridged = new RidgedMultifractal();
+        voronoi = new Voronoi();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Points.COUNT)
+    public void perlin(Blackhole bh)
+    {
+        sample(perlin, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Points.COUNT)
+    public void billow(Blackhole bh)
+    {
+        sample(billow, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Points.COUNT)
+    public void ridgedMultifractal(Blackhole bh)
+    {
+        sample(ridged, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Points.COUNT)
+    public void voronoi(Blackhole bh)
+    {
+        sample(voronoi, bh);
+    }
+
+    private void sample(Module module, Blackhole bh)
+    {
+        for (int i = 0; i < Points.COUNT; i++)
+            bh.consume(module.getValue(points.xs[i], points.ys[i], points.zs[i], 1));
+    }
+}
@@ -0,0 +1,95 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Erosion;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.NoiseNormalizer;
+import ca.dhlevi.libnoise.RasterSampler;
+
+// Hydraulic erosion and water distribution against the boxed implementation in LegacyErosion.
+// Run with the gc profiler to see the allocation rate as well,
+// e.g. java -jar benchmarks.jar HydraulicErosionBenchmark -prof gc
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx12g" })
+@State(Scope.Benchmark)
+public class HydraulicErosionBenchmark
+{
+    private static final int SEED = 1;
+    private static final double SEA_LEVEL = 0.3;
+
+    @Param({ "4096", "8192" })
+    public int width;
+
+    @Param({ "legacy", "primitive" })
+    public String implementation;
+
+    private double[][] heightmap;
+    private double[][] pooled;
+
+    private double[][] working;
+    private double[][] water;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        heightmap = NoiseFactory.generateSpherical(DefaultModules.getSimpleNoise(SEED), width, width / 2, -90, 90, -180, 180, true, 1, RasterSampler.parallel());
+        NoiseNormalizer.normalize(heightmap, SEA_LEVEL);
+
+        pooled = Erosion.advancedHydraulicErosion(copy(heightmap), 0.0001, 0.01, SEA_LEVEL, 1, true, 200);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation()
+    {
+        working = copy(heightmap);
+        water = copy(pooled);
+    }
+
+    @Benchmark
+    public double[][] advancedHydraulicErosion()
+    {
+        if (implementation.equals("legacy"))
+            return LegacyErosion.advancedHydraulicErosion(working, 0.0001, 0.01, SEA_LEVEL, 5, false, 200);
+
+        return Erosion.advancedHydraulicErosion(working, 0.0001, 0.01, SEA_LEVEL, 5, false, 200);
+    }
+
+    @Benchmark
+    public double[][] waterDistribution()
+    {
+        if (implementation.equals("legacy"))
+            LegacyErosion.waterDistribution(working, water, width / 2, width);
+        else
+            Erosion.waterDistribution(working, water, width / 2, width);
+
+        return water;
+    }
+
+    private static double[][] copy(double[][] data)
+    {
+        double[][] result = new double[data.length][];
+
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.generator.Const;
+import ca.dhlevi.libnoise.generator.Perlin;
+import ca.dhlevi.libnoise.operator.Abs;
+import ca.dhlevi.libnoise.operator.Add;
+import ca.dhlevi.libnoise.operator.Blend;
+import ca.dhlevi.libnoise.operator.Cache;
+import ca.dhlevi.libnoise.operator.Clamp;
+import ca.dhlevi.libnoise.operator.Curve;
+import ca.dhlevi.libnoise.operator.Displace;
+import ca.dhlevi.libnoise.operator.Exponent;
+import ca.dhlevi.libnoise.operator.Invert;
+import ca.dhlevi.libnoise.operator.Max;
+import ca.dhlevi.libnoise.operator.Min;
+import ca.dhlevi.libnoise.operator.Multiply;
+import ca.dhlevi.libnoise.operator.Power;
+import ca.dhlevi.libnoise.operator.Rotate;
+import ca.dhlevi.libnoise.operator.Scale;
+import ca.dhlevi.libnoise.operator.ScaleBias;
+import ca.dhlevi.libnoise.operator.Select;
+import ca.dhlevi.libnoise.operator.Subtract;
+import ca.dhlevi.libnoise.operator.Terrace;
+import ca.dhlevi.libnoise.operator.Translate;
+import ca.dhlevi.libnoise.operator.Turbulence;
+
+// Point evaluation of each operator on top of a single octave Perlin source. The "source"
+// case is the source on its own, subtract it to get the cost of the operator itself.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OperatorBenchmark
+{
+    @Param({ "source", "abs", "add", "blend", "cache", "clamp", "curve", "displace", "exponent", "invert", "max", "min", "multiply", "power", "rotate", "scale", "scaleBias", "select", "subtract", "terrace", "translate", "turbulence" })
+    public String operator;
+
+    private Points points;
+    private Module module;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        points = new Points(2);
+
+        Perlin a = new Perlin();
+        a.setOctave(1);
+        Perlin b = new Perlin();
+        b.setOctave(1);
+        b.setSeed(1);
+
+        module = create(operator, a, b);
+    }
+
+    private static Module create(String operator, Module a, Module b) throws Exception
+    {
+        switch (operator)
+        {
+        case "source":
+            return a;
+        case "abs":
+            return new Abs(a);
+        case "add":
+            return new Add(a, b);
+        case "blend":
+            return new Blend(a, b, new Const(0.25));
+        case "cache":
+            return new Cache(a);
+        case "clamp":
+            return new Clamp(a, 0.5, -0.5);
+        case "curve":
+        {
+            Curve curve = new Curve(a);
+            curve.add(-1.0, -1.0);
+            curve.add(-0.25, 0.1);
+            curve.add(0.25, 0.3);
+            curve.add(1.0, 1.0);
+            return curve;
+        }
+        case "displace":
+            return new Displace(a, new Const(0.1), new Const(0.2), new Const(0.3));
+        case "exponent":
+            return new Exponent(a, 2.0);
+        case "invert":
+            return new Invert(a);
+        case "max":
+            return new Max(a, b);
+        case "min":
+            return new Min(a, b);
+        case "multiply":
+            return new Multiply(a, b);
+        case "power":
+            return new Power(new Abs(a), new Const(1.5));
+        case "rotate":
+            return new Rotate(a, 15.0, 30.0, 45.0);
+        case "scale":
+            return new Scale(a, 2.0, 2.0, 2.0);
+        case "scaleBias":
+            return new ScaleBias(a, 0.5, 0.25);
+        case "select":
+            return new Select(a, b, new Const(0.0), -0.5, 0.5, 0.125);
+        case "subtract":
+            return new Subtract(a, b);
+        case "terrace":
+        {
+            Terrace terrace = new Terrace(a);
+            terrace.Generate(6);
+            return terrace;
+        }
+        case "translate":
+            return new Translate(a, 0.5, 0.5, 0.5);
+        case "turbulence":
+            return new Turbulence(a, 1.0, 0.25, 1.0, 0);
+        default:
+            throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Points.COUNT)
+    public void getValue(Blackhole bh)
+    {
+        for (int i = 0; i < Points.COUNT; i++)
+            bh.consume(module.getValue(points.xs[i], points.ys[i], points.zs[i], 1));
+    }
+}
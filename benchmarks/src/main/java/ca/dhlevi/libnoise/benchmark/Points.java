@@ -0,0 +1,29 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.util.Random;
+
+// A fixed set of sample coordinates on the unit sphere, the same surface NoiseFactory samples
+final class Points
+{
+    static final int COUNT = 1024;
+
+    final double[] xs = new double[COUNT];
+    final double[] ys = new double[COUNT];
+    final double[] zs = new double[COUNT];
+
+    Points(long seed)
+    {
+        Random random = new Random(seed);
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            double lat = Math.toRadians(random.nextDouble() * 180.0 - 90.0);
+            double lon = Math.toRadians(random.nextDouble() * 360.0 - 180.0);
+            double r = Math.cos(lat);
+
+            xs[i] = r * Math.cos(lon);
+            ys[i] = Math.sin(lat);
+            zs[i] = r * Math.sin(lon);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.RasterSampler;
+import ca.dhlevi.libnoise.compiler.ModuleCompiler;
+
+// Whole raster generation over the DefaultModules graphs, the first step of App
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RasterBenchmark
+{
+    @Param({ "simple", "detailed", "continent" })
+    public String graph;
+
+    @Param({ "512" })
+    public int width;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    @Param({ "false", "true" })
+    public boolean compiled;
+
+    private Module module;
+    private RasterSampler sampler;
+
+    @Setup
+    public void setup()
+    {
+        switch (graph)
+        {
+        case "simple":
+            module = DefaultModules.getSimpleNoise(1);
+            break;
+        case "detailed":
+            module = DefaultModules.getDetailedNoise(1);
+            break;
+        default:
+            module = DefaultModules.getContinentNoise(1);
+            break;
+        }
+
+        if (compiled)
+            module = ModuleCompiler.compile(module);
+
+        sampler = parallel ? RasterSampler.parallel() : RasterSampler.serial();
+    }
+
+    @Benchmark
+    public double[][] generateSpherical() throws Exception
+    {
+        return NoiseFactory.generateSpherical(module, width, width / 2, -90, 90, -180, 180, true, 1, sampler);
+    }
+}
@@ -0,0 +1,170 @@
+package ca.dhlevi.libnoise.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.dhlevi.libnoise.BiomeGenerator;
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Erosion;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.NoiseNormalizer;
+import ca.dhlevi.libnoise.ParticleErosion;
+import ca.dhlevi.libnoise.RasterSampler;
+import ca.dhlevi.libnoise.RegionGenerator;
+import ca.dhlevi.libnoise.RiverGenerator;
+import ca.dhlevi.libnoise.hydrology.FlowField;
+import ca.dhlevi.libnoise.hydrology.PriorityFlood;
+import ca.dhlevi.libnoise.paint.Painter;
+import ca.dhlevi.libnoise.spatial.Envelope;
+
+// The post processing stages of App, each run once per measurement on a fresh copy of the
+// same heightmap. Parameters follow the AppTest pipeline, width x width / 2 over the whole world.
+//
+// The 8k case needs a large heap, e.g. java -Xmx12g -jar benchmarks.jar StageBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx12g" })
+@State(Scope.Benchmark)
+public class StageBenchmark
+{
+    private static final int SEED = 1;
+    private static final double SEA_LEVEL = 0.3;
+
+    @Param({ "1024", "4096", "8192" })
+    public int width;
+
+    private Envelope bbox;
+    private double[][] heightmap;
+    private int[][] basins;
+    private int[][] rivers;
+
+    // working copy handed to the stages that modify the heightmap in place
+    private double[][] working;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        bbox = new Envelope(-180, -90, 180, 90);
+        heightmap = NoiseFactory.generateSpherical(DefaultModules.getSimpleNoise(SEED), width, width / 2, -90, 90, -180, 180, true, 1, RasterSampler.parallel());
+        NoiseNormalizer.normalize(heightmap, SEA_LEVEL);
+
+        basins = NoiseNormalizer.detectBasins(copy(heightmap), (int) Math.round(width * 0.5), SEA_LEVEL, true, true, SEED);
+        rivers = RiverGenerator.createRiversAStar(copy(heightmap), basins, null, SEA_LEVEL, width / 100, false, bbox, 1, SEED);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation()
+    {
+        working = copy(heightmap);
+    }
+
+    @Benchmark
+    public double[][] thermalErosion()
+    {
+        Erosion.thermalErosion(working, 0.125, 50);
+        return working;
+    }
+
+    @Benchmark
+    public double[][] thermalErosionParallel()
+    {
+        Erosion.thermalErosion(working, 0.125, 50, ForkJoinPool.commonPool());
+        return working;
+    }
+
+    @Benchmark
+    public double[][] advancedHydraulicErosion()
+    {
+        return Erosion.advancedHydraulicErosion(working, 0.0001, 0.01, SEA_LEVEL, 20, true, 200);
+    }
+
+    // one droplet for every 16 pixels
+    @Benchmark
+    public double[][] particleErosion()
+    {
+        ParticleErosion erosion = new ParticleErosion();
+        erosion.setSeaLevel(SEA_LEVEL);
+        erosion.erode(working, width * width / 32, SEED, ForkJoinPool.commonPool());
+        return working;
+    }
+
+    @Benchmark
+    public int[][] detectBasins()
+    {
+        return NoiseNormalizer.detectBasins(working, (int) Math.round(width * 0.5), SEA_LEVEL, true, true, SEED);
+    }
+
+    @Benchmark
+    public FlowField priorityFlood()
+    {
+        return PriorityFlood.analyze(working, SEA_LEVEL, (int) Math.round(width * 0.5));
+    }
+
+    @Benchmark
+    public int[][] createRiversAStar()
+    {
+        return RiverGenerator.createRiversAStar(working, basins, null, SEA_LEVEL, width / 100, false, bbox, 1, SEED);
+    }
+
+    @Benchmark
+    public int[][] createRiversAStarParallel()
+    {
+        return RiverGenerator.createRiversAStar(working, basins, null, SEA_LEVEL, width / 100, false, bbox, 1, SEED, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public int[][] generateRegions()
+    {
+        return RegionGenerator.generateRegions(working, basins, rivers, SEA_LEVEL, 30, 30, bbox, SEED);
+    }
+
+    @Benchmark
+    public int[][] generateRegionsParallel()
+    {
+        return RegionGenerator.generateRegions(working, basins, rivers, SEA_LEVEL, 30, 30, bbox, SEED, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public int[][] generateBiomes()
+    {
+        return BiomeGenerator.generateBiomes(working, rivers, basins, bbox, SEA_LEVEL, 0, 0, SEED);
+    }
+
+    @Benchmark
+    public BufferedImage renderTerrainMap()
+    {
+        return Painter.renderTerrainMap(working, rivers, SEA_LEVEL, true, true, null);
+    }
+
+    @Benchmark
+    public BufferedImage renderTerrainMapParallel()
+    {
+        return Painter.renderTerrainMap(working, rivers, SEA_LEVEL, true, true, ForkJoinPool.commonPool());
+    }
+
+    private static double[][] copy(double[][] data)
+    {
+        double[][] result = new double[data.length][];
+
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+}
@@ -1,5 +1,7 @@
 package ca.dhlevi.libnoise;
 
+import java.util.concurrent.ForkJoinPool;
+
 import ca.dhlevi.libnoise.paint.Painter;
 import ca.dhlevi.libnoise.spatial.Envelope;
 
@@ -23,14 +25,14 @@ public class App
         
         long startTime = System.currentTimeMillis();
         System.out.println("Generating initial noise...");
-        double[][] noise = NoiseFactory.generateSpherical(module, width + buffer, height + (buffer / 2), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]), true, 1);
+        double[][] noise = NoiseFactory.generateSpherical(module, width + buffer, height + (buffer / 2), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]), true, 1, RasterSampler.parallel());
 
         long endTime = System.currentTimeMillis();
         System.out.println("Complete: " + ((endTime - startTime) / 1000) + " seconds");
 
         startTime = System.currentTimeMillis();
         System.out.println("Thermal Erosion...");
-        Erosion.thermalErosion(noise, 0.125, 50);
+        Erosion.thermalErosion(noise, 0.125, 50, ForkJoinPool.commonPool());
         endTime = System.currentTimeMillis();
         System.out.println("Complete: " + ((endTime - startTime) / 1000) + " seconds");
 
@@ -2,22 +2,52 @@ package ca.dhlevi.libnoise;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
 import ca.dhlevi.libnoise.spatial.Envelope;
-import ca.dhlevi.libnoise.spatial.SpatialUtilities;
-
+import ca.dhlevi.libnoise.spatial.GridGeometry;
+import ca.dhlevi.libnoise.spatial.NearestFeatureIndex;
+
+// Biomes from temperature and moisture. Temperature falls off with latitude and height.
+// Moisture is carried inland from the sea by the prevailing wind of each latitude belt: along
+// every row, and up or down every column, the air picks up all it can hold over water and
+// loses a little over every pixel of land, and can carry no more over high ground than the
+// ground lets through (1 - height), so mountains throw a rain shadow. Each carry is a single
+// recurrence from the upwind pixel, rows are independent of each other and so are columns,
+// so both passes run in strips on a pool when given one. The moisture is then smoothed with
+// thermal erosion, which on a pool is the banded version, so a pool changes a few pixels.
 public class BiomeGenerator
 {
     public static double MAX_TEMP = 50;
+
+    // rows (or columns) handled together by one task
+    public static final int STRIP_SIZE = 64;
+
+    // biome by temperature band (below 3, 3 to 10, 10 to 20, 20 and above) and rainfall band
+    // (dry, moderate, wet)
+    private static final int[][] BIOME_TABLE = { { 1, 1, 1 }, { 1, 2, 3 }, { 4, 5, 6 }, { 7, 8, 9 } };
+    private static final double[] TEMPERATURE_BANDS = { 3, 10, 20 };
+    private static final double[] DRY_BELOW = { 0, 0.2, 0.3, 0.3 };
+    private static final double WET_FROM = 0.6;
+
     // initial biome test
     // this "algorithm" is very weak at the moment, and will be replaced by
     // something else as I get around to it
     public static int[][] generateBiomes(double[][] data, int[][] rivers, int[][] basins, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed)
+    {
+        return generateBiomes(data, rivers, basins, bbox, seaLevel, tempModifier, moistureModifier, seed, null);
+    }
+
+    public static int[][] generateBiomes(double[][] data, int[][] rivers, int[][] basins, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
         int[][] biomes = new int[width][height];
+        GridGeometry geometry = new GridGeometry(width, height, bbox);
 
         /*
          * 1 - ice sheet/polar desert 
@@ -47,153 +77,198 @@ public class BiomeGenerator
         // 50 to 55 = subpolar low
         // 55 to 90 = subpolar (nw)
 
-        // set initial moisture levels
+        // the way the wind moves across each row, +1 towards larger x (y), -1 towards smaller
+        int[] windX = new int[height];
+        int[] windY = new int[height];
+        double[] rowTemp = new double[height];
+
+        for (int y = 0; y < height; y++)
+        {
+            double lat = geometry.getLatitude(y);
+
+            if ((lat <= -50) || (lat > -20 && lat <= 0))
+            {
+                windX[y] = -1;
+                windY[y] = 1;
+            }
+            else if ((lat > 0 && lat <= 20) || (lat > 50))
+            {
+                windX[y] = -1;
+                windY[y] = -1;
+            }
+            else if (lat > -50 && lat <= -20)
+            {
+                windX[y] = 1;
+                windY[y] = -1;
+            }
+            else
+            {
+                windX[y] = 1;
+                windY[y] = 1;
+            }
+
+            rowTemp[y] = MAX_TEMP * ((90 - Math.abs(lat)) / 90);
+        }
+
+        // share of its moisture the air keeps over each pixel of land, it has lost two thirds
+        // after reach pixels
+        int reach = width / 100 <= 20 ? 20 : width / 100;
+        double keep = Math.exp(-1.0 / reach);
+
         double[][] moisture = new double[width][height];
 
-        int maxIterations = width / 200 <= 10 ? 10 : width / 200;
+        StripRunner.run(height, STRIP_SIZE, pool, (from, to) -> carryAlongRows(data, seaLevel, windX, keep, moisture, from, to));
 
-        while (maxIterations > 0)
+        // distance from every pixel to the closest water or river, looked up instead of searched
+        int[] water = new int[width * height];
+        for (int x = 0; x < width; x++)
         {
-            // easterlies
-            for (int y = 0; y < height - 1; y++)
+            for (int y = 0; y < height; y++)
             {
-                for (int x = 0; x < width - 1; x++)
+                if (data[x][y] <= seaLevel || rivers[x][y] > 0)
+                    water[y * width + x] = 1;
+            }
+        }
+
+        NearestFeatureIndex closestWater = new NearestFeatureIndex(water, width, height, WrapMode.NONE, null);
+        int tolerance = width / 500;
+
+        StripRunner.run(width, STRIP_SIZE, pool, (from, to) -> {
+            double[] carried = new double[height];
+
+            for (int x = from; x < to; x++)
+            {
+                carryAlongColumn(data[x], seaLevel, windY, keep, carried);
+
+                for (int y = 0; y < height; y++)
                 {
-                	if(data[x][y] <= seaLevel)
-                		moisture[x][y] = 1.0;
-                	
-                	if(moisture[x][y] < 1.0)
-                	{
-	                    double lat = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox).getY();
-	                    if (((lat <= -50) || (lat > -20 && lat <= 0)) && data[x][y] > seaLevel) // sw
-	                    {
-	                        // pull from the NE
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x == width - 1 ? 0 : x + 1, y == 0 ? 0 : y - 1);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x == width - 1 ? 0 : x + 1, y);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x, y == 0 ? 0 : y - 1);
-	                    }
-	                    else if (((lat > 0 && lat <= 20) || (lat > 50)) && data[x][y] > seaLevel) // nw
-	                    {
-	                    	// push SE
-	                        moistureCalc(moisture, data, seaLevel, x, y, x == width - 1 ? width - 1 : x + 1, y == height - 1 ? height - 1 : y + 1);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x == width - 1 ? width - 1 : x + 1, y);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x, y == height - 1 ? height - 1 : y + 1);
-	                    }
-                	}
+                    double gain = 0;
+                    if (rivers[x][y] >= 1)
+                        gain = 1.0;
+                    else if (data[x][y] <= seaLevel)
+                        gain = 1.0;
+                    else if (data[x][y] > seaLevel)
+                    {
+                        double distance = closestWater.distance(x, y);
+                        if(distance <= tolerance) 
+                        {
+                            double proximityToWaterGain = 1.0 - (distance / 10);
+                            
+                            if(proximityToWaterGain < 0) proximityToWaterGain = 0;
+                            
+                            gain += proximityToWaterGain;
+                        }
+                    }
+
+                    gain += moistureModifier;
+
+                    // the wetter of the two air streams reaching the pixel
+                    double wind = Math.max(moisture[x][y], carried[y]);
+
+                    moisture[x][y] = Math.min(1.0, wind + gain);
                 }
             }
-            
-            // westerlies
-            for (int y = height - 1; y > 0; y--)
+        });
+
+        if (pool == null)
+            Erosion.thermalErosion(moisture, 0.125, 10);
+        else
+            Erosion.thermalErosion(moisture, 0.125, 10, pool);
+        
+        // set biome based on temp + moisture
+        StripRunner.run(width, STRIP_SIZE, pool, (from, to) -> {
+            for (int x = from; x < to; x++)
             {
-                for (int x = width - 1; x > 0; x--)
+                for (int y = 0; y < height; y++)
                 {
-                	if(data[x][y] <= seaLevel)
-                		moisture[x][y] = 1.0;
-
-                	if(moisture[x][y] < 1.0)
-                	{
-	                    double lat = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox).getY();
-	                    if ((lat > -50 && lat <= -20) && data[x][y] > seaLevel) // ne
-	                    {
-	                    	// pull SW
-	                        moistureCalc(moisture, data, seaLevel, x, y, x == 0 ? width - 1 : x - 1, y == height - 1 ? height - 1 : y + 1);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x == 0 ? width - 1 : x - 1, y);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x, y == height - 1 ? height - 1 : y + 1);
-	                    } 
-	                    else if ((lat > 20 && lat <= 50) && data[x][y] > seaLevel) // se
-	                    {
-	                    	// pull NW
-	                        moistureCalc(moisture, data, seaLevel, x, y, x == 0 ? width - 1 : x - 1, y == 0 ? 0 : y - 1);
-	                    	moistureCalc(moisture, data, seaLevel, x, y,x == 0 ? width - 1 : x - 1, y);
-	                    	moistureCalc(moisture, data, seaLevel, x, y, x, y == 0 ? 0 : y - 1);
-	                    }
-                	}
+                    double temp = rowTemp[y] * (1.0 - data[x][y]);
+                    double rainfall = moisture[x][y] + rivers[x][y];
+
+                    int band = 0;
+                    while (band < TEMPERATURE_BANDS.length && temp >= TEMPERATURE_BANDS[band])
+                        band++;
+
+                    int wetness = rainfall < DRY_BELOW[band] ? 0 : rainfall < WET_FROM ? 1 : 2;
+
+                    biomes[x][y] = BIOME_TABLE[band][wetness];
                 }
             }
+        });
 
-            maxIterations--;
-        }
+        return biomes;
+    }
 
-        for (int x = 0; x < width; x++)
+    // the moisture the wind brings along rows from to to, written to moisture. Rows are done
+    // together a column at a time, the way the arrays are laid out. A row wraps round the map,
+    // so the first lap only finds what the air carries into its first pixel, the second lap
+    // writes. Over water the air is full, a row without water stays dry
+    private static void carryAlongRows(double[][] data, double seaLevel, int[] windX, double keep, double[][] moisture, int from, int to)
+    {
+        int width = data.length;
+        double[] carry = new double[to - from];
+
+        for (int direction = -1; direction <= 1; direction += 2)
         {
-            for (int y = 0; y < height; y++)
+            for (int lap = 0; lap < 2; lap++)
             {
-                double gain = 0;
-                if (rivers[x][y] >= 1)
-                    gain = 1.0;
-                else if (data[x][y] <= seaLevel)
-                    gain = 1.0;
-                else if (data[x][y] > seaLevel)
+                for (int i = 0; i < width; i++)
                 {
-                    Point p = getClosestWaterPoint(data, rivers, new Point(x, y), seaLevel, (width / 500));
-                    if(p != null) 
+                    int x = direction > 0 ? i : width - 1 - i;
+                    double[] column = data[x];
+
+                    for (int y = from; y < to; y++)
                     {
-                        double distance = Math.hypot(p.getX() - x, p.getY() - y);
-                        double proximityToWaterGain = 1.0 - (distance / 10);
-                        
-                        if(proximityToWaterGain < 0) proximityToWaterGain = 0;
-                        
-                        gain += proximityToWaterGain;
-                    }
-                }
+                        if (windX[y] != direction)
+                            continue;
 
-                gain += moistureModifier;
+                        double arriving = column[y] <= seaLevel ? 1.0 : carry[y - from];
+                        if (lap == 1)
+                            moisture[x][y] = arriving;
 
-                moisture[x][y] += gain;
-                if(moisture[x][y] > 1.0)
-                	moisture[x][y] = 1.0;
+                        carry[y - from] = passOn(arriving, column[y], seaLevel, keep);
+                    }
+                }
             }
         }
+    }
 
-        Erosion.thermalErosion(moisture, 0.125, 10);
-        
-        // set biome based on temp + moisture
-        for (int x = 0; x < width; x++)
+    // the moisture the wind brings up or down one column, into carried. Rows with the wind
+    // blowing towards larger y take it from the row below, the others from the row above. Where
+    // the wind turns the stream starts again from that row's ground
+    private static void carryAlongColumn(double[] column, double seaLevel, int[] windY, double keep, double[] carried)
+    {
+        int height = column.length;
+
+        for (int direction = -1; direction <= 1; direction += 2)
         {
-            for (int y = 0; y < height; y++)
+            double carry = 0;
+
+            for (int i = 0; i < height; i++)
             {
-                double lat = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox).getY();
-                if (lat < 0)
-                    lat = lat * -1;
-                double temp = (MAX_TEMP * ((90 - lat) / 90)) * (1.0 - data[x][y]);
-                double rainfall = moisture[x][y] + rivers[x][y];
+                int y = direction > 0 ? i : height - 1 - i;
+                boolean water = column[y] <= seaLevel;
 
-                if (temp < 3)
-                {
-                    biomes[x][y] = 1;
-                } 
-                else if (temp >= 3 && temp < 10)
+                if (windY[y] == direction)
                 {
-                    if (rainfall < 0.2)
-                        biomes[x][y] = 1;
-                    else if (rainfall >= 0.2 && rainfall < 0.6)
-                        biomes[x][y] = 2;
-                    else
-                        biomes[x][y] = 3;
-                } 
-                else if (temp >= 10 && temp < 20)
-                {
-                    if (rainfall < 0.3)
-                        biomes[x][y] = 4;
-                    else if (rainfall >= 0.3 && rainfall < 0.6)
-                        biomes[x][y] = 5;
-                    else
-                        biomes[x][y] = 6;
-                } 
-                else if (temp >= 20)
+                    double arriving = water ? 1.0 : carry;
+                    carried[y] = arriving;
+                    carry = passOn(arriving, column[y], seaLevel, keep);
+                }
+                else
                 {
-                    if (rainfall < 0.3)
-                        biomes[x][y] = 7;
-                    else if (rainfall >= 0.3 && rainfall < 0.6)
-                        biomes[x][y] = 8;
-                    else
-                        biomes[x][y] = 9;
+                    carry = water ? 1.0 : 0;
                 }
             }
         }
+    }
 
-        return biomes;
+    // what the air leaves a pixel with, given what it arrived with
+    private static double passOn(double arriving, double value, double seaLevel, double keep)
+    {
+        if (value <= seaLevel)
+            return 1.0;
+
+        return Math.max(0, Math.min(arriving, 1.0 - value)) * keep;
     }
 
     public static int[][] generateBiomesByRegion(double[][] data, int[][] rivers, int[][] basins, int[][] regions, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed)
@@ -251,51 +326,22 @@ public class BiomeGenerator
     	}
     }
     
-    private static Point getClosestWaterPoint(double[][] data, int[][] rivers, Point point, double seaLevel, int tolerance)
+    // the biome passes work a column at a time, so the field versions copy into arrays and
+    // back. They are for fields that fit on the heap, not mapped ones
+    public static IntField generateBiomes(HeightField data, IntField rivers, IntField basins, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed)
     {
-        Point destination = null;
-        boolean foundWater = false;
-
-        int width = data.length;
-        int height = data[0].length;
-
-        int loops = 0;
-        while (!foundWater)
-        {
-            if (loops > tolerance)
-                break; // we've been searching for a while and never found a destination?
-
-            for (int y = point.getY() - loops; y < point.getY() + loops && y < height - 1; y++)
-            {
-                for (int x = point.getX() - loops; x < point.getX() + loops && x < width - 1; x++)
-                {
-                    // make sure we're within array bounds
-                    if (x < 0)
-                        x = 0;
-                    if (x >= width - 1)
-                        x = width - 1;
-                    if (y < 0)
-                        y = 0;
-                    if (y >= height - 1)
-                        y = height - 1;
-
-                    if (data[x][y] <= seaLevel || rivers[x][y] > 0)
-                    {
-                        destination = new Point(x, y);
-                        foundWater = true;
-                        break;
-                    }
-
-                    if (y > point.getY() - loops && y < point.getY() + loops - 1)
-                    {
-                        x = point.getX() + loops;
-                    }
-                }
-            }
+        return generateBiomes(data, rivers, basins, bbox, seaLevel, tempModifier, moistureModifier, seed, null);
+    }
 
-            loops++;
-        }
+    public static IntField generateBiomes(HeightField data, IntField rivers, IntField basins, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed, ForkJoinPool pool)
+    {
+        int[][] biomes = generateBiomes(data.toArray(), rivers.toArray(), basins.toArray(), bbox, seaLevel, tempModifier, moistureModifier, seed, pool);
+        return IntField.wrap(biomes, data.getWrapMode());
+    }
 
-        return destination;
+    public static IntField generateBiomesByRegion(HeightField data, IntField rivers, IntField basins, IntField regions, Envelope bbox, double seaLevel, double tempModifier, double moistureModifier, int seed)
+    {
+        int[][] biomes = generateBiomesByRegion(data.toArray(), rivers.toArray(), basins.toArray(), regions.toArray(), bbox, seaLevel, tempModifier, moistureModifier, seed);
+        return IntField.wrap(biomes, data.getWrapMode());
     }
 }
@@ -0,0 +1,250 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
+
+// Two pass connected component labelling over a grid of class values. Neighbouring pixels with
+// the same non zero value end up in the same component, 0 is background. The first pass joins
+// each pixel to the neighbours already visited with a union-find kept in one int array, the
+// second resolves the forest to compact ids (see Components). Both passes are linear.
+//
+// The first pass can run in strips of rows on a pool. Strips only join pixels inside
+// themselves, so they never write to the same part of the array, and the rows where two
+// strips meet are joined afterwards. The ids come out the same however the work was split.
+public class ComponentLabeller
+{
+    public static final int STRIP_HEIGHT = 64;
+
+    public static Components label(int[] classes, int width, int height, boolean eightConnected, WrapMode wrapMode)
+    {
+        return label(classes, width, height, eightConnected, wrapMode, null, STRIP_HEIGHT);
+    }
+
+    public static Components label(int[] classes, int width, int height, boolean eightConnected, WrapMode wrapMode, ForkJoinPool pool)
+    {
+        return label(classes, width, height, eightConnected, wrapMode, pool, STRIP_HEIGHT);
+    }
+
+    public static Components label(IntField classes, boolean eightConnected, ForkJoinPool pool)
+    {
+        int[] values;
+
+        if (classes.hasArray())
+        {
+            values = classes.array();
+        }
+        else
+        {
+            values = new int[classes.size()];
+            classes.copyTo(values);
+        }
+
+        return label(values, classes.getWidth(), classes.getHeight(), eightConnected, classes.getWrapMode(), pool, STRIP_HEIGHT);
+    }
+
+    // the pixels equal or below value, the same pixels FeatureTracer.traceEqualOrBelowValue walks
+    public static Components labelEqualOrBelow(double[][] noise, double value, boolean eightConnected, WrapMode wrapMode, ForkJoinPool pool)
+    {
+        int width = noise.length;
+        int height = noise[0].length;
+        int[] classes = new int[width * height];
+
+        for (int x = 0; x < width; x++)
+        {
+            double[] column = noise[x];
+
+            for (int y = 0; y < height; y++)
+            {
+                if (column[y] <= value)
+                    classes[y * width + x] = 1;
+            }
+        }
+
+        return label(classes, width, height, eightConnected, wrapMode, pool, STRIP_HEIGHT);
+    }
+
+    public static Components label(int[] classes, int width, int height, boolean eightConnected, WrapMode wrapMode, ForkJoinPool pool, int stripHeight)
+    {
+        if (width < 1 || height < 1 || classes.length < width * height)
+            throw new IllegalArgumentException("Class grid does not match " + width + " x " + height);
+
+        if (stripHeight < 1)
+            throw new IllegalArgumentException("Strip height must be at least 1 row");
+
+        boolean wrapX = wrapMode != WrapMode.NONE;
+        boolean wrapY = wrapMode == WrapMode.BOTH;
+
+        Grid grid = new Grid(classes, new int[width * height], width, height, eightConnected, wrapX);
+        int strips = (height + stripHeight - 1) / stripHeight;
+
+        if (pool == null)
+        {
+            for (int strip = 0; strip < strips; strip++)
+                grid.labelRows(strip * stripHeight, Math.min((strip + 1) * stripHeight, height));
+        }
+        else
+        {
+            pool.invoke(new StripTask(grid, stripHeight, 0, strips));
+        }
+
+        // join the first row of each strip to the last row of the one before
+        for (int strip = 1; strip < strips; strip++)
+        {
+            int y = strip * stripHeight;
+            grid.joinRows(y, y - 1);
+        }
+
+        if (wrapY && height > 1)
+            grid.joinRows(0, height - 1);
+
+        return new Components(width, height, classes, grid.parents);
+    }
+
+    private static final class Grid
+    {
+        final int[] classes;
+        final int[] parents;
+        final int width;
+        final int height;
+        final boolean eightConnected;
+        final boolean wrapX;
+
+        Grid(int[] classes, int[] parents, int width, int height, boolean eightConnected, boolean wrapX)
+        {
+            this.classes = classes;
+            this.parents = parents;
+            this.width = width;
+            this.height = height;
+            this.eightConnected = eightConnected;
+            this.wrapX = wrapX;
+        }
+
+        // first pass over rows y0 to y1, exclusive. Only looks at neighbours already visited,
+        // west, and the row above when it is inside the strip. With wrapping the last pixel of
+        // a row also looks east to the first
+        void labelRows(int y0, int y1)
+        {
+            for (int y = y0; y < y1; y++)
+            {
+                int row = y * width;
+
+                for (int x = 0; x < width; x++)
+                {
+                    int i = row + x;
+                    int value = classes[i];
+
+                    if (value == 0)
+                    {
+                        parents[i] = -1;
+                        continue;
+                    }
+
+                    parents[i] = i;
+
+                    if (x > 0 && classes[i - 1] == value)
+                        union(i, i - 1);
+
+                    if (wrapX && x == width - 1 && x > 0 && classes[row] == value)
+                        union(i, row);
+
+                    if (y > y0)
+                        joinAbove(x, y, y - 1, value);
+                }
+            }
+        }
+
+        void joinRows(int y, int above)
+        {
+            int row = y * width;
+
+            for (int x = 0; x < width; x++)
+            {
+                int value = classes[row + x];
+
+                if (value != 0)
+                    joinAbove(x, y, above, value);
+            }
+        }
+
+        private void joinAbove(int x, int y, int above, int value)
+        {
+            int i = y * width + x;
+            int row = above * width;
+
+            if (classes[row + x] == value)
+                union(i, row + x);
+
+            if (!eightConnected)
+                return;
+
+            int west = x > 0 ? x - 1 : (wrapX ? width - 1 : -1);
+            int east = x < width - 1 ? x + 1 : (wrapX ? 0 : -1);
+
+            if (west >= 0 && classes[row + west] == value)
+                union(i, row + west);
+
+            if (east >= 0 && classes[row + east] == value)
+                union(i, row + east);
+        }
+
+        // the lower root always wins, so every parent sits at a lower index than its child
+        private void union(int a, int b)
+        {
+            int rootA = find(a);
+            int rootB = find(b);
+
+            if (rootA < rootB)
+                parents[rootB] = rootA;
+            else if (rootB < rootA)
+                parents[rootA] = rootB;
+        }
+
+        // path halving, each step points a pixel at its grandparent
+        private int find(int i)
+        {
+            while (parents[i] != i)
+            {
+                parents[i] = parents[parents[i]];
+                i = parents[i];
+            }
+
+            return i;
+        }
+    }
+
+    // labels the strips from to to, halving the range until two are left
+    private static class StripTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Grid grid;
+        private final int stripHeight;
+        private final int from;
+        private final int to;
+
+        StripTask(Grid grid, int stripHeight, int from, int to)
+        {
+            this.grid = grid;
+            this.stripHeight = stripHeight;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= 2)
+            {
+                for (int strip = from; strip < to; strip++)
+                    grid.labelRows(strip * stripHeight, Math.min((strip + 1) * stripHeight, grid.height));
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new StripTask(grid, stripHeight, from, mid), new StripTask(grid, stripHeight, mid, to));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Arrays;
+
+// The result of ComponentLabeller: a component id for every pixel, 0 for the background, and
+// the size, class value and bounding box of each component. Ids run from 1 to getCount() in
+// the order the components are first met scanning row by row, so they don't depend on how
+// the labelling was split up. Stored row by row, index y * width + x.
+//
+// Bounding boxes are in plain pixel coordinates, a component wrapping around the east/west
+// edge reports a box spanning the whole width.
+public class Components
+{
+    private final int width;
+    private final int height;
+    private final int[] labels;
+
+    private int count;
+    private int[] values = new int[64];
+    private int[] sizes = new int[64];
+    private int[] minX = new int[64];
+    private int[] minY = new int[64];
+    private int[] maxX = new int[64];
+    private int[] maxY = new int[64];
+
+    // resolves the finished union-find forest in place, parents point at a lower index than
+    // their child and roots at themselves, so walking up the array every parent is already
+    // resolved to its id by the time a child asks for it
+    Components(int width, int height, int[] classes, int[] parents)
+    {
+        this.width = width;
+        this.height = height;
+        this.labels = parents;
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int i = y * width + x;
+                int parent = parents[i];
+                int id;
+
+                if (parent < 0)
+                {
+                    parents[i] = 0;
+                    continue;
+                }
+                else if (parent == i)
+                {
+                    id = newComponent(classes[i], x, y);
+                }
+                else
+                {
+                    id = parents[parent];
+                }
+
+                parents[i] = id;
+                sizes[id]++;
+                minX[id] = Math.min(minX[id], x);
+                maxX[id] = Math.max(maxX[id], x);
+                maxY[id] = y;
+            }
+        }
+    }
+
+    private int newComponent(int value, int x, int y)
+    {
+        count++;
+
+        if (count == sizes.length)
+        {
+            int capacity = sizes.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+        }
+
+        values[count] = value;
+        minX[count] = x;
+        minY[count] = y;
+        maxX[count] = x;
+        maxY[count] = y;
+
+        return count;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public int getLabel(int x, int y)
+    {
+        return labels[y * width + x];
+    }
+
+    // the backing array, row by row
+    public int[] getLabels()
+    {
+        return labels;
+    }
+
+    // the class value the component's pixels share
+    public int getValue(int id)
+    {
+        return values[id];
+    }
+
+    public int getSize(int id)
+    {
+        return sizes[id];
+    }
+
+    public int getMinX(int id)
+    {
+        return minX[id];
+    }
+
+    public int getMinY(int id)
+    {
+        return minY[id];
+    }
+
+    public int getMaxX(int id)
+    {
+        return maxX[id];
+    }
+
+    public int getMaxY(int id)
+    {
+        return maxY[id];
+    }
+}
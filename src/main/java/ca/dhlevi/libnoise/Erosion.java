@@ -1,12 +1,18 @@
 package ca.dhlevi.libnoise;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.HeapLimit;
+import ca.dhlevi.libnoise.field.HeightField;
 
 public class Erosion
 {
+    public static final int THERMAL_BAND_HEIGHT = 64;
+
+    // rows of a mapped or direct field water distribution holds on the heap at once
+    private static final int WATER_WINDOW_HEIGHT = 64;
+
     // Thermal erosion "collapses" cliffs and evens out heights based
     // from the difference in height between a point and its neighbours
     // This difference is called the "Talus Angle". The lower the value of
@@ -14,88 +20,226 @@ public class Erosion
     // collapse extreme cliffs, but keep the terrain more jagged
     public static void thermalErosion(double[][] data, double talusAngle, int iterations)
     {
-        int width = data.length;
-        int height = data[0].length;
+        thermalErosion(data, talusAngle, iterations, null, THERMAL_BAND_HEIGHT);
+    }
+
+    public static void thermalErosion(double[][] data, double talusAngle, int iterations, ForkJoinPool pool)
+    {
+        thermalErosion(data, talusAngle, iterations, pool, THERMAL_BAND_HEIGHT);
+    }
+
+    public static void thermalErosion(HeightField data, double talusAngle, int iterations)
+    {
+        thermalErosion(data, talusAngle, iterations, null, THERMAL_BAND_HEIGHT);
+    }
+
+    public static void thermalErosion(HeightField data, double talusAngle, int iterations, ForkJoinPool pool)
+    {
+        thermalErosion(data, talusAngle, iterations, pool, THERMAL_BAND_HEIGHT);
+    }
+
+    // Parallel thermal erosion. Each sweep splits the map into bands of bandHeight rows and
+    // erodes the even bands first, then the odd ones. A pixel only touches the rows directly
+    // above and below it, so with bands of at least two rows no two bands running at the same
+    // time ever read or write the same row, no locking needed. Inside a band the pixels are
+    // visited in the same order as the serial version, and whole rows stay with one band so
+    // the east/west wrap is unchanged.
+    //
+    // Bands see their neighbours either before or after they were eroded rather than half way
+    // through, so the result differs slightly from the serial version. It does not depend on
+    // the pool or the number of threads, only on bandHeight.
+    public static void thermalErosion(double[][] data, double talusAngle, int iterations, ForkJoinPool pool, int bandHeight)
+    {
+        Grid grid = Grid.of(data);
+        thermalErosion(grid.height, iterations, pool, bandHeight, (y0, y1) -> thermalErosionRows(grid, talusAngle, y0, y1));
+        grid.copyTo(data);
+    }
+
+    // heap fields are eroded in place. Mapped and direct ones go a band at a time through a
+    // window holding the band's rows and the row either side, which the band also moves
+    // material into, so no more than a band's worth of rows per task is ever on the heap.
+    // The bands never share a row, so the heights are the same either way
+    public static void thermalErosion(HeightField data, double talusAngle, int iterations, ForkJoinPool pool, int bandHeight)
+    {
+        if (data.hasArray())
+        {
+            Grid grid = Grid.of(data);
+            thermalErosion(grid.height, iterations, pool, bandHeight, (y0, y1) -> thermalErosionRows(grid, talusAngle, y0, y1));
+            return;
+        }
+
+        thermalErosion(data.getHeight(), iterations, pool, bandHeight, (y0, y1) -> {
+            Grid window = Grid.window(data, y0 - 1, y1 + 1);
+            thermalErosionRows(window, talusAngle, y0, y1);
+            window.copyTo(data);
+        });
+    }
+
+    // sweeps the rows iterations times in bands. Serially the bands run top to bottom, which
+    // is the same as one sweep over the whole map, on a pool the even bands run before the odd
+    private static void thermalErosion(int height, int iterations, ForkJoinPool pool, int bandHeight, StripRunner.Strip sweep)
+    {
+        if (bandHeight < 2)
+            throw new IllegalArgumentException("Band height must be at least 2 rows");
+
+        int bands = (height + bandHeight - 1) / bandHeight;
 
         for (int i = 0; i < iterations; i++)
         {
-            for (int y = 0; y < height; y++)
+            if (pool == null)
             {
-                for (int x = 0; x < width; x++)
+                StripRunner.run(height, bandHeight, null, sweep);
+                continue;
+            }
+
+            for (int parity = 0; parity < 2; parity++)
+            {
+                int first = parity;
+
+                StripRunner.run((bands - parity + 1) / 2, 1, pool, (from, to) -> {
+                    for (int k = from; k < to; k++)
+                    {
+                        int band = first + 2 * k;
+                        sweep.run(band * bandHeight, Math.min((band + 1) * bandHeight, height));
+                    }
+                });
+            }
+        }
+    }
+
+    // one sweep over rows y0 to y1, exclusive
+    private static void thermalErosionRows(Grid grid, double talusAngle, int y0, int y1)
+    {
+        double[] data = grid.values;
+        int width = grid.width;
+        int height = grid.height;
+        int xStride = grid.xStride;
+        int yStride = grid.yStride;
+
+        // neighbour heights and their directions, 1 to 8 from nw to se
+        double[] slopes = new double[8];
+        int[] keys = new int[8];
+
+        for (int y = y0; y < y1; y++)
+        {
+            int row = (y - grid.top) * yStride;
+            int north = row - yStride;
+            int south = row + yStride;
+
+            for (int x = 0; x < width; x++)
+            {
+                // offsets of this column and the ones either side of it. If we're on
+                // an e/w edge, loop around the map. North and south do not loop.
+                int column = x * xStride;
+                int west = (x == 0 ? width - 1 : x - 1) * xStride;
+                int east = (x == width - 1 ? 0 : x + 1) * xStride;
+
+                // this pixel height value
+                double heightValue = data[column + row];
+
+                // neighbouring height values
+                slopes[0] = y == 0 ? -1 : data[west + north];
+                slopes[1] = y == 0 ? -1 : data[column + north];
+                slopes[2] = y == 0 ? -1 : data[east + north];
+                slopes[3] = data[west + row];
+                slopes[4] = data[east + row];
+                slopes[5] = y == height - 1 ? -1 : data[west + south];
+                slopes[6] = y == height - 1 ? -1 : data[column + south];
+                slopes[7] = y == height - 1 ? -1 : data[east + south];
+
+                // nothing moves unless some neighbour is at least the talus angle below, and on
+                // most of a map none is, so skip the sort
+                double lowest = heightValue;
+                for (int k = 0; k < 8; k++)
                 {
-                    // this pixel height value
-                    double heightValue = data[x][y];
-
-                    // neighbouring height values
-                    // if we're on an e/w edge, loop around the map. North and
-                    // south do not loop.
-
-                    double nw = y == 0 ? -1 : x == 0 ? data[width - 1][y - 1] : data[x - 1][y - 1];
-                    double n = y == 0 ? -1 : data[x][y - 1];
-                    double ne = y == 0 ? -1 : x == width - 1 ? data[0][y - 1] : data[x + 1][y - 1];
-                    double e = x == width - 1 ? data[0][y] : data[x + 1][y];
-                    double se = y == height - 1 ? -1 : x == width - 1 ? data[0][y + 1] : data[x + 1][y + 1];
-                    double s = y == height - 1 ? -1 : data[x][y + 1];
-                    double sw = y == height - 1 ? -1 : x == 0 ? data[width - 1][y + 1] : data[x - 1][y + 1];
-                    double w = x == 0 ? data[width - 1][y] : data[x - 1][y];
-
-                    List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
-
-                    flows.add(new Pair<Integer, Double>(1, nw));
-                    flows.add(new Pair<Integer, Double>(2, n));
-                    flows.add(new Pair<Integer, Double>(3, ne));
-                    flows.add(new Pair<Integer, Double>(4, w));
-                    flows.add(new Pair<Integer, Double>(5, e));
-                    flows.add(new Pair<Integer, Double>(6, sw));
-                    flows.add(new Pair<Integer, Double>(7, s));
-                    flows.add(new Pair<Integer, Double>(8, se));
-
-                    // order slopes by highest to lowest
-
-                    flows.sort(Comparator.comparing(Pair::getValue)); // ordered
-                                                                      // by
-                                                                      // value,
-                                                                      // lowest
-                    Collections.reverse(flows); // flip to highest
-
-                    for (Pair<Integer, Double> slope : flows)
+                    if (slopes[k] != -1 && slopes[k] < lowest)
+                        lowest = slopes[k];
+                }
+
+                if (!(heightValue - lowest >= talusAngle))
+                    continue;
+
+                for (int k = 0; k < 8; k++)
+                    keys[k] = k + 1;
+
+                // order slopes by highest to lowest. Equal heights keep the order a stable
+                // ascending sort followed by a reverse gives them, the higher direction first
+                for (int i = 1; i < 8; i++)
+                {
+                    double value = slopes[i];
+                    int key = keys[i];
+                    int j = i - 1;
+
+                    while (j >= 0 && (Double.compare(value, slopes[j]) > 0 || (Double.compare(value, slopes[j]) == 0 && key > keys[j])))
                     {
-                        if (slope.getValue() != -1 && heightValue > slope.getValue())
-                        {
-                            double difference = heightValue - slope.getValue();
+                        slopes[j + 1] = slopes[j];
+                        keys[j + 1] = keys[j];
+                        j--;
+                    }
+
+                    slopes[j + 1] = value;
+                    keys[j + 1] = key;
+                }
+
+                for (int i = 0; i < 8; i++)
+                {
+                    double slope = slopes[i];
+
+                    if (slope != -1 && heightValue > slope)
+                    {
+                        double difference = heightValue - slope;
 
-                            if (difference >= talusAngle)
+                        if (difference >= talusAngle)
+                        {
+                            heightValue = heightValue - (difference / 2);
+                            // apply the difference that moved from the
+                            // height to the correct neighbour
+                            switch (keys[i])
                             {
-                                heightValue = heightValue - (difference / 2);
-                                // apply the difference that moved from the
-                                // height to the correct neighbour
-                                if (slope.getKey() == 1)
-                                    data[x > 0 ? x - 1 : width - 1][y - 1] += difference / 2;
-                                else if (slope.getKey() == 2)
-                                    data[x][y - 1] += difference / 2;
-                                else if (slope.getKey() == 3)
-                                    data[x < width - 1 ? x + 1 : 0][y - 1] += difference / 2;
-                                else if (slope.getKey() == 4)
-                                    data[x > 0 ? x - 1 : width - 1][y] += difference / 2;
-                                else if (slope.getKey() == 5)
-                                    data[x < width - 1 ? x + 1 : 0][y] += difference / 2;
-                                else if (slope.getKey() == 6)
-                                    data[x > 0 ? x - 1 : width - 1][y + 1] += difference / 2;
-                                else if (slope.getKey() == 7)
-                                    data[x][y + 1] += difference / 2;
-                                else if (slope.getKey() == 8)
-                                    data[x < width - 1 ? x + 1 : 0][y + 1] += difference / 2;
+                            case 1:
+                                data[west + north] += difference / 2;
+                                break;
+                            case 2:
+                                data[column + north] += difference / 2;
+                                break;
+                            case 3:
+                                data[east + north] += difference / 2;
+                                break;
+                            case 4:
+                                data[west + row] += difference / 2;
+                                break;
+                            case 5:
+                                data[east + row] += difference / 2;
+                                break;
+                            case 6:
+                                data[west + south] += difference / 2;
+                                break;
+                            case 7:
+                                data[column + south] += difference / 2;
+                                break;
+                            default:
+                                data[east + south] += difference / 2;
+                                break;
                             }
                         }
                     }
-
-                    // we're done, update the main pixel height data
-                    data[x][y] = heightValue;
                 }
+
+                // we're done, update the main pixel height data
+                data[column + row] = heightValue;
             }
         }
     }
 
+    // neighbour offsets for the droplet walk, nw n ne w e sw s se. This is the order the
+    // flow lists used to be built in, so ties still go to the first of them
+    private static final int[] FLOW_DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    private static final int[] FLOW_DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+    // off-map neighbours carried this height in the flow lists, a real height of exactly
+    // 99 was dropped along with them
+    private static final double OFF_MAP = 99.0;
+
     // updated hydraulic erosion algorithm
     // note that this will not "draw" rivers, only establish where water has
     // flowed and settled
@@ -104,93 +248,65 @@ public class Erosion
     // lake and river generation in the future.
     public static double[][] advancedHydraulicErosion(double[][] data, double erosionAmount, double waterFloodAmount, double seaLevel, int iterations, boolean resetFloodAfterEachIteration, int maxPathLength)
     {
-        int width = data.length;
-        int height = data[0].length;
+        Grid grid = Grid.of(data);
+        Grid water = grid.with(new double[grid.values.length]);
+
+        advancedHydraulicErosion(grid, water.values, erosionAmount, waterFloodAmount, seaLevel, iterations, resetFloodAfterEachIteration, maxPathLength);
+        grid.copyTo(data);
+
+        double[][] pooled = new double[grid.width][grid.height];
+        water.copyTo(pooled);
+        return pooled;
+    }
+
+    // droplets can wander anywhere on the map, so this needs the whole grid on the heap. Heap
+    // fields are eroded in place, mapped and direct ones are copied in and back out
+    public static HeightField advancedHydraulicErosion(HeightField data, double erosionAmount, double waterFloodAmount, double seaLevel, int iterations, boolean resetFloodAfterEachIteration, int maxPathLength)
+    {
+        HeapLimit.check("Hydraulic erosion", data.getWidth(), data.getHeight(), data.hasArray() ? Double.BYTES : 2 * Double.BYTES);
+
+        Grid grid = Grid.of(data);
+        HeightField water = HeightField.allocate(data.getWidth(), data.getHeight(), data.getWrapMode());
+
+        advancedHydraulicErosion(grid, water.array(), erosionAmount, waterFloodAmount, seaLevel, iterations, resetFloodAfterEachIteration, maxPathLength);
+        grid.copyTo(data);
+
+        return water;
+    }
+
+    // waterBuildup has the same layout as the grid
+    private static void advancedHydraulicErosion(Grid grid, double[] waterBuildup, double erosionAmount, double waterFloodAmount, double seaLevel, int iterations, boolean resetFloodAfterEachIteration, int maxPathLength)
+    {
+        double[] heights = grid.values;
+        int width = grid.width;
+        int height = grid.height;
+        int xStride = grid.xStride;
+        int yStride = grid.yStride;
 
         // This is the map of pooled water, direction of flow doesn't really
         // matter.
         // we can probably return this for a "Lake" overview
-        double[][] waterBuildup = new double[width][height];
 
         for (int i = 0; i < iterations; i++)
         {
             if (resetFloodAfterEachIteration)
             {
-                waterBuildup = new double[width][height];
-            } 
+                Arrays.fill(waterBuildup, 0.0);
+            }
             else if (i > 0)
             {
                 // evaporation step
-                for (int y = 0; y < height; y++)
+                for (int p = 0; p < waterBuildup.length; p++)
                 {
-                    for (int x = 0; x < width; x++)
-                    {
-                        double val = waterBuildup[x][y];
-                        if (val > 0)
-                            waterBuildup[x][y] = val / 2.0;
-                        else if (val < 0)
-                            waterBuildup[x][y] = 0.0;
-                    }
+                    double val = waterBuildup[p];
+                    if (val > 0)
+                        waterBuildup[p] = val / 2.0;
+                    else if (val < 0)
+                        waterBuildup[p] = 0.0;
                 }
 
                 // water distributions step
-                for (int y = 0; y < height; y++)
-                {
-                    for (int x = 0; x < width; x++)
-                    {
-                        double val = waterBuildup[x][y];
-
-                        // get neighbours, and spread the water around to
-                        // balance them out as much as possible
-
-                        double n = y == 0 ? 99.0 : data[x][y - 1] + waterBuildup[x][y - 1];
-                        double e = x == width - 1 ? 99.0 : data[x + 1][y] + waterBuildup[x + 1][y];
-                        double s = y == height - 1 ? 99.0 : data[x][y + 1] + waterBuildup[x][y + 1];
-                        double w = x == 0 ? 99.0 : data[x - 1][y] + waterBuildup[x - 1][y];
-
-                        List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
-
-                        // add all neightbours to a list (marked 1-8 so we can
-                        // identify them easy later)
-                        flows.add(new Pair<Integer, Double>(1, n));
-                        flows.add(new Pair<Integer, Double>(2, e));
-                        flows.add(new Pair<Integer, Double>(3, s));
-                        flows.add(new Pair<Integer, Double>(4, w));
-
-                        // order these neighbour slopes by lowest to highest. We
-                        // mainly care about the lowest
-                        // also, strip out the invalid points (val 99)
-                        flows.sort(Comparator.comparing(Pair::getValue));
-                        List<Pair<Integer, Double>> finalFlows = new ArrayList<Pair<Integer, Double>>();
-
-                        for (Pair<Integer, Double> pair : flows)
-                        {
-                            if (pair.getValue() != 99.0 && pair.getValue() < (val + data[x][y]))
-                            {
-                                finalFlows.add(pair);
-                            }
-                        }
-
-                        flows = finalFlows;
-
-                        if (flows.size() > 0)
-                        {
-                            double diff = (val + data[x][y]) - flows.get(0).getValue();
-                            double thisWater = waterBuildup[x][y] - (diff / 2.0f);
-
-                            waterBuildup[x][y] = thisWater > 0 ? thisWater : 0.0;
-
-                            if (flows.get(0).getKey() == 1)
-                                waterBuildup[x][y - 1] = waterBuildup[x][y - 1] + (diff / 2.0);
-                            else if (flows.get(0).getKey() == 2)
-                                waterBuildup[x + 1][y] = waterBuildup[x + 1][y] + (diff / 2.0);
-                            else if (flows.get(0).getKey() == 3)
-                                waterBuildup[x][y + 1] = waterBuildup[x][y + 1] + (diff / 2.0);
-                            else if (flows.get(0).getKey() == 4)
-                                waterBuildup[x - 1][y] = waterBuildup[x - 1][y] + (diff / 2.0);
-                        }
-                    }
-                }
+                distributeWater(grid, waterBuildup, 0, height);
             }
 
             // cycle through each point in the heightmap
@@ -204,7 +320,8 @@ public class Erosion
 
                     int currentX = x;
                     int currentY = y;
-                    double dataHeight = data[x][y] + waterBuildup[x][y];
+                    int current = x * xStride + y * yStride;
+                    double dataHeight = heights[current] + waterBuildup[current];
                     double sediment = 0.0;
 
                     int loopCount = 0;
@@ -222,57 +339,42 @@ public class Erosion
                             // as it moves downhill, it will take some sediment
                             // with it
 
-                            // get all neighbouring heights. Any points off the
-                            // map will be flagged as 99
-                            // also, make sure to add any pooled water that's
-                            // built up
-                            double nw = currentY == 0 ? 99.0f : currentX == 0 ? data[width - 1][currentY - 1] + waterBuildup[width - 1][currentY - 1] : data[currentX - 1][currentY - 1] + waterBuildup[currentX - 1][currentY - 1];
-                            double n = currentY == 0 ? 99.0f : data[currentX][currentY - 1] + waterBuildup[currentX][currentY - 1];
-                            double ne = currentY == 0 ? 99.0f : currentX == width - 1 ? data[0][currentY - 1] + waterBuildup[0][currentY - 1] : data[currentX + 1][currentY - 1] + waterBuildup[currentX + 1][currentY - 1];
-                            double e = currentX == width - 1 ? 99.0f : data[currentX + 1][currentY] + waterBuildup[currentX + 1][currentY];
-                            double se = currentY == height - 1 ? 99.0f : currentX == width - 1 ? data[0][currentY + 1] + waterBuildup[0][currentY + 1] : data[currentX + 1][currentY + 1] + waterBuildup[currentX + 1][currentY + 1];
-                            double s = currentY == height - 1 ? 99.0f : data[currentX][currentY + 1] + waterBuildup[currentX][currentY + 1];
-                            double sw = currentY == height - 1 ? 99.0f : currentX == 0 ? data[width - 1][currentY + 1] + waterBuildup[width - 1][currentY + 1] : data[currentX - 1][currentY + 1] + waterBuildup[currentX - 1][currentY + 1];
-                            double w = currentX == 0 ? 99.0f : data[currentX - 1][currentY] + waterBuildup[currentX - 1][currentY];
-
-                            List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
-
-                            // add all neightbours to a list (marked 1-8 so we
-                            // can identify them easy later)
-                            flows.add(new Pair<Integer, Double>(1, nw));
-                            flows.add(new Pair<Integer, Double>(2, n));
-                            flows.add(new Pair<Integer, Double>(3, ne));
-                            flows.add(new Pair<Integer, Double>(4, w));
-                            flows.add(new Pair<Integer, Double>(5, e));
-                            flows.add(new Pair<Integer, Double>(6, sw));
-                            flows.add(new Pair<Integer, Double>(7, s));
-                            flows.add(new Pair<Integer, Double>(8, se));
-
-                            // order these neighbour slopes by lowest to
-                            // highest. We mainly care about the lowest
-                            // also, strip out the invalid points (val 99)
-                            flows.sort(Comparator.comparing(Pair::getValue));
-                            List<Pair<Integer, Double>> finalFlows = new ArrayList<Pair<Integer, Double>>();
-
-                            for (Pair<Integer, Double> pair : flows)
+                            // find the lowest neighbour, counting any pooled water.
+                            // E/W neighbours stop at the map edge, the diagonals
+                            // loop around. North and south do not loop.
+                            int lowest = -1;
+                            double lowestValue = 0.0;
+
+                            for (int k = 0; k < 8; k++)
                             {
-                                if (pair.getValue() != 99.0)
+                                int ny = currentY + FLOW_DY[k];
+                                if (ny < 0 || ny >= height)
+                                    continue;
+
+                                int nx = currentX + FLOW_DX[k];
+                                if (nx < 0 || nx >= width)
                                 {
-                                    finalFlows.add(pair);
+                                    if (FLOW_DY[k] == 0)
+                                        continue;
+
+                                    nx = nx < 0 ? width - 1 : 0;
                                 }
-                            }
 
-                            flows = finalFlows;
+                                int neighbour = nx * xStride + ny * yStride;
+                                double value = heights[neighbour] + waterBuildup[neighbour];
+
+                                if (value != OFF_MAP && (lowest < 0 || Double.compare(value, lowestValue) < 0))
+                                {
+                                    lowest = k;
+                                    lowestValue = value;
+                                }
+                            }
 
                             // it should never occur that we are in a place with
                             // no neighbours, but still... error checking is
                             // good
-                            // so make sure we at least have a value here
-                            if (flows.size() > 0)
+                            if (lowest >= 0)
                             {
-                                // get the lowest neighbouring value
-                                Pair<Integer, Double> lowestNeighbour = flows.get(0);
-
                                 // can we flow? if so, pick up some sediment and
                                 // lets move to the next location
                                 // wait, we can't? Then we drop sediment and
@@ -281,62 +383,34 @@ public class Erosion
                                 // we can flow if the nieghbour height is less
                                 // than our hieght, plus the height of pooled
                                 // water
-                                if (lowestNeighbour.getValue() <= dataHeight)
+                                if (lowestValue <= dataHeight)
                                 {
                                     // lower the current height (sediment move)
                                     // and add that sediment to the flow
-                                    data[currentX][currentY] = data[currentX][currentY] - erosionAmount;
+                                    heights[current] -= erosionAmount;
                                     sediment += erosionAmount;
 
                                     // set the new "current" X,Y
-                                    if (lowestNeighbour.getKey() == 1)
-                                    {
-                                        currentX = currentX > 0 ? currentX - 1 : width - 1;
-                                        currentY = currentY - 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 2)
-                                    {
-                                        currentY = currentY - 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 3)
-                                    {
-                                        currentX = currentX < width - 1 ? currentX + 1 : 0;
-                                        currentY = currentY - 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 4)
-                                    {
-                                        currentX = currentX > 0 ? currentX - 1 : width - 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 5)
-                                    {
-                                        currentX = currentX < width - 1 ? currentX + 1 : 0;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 6)
-                                    {
-                                        currentX = currentX > 0 ? currentX - 1 : width - 1;
-                                        currentY = currentY + 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 7)
-                                    {
-                                        currentY = currentY + 1;
-                                    } 
-                                    else if (lowestNeighbour.getKey() == 8)
-                                    {
-                                        currentX = currentX < width - 1 ? currentX + 1 : 0;
-                                        currentY = currentY + 1;
-                                    }
+                                    currentX += FLOW_DX[lowest];
+                                    if (currentX < 0)
+                                        currentX = width - 1;
+                                    else if (currentX >= width)
+                                        currentX = 0;
+
+                                    currentY += FLOW_DY[lowest];
+                                    current = currentX * xStride + currentY * yStride;
 
                                     // get the new data height
-                                    dataHeight = data[currentX][currentY];
+                                    dataHeight = heights[current];
 
                                     // carry on, wayward droplet
-                                } 
+                                }
                                 else
                                 {
                                     // we've hit a wall and can't flow. Sediment
                                     // drops, and now we pool.
-                                    data[currentX][currentY] = data[currentX][currentY] + sediment;
-                                    waterBuildup[currentX][currentY] = waterBuildup[currentX][currentY] + waterFloodAmount;
+                                    heights[current] += sediment;
+                                    waterBuildup[current] += waterFloodAmount;
                                     processing = false;
                                 }
                             }
@@ -344,14 +418,14 @@ public class Erosion
                             {
                                 processing = false;
                             }
-                        } 
+                        }
                         else
                         {
                             // we hit a spot at or below sea level, stop the
                             // process
                             // drop the sediment (build up coastal areas) but
                             // water will not pool
-                            data[currentX][currentY] = data[currentX][currentY] + (sediment / 2); // some sediment will be distributed into the sea, so we keep only a portion.
+                            heights[current] += sediment / 2; // some sediment will be distributed into the sea, so we keep only a portion.
                             processing = false;
                         }
 
@@ -359,8 +433,8 @@ public class Erosion
                         {
                             // we've been at it for a while... could be a
                             // problem?
-                            data[currentX][currentY] = data[currentX][currentY] + sediment;
-                            waterBuildup[currentX][currentY] = waterBuildup[currentX][currentY] + waterFloodAmount;
+                            heights[current] += sediment;
+                            waterBuildup[current] += waterFloodAmount;
                             processing = false;
                         }
                     }
@@ -372,68 +446,205 @@ public class Erosion
         // lets process it a bit by distributing (maybe add evaporation?)
 
         // water distributions step
-        waterDistribution(data, waterBuildup, height, width);
-
-        return waterBuildup;
+        distributeWater(grid, waterBuildup, 0, height);
     }
 
     public static void waterDistribution(double[][] data, double[][] water, int height, int width)
     {
-        for (int y = 0; y < height; y++)
+        Grid grid = Grid.of(data);
+        Grid pooled = Grid.of(water);
+
+        distributeWater(new Grid(grid.values, width, height, grid.xStride, grid.yStride), pooled.values, 0, height);
+        pooled.copyTo(water);
+    }
+
+    // heap fields are worked on in place, others a window of rows at a time along with the
+    // row either side that water can run into. Windows go top to bottom, so it is the same pass
+    public static void waterDistribution(HeightField data, HeightField water)
+    {
+        if (data.hasArray() && water.hasArray())
+        {
+            distributeWater(Grid.of(data), water.array(), 0, data.getHeight());
+            return;
+        }
+
+        StripRunner.run(data.getHeight(), WATER_WINDOW_HEIGHT, null, (y0, y1) -> {
+            Grid window = Grid.window(data, y0 - 1, y1 + 1);
+            Grid pooled = Grid.window(water, y0 - 1, y1 + 1);
+
+            distributeWater(window, pooled.values, y0, y1);
+            pooled.copyTo(water);
+        });
+    }
+
+    // one pass over rows y0 to y1 of spreading pooled water to the lowest of the four direct
+    // neighbours. water is laid out like grid. Nothing loops around the map edges here.
+    private static void distributeWater(Grid grid, double[] water, int y0, int y1)
+    {
+        double[] data = grid.values;
+        int width = grid.width;
+        int height = grid.height;
+        int xStride = grid.xStride;
+        int yStride = grid.yStride;
+
+        for (int y = y0; y < y1; y++)
         {
             for (int x = 0; x < width; x++)
             {
-                double val = water[x][y];
+                int index = x * xStride + (y - grid.top) * yStride;
+                double level = water[index] + data[index];
 
                 // get neighbours, and spread the water around to balance them
-                // out as much as possible
-
-                double n = y == 0 ? 99.0f : data[x][y - 1] + water[x][y - 1];
-                double e = x == width - 1 ? 99.0f : data[x + 1][y] + water[x + 1][y];
-                double s = y == height - 1 ? 99.0f : data[x][y + 1] + water[x][y + 1];
-                double w = x == 0 ? 99.0f : data[x - 1][y] + water[x - 1][y];
-
-                List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
-
-                // add all neightbours to a list (marked 1-8 so we can identify
-                // them easy later)
-                flows.add(new Pair<Integer, Double>(1, n));
-                flows.add(new Pair<Integer, Double>(2, e));
-                flows.add(new Pair<Integer, Double>(3, s));
-                flows.add(new Pair<Integer, Double>(4, w));
-
-                flows.sort(Comparator.comparing(Pair::getValue));
-                List<Pair<Integer, Double>> finalFlows = new ArrayList<Pair<Integer, Double>>();
-                // order these neighbour slopes by lowest to highest. We mainly
-                // care about the lowest
-                // also, strip out the invalid points (val 99)
-                for (Pair<Integer, Double> pair : flows)
+                // out as much as possible. Look at them in n, e, s, w order and
+                // keep the first of the lowest that sits below our water level
+                int lowest = -1;
+                double lowestValue = 0.0;
+
+                if (y > 0)
                 {
-                    if (pair.getValue() != 99.0 && pair.getValue() < (val + data[x][y]))
+                    double n = data[index - yStride] + water[index - yStride];
+                    if (n != OFF_MAP && n < level)
                     {
-                        finalFlows.add(pair);
+                        lowest = index - yStride;
+                        lowestValue = n;
                     }
                 }
 
-                flows = finalFlows;
+                if (x < width - 1)
+                {
+                    double e = data[index + xStride] + water[index + xStride];
+                    if (e != OFF_MAP && e < level && (lowest < 0 || Double.compare(e, lowestValue) < 0))
+                    {
+                        lowest = index + xStride;
+                        lowestValue = e;
+                    }
+                }
 
-                if (flows.size() > 0)
+                if (y < height - 1)
                 {
-                    double diff = (val + data[x][y]) - flows.get(0).getValue();
-                    double thisWater = water[x][y] - (diff / 2.0);
-
-                    water[x][y] = thisWater > 0 ? thisWater : 0.0;
-
-                    if (flows.get(0).getKey() == 1)
-                        water[x][y - 1] = water[x][y - 1] + (diff / 2.0);
-                    else if (flows.get(0).getKey() == 2)
-                        water[x + 1][y] = water[x + 1][y] + (diff / 2.0);
-                    else if (flows.get(0).getKey() == 3)
-                        water[x][y + 1] = water[x][y + 1] + (diff / 2.0);
-                    else if (flows.get(0).getKey() == 4)
-                        water[x - 1][y] = water[x - 1][y] + (diff / 2.0);
+                    double s = data[index + yStride] + water[index + yStride];
+                    if (s != OFF_MAP && s < level && (lowest < 0 || Double.compare(s, lowestValue) < 0))
+                    {
+                        lowest = index + yStride;
+                        lowestValue = s;
+                    }
+                }
+
+                if (x > 0)
+                {
+                    double w = data[index - xStride] + water[index - xStride];
+                    if (w != OFF_MAP && w < level && (lowest < 0 || Double.compare(w, lowestValue) < 0))
+                    {
+                        lowest = index - xStride;
+                        lowestValue = w;
+                    }
+                }
+
+                if (lowest >= 0)
+                {
+                    double diff = level - lowestValue;
+                    double thisWater = water[index] - (diff / 2.0);
+
+                    water[index] = thisWater > 0 ? thisWater : 0.0;
+                    water[lowest] += diff / 2.0;
                 }
             }
         }
     }
+
+    // A heightmap as one flat array, index x * xStride + (y - top) * yStride. The column major
+    // double[][] arrays are copied in and back out, heap fields are worked on in place in their
+    // row major layout. A window holds only rows top onwards of a field, height is still the
+    // map's so the edges are where they were.
+    private static final class Grid
+    {
+        final double[] values;
+        final int width;
+        final int height;
+        final int xStride;
+        final int yStride;
+        final int top;
+
+        Grid(double[] values, int width, int height, int xStride, int yStride)
+        {
+            this(values, width, height, xStride, yStride, 0);
+        }
+
+        Grid(double[] values, int width, int height, int xStride, int yStride, int top)
+        {
+            this.values = values;
+            this.width = width;
+            this.height = height;
+            this.xStride = xStride;
+            this.yStride = yStride;
+            this.top = top;
+        }
+
+        static Grid of(double[][] data)
+        {
+            int width = data.length;
+            int height = data[0].length;
+            double[] values = new double[width * height];
+
+            for (int x = 0; x < width; x++)
+                System.arraycopy(data[x], 0, values, x * height, height);
+
+            return new Grid(values, width, height, height, 1);
+        }
+
+        // a whole mapped or direct field is copied, only for stages that checked the HeapLimit
+        static Grid of(HeightField field)
+        {
+            double[] values;
+
+            if (field.hasArray())
+            {
+                values = field.array();
+            }
+            else
+            {
+                values = new double[field.size()];
+                field.copyTo(values);
+            }
+
+            return new Grid(values, field.getWidth(), field.getHeight(), 1, field.getWidth());
+        }
+
+        // a copy of rows top to bottom, exclusive, clamped to the field
+        static Grid window(HeightField field, int top, int bottom)
+        {
+            int width = field.getWidth();
+            top = Math.max(0, top);
+            bottom = Math.min(field.getHeight(), bottom);
+
+            double[] values = new double[(bottom - top) * width];
+            for (int y = top; y < bottom; y++)
+                field.getRow(y, 0, values, (y - top) * width, width);
+
+            return new Grid(values, width, field.getHeight(), 1, width, top);
+        }
+
+        // another buffer with the same layout
+        Grid with(double[] values)
+        {
+            return new Grid(values, width, height, xStride, yStride);
+        }
+
+        // only for grids made from a column major array
+        void copyTo(double[][] data)
+        {
+            for (int x = 0; x < width; x++)
+                System.arraycopy(values, x * height, data[x], 0, height);
+        }
+
+        // only for row major grids and windows
+        void copyTo(HeightField field)
+        {
+            if (field.hasArray() && field.array() == values)
+                return;
+
+            for (int y = top; y < top + values.length / width; y++)
+                field.setRow(y, 0, values, (y - top) * width, width);
+        }
+    }
 }
@@ -54,6 +54,16 @@ public abstract class Module
 
     public abstract double getValue(double x, double y, double z, int scale);
 
+    // Batch form of getValue: out[i] = getValue(xs[i], ys[i], zs[i], scale) for i < count.
+    // Generators and operators override this with a single loop over the whole batch so a
+    // row or tile costs one call per node instead of one call per node per sample.
+    // out must not be one of the coordinate arrays.
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        for (int i = 0; i < count; i++)
+            out[i] = getValue(xs[i], ys[i], zs[i], scale);
+    }
+
     // Simple operators
 
     public Abs abs()
@@ -71,6 +81,11 @@ public abstract class Module
         return new Cache(this);
     }
 
+    public Cache cache(int capacity)
+    {
+        return new Cache(this, capacity);
+    }
+
     public Clamp clamp(double max, double min)
     {
         return new Clamp(this, max, min);
@@ -1,9 +1,29 @@
 package ca.dhlevi.libnoise;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.generator.Billow;
+import ca.dhlevi.libnoise.generator.Checker;
+import ca.dhlevi.libnoise.generator.Const;
+import ca.dhlevi.libnoise.generator.Generator;
+import ca.dhlevi.libnoise.generator.Perlin;
+import ca.dhlevi.libnoise.generator.RidgedMultifractal;
+import ca.dhlevi.libnoise.operator.Rotate;
+import ca.dhlevi.libnoise.operator.Scale;
+import ca.dhlevi.libnoise.operator.Turbulence;
+
 public class NoiseFactory
 {
     private static int UC_BORDER = 1;
 
+    // where the kernels put finished samples, count values of column x starting at row y0
+    private interface SampleWriter
+    {
+        void write(int x, int y0, double[] values, int count);
+    }
+
     public static float WORLD_SOUTH = -90.0f;
     public static float WORLD_NORTH = 90.0f;
     public static float WORLD_WEST = -180.0f;
@@ -16,10 +36,40 @@ public class NoiseFactory
     }
 
     public static double[][] generateSpherical(Module module, int width, int height, double south, double north, double west, double east, boolean isNormalized, int scale) throws Exception
+    {
+        return generateSpherical(module, width, height, south, north, west, east, isNormalized, scale, RasterSampler.serial());
+    }
+
+    // the sampler decides how the raster is split up and scheduled, the output does not depend on it
+    public static double[][] generateSpherical(Module module, int width, int height, double south, double north, double west, double east, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        double[][] data = new double[width + UC_BORDER * 2][height + UC_BORDER * 2];
+        generateSpherical(module, width, height, south, north, west, east, isNormalized, scale, sampler, 0, height + UC_BORDER * 2, (x, y0, values, count) -> System.arraycopy(values, 0, data[x], y0, count));
+        return data;
+    }
+
+    // fills the target, which includes the one pixel border the array version adds around the raster
+    public static void generateSpherical(Module module, HeightField target, double south, double north, double west, double east, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        generateSpherical(module, target.getWidth() - UC_BORDER * 2, target.getHeight() - UC_BORDER * 2, south, north, west, east, isNormalized, scale, sampler, 0, target.getHeight(), fieldWriter(target));
+    }
+
+    // Rows firstRow to firstRow + target height of the raster the array version returns for
+    // width x height, border included. Lets a world be generated a band of rows at a time, the
+    // values are identical to the same rows of the full raster.
+    public static void generateSphericalRows(Module module, int width, int height, double south, double north, double west, double east, boolean isNormalized, int scale, RasterSampler sampler, HeightField target, int firstRow) throws Exception
+    {
+        if (target.getWidth() != width + UC_BORDER * 2 || firstRow < 0 || firstRow + target.getHeight() > height + UC_BORDER * 2)
+            throw new IllegalArgumentException("Target rows are outside of the raster");
+
+        generateSpherical(module, width, height, south, north, west, east, isNormalized, scale, sampler, firstRow, target.getHeight(), fieldWriter(target));
+    }
+
+    // the array and field versions write y0 relative to firstRow
+    private static void generateSpherical(Module module, int width, int height, double south, double north, double west, double east, boolean isNormalized, int scale, RasterSampler sampler, int firstRow, int rowCount, SampleWriter writer) throws Exception
     {
         int ucWidth = width + UC_BORDER * 2;
         int ucHeight = height + UC_BORDER * 2;
-        double[][] data = new double[ucWidth][ucHeight];
 
         if (east <= west || north <= south)
             throw new Exception("Invalid east/west or north/south combination");
@@ -30,25 +80,62 @@ public class NoiseFactory
         double lae = north - south;
         double xd = loe / ((double) (width - UC_BORDER));
         double yd = lae / ((double) (height - UC_BORDER));
-        double clo = west;
+
+        // the coordinates are accumulated rather than multiplied out so every
+        // tile sees exactly the same lat/lon values as a plain nested loop would
+        double[] lons = accumulate(west, xd, ucWidth);
+        double[] lats = accumulate(south, yd, ucHeight);
+
+        // the trig only depends on the row or the column, so it is done once up front
+        // using the same expressions as generateSphericalPoint
+        double[] cosLat = new double[ucHeight];
+        double[] sinLat = new double[ucHeight];
+        double[] cosLon = new double[ucWidth];
+        double[] sinLon = new double[ucWidth];
+
+        for (int y = firstRow; y < firstRow + rowCount; y++)
+        {
+            cosLat[y] = Math.cos(Utilities.degreesToRadians() * lats[y]);
+            sinLat[y] = Math.sin(Utilities.degreesToRadians() * lats[y]);
+        }
 
         for (int x = 0; x < ucWidth; x++)
         {
-            double cla = south;
-            for (int y = 0; y < ucHeight; y++)
+            cosLon[x] = Math.cos(Utilities.degreesToRadians() * lons[x]);
+            sinLon[x] = Math.sin(Utilities.degreesToRadians() * lons[x]);
+        }
+
+        // each tile column is handed to the module as one batch
+        sampler.sample(ucWidth, rowCount, (x0, y0, x1, y1) ->
+        {
+            int count = y1 - y0;
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            double[] zs = new double[count];
+            double[] values = new double[count];
+
+            for (int x = x0; x < x1; x++)
             {
-                // process x, y, cla, clo
-                double sample = generateSphericalPoint(module, cla, clo, scale);
+                for (int i = 0; i < count; i++)
+                {
+                    double r = cosLat[firstRow + y0 + i];
+
+                    xs[i] = r * cosLon[x];
+                    ys[i] = sinLat[firstRow + y0 + i];
+                    zs[i] = r * sinLon[x];
+                }
+
+                module.getValues(xs, ys, zs, values, count, scale);
+
                 if (isNormalized)
-                    sample = (sample + 1) / 2;
+                {
+                    for (int i = 0; i < count; i++)
+                        values[i] = (values[i] + 1) / 2;
+                }
 
-                data[x][y] = (double) sample;
-                cla += yd;
+                writer.write(x, y0, values, count);
             }
-            clo += xd;
-        }
-
-        return data;
+        });
     }
 
     public static double generateCylindricalPoint(Module module, double angle, double height, int scale)
@@ -61,10 +148,27 @@ public class NoiseFactory
     }
 
     public static double[][] generateCylindrical(Module module, int width, int height, double angleMin, double angleMax, double heightMin, double heightMax, boolean isNormalized, int scale) throws Exception
+    {
+        return generateCylindrical(module, width, height, angleMin, angleMax, heightMin, heightMax, isNormalized, scale, RasterSampler.serial());
+    }
+
+    public static double[][] generateCylindrical(Module module, int width, int height, double angleMin, double angleMax, double heightMin, double heightMax, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        double[][] data = new double[width + UC_BORDER * 2][height + UC_BORDER * 2];
+        generateCylindrical(module, width, height, angleMin, angleMax, heightMin, heightMax, isNormalized, scale, sampler, (x, y0, values, count) -> System.arraycopy(values, 0, data[x], y0, count));
+        return data;
+    }
+
+    // fills the target, which includes the one pixel border the array version adds around the raster
+    public static void generateCylindrical(Module module, HeightField target, double angleMin, double angleMax, double heightMin, double heightMax, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        generateCylindrical(module, target.getWidth() - UC_BORDER * 2, target.getHeight() - UC_BORDER * 2, angleMin, angleMax, heightMin, heightMax, isNormalized, scale, sampler, fieldWriter(target));
+    }
+
+    private static void generateCylindrical(Module module, int width, int height, double angleMin, double angleMax, double heightMin, double heightMax, boolean isNormalized, int scale, RasterSampler sampler, SampleWriter writer) throws Exception
     {
         int ucWidth = width + UC_BORDER * 2;
         int ucHeight = height + UC_BORDER * 2;
-        double[][] data = new double[ucWidth][ucHeight];
 
         if (angleMax <= angleMin || heightMax <= heightMin)
             throw new Exception("Invalid angle or height parameters");
@@ -75,25 +179,41 @@ public class NoiseFactory
         double he = heightMax - heightMin;
         double xd = ae / ((double) (width - UC_BORDER));
         double yd = he / ((double) (height - UC_BORDER));
-        double ca = angleMin;
 
-        for (int x = 0; x < ucWidth; x++)
+        double[] angles = accumulate(angleMin, xd, ucWidth);
+        double[] heights = accumulate(heightMin, yd, ucHeight);
+
+        sampler.sample(ucWidth, ucHeight, (x0, y0, x1, y1) ->
         {
-            double ch = heightMin;
-            for (int y = 0; y < ucHeight; y++)
+            int count = y1 - y0;
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            double[] zs = new double[count];
+            double[] values = new double[count];
+
+            for (int x = x0; x < x1; x++)
             {
-                double sample = generateCylindricalPoint(module, ca, ch, scale);
-                if (isNormalized)
-                    sample = (sample + 1) / 2;
+                double cx = Math.cos(angles[x] * Utilities.degreesToRadians());
+                double cz = Math.sin(angles[x] * Utilities.degreesToRadians());
 
-                data[x][y] = sample;
+                for (int i = 0; i < count; i++)
+                {
+                    xs[i] = cx;
+                    ys[i] = heights[y0 + i];
+                    zs[i] = cz;
+                }
 
-                ch += yd;
-            }
-            ca += xd;
-        }
+                module.getValues(xs, ys, zs, values, count, scale);
 
-        return data;
+                if (isNormalized)
+                {
+                    for (int i = 0; i < count; i++)
+                        values[i] = (values[i] + 1) / 2;
+                }
+
+                writer.write(x, y0, values, count);
+            }
+        });
     }
 
     public static double generatePlanarPoint(Module module, double x, double y, int scale)
@@ -102,10 +222,27 @@ public class NoiseFactory
     }
 
     public static double[][] generatePlanar(Module module, int width, int height, double left, double right, double top, double bottom, boolean isSeamless, boolean isNormalized, int scale) throws Exception
+    {
+        return generatePlanar(module, width, height, left, right, top, bottom, isSeamless, isNormalized, scale, RasterSampler.serial());
+    }
+
+    public static double[][] generatePlanar(Module module, int width, int height, double left, double right, double top, double bottom, boolean isSeamless, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        double[][] data = new double[width + UC_BORDER * 2][height + UC_BORDER * 2];
+        generatePlanar(module, width, height, left, right, top, bottom, isSeamless, isNormalized, scale, sampler, (x, y0, values, count) -> System.arraycopy(values, 0, data[x], y0, count));
+        return data;
+    }
+
+    // fills the target, which includes the one pixel border the array version adds around the raster
+    public static void generatePlanar(Module module, HeightField target, double left, double right, double top, double bottom, boolean isSeamless, boolean isNormalized, int scale, RasterSampler sampler) throws Exception
+    {
+        generatePlanar(module, target.getWidth() - UC_BORDER * 2, target.getHeight() - UC_BORDER * 2, left, right, top, bottom, isSeamless, isNormalized, scale, sampler, fieldWriter(target));
+    }
+
+    private static void generatePlanar(Module module, int width, int height, double left, double right, double top, double bottom, boolean isSeamless, boolean isNormalized, int scale, RasterSampler sampler, SampleWriter writer) throws Exception
     {
         int ucWidth = width + UC_BORDER * 2;
         int ucHeight = height + UC_BORDER * 2;
-        double[][] data = new double[ucWidth][ucHeight];
 
         if (right <= left || bottom <= top)
             throw new Exception("Invalid right/left or bottom/top combination");
@@ -114,44 +251,245 @@ public class NoiseFactory
 
         double xe = right - left;
         double ze = bottom - top;
-        double xd = xe / ((double) width - UC_BORDER);
-        double zd = ze / ((double) height - UC_BORDER);
-        double xc = left;
 
-        for (int x = 0; x < ucWidth; x++)
+        // a module that already repeats every xe, ze needs a single sample per pixel, spaced so
+        // the raster repeats every width columns and height rows. Anything else is made to
+        // tile by blending four offset copies of itself
+        boolean isTiled = isSeamless && isTileable(module, xe, ze);
+        boolean isBlended = isSeamless && !isTiled;
+
+        double xd = isTiled ? xe / width : xe / ((double) width - UC_BORDER);
+        double zd = isTiled ? ze / height : ze / ((double) height - UC_BORDER);
+
+        double[] xcs = accumulate(left, xd, ucWidth);
+        double[] zcs = accumulate(top, zd, ucHeight);
+
+        sampler.sample(ucWidth, ucHeight, (x0, y0, x1, y1) ->
         {
-            double zc = top;
-            for (int y = 0; y < ucHeight; y++)
+            int count = y1 - y0;
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            double[] zs = new double[count];
+            double[] sw = new double[count];
+            double[] se = isBlended ? new double[count] : null;
+            double[] nw = isBlended ? new double[count] : null;
+            double[] ne = isBlended ? new double[count] : null;
+
+            for (int x = x0; x < x1; x++)
             {
-                double fv;
+                double xc = xcs[x];
 
-                if (isSeamless)
-                    fv = generatePlanarPoint(module, xc, zc, scale);
-                else
+                for (int i = 0; i < count; i++)
                 {
-                    double swv = generatePlanarPoint(module, xc, zc, scale);
-                    double sev = generatePlanarPoint(module, xc + xe, zc, scale);
-                    double nwv = generatePlanarPoint(module, xc, zc + ze, scale);
-                    double nev = generatePlanarPoint(module, xc + xe, zc + ze, scale);
+                    xs[i] = xc;
+                    zs[i] = zcs[y0 + i];
+                }
 
-                    double xb = 1.0 - ((xc - left) / xe);
-                    double zb = 1.0 - ((zc - top) / ze);
+                module.getValues(xs, ys, zs, sw, count, scale);
+
+                if (isBlended)
+                {
+                    // the three offset copies of the column, same coordinates as the point form
+                    for (int i = 0; i < count; i++)
+                        xs[i] = xc + xe;
+                    module.getValues(xs, ys, zs, se, count, scale);
 
-                    double z0 = Utilities.interpolateLinear(swv, sev, xb);
-                    double z1 = Utilities.interpolateLinear(nwv, nev, xb);
+                    for (int i = 0; i < count; i++)
+                        zs[i] = zcs[y0 + i] + ze;
+                    module.getValues(xs, ys, zs, ne, count, scale);
 
-                    fv = Utilities.interpolateLinear(z0, z1, zb);
+                    for (int i = 0; i < count; i++)
+                        xs[i] = xc;
+                    module.getValues(xs, ys, zs, nw, count, scale);
                 }
 
-                if (isNormalized)
-                    fv = (fv + 1) / 2;
+                for (int i = 0; i < count; i++)
+                {
+                    double fv;
+
+                    if (!isBlended)
+                        fv = sw[i];
+                    else
+                    {
+                        double zc = zcs[y0 + i];
+
+                        double xb = 1.0 - ((xc - left) / xe);
+                        double zb = 1.0 - ((zc - top) / ze);
+
+                        double z0 = Utilities.interpolateLinear(sw[i], se[i], xb);
+                        double z1 = Utilities.interpolateLinear(nw[i], ne[i], xb);
 
-                data[x][y] = fv;
-                zc += zd;
+                        fv = Utilities.interpolateLinear(z0, z1, zb);
+                    }
+
+                    if (isNormalized)
+                        fv = (fv + 1) / 2;
+
+                    sw[i] = fv;
+                }
+
+                writer.write(x, y0, sw, count);
             }
-            xc += xd;
+        });
+    }
+
+    // Sets every generator under module to repeat every periodX along x and periodZ along z, so
+    // generatePlanar can tile it from a single sample per pixel. Scales pass a scaled period
+    // down, translations, turbulence and displacement keep a repeating input repeating. Rotations,
+    // and generators that can't repeat (Voronoi, Sphere, Cylinder, a Checker whose period isn't an
+    // even number of squares) can't be made to tile
+    public static void makeTileable(Module module, double periodX, double periodZ)
+    {
+        if (!(periodX > 0) || !(periodZ > 0))
+            throw new IllegalArgumentException("Tile periods must be positive");
+
+        tile(module, periodX, periodZ, new IdentityHashMap<Module, double[]>(), true);
+    }
+
+    // whether module already repeats every periodX along x and periodZ along z
+    public static boolean isTileable(Module module, double periodX, double periodZ)
+    {
+        return tile(module, periodX, periodZ, new IdentityHashMap<Module, double[]>(), false);
+    }
+
+    // walks the graph handing each node the period of the coordinates it sees. With apply the
+    // generators are set to it and anything that can't tile throws, without it the graph is
+    // only checked
+    private static boolean tile(Module module, double periodX, double periodZ, Map<Module, double[]> seen, boolean apply)
+    {
+        double[] period = seen.get(module);
+
+        if (period != null)
+        {
+            if (period[0] == periodX && period[1] == periodZ)
+                return true;
+            if (apply)
+                throw new IllegalArgumentException("A module shared by two parents can't tile at two different periods");
+            return false;
         }
 
-        return data;
+        seen.put(module, new double[] { periodX, periodZ });
+
+        if (module instanceof Perlin || module instanceof Billow || module instanceof RidgedMultifractal)
+        {
+            if (apply)
+                setPeriod(module, periodX, periodZ);
+
+            return hasPeriod(module, periodX, periodZ);
+        }
+
+        if (module instanceof Const)
+            return true;
+
+        if (module instanceof Checker)
+        {
+            if (isEvenCount(periodX) && isEvenCount(periodZ))
+                return true;
+            if (apply)
+                throw new IllegalArgumentException("A Checker only tiles over an even number of squares");
+            return false;
+        }
+
+        if (module instanceof Generator || module instanceof Rotate)
+        {
+            if (apply)
+                throw new IllegalArgumentException(module.getClass().getSimpleName() + " can't be made to tile");
+            return false;
+        }
+
+        if (module instanceof Scale)
+        {
+            Scale scale = (Scale) module;
+            periodX *= Math.abs(scale.getX());
+            periodZ *= Math.abs(scale.getZ());
+        }
+
+        boolean isTileable = true;
+
+        if (module instanceof Turbulence)
+        {
+            Turbulence turbulence = (Turbulence) module;
+            isTileable &= tile(turbulence.getXDistort(), periodX, periodZ, seen, apply);
+            isTileable &= tile(turbulence.getYDistort(), periodX, periodZ, seen, apply);
+            isTileable &= tile(turbulence.getZDistort(), periodX, periodZ, seen, apply);
+        }
+
+        for (Module child : module.getModules())
+            isTileable &= tile(child, periodX, periodZ, seen, apply);
+
+        return isTileable;
+    }
+
+    private static void setPeriod(Module module, double periodX, double periodZ)
+    {
+        if (module instanceof Perlin)
+            ((Perlin) module).setPeriod(periodX, 0, periodZ);
+        else if (module instanceof Billow)
+            ((Billow) module).setPeriod(periodX, 0, periodZ);
+        else
+            ((RidgedMultifractal) module).setPeriod(periodX, 0, periodZ);
+    }
+
+    // a period of 0 is an axis scaled away to a constant, which repeats at any period
+    private static boolean hasPeriod(Module module, double periodX, double periodZ)
+    {
+        double x;
+        double y;
+        double z;
+
+        if (module instanceof Perlin)
+        {
+            Perlin perlin = (Perlin) module;
+            x = perlin.getPeriodX();
+            y = perlin.getPeriodY();
+            z = perlin.getPeriodZ();
+        }
+        else if (module instanceof Billow)
+        {
+            Billow billow = (Billow) module;
+            x = billow.getPeriodX();
+            y = billow.getPeriodY();
+            z = billow.getPeriodZ();
+        }
+        else
+        {
+            RidgedMultifractal ridged = (RidgedMultifractal) module;
+            x = ridged.getPeriodX();
+            y = ridged.getPeriodY();
+            z = ridged.getPeriodZ();
+        }
+
+        return y == 0 && (periodX == 0 || x == periodX) && (periodZ == 0 || z == periodZ);
+    }
+
+    private static boolean isEvenCount(double period)
+    {
+        return period == 0 || (period % 2 == 0);
+    }
+
+    // a tile column goes to the field value by value. Rows are long, but a tile only touches
+    // tile size rows so the writes stay in cache
+    private static SampleWriter fieldWriter(HeightField target)
+    {
+        return (x, y0, values, count) ->
+        {
+            for (int i = 0; i < count; i++)
+                target.set(x, y0 + i, values[i]);
+        };
+    }
+
+    // running sum of start + step, one entry per row/column
+    private static double[] accumulate(double start, double step, int count)
+    {
+        double[] values = new double[count];
+        double current = start;
+
+        for (int i = 0; i < count; i++)
+        {
+            values[i] = current;
+            current += step;
+        }
+
+        return values;
     }
 }
@@ -1,7 +1,13 @@
 package ca.dhlevi.libnoise;
 
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.ArrayIntField;
+import ca.dhlevi.libnoise.field.HeapLimit;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
 
 public class NoiseNormalizer
 {
@@ -53,128 +59,188 @@ public class NoiseNormalizer
         }
     }
 
+    // same as above, but a row at a time so a mapped field is read and written in file order.
+    // Fixes are still made in place, only the visit order changed from column by column to row
+    // by row. Neighbours always share a row or a column, so each pair is visited in the same
+    // order either way and the result is the same. The row above has already been fixed, the
+    // row being fixed is changed as it goes and the row below is still as read
+    public static void normalize(HeightField noise, double seaLevel)
+    {
+        int width = noise.getWidth();
+        int height = noise.getHeight();
+
+        double[] north = new double[width];
+        double[] row = new double[width];
+        double[] south = new double[width];
+
+        noise.getRow(0, 0, row, 0, width);
+
+        for (int y = 0; y < height; y++)
+        {
+            if (y < height - 1)
+                noise.getRow(y + 1, 0, south, 0, width);
+
+            for (int x = 0; x < width; x++)
+            {
+                double val = row[x];
+
+                double n = y > 0 ? north[x] : -99.0;
+                double s = y < height - 1 ? south[x] : -99.0;
+                double e = x < width - 1 ? row[x + 1] : row[0];
+                double w = x > 0 ? row[x - 1] : row[width - 1];
+
+                int waterNeighbours = (n <= seaLevel ? 1 : 0) + (e <= seaLevel ? 1 : 0) + (s <= seaLevel ? 1 : 0) + (w <= seaLevel ? 1 : 0);
+                int landNeighbours = 4 - waterNeighbours;
+
+                if (val <= seaLevel && waterNeighbours < 2)
+                    row[x] = seaLevel + 0.05f;
+                else if (val > seaLevel && landNeighbours < 2)
+                    row[x] = seaLevel - 0.05f;
+            }
+
+            noise.setRow(y, 0, row, 0, width);
+
+            double[] spare = north;
+            north = row;
+            row = south;
+            south = spare;
+        }
+    }
+
     // scan the noise data and detect any basin areas by a tolerance. Basins can
     // then be filled in removing holes from a heightmap.
     // if desired, you can keep small basins as lakes. Will return calculated
     // basin areas if needed for other calculations later.
+    // 1 = land, 2 = lake, 3 = large waterbody (ocean/sea), 4 = Unfilled, lake
+    // unfilled lakes are small lakes that are underneath the tolerance for a basin fill
+    // these lakes will remain as water after the basin fill process.
     public static int[][] detectBasins(double[][] noise, int tolerance, double seaLevel, boolean fillBasins, boolean keepSmallLakes, int seed)
+    {
+        return detectBasins(noise, tolerance, seaLevel, fillBasins, keepSmallLakes, seed, null);
+    }
+
+    // Water bodies are the 8 connected components of pixels at or below sea level, wrapping
+    // east/west, labelled in strips on the pool when one is given. A body is measured by its
+    // shoreline, the pixels with land directly north, south, east or west of them, which is
+    // what the old contour trace counted.
+    public static int[][] detectBasins(double[][] noise, int tolerance, double seaLevel, boolean fillBasins, boolean keepSmallLakes, int seed, ForkJoinPool pool)
     {
         int width = noise.length;
         int height = noise[0].length;
+
+        Components water = ComponentLabeller.labelEqualOrBelow(noise, seaLevel, true, WrapMode.HORIZONTAL, pool);
+        int[] codes = basinCodes(water, tolerance, keepSmallLakes);
+        int[] labels = water.getLabels();
+
         int[][] setPoints = new int[width][height];
         Random rand = new Random(seed);
-        // create a temporary array for water levels and land
-        // 1 = land, 2 = lake, 3 = large waterbody (ocean/sea), 4 = Unfilled, lake, 0 is unassigned
-        // unfilled lakes are small lakes that are underneath the tolerance for a basin fill
-        // these lakes will remain as water after the basin fill process.
-        for (int x = 0; x < width; x++)
+
+        // same walk the fill always took, so a seed gives the same fill as before
+        for (int x = width - 1; x >= 0; x--)
         {
-            for (int y = 0; y < height; y++)
+            for (int y = height - 1; y >= 0; y--)
             {
-                // only process unassigned points
-                if (setPoints[x][y] == 0)
-                {
-                    double val = noise[x][y];
-
-                    if (val <= seaLevel)
-                    {
-                        // check if neighbouring an "ocean" pixel first, before walking points
-                        int n = y > 0 ? setPoints[x][y - 1] : -1;
-                        int s = y < height - 1 ? setPoints[x][y + 1] : -1;
-                        int e = x < width - 1 ? setPoints[x + 1][y] : setPoints[0][y];
-                        int w = x > 0 ? setPoints[x - 1][y] : setPoints[width - 1][y];
-
-                        int nw = x > 0 && y > 0 ? setPoints[x - 1][y - 1] : -1;
-                        int ne = x < width - 1 && y > 0 ? setPoints[x + 1][y - 1] : -1;
-                        int sw = x > 0 && y < height - 1 ? setPoints[x - 1][y + 1] : -1;
-                        int se = x < width - 1 && y < height - 1 ? setPoints[x + 1][y + 1] : -1;
-
-                        // neighbour is an ocean, and this is water, so it too must be part of the ocean.
-                        // otherwise, this is unassigned and next to land or a small waterbody. We need to scan the points
-                        if (n == 3 || s == 3 || e == 3 || w == 3 || nw == 3 || ne == 3 || sw == 3 || se == 3)
-                            setPoints[x][y] = 3;
-                        else if (n == 2 || s == 2 || e == 2 || w == 2 || nw == 2 || ne == 2 || sw == 2 || se == 2)
-                        {
-                            setPoints[x][y] = 2;
-                        } 
-                        else if (n == 4 || s == 4 || e == 4 || w == 4 || nw == 4 || ne == 4 || sw == 4 || se == 4)
-                        {
-                            setPoints[x][y] = 4;
-                        } 
-                        else
-                        {
-                            List<Point> scannedPoints = FeatureTracer.traceEqualOrBelowValue(noise, x, y, width, height, seaLevel, true);
-                            for (Point p : scannedPoints)
-                            {
-                                setPoints[p.getX()][p.getY()] = scannedPoints.size() <= tolerance ? 2 : 3;
-                                if (keepSmallLakes && scannedPoints.size() < tolerance / 4)
-                                    setPoints[p.getX()][p.getY()] = 4;
-                            }
-                        }
-                    } 
-                    else
-                        setPoints[x][y] = 1; // set as "land"
-                }
+                int code = codes[labels[y * width + x]];
+                setPoints[x][y] = code;
+
+                if (code == 2 && fillBasins)
+                    noise[x][y] = seaLevel + (rand.nextDouble() / 100.0);// lower the value = heavier noise in fill
             }
         }
 
-        // second pass, sw to ne this time, to clean up any missed internal areas
-        for (int x = 0; x < width; x++)
+        return setPoints;
+    }
+
+    // field version of detectBasins, the filled heights are written back to noise
+    public static IntField detectBasins(HeightField noise, int tolerance, double seaLevel, boolean fillBasins, boolean keepSmallLakes, int seed)
+    {
+        return detectBasins(noise, tolerance, seaLevel, fillBasins, keepSmallLakes, seed, null);
+    }
+
+    // water bodies can span the map, so the labelling needs the whole grid on the heap: the
+    // water classes, which become the returned basin codes, and the labeller's labels. The
+    // heights themselves are only read a row at a time
+    public static IntField detectBasins(HeightField noise, int tolerance, double seaLevel, boolean fillBasins, boolean keepSmallLakes, int seed, ForkJoinPool pool)
+    {
+        int width = noise.getWidth();
+        int height = noise.getHeight();
+
+        HeapLimit.check("Basin detection", width, height, 2 * Integer.BYTES);
+
+        int[] classes = new int[width * height];
+        double[] row = new double[width];
+
+        for (int y = 0; y < height; y++)
         {
-            for (int y = 0; y < height; y++)
+            noise.getRow(y, 0, row, 0, width);
+
+            for (int x = 0; x < width; x++)
             {
-                double val = noise[x][y];
+                if (row[x] <= seaLevel)
+                    classes[y * width + x] = 1;
+            }
+        }
+
+        Components water = ComponentLabeller.label(classes, width, height, true, WrapMode.HORIZONTAL, pool);
+        int[] codes = basinCodes(water, tolerance, keepSmallLakes);
+        int[] labels = water.getLabels();
+
+        for (int i = 0; i < labels.length; i++)
+            classes[i] = codes[labels[i]];
 
-                if (val <= seaLevel)
+        if (fillBasins)
+        {
+            Random rand = new Random(seed);
+
+            for (int x = width - 1; x >= 0; x--)
+            {
+                for (int y = height - 1; y >= 0; y--)
                 {
-                    int n = y > 0 ? setPoints[x][y - 1] : -1;
-                    int s = y < height - 1 ? setPoints[x][y + 1] : -1;
-                    int e = x < width - 1 ? setPoints[x + 1][y] : setPoints[0][y];
-                    int w = x > 0 ? setPoints[x - 1][y] : setPoints[width - 1][y];
-
-                    int nw = x > 0 && y > 0 ? setPoints[x - 1][y - 1] : -1;
-                    int ne = x < width - 1 && y > 0 ? setPoints[x + 1][y - 1] : -1;
-                    int sw = x > 0 && y < height - 1 ? setPoints[x - 1][y + 1] : -1;
-                    int se = x < width - 1 && y < height - 1 ? setPoints[x + 1][y + 1] : -1;
-
-                    // neighbour is an ocean, and this is water, so it too must be part of the ocean.
-                    // otherwise, this is unassigned and next to land or a small waterbody. We need to scan the points
-                    if (n == 3 || s == 3 || e == 3 || w == 3 || nw == 3 || ne == 3 || sw == 3 || se == 3)
-                        setPoints[x][y] = 3;
+                    if (classes[y * width + x] == 2)
+                        noise.set(x, y, seaLevel + (rand.nextDouble() / 100.0));
                 }
             }
         }
 
-        // third and final pass, there shouldn't be any corrections needed
-        // but we'll ensure the ocean/lake values are set, just in case
-        // at this point, we'll also fill in the basins, if required.
-        for (int x = width - 1; x >= 0; x--)
+        return new ArrayIntField(classes, width, height, noise.getWrapMode());
+    }
+
+    // basin code of every water component, indexed by id. Index 0, the background, is land
+    private static int[] basinCodes(Components water, int tolerance, boolean keepSmallLakes)
+    {
+        int width = water.getWidth();
+        int height = water.getHeight();
+        int[] labels = water.getLabels();
+        int[] shoreline = new int[water.getCount() + 1];
+
+        for (int y = 0; y < height; y++)
         {
-            for (int y = height - 1; y >= 0; y--)
+            for (int x = 0; x < width; x++)
             {
-                double val = noise[x][y];
+                int i = y * width + x;
+                int id = labels[i];
 
-                if (val <= seaLevel)
-                {
-                    int n = y > 0 ? setPoints[x][y - 1] : -1;
-                    int s = y < height - 1 ? setPoints[x][y + 1] : -1;
-                    int e = x < width - 1 ? setPoints[x + 1][y] : setPoints[0][y];
-                    int w = x > 0 ? setPoints[x - 1][y] : setPoints[width - 1][y];
-
-                    int nw = x > 0 && y > 0 ? setPoints[x - 1][y - 1] : -1;
-                    int ne = x < width - 1 && y > 0 ? setPoints[x + 1][y - 1] : -1;
-                    int sw = x > 0 && y < height - 1 ? setPoints[x - 1][y + 1] : -1;
-                    int se = x < width - 1 && y < height - 1 ? setPoints[x + 1][y + 1] : -1;
-
-                    // neighbour is an ocean, and this is water, so it too must be part of the ocean.
-                    // otherwise, this is unassigned and next to land or a small waterbody. We need to scan the points
-                    if (n == 3 || s == 3 || e == 3 || w == 3 || nw == 3 || ne == 3 || sw == 3 || se == 3)
-                        setPoints[x][y] = 3;
-                    else if (setPoints[x][y] == 2 && fillBasins)
-                        noise[x][y] = seaLevel + (rand.nextDouble() / 100.0);// lower the value = heavier noise in fill
-                }
+                if (id == 0)
+                    continue;
+
+                int w = x > 0 ? i - 1 : i + width - 1;
+                int e = x < width - 1 ? i + 1 : i - width + 1;
+
+                if (y == 0 || y == height - 1 || labels[i - width] == 0 || labels[i + width] == 0 || labels[w] == 0 || labels[e] == 0)
+                    shoreline[id]++;
             }
         }
-        return setPoints;
+
+        int[] codes = new int[shoreline.length];
+        codes[0] = 1;
+
+        for (int id = 1; id < codes.length; id++)
+        {
+            codes[id] = shoreline[id] <= tolerance ? 2 : 3;
+            if (keepSmallLakes && shoreline[id] < tolerance / 4)
+                codes[id] = 4;
+        }
+
+        return codes;
     }
 }
@@ -0,0 +1,571 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.dhlevi.libnoise.field.HeapLimit;
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Droplet based hydraulic erosion. Each droplet is dropped at a random spot, follows the
+// gradient of the heightmap with some inertia, picks up sediment while it is moving fast and
+// downhill and drops it again when it slows down or runs into a pit, until it evaporates.
+//
+// Droplets are simulated in batches. Every droplet in a batch reads the heightmap as it was at
+// the start of the batch and writes its erosion and deposits to a delta log, one log per group
+// of DROPLETS_PER_TASK droplets. Once the batch is done the logs are added to the heightmap in
+// droplet order. The groups are independent, so a batch runs in parallel without locks, and
+// since the merge order is fixed the result only depends on the seed and the batch size, not
+// on the pool or the number of threads. Smaller batches follow a one droplet at a time
+// simulation more closely, larger ones give the workers more to do between merges.
+//
+// East and west wrap around the map like the other erosion stages, droplets leaving the north
+// or south edge are dropped.
+public class ParticleErosion
+{
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    // droplets simulated by one task, also the granularity of the delta logs
+    private static final int DROPLETS_PER_TASK = 64;
+
+    private double inertia = 0.05;
+    private double sedimentCapacityFactor = 4.0;
+    private double minSedimentCapacity = 0.01;
+    private double erodeSpeed = 0.3;
+    private double depositSpeed = 0.3;
+    private double evaporateSpeed = 0.01;
+    private double gravity = 4.0;
+    private double initialWater = 1.0;
+    private double initialSpeed = 1.0;
+    private double seaLevel = Double.NEGATIVE_INFINITY;
+    private int maxLifetime = 30;
+    private int erosionRadius = 3;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    // erosion brush, cell offsets around the droplet and their weights
+    private int[] brushX;
+    private int[] brushY;
+    private double[] brushWeights;
+
+    public ParticleErosion()
+    {
+        buildBrush();
+    }
+
+    public void erode(double[][] data, int droplets, int seed)
+    {
+        erode(data, droplets, seed, null);
+    }
+
+    // runs the batches on the given pool, or on the calling thread when the pool is null.
+    // Both give the same heightmap.
+    public void erode(double[][] data, int droplets, int seed, ForkJoinPool pool)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        // column major, index x * height + y
+        double[] heights = new double[width * height];
+        for (int x = 0; x < width; x++)
+            System.arraycopy(data[x], 0, heights, x * height, height);
+
+        erode(new Terrain(heights, width, height, height, 1), droplets, seed, pool);
+
+        for (int x = 0; x < width; x++)
+            System.arraycopy(heights, x * height, data[x], 0, height);
+    }
+
+    public void erode(HeightField data, int droplets, int seed)
+    {
+        erode(data, droplets, seed, null);
+    }
+
+    // heap fields are eroded in place. A droplet can run anywhere on the map, so mapped and
+    // direct fields are eroded through a row major heap copy of the whole grid, as long as it
+    // fits. Gives the same heights as the array version.
+    public void erode(HeightField data, int droplets, int seed, ForkJoinPool pool)
+    {
+        if (data.hasArray())
+        {
+            erode(new Terrain(data.array(), data.getWidth(), data.getHeight(), 1, data.getWidth()), droplets, seed, pool);
+            return;
+        }
+
+        HeapLimit.check("Particle erosion", data.getWidth(), data.getHeight(), Double.BYTES);
+
+        double[] heights = new double[data.size()];
+        data.copyTo(heights);
+
+        erode(new Terrain(heights, data.getWidth(), data.getHeight(), 1, data.getWidth()), droplets, seed, pool);
+        data.copyFrom(heights);
+    }
+
+    private void erode(Terrain terrain, int droplets, int seed, ForkJoinPool pool)
+    {
+        if (droplets < 0)
+            throw new IllegalArgumentException("Droplet count can not be negative");
+        // droplets sample the row below them, so there has to be one
+        if (terrain.height < 2)
+            throw new IllegalArgumentException("Heightmap must be at least 2 rows high, got " + terrain.height);
+
+        double[] heights = terrain.values;
+
+        DeltaLog[] logs = new DeltaLog[(Math.min(batchSize, Math.max(droplets, 1)) + DROPLETS_PER_TASK - 1) / DROPLETS_PER_TASK];
+        for (int i = 0; i < logs.length; i++)
+            logs[i] = new DeltaLog();
+
+        for (int first = 0; first < droplets; first += batchSize)
+        {
+            int count = Math.min(batchSize, droplets - first);
+            int tasks = (count + DROPLETS_PER_TASK - 1) / DROPLETS_PER_TASK;
+
+            if (pool == null)
+            {
+                double[] sample = new double[3];
+
+                for (int t = 0; t < tasks; t++)
+                    simulate(terrain, logs[t], seed, first + t * DROPLETS_PER_TASK, Math.min(DROPLETS_PER_TASK, count - t * DROPLETS_PER_TASK), sample);
+            }
+            else
+            {
+                pool.invoke(new DropletTask(this, terrain, logs, seed, first, count, 0, tasks));
+            }
+
+            // merge in droplet order
+            for (int t = 0; t < tasks; t++)
+            {
+                DeltaLog log = logs[t];
+
+                for (int i = 0; i < log.size; i++)
+                    heights[log.cells[i]] += log.amounts[i];
+
+                log.size = 0;
+            }
+        }
+    }
+
+    // droplets first to first + count - 1 of a batch, recording into log
+    private void simulate(Terrain terrain, DeltaLog log, int seed, int first, int count, double[] sample)
+    {
+        int width = terrain.width;
+        int height = terrain.height;
+
+        for (int d = first; d < first + count; d++)
+        {
+            long hash = mix(((long) seed << 32) ^ d);
+
+            double posX = (hash >>> 40) / (double) (1L << 24) * width;
+            double posY = ((hash >>> 16) & 0xffffff) / (double) (1L << 24) * (height - 1);
+            double dirX = 0;
+            double dirY = 0;
+            double speed = initialSpeed;
+            double water = initialWater;
+            double sediment = 0;
+
+            for (int life = 0; life < maxLifetime; life++)
+            {
+                int nodeX = (int) posX;
+                int nodeY = (int) posY;
+                double offsetX = posX - nodeX;
+                double offsetY = posY - nodeY;
+
+                sample(terrain, posX, posY, sample);
+                double currentHeight = sample[0];
+
+                if (currentHeight <= seaLevel)
+                {
+                    // reached the sea, everything still carried settles here
+                    deposit(log, terrain, nodeX, nodeY, offsetX, offsetY, sediment);
+                    break;
+                }
+
+                // blend the old direction with the downhill gradient
+                dirX = dirX * inertia - sample[1] * (1 - inertia);
+                dirY = dirY * inertia - sample[2] * (1 - inertia);
+
+                double length = Math.sqrt(dirX * dirX + dirY * dirY);
+                if (length == 0)
+                    break;
+
+                dirX /= length;
+                dirY /= length;
+                posX += dirX;
+                posY += dirY;
+
+                if (posY < 0 || posY >= height - 1)
+                    break;
+
+                if (posX < 0)
+                    posX += width;
+                if (posX >= width)
+                    posX -= width;
+
+                sample(terrain, posX, posY, sample);
+                double deltaHeight = sample[0] - currentHeight;
+
+                // how much sediment the droplet can carry, more when it is fast, wet and going downhill
+                double capacity = Math.max(-deltaHeight * speed * water * sedimentCapacityFactor, minSedimentCapacity);
+
+                if (sediment > capacity || deltaHeight > 0)
+                {
+                    // uphill, fill the pit we're leaving. Otherwise drop part of what's over capacity
+                    double amount = deltaHeight > 0 ? Math.min(deltaHeight, sediment) : (sediment - capacity) * depositSpeed;
+                    sediment -= amount;
+                    deposit(log, terrain, nodeX, nodeY, offsetX, offsetY, amount);
+                }
+                else
+                {
+                    // never take more than the height difference, so we don't dig holes
+                    double amount = Math.min((capacity - sediment) * erodeSpeed, -deltaHeight);
+                    sediment += erode(log, terrain, nodeX, nodeY, amount);
+                }
+
+                speed = Math.sqrt(Math.max(0, speed * speed + deltaHeight * gravity));
+                water *= 1 - evaporateSpeed;
+            }
+        }
+    }
+
+    // bilinear height at the position and its gradient, into sample[0..2]
+    private static void sample(Terrain terrain, double posX, double posY, double[] sample)
+    {
+        int x0 = (int) posX;
+        int y0 = (int) posY;
+        int x1 = x0 + 1 < terrain.width ? x0 + 1 : 0;
+        double u = posX - x0;
+        double v = posY - y0;
+
+        double nw = terrain.values[terrain.index(x0, y0)];
+        double ne = terrain.values[terrain.index(x1, y0)];
+        double sw = terrain.values[terrain.index(x0, y0 + 1)];
+        double se = terrain.values[terrain.index(x1, y0 + 1)];
+
+        sample[0] = nw * (1 - u) * (1 - v) + ne * u * (1 - v) + sw * (1 - u) * v + se * u * v;
+        sample[1] = (ne - nw) * (1 - v) + (se - sw) * v;
+        sample[2] = (sw - nw) * (1 - u) + (se - ne) * u;
+    }
+
+    // spreads the amount over the four cells around the droplet
+    private static void deposit(DeltaLog log, Terrain terrain, int nodeX, int nodeY, double offsetX, double offsetY, double amount)
+    {
+        if (amount == 0)
+            return;
+
+        int x1 = nodeX + 1 < terrain.width ? nodeX + 1 : 0;
+
+        log.add(terrain.index(nodeX, nodeY), amount * (1 - offsetX) * (1 - offsetY));
+        log.add(terrain.index(x1, nodeY), amount * offsetX * (1 - offsetY));
+
+        if (nodeY + 1 < terrain.height)
+        {
+            log.add(terrain.index(nodeX, nodeY + 1), amount * (1 - offsetX) * offsetY);
+            log.add(terrain.index(x1, nodeY + 1), amount * offsetX * offsetY);
+        }
+    }
+
+    // takes the amount from the cells under the brush, returns what was taken
+    private double erode(DeltaLog log, Terrain terrain, int nodeX, int nodeY, double amount)
+    {
+        if (amount <= 0)
+            return 0;
+
+        int width = terrain.width;
+        int height = terrain.height;
+
+        // brush cells off the north or south edge are skipped, the rest share the amount
+        double total = 0;
+        for (int b = 0; b < brushWeights.length; b++)
+        {
+            int y = nodeY + brushY[b];
+            if (y >= 0 && y < height)
+                total += brushWeights[b];
+        }
+
+        for (int b = 0; b < brushWeights.length; b++)
+        {
+            int y = nodeY + brushY[b];
+            if (y < 0 || y >= height)
+                continue;
+
+            int x = nodeX + brushX[b];
+            if (x < 0)
+                x += width;
+            else if (x >= width)
+                x -= width;
+
+            log.add(terrain.index(x, y), -amount * brushWeights[b] / total);
+        }
+
+        return amount;
+    }
+
+    private void buildBrush()
+    {
+        int size = 2 * erosionRadius + 1;
+        int[] xs = new int[size * size];
+        int[] ys = new int[size * size];
+        double[] weights = new double[size * size];
+        int count = 0;
+        double sum = 0;
+
+        for (int dy = -erosionRadius; dy <= erosionRadius; dy++)
+        {
+            for (int dx = -erosionRadius; dx <= erosionRadius; dx++)
+            {
+                double weight = erosionRadius - Math.sqrt(dx * dx + dy * dy);
+
+                if (weight > 0)
+                {
+                    xs[count] = dx;
+                    ys[count] = dy;
+                    weights[count] = weight;
+                    sum += weight;
+                    count++;
+                }
+            }
+        }
+
+        brushX = new int[count];
+        brushY = new int[count];
+        brushWeights = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            brushX[i] = xs[i];
+            brushY[i] = ys[i];
+            brushWeights[i] = weights[i] / sum;
+        }
+    }
+
+    // splitmix64 finalizer, gives every droplet its own start from the seed and its number
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public double getInertia()
+    {
+        return inertia;
+    }
+
+    public void setInertia(double inertia)
+    {
+        this.inertia = inertia;
+    }
+
+    public double getSedimentCapacityFactor()
+    {
+        return sedimentCapacityFactor;
+    }
+
+    public void setSedimentCapacityFactor(double sedimentCapacityFactor)
+    {
+        this.sedimentCapacityFactor = sedimentCapacityFactor;
+    }
+
+    public double getMinSedimentCapacity()
+    {
+        return minSedimentCapacity;
+    }
+
+    public void setMinSedimentCapacity(double minSedimentCapacity)
+    {
+        this.minSedimentCapacity = minSedimentCapacity;
+    }
+
+    public double getErodeSpeed()
+    {
+        return erodeSpeed;
+    }
+
+    public void setErodeSpeed(double erodeSpeed)
+    {
+        this.erodeSpeed = erodeSpeed;
+    }
+
+    public double getDepositSpeed()
+    {
+        return depositSpeed;
+    }
+
+    public void setDepositSpeed(double depositSpeed)
+    {
+        this.depositSpeed = depositSpeed;
+    }
+
+    public double getEvaporateSpeed()
+    {
+        return evaporateSpeed;
+    }
+
+    public void setEvaporateSpeed(double evaporateSpeed)
+    {
+        this.evaporateSpeed = evaporateSpeed;
+    }
+
+    public double getGravity()
+    {
+        return gravity;
+    }
+
+    public void setGravity(double gravity)
+    {
+        this.gravity = gravity;
+    }
+
+    public double getInitialWater()
+    {
+        return initialWater;
+    }
+
+    public void setInitialWater(double initialWater)
+    {
+        this.initialWater = initialWater;
+    }
+
+    public double getInitialSpeed()
+    {
+        return initialSpeed;
+    }
+
+    public void setInitialSpeed(double initialSpeed)
+    {
+        this.initialSpeed = initialSpeed;
+    }
+
+    public double getSeaLevel()
+    {
+        return seaLevel;
+    }
+
+    // droplets stop and drop their sediment once they reach this height
+    public void setSeaLevel(double seaLevel)
+    {
+        this.seaLevel = seaLevel;
+    }
+
+    public int getMaxLifetime()
+    {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(int maxLifetime)
+    {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public int getErosionRadius()
+    {
+        return erosionRadius;
+    }
+
+    public void setErosionRadius(int erosionRadius)
+    {
+        if (erosionRadius < 1)
+            throw new IllegalArgumentException("Erosion radius must be at least 1");
+
+        this.erosionRadius = erosionRadius;
+        buildBrush();
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        this.batchSize = batchSize;
+    }
+
+    // the heightmap being eroded as one flat array, index x * xStride + y * yStride
+    private static final class Terrain
+    {
+        final double[] values;
+        final int width;
+        final int height;
+        final int xStride;
+        final int yStride;
+
+        Terrain(double[] values, int width, int height, int xStride, int yStride)
+        {
+            this.values = values;
+            this.width = width;
+            this.height = height;
+            this.xStride = xStride;
+            this.yStride = yStride;
+        }
+
+        int index(int x, int y)
+        {
+            return x * xStride + y * yStride;
+        }
+    }
+
+    // cells and amounts added to them, in the order the droplets produced them
+    private static class DeltaLog
+    {
+        private int[] cells = new int[1024];
+        private double[] amounts = new double[1024];
+        private int size;
+
+        void add(int cell, double amount)
+        {
+            if (size == cells.length)
+            {
+                cells = Arrays.copyOf(cells, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+            }
+
+            cells[size] = cell;
+            amounts[size] = amount;
+            size++;
+        }
+    }
+
+    // simulates the droplet groups from to to - 1 of a batch, halving the range until one is left
+    private static class DropletTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ParticleErosion erosion;
+        private final Terrain terrain;
+        private final DeltaLog[] logs;
+        private final int seed;
+        private final int first;
+        private final int count;
+        private final int from;
+        private final int to;
+
+        DropletTask(ParticleErosion erosion, Terrain terrain, DeltaLog[] logs, int seed, int first, int count, int from, int to)
+        {
+            this.erosion = erosion;
+            this.terrain = terrain;
+            this.logs = logs;
+            this.seed = seed;
+            this.first = first;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                int start = from * DROPLETS_PER_TASK;
+                erosion.simulate(terrain, logs[from], seed, first + start, Math.min(DROPLETS_PER_TASK, count - start), new double[3]);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new DropletTask(erosion, terrain, logs, seed, first, count, from, mid), new DropletTask(erosion, terrain, logs, seed, first, count, mid, to));
+        }
+    }
+}
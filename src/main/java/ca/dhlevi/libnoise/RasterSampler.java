@@ -0,0 +1,148 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits a raster into square tiles and hands each tile to a kernel. Tiles are small enough
+// for a tile worth of samples to stay in cache, and are evaluated either in order on the
+// calling thread or spread over a fork/join pool. Every pixel is written by exactly one tile,
+// so as long as the kernel only depends on the pixel coordinates the output is identical
+// regardless of how it was scheduled.
+public class RasterSampler
+{
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    public interface Kernel
+    {
+        // sample the pixels in [x0, x1) x [y0, y1)
+        void sample(int x0, int y0, int x1, int y1);
+    }
+
+    private ForkJoinPool pool;
+    private int tileSize;
+
+    public RasterSampler()
+    {
+        this(null, DEFAULT_TILE_SIZE);
+    }
+
+    public RasterSampler(ForkJoinPool pool)
+    {
+        this(pool, DEFAULT_TILE_SIZE);
+    }
+
+    public RasterSampler(ForkJoinPool pool, int tileSize)
+    {
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1");
+
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    // single threaded, tile by tile on the calling thread
+    public static RasterSampler serial()
+    {
+        return new RasterSampler(null, DEFAULT_TILE_SIZE);
+    }
+
+    // all cores, using the common fork/join pool
+    public static RasterSampler parallel()
+    {
+        return new RasterSampler(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+    }
+
+    public void sample(int width, int height, Kernel kernel)
+    {
+        if (width <= 0 || height <= 0)
+            return;
+
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        int tileCount = tilesX * tilesY;
+
+        if (pool == null || tileCount == 1)
+        {
+            for (int t = 0; t < tileCount; t++)
+                sampleTile(t, tilesX, width, height, kernel);
+        }
+        else
+        {
+            pool.invoke(new TileTask(0, tileCount, tilesX, width, height, kernel));
+        }
+    }
+
+    private void sampleTile(int tile, int tilesX, int width, int height, Kernel kernel)
+    {
+        int x0 = (tile % tilesX) * tileSize;
+        int y0 = (tile / tilesX) * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+
+        kernel.sample(x0, y0, x1, y1);
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public boolean isParallel()
+    {
+        return pool != null;
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize)
+    {
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1");
+
+        this.tileSize = tileSize;
+    }
+
+    // halves the range of tiles until a single tile is left, then samples it
+    private class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int tilesX;
+        private final int width;
+        private final int height;
+        private final Kernel kernel;
+
+        TileTask(int from, int to, int tilesX, int width, int height, Kernel kernel)
+        {
+            this.from = from;
+            this.to = to;
+            this.tilesX = tilesX;
+            this.width = width;
+            this.height = height;
+            this.kernel = kernel;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                sampleTile(from, tilesX, width, height, kernel);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileTask(from, mid, tilesX, width, height, kernel), new TileTask(mid, to, tilesX, width, height, kernel));
+        }
+    }
+}
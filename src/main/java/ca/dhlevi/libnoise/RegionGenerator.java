@@ -1,12 +1,14 @@
 package ca.dhlevi.libnoise;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
-import ca.dhlevi.libnoise.spatial.Coordinate;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
 import ca.dhlevi.libnoise.spatial.Envelope;
-import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+import ca.dhlevi.libnoise.spatial.GridGeometry;
+import ca.dhlevi.libnoise.spatial.NearestFeatureIndex;
 
 public class RegionGenerator
 {
@@ -14,6 +16,13 @@ public class RegionGenerator
     // possible pixels are owned by a region
     // regions should not cross rivers unless necessary
     public static int[][] generateRegions(double[][] data, int[][] basins, int[][] rivers, double seaLevel, int regionDensity, int oceanRegionDensity, Envelope bbox, int seed)
+    {
+        return generateRegions(data, basins, rivers, seaLevel, regionDensity, oceanRegionDensity, bbox, seed, null);
+    }
+
+    // the growth rounds split the frontier over the pool when one is given, the regions come out
+    // the same either way
+    public static int[][] generateRegions(double[][] data, int[][] basins, int[][] rivers, double seaLevel, int regionDensity, int oceanRegionDensity, Envelope bbox, int seed, ForkJoinPool pool)
     {
         if (regionDensity == 0)
             regionDensity = 30;
@@ -72,15 +81,25 @@ public class RegionGenerator
         // use this grid to generate provinces as usual
         int cityLevel = 5; // 1 = hamlet (16km apart), 5 = village, 10 = town, 15 = city, 20 = global centre
         int pixelDist = 16 * cityLevel;
+        GridGeometry geometry = new GridGeometry(width, height, bbox);
+        // rivers on land, settlements are moved to the closest one within half their spacing
+        int[] landRivers = new int[width * height];
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                if (rivers[x][y] != 0 && data[x][y] > seaLevel)
+                    landRivers[y * width + x] = 1;
+            }
+        }
+
+        NearestFeatureIndex closestRiver = new NearestFeatureIndex(landRivers, width, height, WrapMode.NONE, bbox);
+        int riverRadius = pixelDist / 2 + 2;
         int row = 0;
         while(row < data[0].length - 1)
         {
-            Coordinate c1 = SpatialUtilities.pixelsToLatLong(new Point(0, row), width, height, bbox);
-            Coordinate c2 = SpatialUtilities.pixelsToLatLong(new Point(1, row), width, height, bbox);
-            Coordinate c3 = SpatialUtilities.pixelsToLatLong(new Point(0, row + 1), width, height, bbox);
-            
-            double pixelLongitudeDistanceKms = SpatialUtilities.haversineDistance(c1, c2) / 1000;
-            double pixelLatitudeDistanceKms = SpatialUtilities.haversineDistance(c1, c3) / 1000;
+            double pixelLongitudeDistanceKms = geometry.getEastKm(row);
+            double pixelLatitudeDistanceKms = geometry.getSouthKm(row);
             
             // we have distances. Place points across this row at 16km distances.
             int column = 0;
@@ -91,9 +110,7 @@ public class RegionGenerator
                 {
                     terrainRegionCount++;
                     // is there a body of water or river close by? If so move point towards them
-                    Point river = getClosestRegionPoint(rivers, data, new Point(column, row), seaLevel, bbox, pixelDist / 2);
-                    
-                    if(river != null) regions[river.getX()][river.getY()] = terrainRegionCount + oceanRegionCount;
+                    if(closestRiver.distance(column, row) <= riverRadius) regions[closestRiver.getNearestX(column, row)][closestRiver.getNearestY(column, row)] = terrainRegionCount + oceanRegionCount;
                     else regions[column][row] = terrainRegionCount + oceanRegionCount;
                     
                     regions[column][row] = terrainRegionCount + oceanRegionCount;
@@ -131,12 +148,20 @@ public class RegionGenerator
         System.out.println("Creating " + regionCount + " regions...");
 
         // we have a grid of regions established, now they need to "grow". ensure we stop at rivers and heights
-        regions = generationPass(regions, width, height, data, seaLevel, rivers, 0.025, false, true, seed);
+        RegionGrowth growth = new RegionGrowth(regions, data, rivers, seaLevel, seed, pool);
+        growth.grow(growth.frontier(), 0.025, false, true);
         // cleanup any little dangles, grow into any double-river spaces
-        regions = generationPass(regions, width, height, data, seaLevel, rivers, 0.125, false, true, seed);
+        growth.grow(growth.frontier(), 0.125, false, true);
         // regions are now defined, but there may be some leftover space that isn't assigned yet, particularly random islands
         // if an island is close to another region, it'll "merge" with it. if there isn't any region nearby (at least 15 pixels)
-        // a new region will be created
+        // a new region will be created.
+        // a new water region floods its body of water. The first flood also lets every region grow
+        // into whatever it can still reach, after that only the pixels assigned since the last
+        // flood can have anywhere left to go
+        // regions keep changing through this loop, so the closest region is searched for rather
+        // than looked up in an index built up front
+        Rings islandRings = new Rings(width / 500 > 15 ? width / 500 : 15);
+        RegionGrowth.PixelList assigned = null;
         for (int x = 0; x < width; x++)
         {
             for (int y = 0; y < height; y++)
@@ -147,12 +172,22 @@ public class RegionGenerator
                     {
                         regionCount++;
                         regions[x][y] = regionCount;
-                        // re-running a gen pass to fill is slow... need to replace this
-                        regions = generationPass(regions, width, height, data, seaLevel, rivers, 1.0, false, false, seed);
+
+                        if (assigned == null)
+                        {
+                            growth.grow(growth.frontier(), 1.0, false, false);
+                        }
+                        else
+                        {
+                            assigned.add(growth.index(x, y));
+                            growth.grow(assigned, 1.0, false, false);
+                        }
+
+                        assigned = new RegionGrowth.PixelList();
                     } 
                     else
                     {
-                        Point closestRegionPoint = getClosestRegionPoint(regions, data, new Point(x, y), seaLevel, bbox, width / 500 > 15 ? width / 500 : 15);
+                        Point closestRegionPoint = getClosestRegionPoint(regions, data, new Point(x, y), seaLevel, geometry, islandRings);
                         if (closestRegionPoint != null)
                         {
                             int region = regions[closestRegionPoint.getX()][closestRegionPoint.getY()];
@@ -163,127 +198,39 @@ public class RegionGenerator
                             regionCount++;
                             regions[x][y] = regionCount;
                         }
-                    }
-                }
-            }
-        }
-
-        return regions;
-    }
 
-    private static int[][] generationPass(int[][] regions, int width, int height, double[][] data, double seaLevel, int[][] rivers, double heightTolerance, boolean blockOnRivers, boolean noisy, int seed)
-    {
-        boolean regionsGrown = true;
-        Random rand = new Random(seed);
-
-        while (regionsGrown)
-        {
-            int[][] tempRegions = new int[width][height];
-
-            int regionGrowth = 0;
-            for (int x = 0; x < width; x++)
-            {
-                for (int y = 0; y < height; y++)
-                {
-                    boolean s = y < height - 1 ? regions[x][y + 1] > 0 : true;
-                    boolean n = y > 0 ? regions[x][y - 1] > 0 : true;
-                    boolean e = x < width - 1 ? regions[x + 1][y] > 0 : true;
-                    boolean w = x > 0 ? regions[x - 1][y] > 0 : true;
-
-                    // test if we found a region chunk
-                    if (regions[x][y] != 0 && !(s && n && e && w))
-                    {
-                        // grow into all availAble neighbours that are below a talus angle, and not water. 
-                        // If ocean, just grow till you hit coastline or another region
-                        boolean isOcean = data[x][y] <= seaLevel;
-
-                        List<Point> neighbours = new ArrayList<Point>();
-
-                        neighbours.add(y == 0 ? null : new Point(x, y - 1));
-                        neighbours.add(x == width - 1 ? new Point(0, y) : new Point(x + 1, y));
-                        neighbours.add(y == height - 1 ? null : new Point(x, y + 1));
-                        neighbours.add(x == 0 ? new Point(width - 1, y) : new Point(x - 1, y));
-
-                        for (Point p : neighbours)
-                        {
-                            if (p != null && regions[p.getX()][p.getY()] == 0 && tempRegions[p.getX()][p.getY()] == 0)
-                            {
-                                if (isOcean && data[p.getX()][p.getY()] <= seaLevel)
-                                {
-                                    tempRegions[p.getX()][p.getY()] = regions[x][y];
-                                    regionGrowth++;
-                                }
-                                else if (!isOcean && data[p.getX()][p.getY()] > seaLevel)
-                                {
-                                    if (((blockOnRivers && rivers[p.getX()][p.getY()] == 0) || !blockOnRivers) && (!noisy || (noisy && rand.nextBoolean())))
-                                    {
-                                        // get the height difference between these points. If the difference is too big, we can't grow.
-                                        double difference = data[p.getX()][p.getY()] - data[x][y];
-
-                                        if (difference < heightTolerance)
-                                        {
-                                            tempRegions[p.getX()][p.getY()] = regions[x][y];
-                                            // depending on the latitude, this should spread faster.
-                                            // north/south should spread much more than equitorial regions.
-                                            regionGrowth++;
-                                        }
-                                    }
-                                }
-                            }
-                        }
+                        if (assigned != null)
+                            assigned.add(growth.index(x, y));
                     }
                 }
             }
-
-            for (int x = 0; x < width; x++)
-            {
-                for (int y = 0; y < height; y++)
-                {
-                    if (tempRegions[x][y] != 0)
-                        regions[x][y] = tempRegions[x][y];
-                }
-            }
-
-            regionsGrown = regionGrowth > 0;
         }
 
         return regions;
     }
-   
+
     // technically, 'regionData' can be overloaded with any data that uses an int... so rivers, etc..?
-    private static Point getClosestRegionPoint(int[][] regionData, double[][] noiseData, Point point, double seaLevel, Envelope bbox, int tolerance)
+    // Samples rings of points around the point and returns the closest region pixel on the
+    // largest ring that has any. Rings are walked from the outside in, so the search stops at
+    // the first ring with a hit.
+    private static Point getClosestRegionPoint(int[][] regionData, double[][] noiseData, Point point, double seaLevel, GridGeometry geometry, Rings rings)
     {
-        Point destination = null;
-        boolean foundRegion = false;
-
         int width = regionData.length;
         int height = regionData[0].length;
 
-        int loops = 0;
-        while (!foundRegion)
+        for (int loops = rings.offsetX.length - 1; loops >= 0; loops--)
         {
-            if (loops > tolerance)
-                break; // we've been searching for a while and never found a destination?
+            double[] offsetX = rings.offsetX[loops];
+            double[] offsetY = rings.offsetY[loops];
 
-            List<Point> possibleLocations = new ArrayList<Point>();
-            
-            List<Point> circlePoints = new ArrayList<Point>();
-            double angleInDegrees = 0;
-            
-            while(angleInDegrees <= 360)
-            {
-                // loops + 2 for radius, so you don't start at your inner point
-                int x = (int) Math.round(((loops + 2) * Math.cos(angleInDegrees * Math.PI / 180F)) + point.getX());
-                int y = (int) Math.round(((loops + 2) * Math.sin(angleInDegrees * Math.PI / 180F)) + point.getY());
+            Point destination = null;
+            double closestDistance = 0;
 
-                circlePoints.add(new Point(x, y));
-                angleInDegrees += Math.round((90 / (loops + 1)));
-            }
-            
-            for(Point p : circlePoints)
+            for (int i = 0; i < offsetX.length; i++)
             {
-                int x = p.getX();
-                int y = p.getY();
+                int x = (int) Math.round(offsetX[i] + point.getX());
+                int y = (int) Math.round(offsetY[i] + point.getY());
+
                 // make sure we're within array bounds
                 if (x < 0)
                     x = 0;
@@ -296,40 +243,66 @@ public class RegionGenerator
 
                 if (regionData[x][y] != 0 && noiseData[x][y] > seaLevel)
                 {
-                    possibleLocations.add(new Point(x, y));
-                }
+                    double pixelDistance = geometry.distanceKm(point.getX(), point.getY(), x, y);
 
-                if (y > point.getY() - loops && y < point.getY() + loops - 1)
-                {
-                    x = point.getX() + loops;
-                }
-            }
-            
-            // all of the possible closest region points. 
-            // find the actual closest...
-            if(possibleLocations.size() > 0)
-            {
-                destination = null;
-                double closestDistance = 0;
-                
-                for(Point p : possibleLocations)
-                {
-                    Coordinate c1 = SpatialUtilities.pixelsToLatLong(point, width, height, bbox);
-                    Coordinate c2 = SpatialUtilities.pixelsToLatLong(p, width, height, bbox);
-                    
-                    double pixelDistance = SpatialUtilities.haversineDistance(c1, c2) / 1000;
-                    
-                    if(destination == null || pixelDistance < closestDistance)
+                    if (destination == null || pixelDistance < closestDistance)
                     {
-                        destination = p;
+                        destination = new Point(x, y);
                         closestDistance = pixelDistance;
                     }
-                }             
+                }
             }
 
-            loops++;
+            if (destination != null)
+                return destination;
         }
 
-        return destination;
+        return null;
+    }
+
+    // the ring offsets getClosestRegionPoint samples, radius 2 up to tolerance + 2, worked out
+    // once instead of per search
+    private static final class Rings
+    {
+        final double[][] offsetX;
+        final double[][] offsetY;
+
+        Rings(int tolerance)
+        {
+            offsetX = new double[tolerance + 1][];
+            offsetY = new double[tolerance + 1][];
+
+            for (int loops = 0; loops <= tolerance; loops++)
+            {
+                // whole degrees, at least one so very large rings still finish
+                int step = Math.max(1, Math.round((90 / (loops + 1))));
+                int count = 360 / step + 1;
+
+                offsetX[loops] = new double[count];
+                offsetY[loops] = new double[count];
+
+                for (int i = 0; i < count; i++)
+                {
+                    double angleInDegrees = i * step;
+
+                    // loops + 2 for radius, so you don't start at your inner point
+                    offsetX[loops][i] = (loops + 2) * Math.cos(angleInDegrees * Math.PI / 180F);
+                    offsetY[loops][i] = (loops + 2) * Math.sin(angleInDegrees * Math.PI / 180F);
+                }
+            }
+        }
+    }
+
+    // region growth walks the grid column major, so the field versions copy into arrays and
+    // back. They are for fields that fit on the heap, not mapped ones
+    public static IntField generateRegions(HeightField data, IntField basins, IntField rivers, double seaLevel, int regionDensity, int oceanRegionDensity, Envelope bbox, int seed)
+    {
+        return generateRegions(data, basins, rivers, seaLevel, regionDensity, oceanRegionDensity, bbox, seed, null);
+    }
+
+    public static IntField generateRegions(HeightField data, IntField basins, IntField rivers, double seaLevel, int regionDensity, int oceanRegionDensity, Envelope bbox, int seed, ForkJoinPool pool)
+    {
+        int[][] regions = generateRegions(data.toArray(), basins.toArray(), rivers.toArray(), seaLevel, regionDensity, oceanRegionDensity, bbox, seed, pool);
+        return IntField.wrap(regions, data.getWrapMode());
     }
 }
@@ -0,0 +1,279 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Grows regions outwards from a frontier, one ring of pixels per round, the way the old
+// generation passes did with a full sweep of the map per ring. Only the frontier is visited,
+// so a pixel is touched when it is claimed and again while it sits on the frontier.
+//
+// Each round every frontier pixel tries to claim its unassigned north, east, south and west
+// neighbours. Ocean only grows into ocean. Land only grows into land that is less than the
+// height tolerance above it and, when blocking, not a river. A noisy pass also flips a coin
+// per try, a pixel whose coin came up tails stays on the frontier and tries again next round.
+// When several pixels claim the same neighbour the lowest pixel index wins, and the coins come
+// from a hash of the seed, pass, round and pixel rather than a shared Random, so the result is
+// the same whether the frontier is walked in order or split over a pool.
+//
+// Pixels are indexed x * height + y so the column major arrays are used in place.
+final class RegionGrowth
+{
+    // frontier pixels per task when running on a pool
+    static final int LEAF_SIZE = 4096;
+
+    private final int[][] regions;
+    private final double[][] data;
+    private final int[][] rivers;
+    private final double seaLevel;
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final ForkJoinPool pool;
+    private final int leafSize;
+
+    // 1 + the index of the pixel claiming each one this round, 0 if none
+    private final AtomicIntegerArray claims;
+    private int passes;
+
+    RegionGrowth(int[][] regions, double[][] data, int[][] rivers, double seaLevel, int seed, ForkJoinPool pool)
+    {
+        this(regions, data, rivers, seaLevel, seed, pool, LEAF_SIZE);
+    }
+
+    RegionGrowth(int[][] regions, double[][] data, int[][] rivers, double seaLevel, int seed, ForkJoinPool pool, int leafSize)
+    {
+        this.regions = regions;
+        this.data = data;
+        this.rivers = rivers;
+        this.seaLevel = seaLevel;
+        this.width = data.length;
+        this.height = data[0].length;
+        this.seed = seed;
+        this.pool = pool;
+        this.leafSize = leafSize;
+        this.claims = new AtomicIntegerArray(width * height);
+    }
+
+    int index(int x, int y)
+    {
+        return x * height + y;
+    }
+
+    // every region pixel with an unassigned neighbour
+    PixelList frontier()
+    {
+        PixelList frontier = new PixelList();
+
+        for (int x = 0; x < width; x++)
+        {
+            int[] column = regions[x];
+            int[] west = regions[x > 0 ? x - 1 : width - 1];
+            int[] east = regions[x < width - 1 ? x + 1 : 0];
+
+            for (int y = 0; y < height; y++)
+            {
+                if (column[y] != 0 && ((y > 0 && column[y - 1] == 0) || (y < height - 1 && column[y + 1] == 0) || west[y] == 0 || east[y] == 0))
+                    frontier.add(index(x, y));
+            }
+        }
+
+        return frontier;
+    }
+
+    // grows until a round claims nothing and no pixel is waiting on a coin
+    void grow(PixelList frontier, double heightTolerance, boolean blockOnRivers, boolean noisy)
+    {
+        long pass = mix(seed + passes++);
+
+        for (int round = 0; frontier.size > 0; round++)
+        {
+            long salt = mix(pass + round);
+            PixelList next;
+
+            if (pool == null)
+            {
+                next = new PixelList();
+                expand(frontier, 0, frontier.size, heightTolerance, blockOnRivers, noisy, salt, next);
+            }
+            else
+            {
+                ExpandTask task = new ExpandTask(this, frontier, 0, frontier.size, heightTolerance, blockOnRivers, noisy, salt);
+                pool.invoke(task);
+                next = task.next;
+            }
+
+            // the claimed pixels join their winner's region. The winners were assigned before the
+            // round started, so the order they are applied in doesn't matter
+            for (int i = 0; i < next.size; i++)
+            {
+                int pixel = next.pixels[i];
+                int claim = claims.get(pixel);
+
+                if (claim == 0)
+                    continue;
+
+                int source = claim - 1;
+                regions[pixel / height][pixel % height] = regions[source / height][source % height];
+                claims.set(pixel, 0);
+            }
+
+            frontier = next;
+        }
+    }
+
+    // tries to claim the neighbours of frontier pixels from to to - 1. Newly claimed pixels and
+    // pixels that lost a coin toss are added to next
+    private void expand(PixelList frontier, int from, int to, double heightTolerance, boolean blockOnRivers, boolean noisy, long salt, PixelList next)
+    {
+        for (int f = from; f < to; f++)
+        {
+            int pixel = frontier.pixels[f];
+            int x = pixel / height;
+            int y = pixel - x * height;
+
+            double value = data[x][y];
+            boolean isOcean = value <= seaLevel;
+            boolean waiting = false;
+
+            for (int direction = 0; direction < 4; direction++)
+            {
+                int nx = x;
+                int ny = y;
+
+                if (direction == 0)
+                    ny = y - 1;
+                else if (direction == 1)
+                    nx = x < width - 1 ? x + 1 : 0;
+                else if (direction == 2)
+                    ny = y + 1;
+                else
+                    nx = x > 0 ? x - 1 : width - 1;
+
+                if (ny < 0 || ny >= height || regions[nx][ny] != 0)
+                    continue;
+
+                double neighbour = data[nx][ny];
+
+                if (isOcean)
+                {
+                    if (neighbour > seaLevel)
+                        continue;
+                }
+                else if (neighbour <= seaLevel || (blockOnRivers && rivers[nx][ny] != 0) || neighbour - value >= heightTolerance)
+                {
+                    continue;
+                }
+
+                if (noisy && (mix(salt ^ ((long) pixel << 2 | direction)) & 1) == 0)
+                {
+                    waiting = true;
+                    continue;
+                }
+
+                if (claim(index(nx, ny), pixel))
+                    next.add(index(nx, ny));
+            }
+
+            if (waiting)
+                next.add(pixel);
+        }
+    }
+
+    // keeps the lowest claiming pixel, true for the first claim on a pixel this round
+    private boolean claim(int pixel, int source)
+    {
+        int value = source + 1;
+
+        while (true)
+        {
+            int current = claims.get(pixel);
+
+            if (current != 0 && current <= value)
+                return false;
+
+            if (claims.compareAndSet(pixel, current, value))
+                return current == 0;
+        }
+    }
+
+    // splitmix64 finalizer, the coin for a pixel and direction in a round
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    static final class PixelList
+    {
+        private int[] pixels = new int[1024];
+        private int size;
+
+        void add(int pixel)
+        {
+            if (size == pixels.length)
+                pixels = Arrays.copyOf(pixels, size * 2);
+
+            pixels[size++] = pixel;
+        }
+
+        void addAll(PixelList other)
+        {
+            if (size + other.size > pixels.length)
+                pixels = Arrays.copyOf(pixels, Math.max(size + other.size, size * 2));
+
+            System.arraycopy(other.pixels, 0, pixels, size, other.size);
+            size += other.size;
+        }
+    }
+
+    // expands frontier pixels from to to - 1, halving the range down to leafSize pixels
+    private static class ExpandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RegionGrowth growth;
+        private final PixelList frontier;
+        private final int from;
+        private final int to;
+        private final double heightTolerance;
+        private final boolean blockOnRivers;
+        private final boolean noisy;
+        private final long salt;
+
+        private PixelList next;
+
+        ExpandTask(RegionGrowth growth, PixelList frontier, int from, int to, double heightTolerance, boolean blockOnRivers, boolean noisy, long salt)
+        {
+            this.growth = growth;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.heightTolerance = heightTolerance;
+            this.blockOnRivers = blockOnRivers;
+            this.noisy = noisy;
+            this.salt = salt;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= growth.leafSize)
+            {
+                next = new PixelList();
+                growth.expand(frontier, from, to, heightTolerance, blockOnRivers, noisy, salt, next);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            ExpandTask left = new ExpandTask(growth, frontier, from, mid, heightTolerance, blockOnRivers, noisy, salt);
+            ExpandTask right = new ExpandTask(growth, frontier, mid, to, heightTolerance, blockOnRivers, noisy, salt);
+            invokeAll(left, right);
+
+            next = left.next;
+            next.addAll(right.next);
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package ca.dhlevi.libnoise;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
-
-import ca.dhlevi.libnoise.spatial.Coordinate;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.dhlevi.libnoise.field.ArrayIntField;
+import ca.dhlevi.libnoise.field.HeapLimit;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
 import ca.dhlevi.libnoise.spatial.Envelope;
-import ca.dhlevi.libnoise.spatial.SpatialUtilities;
 
 public class RiverGenerator
 {
+    public static final int RIVER_BATCH_SIZE = 64;
+
+    private static final int TRANSPOSE_STRIP = 16;
+
+    // the router's search cost and direction, and its nearest water and ocean tables
+    private static final int ROUTER_CELL_BYTES = Float.BYTES + 1 + 2 * Integer.BYTES;
+
     // River flow algorithm by starting from a random point and moving "down"
     // until they hit water, a river, or can no longer move
     // works with some noise, but not as reliable as the a* approach
@@ -161,314 +174,305 @@ public class RiverGenerator
         return rivers;
     }
 
-    // Not a true a*, but a close approach. Generates rivers by targeting a
-    // random start point and finding the closest
-    // water source. Because the algorith and heuristic is a little looser than
-    // a* would allow for, some extra checks
-    // are included to cancel out any rivers that would be excessive in length
+    // Generates rivers by picking a random start point on land, finding the closest water and
+    // routing a river to it with A* (see RiverRouter). The river ends at the first water it
+    // reaches. Without tributaries it keeps clear of existing rivers and crosses lakes on its
+    // way to the ocean, with them it may end at a lake or join another river.
     public static int[][] createRiversAStar(double[][] grid, int[][] basins, int[][] existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed)
+    {
+        return createRiversAStar(grid, basins, existingRivers, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, null, 1);
+    }
+
+    // Parallel river routing. Rivers are routed in batches of RIVER_BATCH_SIZE, every river in a
+    // batch is routed against the rivers as they were when the batch started, then the batch is
+    // merged in order: a river whose start was taken is dropped, one that runs into a river added
+    // earlier in the batch joins it as a tributary or, without tributaries, is dropped. The
+    // result only depends on the seed, not on the pool or the number of threads, and the pool may
+    // be null to run the batches on the calling thread. Each thread routing needs its own search
+    // state of about 5 bytes per pixel.
+    public static int[][] createRiversAStar(double[][] grid, int[][] basins, int[][] existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed, ForkJoinPool pool)
+    {
+        return createRiversAStar(grid, basins, existingRivers, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, pool, RIVER_BATCH_SIZE);
+    }
+
+    // a batch size of 1 routes every river against all the ones before it
+    private static int[][] createRiversAStar(double[][] grid, int[][] basins, int[][] existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed, ForkJoinPool pool, int batchSize)
     {
         int width = grid.length;
         int height = grid[0].length;
 
-        Random rand = new Random(seed);
-        
         int[][] rivers = new int[width][height];
         
         if(existingRivers != null) rivers = existingRivers;
 
-        for (int i = 0; i < maxRivers; i++)
+        // the router works on row major copies, riverCells is kept up to date as rivers are added
+        double[] heights = new double[width * height];
+        int[] basinCells = new int[width * height];
+        int[] riverCells = new int[width * height];
+
+        // copied a strip of columns at a time, so both sides are read and written in runs
+        for (int x0 = 0; x0 < width; x0 += TRANSPOSE_STRIP)
         {
-            Point startPoint = null;
-            Point currentPoint = null;
-            List<Point> riverPoints = new ArrayList<Point>();
+            int x1 = Math.min(width, x0 + TRANSPOSE_STRIP);
 
-            // get a random starting point
-            int pointAttempts = 0;
-            while (startPoint == null)
+            for (int y = 0; y < height; y++)
             {
-                int x = rand.nextInt(width);
-                int y = rand.nextInt(height);
-
-                //grid[x][y] > 1.0 - ((1.0 - seaLevel) / 2)
-                if (grid[x][y] > seaLevel && rivers[x][y] == 0)
+                for (int x = x0; x < x1; x++)
                 {
-                    startPoint = new Point(x, y);
-                    currentPoint = new Point(x, y);
-                }
-                
-                pointAttempts++;
-                // at what point do we determine we're stuck in a loop here?
-                if(pointAttempts > width * 2)
-                {
-                    startPoint = new Point(0, 0);
-                    currentPoint = new Point(x, y);
+                    heights[y * width + x] = grid[x][y];
+                    basinCells[y * width + x] = basins[x][y];
+                    riverCells[y * width + x] = rivers[x][y];
                 }
             }
+        }
 
-            // get a destination point (the closest sea level)
-            Point destinationPoint = getClosestWaterPoint(grid, basins, startPoint, seaLevel, width, bbox, false);
-            boolean destinationFound = false;
+        routeRivers(heights, basinCells, riverCells, width, height, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, pool, batchSize);
 
-            if (destinationPoint == null)
-                destinationFound = true;
+        for (int x0 = 0; x0 < width; x0 += TRANSPOSE_STRIP)
+        {
+            int x1 = Math.min(width, x0 + TRANSPOSE_STRIP);
 
-            while (!destinationFound)
+            for(int y = 0; y < height; y++)
             {
-                if (currentPoint == null)
-                {
-                    riverPoints.clear();
-                    break;
-                }
-                riverPoints.add(currentPoint);
-                // if we're at the destination, we're done!
-                if (currentPoint.equals(destinationPoint))
+                for(int x = x0; x < x1; x++)
                 {
-                    destinationFound = true;
-                    break;
+                    rivers[x][y] = riverCells[y * width + x];
+
+                    if(rivers[x][y] > 0)
+                        grid[x][y] -= 0.01;
                 }
+            }
+        }
+        
+        return rivers;
+    }
 
-                // if we're not, we need to find the next best path
-                // get all neighbours. The closest neighbour with the
-                int x = currentPoint.getX();
-                int y = currentPoint.getY();
-                List<Point> neighbours = new ArrayList<Point>();
-
-                neighbours.add(y == 0 ? null : x == 0 ? new Point(width - 1, y - 1) : new Point(x - 1, y - 1));
-                neighbours.add(y == 0 ? null : new Point(x, y - 1));
-                neighbours.add(y == 0 ? null : x == width - 1 ? new Point(0, y - 1) : new Point(x + 1, y - 1));
-                neighbours.add(x == width - 1 ? new Point(0, y) : new Point(x + 1, y));
-                neighbours.add(y == height - 1 ? null : x == width - 1 ? new Point(0, y + 1) : new Point(x + 1, y + 1));
-                neighbours.add(y == height - 1 ? null : new Point(x, y + 1));
-                neighbours.add(y == height - 1 ? null : x == 0 ? new Point(width - 1, y + 1) : new Point(x - 1, y + 1));
-                neighbours.add(x == 0 ? new Point(width - 1, y) : new Point(x - 1, y));
-
-                // get the valid points to test
-                Point bestPoint = null;
-                double bestScore = 0;
-                for (Point p : neighbours)
+    // the routing itself, on row major heights, basins and rivers. Rivers are added to riverCells,
+    // the heights and basins are only read
+    private static void routeRivers(double[] heights, int[] basinCells, int[] riverCells, int width, int height, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed, ForkJoinPool pool, int batchSize)
+    {
+        Random rand = new Random(seed);
+
+        RiverRouter router = new RiverRouter(heights, basinCells, riverCells, width, height, seaLevel, bbox);
+
+        int[] starts = new int[batchSize];
+        int[] destinations = new int[batchSize];
+        int[][] paths = new int[batchSize][];
+
+        // search state for the pool threads, taken by a task and handed back when it is done
+        ConcurrentLinkedQueue<RiverRouter> routers = new ConcurrentLinkedQueue<RiverRouter>();
+
+        for (int first = 0; first < maxRivers; first += batchSize)
+        {
+            int count = Math.min(batchSize, maxRivers - first);
+
+            // start and destination points are picked on this thread, in river order
+            for (int i = 0; i < count; i++)
+            {
+                starts[i] = -1;
+                destinations[i] = -1;
+
+                // get a random starting point
+                int pointAttempts = 0;
+                while (starts[i] == -1)
                 {
-                    if (p != null && !pointInArray(riverPoints, p) && destinationPoint != null)
-                    {
-                        // get the points score. In this case, we're looking for the 
-                        // lowest value (shortest distance plus shortest height)
-                        
-                        Coordinate c1 = SpatialUtilities.pixelsToLatLong(destinationPoint, width, height, bbox);
-                        Coordinate c2 = SpatialUtilities.pixelsToLatLong(p, width, height, bbox);
-                        
-                        double pixelDistanceKms = SpatialUtilities.haversineDistance(c1, c2) / 1000;
-                        
-                        //double distance = Math.hypot(p.getX() - destinationPoint.getX(), p.getY() - destinationPoint.getY());
-                        double heightValue = grid[p.getX()][p.getY()] - grid[currentPoint.getX()][currentPoint.getY()];
-                        double score = heightValue + (pixelDistanceKms / 400); // the higher the distance divisor, the "squigglier" and shorter the rivers
-
-                        if (bestPoint == null || score < bestScore)
-                        {
-                            bestScore = score;
-                            bestPoint = p;
-                        }
-                    }
+                    int x = rand.nextInt(width);
+                    int y = rand.nextInt(height);
+
+                    if (heights[y * width + x] > seaLevel && riverCells[y * width + x] == 0)
+                        starts[i] = y * width + x;
+                    
+                    pointAttempts++;
+                    // at what point do we determine we're stuck in a loop here? Give up on this river
+                    if(pointAttempts > width * 2)
+                        break;
                 }
 
-                currentPoint = bestPoint;
+                if (starts[i] == -1)
+                    continue;
+
+                // get a destination point (the closest sea level). Lakes don't end a river
+                // without tributaries, so aim for the closest ocean when there is one
+                destinations[i] = router.nearestWater(starts[i], false);
 
-                if(currentPoint != null)
+                if (destinations[i] != -1 && !allowTribs && router.isLake(destinations[i]))
                 {
-                    // have we inadvertently hit another waterbody (or our target waterbody?)
-                    if (grid[currentPoint.getX()][currentPoint.getY()] <= seaLevel)
-                    {
-                        // if the destination was a lake, make a new destination to an ocean, reset the start and try again
-                        if(basins[currentPoint.getX()][currentPoint.getY()] == 2 && !allowTribs)
-                        {
-                            //currentPoint = startPoint;
-                            destinationPoint = getClosestWaterPoint(grid, basins, startPoint, seaLevel, width, bbox, true);
-                            if(destinationPoint == null)
-                            {
-                                destinationFound = true;
-                                riverPoints.add(currentPoint);
-                                break;
-                            }
-                        }
-                        else
-                        {
-                            destinationFound = true;
-                            riverPoints.add(currentPoint);
-                            break;
-                        }
-                    }
-    
-                    // have we collided with an existing river?
-                    if (pointAdjacentToRiver(rivers, currentPoint))
-                    {
-                        if(allowTribs)
-                        {
-                            destinationFound = true;
-                            riverPoints.add(currentPoint);
-                            break;
-                        }
-                        else 
-                        {
-                            i--;
-                            currentPoint = null;
-                        }
-                    }
-    
-                    // are we seemingly lost in space?
-                    if (riverPoints.size() > width * 2)
-                    {
-                        currentPoint = null;
-                    }
+                    int ocean = router.nearestWater(starts[i], true);
+                    if (ocean != -1)
+                        destinations[i] = ocean;
                 }
             }
 
-            if (riverPoints.size() > 10)
+            if (pool == null)
             {
-                for (Point p : riverPoints)
-                {
-                    rivers[p.getX()][p.getY()] = riverRank;
-                }
+                for (int i = 0; i < count; i++)
+                    paths[i] = destinations[i] == -1 ? null : router.route(starts[i], destinations[i], allowTribs);
+            }
+            else
+            {
+                pool.invoke(new RouteTask(router, routers, starts, destinations, paths, allowTribs, 0, count));
             }
-        }
 
-        for(int y = 0; y < height; y++)
-        {
-            for(int x = 0; x < width; x++)
+            for (int i = 0; i < count; i++)
             {
-                if(rivers[x][y] > 0)
-                    grid[x][y] -= 0.01;
+                mergeRiver(router, riverCells, paths[i], allowTribs, riverRank);
+                paths[i] = null;
             }
         }
-        
-        return rivers;
     }
 
-    private static boolean pointAdjacentToRiver(int[][] rivers, Point point)
+    // Adds a routed river unless a river added since it was routed took its start. A river that
+    // runs next to one of those is cut short there and joins it when tributaries are allowed,
+    // otherwise it is dropped. Rivers of 10 pixels or less are dropped too
+    private static void mergeRiver(RiverRouter router, int[] riverCells, int[] path, boolean allowTribs, int riverRank)
     {
-        boolean result = false;
-        
-        int x = point.getX();
-        int y = point.getY();
-        List<Point> neighbours = new ArrayList<Point>();
-
-        neighbours.add(y == 0 ? null : x == 0 ? new Point(rivers.length - 1, y - 1) : new Point(x - 1, y - 1));
-        neighbours.add(y == 0 ? null : new Point(x, y - 1));
-        neighbours.add(y == 0 ? null : x == rivers.length - 1 ? new Point(0, y - 1) : new Point(x + 1, y - 1));
-        neighbours.add(x == rivers.length - 1 ? new Point(0, y) : new Point(x + 1, y));
-        neighbours.add(y == rivers[0].length - 1 ? null : x == rivers.length - 1 ? new Point(0, y + 1) : new Point(x + 1, y + 1));
-        neighbours.add(y == rivers[0].length - 1 ? null : new Point(x, y + 1));
-        neighbours.add(y == rivers[0].length - 1 ? null : x == 0 ? new Point(rivers.length - 1, y + 1) : new Point(x - 1, y + 1));
-        neighbours.add(x == 0 ? new Point(rivers.length - 1, y) : new Point(x - 1, y));
-        
-        for(Point n : neighbours)
+        if (path == null || riverCells[path[0]] != 0)
+            return;
+
+        int length = path.length;
+
+        for (int i = 1; i < path.length; i++)
         {
-            if(n != null && rivers[n.getX()][n.getY()] >= 1)
+            if (router.isAdjacentToRiver(path[i]))
             {
-                result = true;
+                if (!allowTribs)
+                    return;
+
+                length = i + 1;
                 break;
             }
         }
-        
-        return result;
+
+        if (length > 10)
+            router.markRiver(length == path.length ? path : Arrays.copyOf(path, length), riverRank);
     }
-    
-    private static boolean pointInArray(List<Point> points, Point p)
+
+    // field version of createRiversAStar. The carved heights are written back to grid, and
+    // like the array version the rivers are added to existingRivers when one is passed in.
+    // Routing needs the whole map, heap fields are routed on their own arrays and mapped or
+    // direct ones through row major heap copies, as long as those fit
+    public static IntField createRiversAStar(HeightField grid, IntField basins, IntField existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed)
     {
-        boolean result = false;
-        for(Point point : points)
+        return createRiversAStar(grid, basins, existingRivers, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, null, 1);
+    }
+
+    public static IntField createRiversAStar(HeightField grid, IntField basins, IntField existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed, ForkJoinPool pool)
+    {
+        return createRiversAStar(grid, basins, existingRivers, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, pool, RIVER_BATCH_SIZE);
+    }
+
+    private static IntField createRiversAStar(HeightField grid, IntField basins, IntField existingRivers, double seaLevel, int maxRivers, boolean allowTribs, Envelope bbox, int riverRank, int seed, ForkJoinPool pool, int batchSize)
+    {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+
+        long cellBytes = ROUTER_CELL_BYTES + (grid.hasArray() ? 0 : Double.BYTES) + (basins.hasArray() ? 0 : Integer.BYTES) + (existingRivers != null && existingRivers.hasArray() ? 0 : Integer.BYTES);
+        HeapLimit.check("River routing", width, height, cellBytes);
+
+        double[] heights;
+        int[] basinCells;
+        int[] riverCells;
+
+        if (grid.hasArray())
         {
-            if(point.equals(p))
-            {
-                result = true;
-                break;
-            }
+            heights = grid.array();
         }
-        
-        return result;
+        else
+        {
+            heights = new double[grid.size()];
+            grid.copyTo(heights);
+        }
+
+        if (basins.hasArray())
+        {
+            basinCells = basins.array();
+        }
+        else
+        {
+            basinCells = new int[basins.size()];
+            basins.copyTo(basinCells);
+        }
+
+        if (existingRivers != null && existingRivers.hasArray())
+        {
+            riverCells = existingRivers.array();
+        }
+        else
+        {
+            riverCells = new int[width * height];
+            if (existingRivers != null)
+                existingRivers.copyTo(riverCells);
+        }
+
+        routeRivers(heights, basinCells, riverCells, width, height, seaLevel, maxRivers, allowTribs, bbox, riverRank, seed, pool, batchSize);
+
+        // only the river pixels are carved, so a field that isn't on the heap is written sparsely
+        for (int i = 0; i < riverCells.length; i++)
+        {
+            if (riverCells[i] > 0)
+                grid.set(i, heights[i] - 0.01);
+        }
+
+        if (existingRivers == null)
+            return new ArrayIntField(riverCells, width, height, grid.getWrapMode());
+
+        if (!existingRivers.hasArray())
+            existingRivers.copyFrom(riverCells);
+
+        return existingRivers;
     }
-    
-    private static Point getClosestWaterPoint(double[][] grid, int[][] basins, Point point, double seaLevel, int tolerance, Envelope bbox, boolean oceanOnly)
-    {
-        Point destination = null;
-        boolean foundWater = false;
 
-        int width = grid.length;
-        int height = grid[0].length;
+    // routes rivers from to to - 1 of a batch, halving the range until one is left
+    private static class RouteTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RiverRouter router;
+        private final ConcurrentLinkedQueue<RiverRouter> routers;
+        private final int[] starts;
+        private final int[] destinations;
+        private final int[][] paths;
+        private final boolean allowTribs;
+        private final int from;
+        private final int to;
+
+        RouteTask(RiverRouter router, ConcurrentLinkedQueue<RiverRouter> routers, int[] starts, int[] destinations, int[][] paths, boolean allowTribs, int from, int to)
+        {
+            this.router = router;
+            this.routers = routers;
+            this.starts = starts;
+            this.destinations = destinations;
+            this.paths = paths;
+            this.allowTribs = allowTribs;
+            this.from = from;
+            this.to = to;
+        }
 
-        int loops = 0;
-        while (!foundWater)
+        @Override
+        protected void compute()
         {
-            if (loops > tolerance)
-                break; // we've been searching for a while and never found a destination?
-
-            List<Point> possibleLocations = new ArrayList<Point>();
-            
-            List<Point> circlePoints = new ArrayList<Point>();
-            int angleInDegrees = 0;
-            
-            while(angleInDegrees <= 360)
+            if (to - from > 1)
             {
-                // loops + 2 for radius, so you don't start at your inner point
-                int x = (int) Math.round(((loops + 2) * Math.cos(angleInDegrees * Math.PI / 180F)) + point.getX());
-                int y = (int) Math.round(((loops + 2) * Math.sin(angleInDegrees * Math.PI / 180F)) + point.getY());
-
-                circlePoints.add(new Point(x, y));
-                int ang = Math.round((90 / (loops + 1)));
-                
-                angleInDegrees += ang <= 0 ? 1 : ang;
+                int mid = (from + to) >>> 1;
+                invokeAll(new RouteTask(router, routers, starts, destinations, paths, allowTribs, from, mid), new RouteTask(router, routers, starts, destinations, paths, allowTribs, mid, to));
+                return;
             }
-            
-            for(Point p : circlePoints)
-            {
-                int x = p.getX();
-                int y = p.getY();
-                // make sure we're within array bounds
-                if (x < 0)
-                    x = 0;
-                if (x >= width - 1)
-                    x = width - 1;
-                if (y < 0)
-                    y = 0;
-                if (y >= height - 1)
-                    y = height - 1;
-
-                if (grid[x][y] <= seaLevel && (!oceanOnly || (oceanOnly && basins[x][y] == 3)))
-                {
-                    possibleLocations.add(new Point(x, y));
-                }
 
-                if (y > point.getY() - loops && y < point.getY() + loops - 1)
-                {
-                    x = point.getX() + loops;
-                }
+            if (to == from || destinations[from] == -1)
+                return;
+
+            RiverRouter search = routers.poll();
+            if (search == null)
+                search = router.copy();
+
+            try
+            {
+                paths[from] = search.route(starts[from], destinations[from], allowTribs);
             }
-            
-            // all of the possible closest water points. 
-            // find the actual closest...
-            if(possibleLocations.size() > 0)
+            finally
             {
-                destination = null;
-                double closestDistance = 0;
-                
-                for(Point p : possibleLocations)
-                {
-                    Coordinate c1 = SpatialUtilities.pixelsToLatLong(point, width, height, bbox);
-                    Coordinate c2 = SpatialUtilities.pixelsToLatLong(p, width, height, bbox);
-                    
-                    double pixelDistance = SpatialUtilities.haversineDistance(c1, c2) / 1000;
-                    
-                    if(destination == null || pixelDistance < closestDistance)
-                    {
-                        destination = p;
-                        closestDistance = pixelDistance;
-                    }
-                }
-
-                foundWater = true;                
+                routers.add(search);
             }
-
-            loops++;
         }
-
-        return destination;
     }
 }
@@ -0,0 +1,439 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Arrays;
+
+import ca.dhlevi.libnoise.field.WrapMode;
+import ca.dhlevi.libnoise.spatial.Envelope;
+import ca.dhlevi.libnoise.spatial.GridGeometry;
+import ca.dhlevi.libnoise.spatial.NearestFeatureIndex;
+import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+
+// A* search for river paths over a row major height grid. Cells are addressed by their index,
+// y * width + x, and wrap east/west but not north/south.
+//
+// A step costs its length in km over DISTANCE_DIVISOR plus any height it climbs, so rivers
+// keep to valleys and only cross a ridge when going around it is longer. The heuristic is the
+// straight line (chord) distance to the destination over the same divisor. A chord is never
+// longer than the great circle, so it never overestimates and the first time a goal comes off
+// the queue its path is the cheapest one.
+//
+// Step lengths come from the per row tables of a GridGeometry, and the open set is a binary
+// heap of cell indices with a bitset for the closed set, so a search allocates nothing. Only the
+// cells a search touched are reset afterwards, a router can run thousands of searches on a
+// large map.
+// Not thread safe, use a copy() per thread.
+public class RiverRouter
+{
+    // the higher the distance divisor, the "squigglier" and shorter the rivers
+    public static final double DISTANCE_DIVISOR = 400;
+
+    // searches give up after this many expanded cells per map column
+    public static final int DEFAULT_EXPANSIONS_PER_COLUMN = 32;
+
+    // neighbour offsets, nw, n, ne, e, se, s, sw, w
+    private static final int[] DX = { -1, 0, 1, 1, 1, 0, -1, -1 };
+    private static final int[] DY = { -1, -1, -1, 0, 1, 1, 1, 0 };
+
+    private static final int LAKE = 2;
+    private static final int OCEAN = 3;
+
+    private final double[] heights;
+    private final int[] basins;
+    private final int[] rivers;
+    private final int width;
+    private final int height;
+    private final double seaLevel;
+    private final Envelope bbox;
+
+    // unit vectors of the cells and step lengths in km, per row and per column
+    private final GridGeometry geometry;
+
+    // cells next to a river, kept as a bitset so the check is a single lookup
+    private final long[] nearRiver;
+
+    // closest water and closest ocean cell to every cell, built on first use
+    private NearestFeatureIndex nearestWater;
+    private NearestFeatureIndex nearestOcean;
+
+    private final float[] cost;
+    private final byte[] direction;
+    private final long[] closed;
+    private int[] touched = new int[1024];
+    private int touchedCount;
+
+    // open set, a binary min heap of the estimated cost's float bits in the high half and the
+    // cell in the low half. Costs are never negative, so the bits sort the same as the floats
+    private long[] heap = new long[1024];
+    private int heapSize;
+
+    private int maxExpansions;
+
+    // heights, basins and rivers are row major. basins may be null, when it isn't lakes (2) are
+    // crossed but don't end a river unless tributaries are allowed. Rivers found are added to
+    // rivers with markRiver, so the next search sees them
+    public RiverRouter(double[] heights, int[] basins, int[] rivers, int width, int height, double seaLevel, Envelope bbox)
+    {
+        if (heights.length != width * height)
+            throw new IllegalArgumentException("Expected " + width * height + " heights, got " + heights.length);
+
+        this.heights = heights;
+        this.basins = basins;
+        this.rivers = rivers;
+        this.width = width;
+        this.height = height;
+        this.seaLevel = seaLevel;
+        this.bbox = bbox;
+        this.maxExpansions = width * DEFAULT_EXPANSIONS_PER_COLUMN;
+
+        this.geometry = new GridGeometry(width, height, bbox);
+
+        cost = new float[width * height];
+        direction = new byte[width * height];
+        closed = new long[(width * height + 63) >>> 6];
+        nearRiver = new long[(width * height + 63) >>> 6];
+
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+
+        for (int cell = 0; cell < rivers.length; cell++)
+        {
+            if (rivers[cell] >= 1)
+                markNeighbours(cell);
+        }
+    }
+
+    // a router over the same map, tables and rivers with its own search state, for routing on
+    // another thread. Only route may run concurrently, rivers have to be marked in between
+    private RiverRouter(RiverRouter other)
+    {
+        this.heights = other.heights;
+        this.basins = other.basins;
+        this.rivers = other.rivers;
+        this.width = other.width;
+        this.height = other.height;
+        this.seaLevel = other.seaLevel;
+        this.bbox = other.bbox;
+        this.maxExpansions = other.maxExpansions;
+        this.geometry = other.geometry;
+        this.nearRiver = other.nearRiver;
+        this.nearestWater = other.nearestWater;
+        this.nearestOcean = other.nearestOcean;
+
+        cost = new float[width * height];
+        direction = new byte[width * height];
+        closed = new long[(width * height + 63) >>> 6];
+
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+    }
+
+    public RiverRouter copy()
+    {
+        return new RiverRouter(this);
+    }
+
+    public int getMaxExpansions()
+    {
+        return maxExpansions;
+    }
+
+    public void setMaxExpansions(int maxExpansions)
+    {
+        if (maxExpansions < 1)
+            throw new IllegalArgumentException("Max expansions must be at least 1");
+
+        this.maxExpansions = maxExpansions;
+    }
+
+    public boolean isWater(int cell)
+    {
+        return heights[cell] <= seaLevel;
+    }
+
+    public boolean isLake(int cell)
+    {
+        return basins != null && basins[cell] == LAKE;
+    }
+
+    // straight line distance between two cells in km
+    public double chordKm(int a, int b)
+    {
+        return geometry.chordKm(a % width, a / width, b % width, b / width);
+    }
+
+    public boolean isOcean(int cell)
+    {
+        return isWater(cell) && (basins == null || basins[cell] == OCEAN);
+    }
+
+    // The water cell closest to cell, or -1 when there is none. Looked up in a distance
+    // transform of the water, the first call builds it
+    public int nearestWater(int cell, boolean oceanOnly)
+    {
+        int x = cell % width;
+        int y = cell / width;
+
+        if (oceanOnly)
+        {
+            if (nearestOcean == null)
+                nearestOcean = nearestIndex(true);
+            return nearestOcean.getNearest(x, y);
+        }
+
+        if (nearestWater == null)
+            nearestWater = nearestIndex(false);
+        return nearestWater.getNearest(x, y);
+    }
+
+    private NearestFeatureIndex nearestIndex(boolean oceanOnly)
+    {
+        int[] water = new int[width * height];
+
+        for (int cell = 0; cell < water.length; cell++)
+        {
+            if (oceanOnly ? isOcean(cell) : isWater(cell))
+                water[cell] = 1;
+        }
+
+        return new NearestFeatureIndex(water, width, height, WrapMode.HORIZONTAL, bbox);
+    }
+
+    public boolean isAdjacentToRiver(int cell)
+    {
+        return (nearRiver[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    // adds a river found by route to the river grid
+    public void markRiver(int[] path, int riverRank)
+    {
+        for (int cell : path)
+        {
+            rivers[cell] = riverRank;
+
+            if (riverRank >= 1)
+                markNeighbours(cell);
+        }
+    }
+
+    private void markNeighbours(int cell)
+    {
+        int x = cell % width;
+        int y = cell / width;
+
+        for (int k = 0; k < 8; k++)
+        {
+            int ny = y + DY[k];
+            if (ny < 0 || ny >= height)
+                continue;
+
+            int nx = x + DX[k];
+            if (nx < 0)
+                nx = width - 1;
+            else if (nx == width)
+                nx = 0;
+
+            int next = ny * width + nx;
+            nearRiver[next >>> 6] |= 1L << next;
+        }
+    }
+
+    // Cheapest path from start to destination, or to the first water or (with tributaries)
+    // river side cell it finds on the way. Returns the cells from start to the end of the river,
+    // or null when there is no way through within the expansion limit. Without tributaries,
+    // cells next to an existing river are avoided.
+    public int[] route(int start, int destination, boolean allowTribs)
+    {
+        try
+        {
+            // the destination's unit vector, and the factor from chord length to cost
+            int dx = destination % width;
+            int dy = destination / width;
+            double vx = geometry.getCosLatitude(dy) * geometry.getCosLongitude(dx);
+            double vy = geometry.getCosLatitude(dy) * geometry.getSinLongitude(dx);
+            double vz = geometry.getSinLatitude(dy);
+            double chordCost = SpatialUtilities.RADIUS / 1000 / DISTANCE_DIVISOR;
+
+            touch(start, 0, (byte) 0);
+            push(chordKm(start, destination) / DISTANCE_DIVISOR, start);
+
+            int expansions = 0;
+
+            while (heapSize > 0)
+            {
+                int cell = pop();
+
+                if ((closed[cell >>> 6] & (1L << cell)) != 0)
+                    continue;
+                closed[cell >>> 6] |= 1L << cell;
+
+                if (cell != start && isGoal(cell, destination, allowTribs))
+                    return path(start, cell);
+
+                if (++expansions > maxExpansions)
+                    return null;
+
+                int x = cell % width;
+                int y = cell / width;
+                double here = heights[cell];
+                float g = cost[cell];
+
+                for (int k = 0; k < 8; k++)
+                {
+                    int ny = y + DY[k];
+                    if (ny < 0 || ny >= height)
+                        continue;
+
+                    int nx = x + DX[k];
+                    if (nx < 0)
+                        nx = width - 1;
+                    else if (nx == width)
+                        nx = 0;
+
+                    int next = ny * width + nx;
+                    if ((closed[next >>> 6] & (1L << next)) != 0)
+                        continue;
+
+                    if (!allowTribs && isAdjacentToRiver(next))
+                        continue;
+
+                    double stepKm = DY[k] == 0 ? geometry.getEastKm(y) : DX[k] == 0 ? geometry.getSouthKm(Math.min(y, ny)) : geometry.getDiagonalKm(Math.min(y, ny));
+                    double climb = heights[next] - here;
+                    float nextCost = (float) (g + stepKm / DISTANCE_DIVISOR + (climb > 0 ? climb : 0));
+
+                    if (nextCost < cost[next])
+                    {
+                        // chordKm(next, destination) without the index arithmetic
+                        double cosLat = geometry.getCosLatitude(ny);
+                        double ex = cosLat * geometry.getCosLongitude(nx) - vx;
+                        double ey = cosLat * geometry.getSinLongitude(nx) - vy;
+                        double ez = geometry.getSinLatitude(ny) - vz;
+
+                        touch(next, nextCost, (byte) k);
+                        push(nextCost + Math.sqrt(ex * ex + ey * ey + ez * ez) * chordCost, next);
+                    }
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            reset();
+        }
+    }
+
+    private boolean isGoal(int cell, int destination, boolean allowTribs)
+    {
+        if (cell == destination)
+            return true;
+
+        if (isWater(cell) && (allowTribs || !isLake(cell)))
+            return true;
+
+        return allowTribs && isAdjacentToRiver(cell);
+    }
+
+    private int[] path(int start, int end)
+    {
+        int length = 1;
+        for (int cell = end; cell != start; cell = previous(cell))
+            length++;
+
+        int[] cells = new int[length];
+        int cell = end;
+
+        for (int i = length - 1; i >= 0; i--)
+        {
+            cells[i] = cell;
+            if (i > 0)
+                cell = previous(cell);
+        }
+
+        return cells;
+    }
+
+    // the cell a step in direction came from
+    private int previous(int cell)
+    {
+        int k = direction[cell];
+        int x = cell % width - DX[k];
+        int y = cell / width - DY[k];
+
+        if (x < 0)
+            x = width - 1;
+        else if (x == width)
+            x = 0;
+
+        return y * width + x;
+    }
+
+    private void touch(int cell, float value, byte from)
+    {
+        if (cost[cell] == Float.POSITIVE_INFINITY)
+        {
+            if (touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            touched[touchedCount++] = cell;
+        }
+
+        cost[cell] = value;
+        direction[cell] = from;
+    }
+
+    private void reset()
+    {
+        for (int i = 0; i < touchedCount; i++)
+        {
+            int cell = touched[i];
+            cost[cell] = Float.POSITIVE_INFINITY;
+            closed[cell >>> 6] = 0;
+        }
+
+        touchedCount = 0;
+        heapSize = 0;
+    }
+
+    private void push(double key, int cell)
+    {
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, heapSize * 2);
+
+        long entry = (long) Float.floatToRawIntBits((float) key) << 32 | cell;
+
+        int i = heapSize++;
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry)
+                break;
+
+            heap[i] = heap[parent];
+            i = parent;
+        }
+
+        heap[i] = entry;
+    }
+
+    private int pop()
+    {
+        int top = (int) heap[0];
+        long entry = heap[--heapSize];
+
+        int i = 0;
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child])
+                child++;
+            if (entry <= heap[child])
+                break;
+
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = entry;
+
+        return top;
+    }
+}
@@ -0,0 +1,68 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits 0 to count (rows, columns, bands of pixels) into strips of stripSize and runs each
+// strip once, in order on the calling thread or spread over a fork/join pool. Strips always
+// start on a multiple of stripSize, so the split is the same however it is scheduled.
+public class StripRunner
+{
+    public interface Strip
+    {
+        // run the items in [from, to)
+        void run(int from, int to);
+    }
+
+    public static void run(int count, int stripSize, ForkJoinPool pool, Strip strip)
+    {
+        if (stripSize < 1)
+            throw new IllegalArgumentException("Strip size must be at least 1");
+
+        int strips = (count + stripSize - 1) / stripSize;
+
+        if (pool == null || strips <= 1)
+        {
+            for (int s = 0; s < strips; s++)
+                strip.run(s * stripSize, Math.min(count, (s + 1) * stripSize));
+        }
+        else
+        {
+            pool.invoke(new StripTask(strip, count, stripSize, 0, strips));
+        }
+    }
+
+    // halves the range of strips until a single strip is left, then runs it
+    private static class StripTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Strip strip;
+        private final int count;
+        private final int stripSize;
+        private final int from;
+        private final int to;
+
+        StripTask(Strip strip, int count, int stripSize, int from, int to)
+        {
+            this.strip = strip;
+            this.count = count;
+            this.stripSize = stripSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                strip.run(from * stripSize, Math.min(count, to * stripSize));
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new StripTask(strip, count, stripSize, from, mid), new StripTask(strip, count, stripSize, mid, to));
+        }
+    }
+}
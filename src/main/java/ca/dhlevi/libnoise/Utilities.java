@@ -33,12 +33,12 @@ public class Utilities
 
     public static double mapCubicSCurve(double value)
     {
-        return (Math.pow(value, 2.0) * (3.0 - 2.0 * value));
+        return (value * value * (3.0 - 2.0 * value));
     }
 
     public static double mapQuinticSCurve(double value)
     {
-        double a3 = Math.pow(value, 3.0);
+        double a3 = value * value * value;
         double a4 = a3 * value;
         double a5 = a4 * value;
 
@@ -90,11 +90,18 @@ public class Utilities
      * private static int GENERATOR_SEED = 1013; private static int
      * GENERATOR_SHIFT = 13;
      */
-    private static int GENTERATOR_NOISE_X = 1619;
-    private static int GENTERATOR_NOISE_Y = 31337;
-    private static int GENTERATOR_NOISE_Z = 6971;
-    private static int GENERATOR_SEED = 1013;
-    private static int GENERATOR_SHIFT = 8;
+    private static final int GENTERATOR_NOISE_X = 1619;
+    private static final int GENTERATOR_NOISE_Y = 31337;
+    private static final int GENTERATOR_NOISE_Z = 6971;
+    private static final int GENERATOR_SEED = 1013;
+    private static final int GENERATOR_SHIFT = 8;
+
+    // The kernels below give the same values as the original gradientNoise3D based version up
+    // to NOISE_EPSILON. The lattice hashes and gradients are identical, the only difference is
+    // that the fade curves are plain polynomials now rather than Math.pow calls, which can move
+    // the last bit of a fade value. Summed over the octaves of a Perlin, Billow or
+    // RidgedMultifractal module the difference stays well below this.
+    public static final double NOISE_EPSILON = 1e-12;
 
     public static double gradientNoise3D(double fx, double fy, double fz, int ix, int iy, int iz, long seed)
     {
@@ -114,56 +121,115 @@ public class Utilities
     }
 
     public static double gradientCoherentNoise3D(double x, double y, double z, long seed, QualityMode quality)
+    {
+        switch (quality)
+        {
+        case Low:
+            return gradientCoherentNoise3DLow(x, y, z, seed);
+        case Medium:
+            return gradientCoherentNoise3DMedium(x, y, z, seed);
+        default:
+            return gradientCoherentNoise3DHigh(x, y, z, seed);
+        }
+    }
+
+    // linear interpolation between the lattice points
+    public static double gradientCoherentNoise3DLow(double x, double y, double z, long seed)
     {
         int x0 = x > 0.0 ? (int) x : (int) x - 1;
-        int x1 = x0 + 1;
         int y0 = y > 0.0 ? (int) y : (int) y - 1;
-        int y1 = y0 + 1;
         int z0 = z > 0.0 ? (int) z : (int) z - 1;
-        int z1 = z0 + 1;
 
-        double xs = 0, ys = 0, zs = 0;
+        return gradientLattice3D(x, y, z, x0, y0, z0, (x - x0), (y - y0), (z - z0), seed);
+    }
+
+    // cubic s-curve between the lattice points
+    public static double gradientCoherentNoise3DMedium(double x, double y, double z, long seed)
+    {
+        int x0 = x > 0.0 ? (int) x : (int) x - 1;
+        int y0 = y > 0.0 ? (int) y : (int) y - 1;
+        int z0 = z > 0.0 ? (int) z : (int) z - 1;
+
+        double xs = x - x0;
+        double ys = y - y0;
+        double zs = z - z0;
+
+        xs = xs * xs * (3.0 - 2.0 * xs);
+        ys = ys * ys * (3.0 - 2.0 * ys);
+        zs = zs * zs * (3.0 - 2.0 * zs);
+
+        return gradientLattice3D(x, y, z, x0, y0, z0, xs, ys, zs, seed);
+    }
+
+    // quintic s-curve between the lattice points
+    public static double gradientCoherentNoise3DHigh(double x, double y, double z, long seed)
+    {
+        int x0 = x > 0.0 ? (int) x : (int) x - 1;
+        int y0 = y > 0.0 ? (int) y : (int) y - 1;
+        int z0 = z > 0.0 ? (int) z : (int) z - 1;
+
+        return gradientLattice3D(x, y, z, x0, y0, z0, mapQuinticSCurve(x - x0), mapQuinticSCurve(y - y0), mapQuinticSCurve(z - z0), seed);
+    }
+
+    // Periodic versions of the kernels: the lattice wraps every periodX, periodY and periodZ
+    // cells, so the noise repeats at those distances. A period of 0 leaves that axis unwrapped,
+    // with every period 0 these give exactly the values of the kernels above.
+    public static double gradientCoherentNoise3D(double x, double y, double z, long seed, QualityMode quality, int periodX, int periodY, int periodZ)
+    {
+        int x0 = x > 0.0 ? (int) x : (int) x - 1;
+        int y0 = y > 0.0 ? (int) y : (int) y - 1;
+        int z0 = z > 0.0 ? (int) z : (int) z - 1;
+
+        double xs = x - x0;
+        double ys = y - y0;
+        double zs = z - z0;
 
         switch (quality)
         {
         case Low:
-        {
-            xs = (x - x0);
-            ys = (y - y0);
-            zs = (z - z0);
             break;
-        }
         case Medium:
-        {
-            xs = mapCubicSCurve(x - x0);
-            ys = mapCubicSCurve(y - y0);
-            zs = mapCubicSCurve(z - z0);
+            xs = xs * xs * (3.0 - 2.0 * xs);
+            ys = ys * ys * (3.0 - 2.0 * ys);
+            zs = zs * zs * (3.0 - 2.0 * zs);
             break;
-        }
-        case High:
-        {
-            xs = mapQuinticSCurve(x - x0);
-            ys = mapQuinticSCurve(y - y0);
-            zs = mapQuinticSCurve(z - z0);
+        default:
+            xs = mapQuinticSCurve(xs);
+            ys = mapQuinticSCurve(ys);
+            zs = mapQuinticSCurve(zs);
             break;
         }
-        }
 
-        double n0 = gradientNoise3D(x, y, z, x0, y0, z0, seed);
-        double n1 = gradientNoise3D(x, y, z, x1, y0, z0, seed);
+        // the hash of each axis' two lattice lines, wrapped
+        int hx0 = GENTERATOR_NOISE_X * wrap(x0, periodX);
+        int hx1 = GENTERATOR_NOISE_X * wrap(x0 + 1, periodX);
+        int hy0 = GENTERATOR_NOISE_Y * wrap(y0, periodY);
+        int hy1 = GENTERATOR_NOISE_Y * wrap(y0 + 1, periodY);
+        int hz0 = GENTERATOR_NOISE_Z * wrap(z0, periodZ) + GENERATOR_SEED * (int) seed;
+        int hz1 = GENTERATOR_NOISE_Z * wrap(z0 + 1, periodZ) + GENERATOR_SEED * (int) seed;
+
+        double xv0 = x - x0;
+        double xv1 = x - (x0 + 1);
+        double yv0 = y - y0;
+        double yv1 = y - (y0 + 1);
+        double zv0 = z - z0;
+        double zv1 = z - (z0 + 1);
+
+        double n0 = gradient(hx0 + hy0 + hz0, xv0, yv0, zv0);
+        double n1 = gradient(hx1 + hy0 + hz0, xv1, yv0, zv0);
         double ix0 = interpolateLinear(n0, n1, xs);
 
-        n0 = gradientNoise3D(x, y, z, x0, y1, z0, seed);
-        n1 = gradientNoise3D(x, y, z, x1, y1, z0, seed);
+        n0 = gradient(hx0 + hy1 + hz0, xv0, yv1, zv0);
+        n1 = gradient(hx1 + hy1 + hz0, xv1, yv1, zv0);
 
         double ix1 = interpolateLinear(n0, n1, xs);
         double iy0 = interpolateLinear(ix0, ix1, ys);
 
-        n0 = gradientNoise3D(x, y, z, x0, y0, z1, seed);
-        n1 = gradientNoise3D(x, y, z, x1, y0, z1, seed);
+        n0 = gradient(hx0 + hy0 + hz1, xv0, yv0, zv1);
+        n1 = gradient(hx1 + hy0 + hz1, xv1, yv0, zv1);
         ix0 = interpolateLinear(n0, n1, xs);
-        n0 = gradientNoise3D(x, y, z, x0, y1, z1, seed);
-        n1 = gradientNoise3D(x, y, z, x1, y1, z1, seed);
+        n0 = gradient(hx0 + hy1 + hz1, xv0, yv1, zv1);
+        n1 = gradient(hx1 + hy1 + hz1, xv1, yv1, zv1);
         ix1 = interpolateLinear(n0, n1, xs);
 
         double iy1 = interpolateLinear(ix0, ix1, ys);
@@ -171,6 +237,87 @@ public class Utilities
         return interpolateLinear(iy0, iy1, zs);
     }
 
+    // lattice cells in one period of an octave at the given frequency, rounded to a whole number
+    // of cells so the octave repeats. 0 for an axis that does not wrap
+    public static int latticePeriod(double period, double frequency)
+    {
+        if (period <= 0)
+            return 0;
+
+        return (int) Math.max(1, Math.round(period * frequency));
+    }
+
+    // what a coordinate is multiplied by to sample that octave, the frequency bent just enough
+    // that the period spans latticePeriod cells
+    public static double latticeScale(double period, double frequency)
+    {
+        if (period <= 0)
+            return frequency;
+
+        return latticePeriod(period, frequency) / period;
+    }
+
+    private static int wrap(int cell, int period)
+    {
+        if (period <= 0)
+            return cell;
+
+        int wrapped = cell % period;
+        return wrapped < 0 ? wrapped + period : wrapped;
+    }
+
+    // Blends the eight corner gradients of the cell at (x0, y0, z0), in the same order as the
+    // original per-corner gradientNoise3D calls. Only the low 16 bits of the corner hash ever
+    // reach the gradient index, so it can be worked out in int arithmetic, and the neighbouring
+    // corners are just the base hash plus the per-axis constants.
+    private static double gradientLattice3D(double x, double y, double z, int x0, int y0, int z0, double xs, double ys, double zs, long seed)
+    {
+        int h000 = GENTERATOR_NOISE_X * x0 + GENTERATOR_NOISE_Y * y0 + GENTERATOR_NOISE_Z * z0 + GENERATOR_SEED * (int) seed;
+        int h100 = h000 + GENTERATOR_NOISE_X;
+        int h010 = h000 + GENTERATOR_NOISE_Y;
+        int h110 = h010 + GENTERATOR_NOISE_X;
+        int h001 = h000 + GENTERATOR_NOISE_Z;
+        int h101 = h001 + GENTERATOR_NOISE_X;
+        int h011 = h001 + GENTERATOR_NOISE_Y;
+        int h111 = h011 + GENTERATOR_NOISE_X;
+
+        // offsets from each corner, the same subtractions gradientNoise3D does
+        double xv0 = x - x0;
+        double xv1 = x - (x0 + 1);
+        double yv0 = y - y0;
+        double yv1 = y - (y0 + 1);
+        double zv0 = z - z0;
+        double zv1 = z - (z0 + 1);
+
+        double n0 = gradient(h000, xv0, yv0, zv0);
+        double n1 = gradient(h100, xv1, yv0, zv0);
+        double ix0 = interpolateLinear(n0, n1, xs);
+
+        n0 = gradient(h010, xv0, yv1, zv0);
+        n1 = gradient(h110, xv1, yv1, zv0);
+
+        double ix1 = interpolateLinear(n0, n1, xs);
+        double iy0 = interpolateLinear(ix0, ix1, ys);
+
+        n0 = gradient(h001, xv0, yv0, zv1);
+        n1 = gradient(h101, xv1, yv0, zv1);
+        ix0 = interpolateLinear(n0, n1, xs);
+        n0 = gradient(h011, xv0, yv1, zv1);
+        n1 = gradient(h111, xv1, yv1, zv1);
+        ix1 = interpolateLinear(n0, n1, xs);
+
+        double iy1 = interpolateLinear(ix0, ix1, ys);
+
+        return interpolateLinear(iy0, iy1, zs);
+    }
+
+    private static double gradient(int hash, double xvp, double yvp, double zvp)
+    {
+        int i = ((hash ^ (hash >> GENERATOR_SHIFT)) & 0xff) << 2;
+
+        return ((GRADIENTS[i] * xvp) + (GRADIENTS[i + 1] * yvp) + (GRADIENTS[i + 2] * zvp)) * 2.12;
+    }
+
     public static double[] RANDOMS = { -0.763874, -0.596439, -0.246489, 0.0, 0.396055, 0.904518, -0.158073, 0.0,
             -0.499004, -0.8665, -0.0131631, 0.0, 0.468724, -0.824756, 0.316346, 0.0, 0.829598, 0.43195, 0.353816, 0.0,
             -0.454473, 0.629497, -0.630228, 0.0, -0.162349, -0.869962, -0.465628, 0.0, 0.932805, 0.253451, 0.256198,
@@ -261,4 +408,7 @@ public class Utilities
             0.202678, 0.0, -0.565191, 0.821858, -0.0714658, 0.0, 0.437895, 0.152598, -0.885981, 0.0, -0.92394, 0.353436,
             -0.14635, 0.0, 0.212189, -0.815162, -0.538969, 0.0, -0.859262, 0.143405, -0.491024, 0.0, 0.991353, 0.112814,
             0.0670273, 0.0, 0.0337884, -0.979891, -0.196654, 0.0 };
+
+    // the noise kernels read from a final copy so the JIT can treat the table as a constant
+    private static final double[] GRADIENTS = RANDOMS.clone();
 }
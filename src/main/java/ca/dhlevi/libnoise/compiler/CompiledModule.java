@@ -0,0 +1,553 @@
+package ca.dhlevi.libnoise.compiler;
+
+import java.util.Arrays;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.Utilities;
+import ca.dhlevi.libnoise.operator.Curve;
+import ca.dhlevi.libnoise.operator.Terrace;
+
+// A module graph flattened by ModuleCompiler into a straight line program over register
+// arrays. Samples are pushed through the program BATCH_SIZE at a time, every instruction
+// runs as one tight loop over the batch and generators are handed whole batches through
+// getValues.
+//
+// Inside the guarded block of a Select input only some of the samples are live. The cheap
+// instructions still run over the whole batch, whatever ends up in the dead lanes is never
+// read, but generators are only sampled for the live lanes.
+//
+// The program is a snapshot of the graph: operator parameters are copied when compiling, so
+// changes made to the source graph afterwards are not picked up, compile it again instead.
+public class CompiledModule extends Module
+{
+    public static final int BATCH_SIZE = 256;
+
+    private final Module source;
+    private final Instruction[] program;
+    private final int valueRegisters;
+    private final int frameRegisters;
+    private final int selectSlots;
+    private final int result;
+
+    private final ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(() -> new Workspace(this));
+
+    CompiledModule(Module source, Instruction[] program, int valueRegisters, int frameRegisters, int selectSlots, int result)
+    {
+        this.source = source;
+        this.program = program;
+        this.valueRegisters = valueRegisters;
+        this.frameRegisters = frameRegisters;
+        this.selectSlots = selectSlots;
+        this.result = result;
+    }
+
+    @Override
+    public double getValue()
+    {
+        return getValue(0, 0, 0, 1);
+    }
+
+    @Override
+    public double getValue(double x, double y, double z, int scale)
+    {
+        Workspace w = workspace.get();
+
+        w.frames[0][0] = x;
+        w.frames[1][0] = y;
+        w.frames[2][0] = z;
+
+        execute(w, 1, scale);
+
+        return w.values[result][0];
+    }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        Workspace w = workspace.get();
+
+        for (int start = 0; start < count; start += BATCH_SIZE)
+        {
+            int n = Math.min(BATCH_SIZE, count - start);
+
+            System.arraycopy(xs, start, w.frames[0], 0, n);
+            System.arraycopy(ys, start, w.frames[1], 0, n);
+            System.arraycopy(zs, start, w.frames[2], 0, n);
+
+            execute(w, n, scale);
+
+            System.arraycopy(w.values[result], 0, out, start, n);
+        }
+    }
+
+    // the graph this program was compiled from
+    public Module getSource()
+    {
+        return source;
+    }
+
+    public int getInstructionCount()
+    {
+        return program.length;
+    }
+
+    public int getValueRegisterCount()
+    {
+        return valueRegisters;
+    }
+
+    public int getFrameRegisterCount()
+    {
+        return frameRegisters;
+    }
+
+    private void execute(Workspace w, int n, int scale)
+    {
+        double[][] values = w.values;
+        double[][] frames = w.frames;
+
+        w.depth = 0;
+        w.laneCounts[0] = n;
+
+        for (int pc = 0; pc < program.length; pc++)
+        {
+            Instruction in = program[pc];
+
+            switch (in.op)
+            {
+            case Instruction.LEAF:
+            {
+                int f = in.a * 3;
+                int live = w.laneCounts[w.depth];
+
+                if (live == n)
+                    in.module.getValues(frames[f], frames[f + 1], frames[f + 2], values[in.dst], n, scale);
+                else
+                    sampleLanes(in.module, frames[f], frames[f + 1], frames[f + 2], values[in.dst], w.lanes[w.depth], live, w, scale);
+                break;
+            }
+            case Instruction.UNIFORM:
+            {
+                // nothing below this node looks at the coordinates
+                Arrays.fill(values[in.dst], 0, n, in.module.getValue(0, 0, 0, scale));
+                break;
+            }
+            case Instruction.ABS:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = Math.abs(src[i]);
+                break;
+            }
+            case Instruction.INVERT:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = -src[i];
+                break;
+            }
+            case Instruction.EXPONENT:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                double exponent = in.params[0];
+                for (int i = 0; i < n; i++)
+                    dst[i] = (Math.pow(Math.abs((src[i] + 1.0) / 2.0), exponent) * 2.0 - 1.0);
+                break;
+            }
+            case Instruction.SCALE_BIAS:
+            {
+                // ScaleBias multiplies by the scale argument, not its own scale
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                double bias = in.params[0];
+                for (int i = 0; i < n; i++)
+                    dst[i] = src[i] * scale + bias;
+                break;
+            }
+            case Instruction.CLAMP:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                double lower = in.params[0];
+                double upper = in.params[1];
+                for (int i = 0; i < n; i++)
+                {
+                    double v = src[i];
+                    dst[i] = v < lower ? lower : v > upper ? upper : v;
+                }
+                break;
+            }
+            case Instruction.CURVE:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                Curve curve = (Curve) in.module;
+                for (int i = 0; i < n; i++)
+                    dst[i] = curve.mapValue(src[i]);
+                break;
+            }
+            case Instruction.TERRACE:
+            {
+                double[] src = values[in.a];
+                double[] dst = values[in.dst];
+                Terrace terrace = (Terrace) in.module;
+                for (int i = 0; i < n; i++)
+                    dst[i] = terrace.mapValue(src[i]);
+                break;
+            }
+            case Instruction.ADD:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = a[i] + b[i];
+                break;
+            }
+            case Instruction.SUBTRACT:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = a[i] - b[i];
+                break;
+            }
+            case Instruction.MULTIPLY:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = a[i] * b[i];
+                break;
+            }
+            case Instruction.POWER:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = Math.pow(a[i], b[i]);
+                break;
+            }
+            case Instruction.MAX:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = Math.max(a[i], b[i]);
+                break;
+            }
+            case Instruction.MIN:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = Math.min(a[i], b[i]);
+                break;
+            }
+            case Instruction.BLEND:
+            {
+                double[] a = values[in.a];
+                double[] b = values[in.b];
+                double[] c = values[in.c];
+                double[] dst = values[in.dst];
+                for (int i = 0; i < n; i++)
+                    dst[i] = Utilities.interpolateLinear(a[i], b[i], (c[i] + 1.0) / 2.0);
+                break;
+            }
+            case Instruction.MASK:
+            {
+                mask(in, values[in.c], w);
+                break;
+            }
+            case Instruction.GUARD:
+            {
+                int[] lanes = in.branch == 0 ? w.lanesA[in.slot] : w.lanesB[in.slot];
+                int count = in.branch == 0 ? w.countA[in.slot] : w.countB[in.slot];
+
+                if (count == 0)
+                {
+                    pc = in.jump - 1;
+                }
+                else
+                {
+                    w.depth++;
+                    w.laneCounts[w.depth] = count;
+                    System.arraycopy(lanes, 0, w.lanes[w.depth], 0, count);
+                }
+                break;
+            }
+            case Instruction.END:
+            {
+                w.depth--;
+                break;
+            }
+            case Instruction.SELECT:
+            {
+                select(in, values[in.a], values[in.b], values[in.c], values[in.dst], n);
+                break;
+            }
+            case Instruction.SCALE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] p = in.params;
+                for (int i = 0; i < n; i++)
+                {
+                    dx[i] = sx[i] * p[0];
+                    dy[i] = sy[i] * p[1];
+                    dz[i] = sz[i] * p[2];
+                }
+                break;
+            }
+            case Instruction.TRANSLATE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] p = in.params;
+                for (int i = 0; i < n; i++)
+                {
+                    dx[i] = sx[i] + p[0];
+                    dy[i] = sy[i] + p[1];
+                    dz[i] = sz[i] + p[2];
+                }
+                break;
+            }
+            case Instruction.ROTATE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] m = in.params;
+                for (int i = 0; i < n; i++)
+                {
+                    double x = sx[i];
+                    double y = sy[i];
+                    double z = sz[i];
+
+                    dx[i] = (m[0] * x) + (m[1] * y) + (m[2] * z);
+                    dy[i] = (m[3] * x) + (m[4] * y) + (m[5] * z);
+                    dz[i] = (m[6] * x) + (m[7] * y) + (m[8] * z);
+                }
+                break;
+            }
+            case Instruction.AFFINE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] m = in.params;
+                for (int i = 0; i < n; i++)
+                {
+                    double x = sx[i];
+                    double y = sy[i];
+                    double z = sz[i];
+
+                    dx[i] = (m[0] * x) + (m[1] * y) + (m[2] * z) + m[3];
+                    dy[i] = (m[4] * x) + (m[5] * y) + (m[6] * z) + m[7];
+                    dz[i] = (m[8] * x) + (m[9] * y) + (m[10] * z) + m[11];
+                }
+                break;
+            }
+            case Instruction.DISPLACE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] vx = values[in.b];
+                double[] vy = values[in.c];
+                double[] vz = values[in.d];
+                for (int i = 0; i < n; i++)
+                {
+                    dx[i] = sx[i] + vx[i];
+                    dy[i] = sy[i] + vy[i];
+                    dz[i] = sz[i] + vz[i];
+                }
+                break;
+            }
+            case Instruction.TURBULENCE:
+            {
+                double[] sx = frames[in.a * 3];
+                double[] sy = frames[in.a * 3 + 1];
+                double[] sz = frames[in.a * 3 + 2];
+                double[] dx = frames[in.dst * 3];
+                double[] dy = frames[in.dst * 3 + 1];
+                double[] dz = frames[in.dst * 3 + 2];
+                double[] vx = values[in.b];
+                double[] vy = values[in.c];
+                double[] vz = values[in.d];
+                double power = in.params[0];
+                for (int i = 0; i < n; i++)
+                {
+                    dx[i] = sx[i] + (vx[i] * power);
+                    dy[i] = sy[i] + (vy[i] * power);
+                    dz[i] = sz[i] + (vz[i] * power);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown instruction " + in.op);
+            }
+        }
+    }
+
+    // Splits the live lanes by which input of the select they need, the guards then narrow the
+    // live lanes down to those while the input is being evaluated.
+    private static void mask(Instruction in, double[] control, Workspace w)
+    {
+        double min = in.params[0];
+        double max = in.params[1];
+        double fallOff = in.params[2];
+
+        int live = w.laneCounts[w.depth];
+        int[] lanes = w.lanes[w.depth];
+        int[] lanesA = w.lanesA[in.slot];
+        int[] lanesB = w.lanesB[in.slot];
+        int countA = 0;
+        int countB = 0;
+
+        for (int l = 0; l < live; l++)
+        {
+            int i = w.depth == 0 ? l : lanes[l];
+            double c = control[i];
+
+            if (fallOff > 0.0)
+            {
+                if (c < (min - fallOff))
+                    lanesA[countA++] = i;
+                else if (c < (min + fallOff) || (c >= (max - fallOff) && c < (max + fallOff)))
+                {
+                    lanesA[countA++] = i;
+                    lanesB[countB++] = i;
+                }
+                else if (c < (max - fallOff))
+                    lanesB[countB++] = i;
+                else
+                    lanesA[countA++] = i;
+            }
+            else if (c < min || c > max)
+                lanesA[countA++] = i;
+            else
+                lanesB[countB++] = i;
+        }
+
+        w.countA[in.slot] = countA;
+        w.countB[in.slot] = countB;
+    }
+
+    // samples a module for the listed lanes only
+    private static void sampleLanes(Module module, double[] xs, double[] ys, double[] zs, double[] out, int[] lanes, int count, Workspace w, int scale)
+    {
+        for (int l = 0; l < count; l++)
+        {
+            int i = lanes[l];
+            w.gatherX[l] = xs[i];
+            w.gatherY[l] = ys[i];
+            w.gatherZ[l] = zs[i];
+        }
+
+        module.getValues(w.gatherX, w.gatherY, w.gatherZ, w.gatherValues, count, scale);
+
+        for (int l = 0; l < count; l++)
+            out[lanes[l]] = w.gatherValues[l];
+    }
+
+    // same decisions and arithmetic as Select.getValue, lane by lane
+    private static void select(Instruction in, double[] a, double[] b, double[] control, double[] dst, int n)
+    {
+        double min = in.params[0];
+        double max = in.params[1];
+        double fallOff = in.params[2];
+
+        for (int i = 0; i < n; i++)
+        {
+            double c = control[i];
+
+            if (fallOff > 0.0)
+            {
+                if (c < (min - fallOff))
+                    dst[i] = a[i];
+                else if (c < (min + fallOff))
+                {
+                    double lc = (min - fallOff);
+                    double uc = (min + fallOff);
+                    dst[i] = Utilities.interpolateLinear(a[i], b[i], Utilities.mapCubicSCurve((c - lc) / (uc - lc)));
+                }
+                else if (c < (max - fallOff))
+                    dst[i] = b[i];
+                else if (c < (max + fallOff))
+                {
+                    double lc = (max - fallOff);
+                    double uc = (max + fallOff);
+                    dst[i] = Utilities.interpolateLinear(b[i], a[i], Utilities.mapCubicSCurve((c - lc) / (uc - lc)));
+                }
+                else
+                    dst[i] = a[i];
+            }
+            else if (c < min || c > max)
+                dst[i] = a[i];
+            else
+                dst[i] = b[i];
+        }
+    }
+
+    // Per thread registers, frame register r is frames[r * 3 .. r * 3 + 2]. lanes[depth] holds the
+    // live lanes of the guarded block being run, depth 0 being the whole batch.
+    private static final class Workspace
+    {
+        final double[][] values;
+        final double[][] frames;
+
+        final int[][] lanesA;
+        final int[][] lanesB;
+        final int[] countA;
+        final int[] countB;
+
+        final int[][] lanes;
+        final int[] laneCounts;
+        int depth;
+
+        final double[] gatherX = new double[BATCH_SIZE];
+        final double[] gatherY = new double[BATCH_SIZE];
+        final double[] gatherZ = new double[BATCH_SIZE];
+        final double[] gatherValues = new double[BATCH_SIZE];
+
+        Workspace(CompiledModule module)
+        {
+            values = new double[module.valueRegisters][BATCH_SIZE];
+            frames = new double[module.frameRegisters * 3][BATCH_SIZE];
+
+            lanesA = new int[module.selectSlots][BATCH_SIZE];
+            lanesB = new int[module.selectSlots][BATCH_SIZE];
+            countA = new int[module.selectSlots];
+            countB = new int[module.selectSlots];
+
+            lanes = new int[module.selectSlots + 1][BATCH_SIZE];
+            laneCounts = new int[module.selectSlots + 1];
+        }
+    }
+}
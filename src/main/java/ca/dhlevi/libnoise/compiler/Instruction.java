@@ -0,0 +1,66 @@
+package ca.dhlevi.libnoise.compiler;
+
+import ca.dhlevi.libnoise.Module;
+
+// One step of a compiled program. Value instructions write the value register dst, frame
+// instructions write the coordinate frame register dst. What a, b, c and d refer to depends
+// on the op, see CompiledModule.execute.
+final class Instruction
+{
+    // values
+    static final int LEAF = 0;
+    static final int UNIFORM = 1;
+    static final int ABS = 2;
+    static final int INVERT = 3;
+    static final int EXPONENT = 4;
+    static final int SCALE_BIAS = 5;
+    static final int CLAMP = 6;
+    static final int CURVE = 7;
+    static final int TERRACE = 8;
+    static final int ADD = 9;
+    static final int SUBTRACT = 10;
+    static final int MULTIPLY = 11;
+    static final int POWER = 12;
+    static final int MAX = 13;
+    static final int MIN = 14;
+    static final int BLEND = 15;
+    static final int SELECT = 16;
+
+    // coordinate frames
+    static final int INPUT = 20;
+    static final int SCALE = 21;
+    static final int TRANSLATE = 22;
+    static final int ROTATE = 23;
+    static final int AFFINE = 24;
+    static final int DISPLACE = 25;
+    static final int TURBULENCE = 26;
+
+    // control
+    static final int MASK = 30;
+    static final int GUARD = 31;
+    static final int END = 32;
+
+    final int op;
+    int dst = -1;
+    int a = -1;
+    int b = -1;
+    int c = -1;
+    int d = -1;
+    double[] params;
+    Module module;
+
+    // MASK and GUARD: which select they belong to, GUARD also which branch and where its END is
+    int slot = -1;
+    int branch = -1;
+    int jump = -1;
+
+    Instruction(int op)
+    {
+        this.op = op;
+    }
+
+    static boolean isFrame(int op)
+    {
+        return op >= INPUT && op <= TURBULENCE;
+    }
+}
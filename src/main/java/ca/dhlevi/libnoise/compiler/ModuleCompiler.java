@@ -0,0 +1,636 @@
+package ca.dhlevi.libnoise.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.generator.Const;
+import ca.dhlevi.libnoise.operator.Abs;
+import ca.dhlevi.libnoise.operator.Add;
+import ca.dhlevi.libnoise.operator.Blend;
+import ca.dhlevi.libnoise.operator.Cache;
+import ca.dhlevi.libnoise.operator.Clamp;
+import ca.dhlevi.libnoise.operator.Curve;
+import ca.dhlevi.libnoise.operator.Displace;
+import ca.dhlevi.libnoise.operator.Exponent;
+import ca.dhlevi.libnoise.operator.Invert;
+import ca.dhlevi.libnoise.operator.Max;
+import ca.dhlevi.libnoise.operator.Min;
+import ca.dhlevi.libnoise.operator.Multiply;
+import ca.dhlevi.libnoise.operator.Power;
+import ca.dhlevi.libnoise.operator.Rotate;
+import ca.dhlevi.libnoise.operator.Scale;
+import ca.dhlevi.libnoise.operator.ScaleBias;
+import ca.dhlevi.libnoise.operator.Select;
+import ca.dhlevi.libnoise.operator.Subtract;
+import ca.dhlevi.libnoise.operator.Terrace;
+import ca.dhlevi.libnoise.operator.Translate;
+import ca.dhlevi.libnoise.operator.Turbulence;
+
+// Flattens a module graph into a CompiledModule.
+//
+// Every node is keyed on the module and the coordinate frame it is sampled in, so a subgraph
+// shared between several parents (usually through a Cache, which is dropped) is evaluated
+// once per batch. Scale, Translate, Rotate, Displace and Turbulence don't become values but
+// coordinate frames that the nodes below them read from, and chains of Scale, Translate and
+// Rotate are folded into a single affine transform. Subgraphs that never look at the
+// coordinates (Const, and any ScaleBias, Invert, Curve... on top of them) are worked out
+// once per batch. An input of a Select that nothing else uses is only sampled for the samples
+// the controller picks it for, and skipped entirely when it picks it for none of them.
+//
+// Generators and modules the compiler doesn't know about are left as they are and sampled
+// through their own getValues. Operators are only compiled when they are exactly the library
+// class, a subclass may have changed what it does.
+//
+// With transform fusion off the compiled module gives exactly the same values as the graph.
+// Fusing transforms re-associates the coordinate arithmetic, which can move the last bits of
+// the coordinates and therefore the output by a tiny amount.
+public class ModuleCompiler
+{
+    private final boolean fuseTransforms;
+
+    private final Node input;
+    private final IdentityHashMap<Module, Boolean> uniform = new IdentityHashMap<Module, Boolean>();
+    private final IdentityHashMap<Module, Map<Node, Node>> values = new IdentityHashMap<Module, Map<Node, Node>>();
+    private final IdentityHashMap<Module, Node> uniforms = new IdentityHashMap<Module, Node>();
+    private final Map<String, Node> frames = new HashMap<String, Node>();
+    private int nextId;
+    private int selectSlots;
+
+    private ModuleCompiler(boolean fuseTransforms)
+    {
+        this.fuseTransforms = fuseTransforms;
+        this.input = new Node(Instruction.INPUT);
+    }
+
+    public static CompiledModule compile(Module module)
+    {
+        return compile(module, true);
+    }
+
+    public static CompiledModule compile(Module module, boolean fuseTransforms)
+    {
+        if (module == null)
+            throw new NullPointerException("Module is null");
+
+        ModuleCompiler compiler = new ModuleCompiler(fuseTransforms);
+        Node root = compiler.value(module, compiler.input);
+
+        return compiler.link(module, root);
+    }
+
+    /*** Graph to nodes ***/
+
+    private Node value(Module module, Node frame)
+    {
+        if (isUniform(module))
+        {
+            Node node = uniforms.get(module);
+
+            if (node == null)
+            {
+                node = new Node(Instruction.UNIFORM);
+                node.module = module;
+                uniforms.put(module, node);
+            }
+
+            return node;
+        }
+
+        Map<Node, Node> byFrame = values.get(module);
+
+        if (byFrame == null)
+        {
+            byFrame = new HashMap<Node, Node>();
+            values.put(module, byFrame);
+        }
+
+        Node node = byFrame.get(frame);
+
+        if (node == null)
+        {
+            node = build(module, frame);
+            byFrame.put(frame, node);
+        }
+
+        return node;
+    }
+
+    private Node build(Module module, Node frame)
+    {
+        Class<?> type = module.getClass();
+        List<Module> inputs = module.getModules();
+
+        if (type == Cache.class)
+            return value(((Cache) module).getCachedModule(), frame);
+
+        if (type == Abs.class)
+            return unary(Instruction.ABS, value(inputs.get(0), frame));
+        if (type == Invert.class)
+            return unary(Instruction.INVERT, value(inputs.get(0), frame));
+        if (type == Exponent.class)
+            return unary(Instruction.EXPONENT, value(inputs.get(0), frame), ((Exponent) module).getExponentValue());
+        if (type == ScaleBias.class)
+            return unary(Instruction.SCALE_BIAS, value(inputs.get(0), frame), ((ScaleBias) module).getBias());
+        if (type == Clamp.class)
+        {
+            Clamp clamp = (Clamp) module;
+            double lower = Math.min(clamp.getMin(), clamp.getMax());
+            double upper = Math.max(clamp.getMin(), clamp.getMax());
+
+            return unary(Instruction.CLAMP, value(inputs.get(0), frame), lower, upper);
+        }
+        if (type == Curve.class || type == Terrace.class)
+        {
+            Node node = unary(type == Curve.class ? Instruction.CURVE : Instruction.TERRACE, value(inputs.get(0), frame));
+            node.module = module;
+            return node;
+        }
+
+        if (type == Add.class)
+            return binary(Instruction.ADD, value(inputs.get(0), frame), value(inputs.get(1), frame));
+        if (type == Subtract.class)
+            return binary(Instruction.SUBTRACT, value(inputs.get(0), frame), value(inputs.get(1), frame));
+        if (type == Multiply.class)
+            return binary(Instruction.MULTIPLY, value(inputs.get(0), frame), value(inputs.get(1), frame));
+        if (type == Power.class)
+            return binary(Instruction.POWER, value(inputs.get(0), frame), value(inputs.get(1), frame));
+        if (type == Max.class)
+            return binary(Instruction.MAX, value(inputs.get(0), frame), value(inputs.get(1), frame));
+        if (type == Min.class)
+            return binary(Instruction.MIN, value(inputs.get(0), frame), value(inputs.get(1), frame));
+
+        if (type == Blend.class)
+        {
+            Node node = new Node(Instruction.BLEND);
+            node.inputs = new Node[] { value(inputs.get(0), frame), value(inputs.get(1), frame), value(inputs.get(2), frame) };
+            return node;
+        }
+        if (type == Select.class)
+        {
+            Select select = (Select) module;
+
+            // controller first, it decides which of the other two are needed
+            Node controller = value(select.getController(), frame);
+
+            Node node = new Node(Instruction.SELECT);
+            node.inputs = new Node[] { value(select.getInputA(), frame), value(select.getInputB(), frame), controller };
+            node.params = new double[] { select.getMin(), select.getMax(), select.getFallOff() };
+            node.slot = selectSlots++;
+            return node;
+        }
+
+        if (type == Scale.class)
+        {
+            Scale scale = (Scale) module;
+            double[] p = { scale.getX(), scale.getY(), scale.getZ() };
+            double[] affine = { p[0], 0, 0, 0, 0, p[1], 0, 0, 0, 0, p[2], 0 };
+
+            return value(inputs.get(0), transform(Instruction.SCALE, frame, p, affine));
+        }
+        if (type == Translate.class)
+        {
+            Translate translate = (Translate) module;
+            double[] p = { translate.getX(), translate.getY(), translate.getZ() };
+            double[] affine = { 1, 0, 0, p[0], 0, 1, 0, p[1], 0, 0, 1, p[2] };
+
+            return value(inputs.get(0), transform(Instruction.TRANSLATE, frame, p, affine));
+        }
+        if (type == Rotate.class)
+        {
+            double[] m = ((Rotate) module).getMatrix();
+            double[] affine = { m[0], m[1], m[2], 0, m[3], m[4], m[5], 0, m[6], m[7], m[8], 0 };
+
+            return value(inputs.get(0), transform(Instruction.ROTATE, frame, m, affine));
+        }
+        if (type == Displace.class)
+        {
+            Displace displace = (Displace) module;
+            Node displaced = displace(Instruction.DISPLACE, frame, value(displace.getX(), frame), value(displace.getY(), frame), value(displace.getZ(), frame), null);
+
+            return value(displace.getInput(), displaced);
+        }
+        if (type == Turbulence.class)
+        {
+            Turbulence turbulence = (Turbulence) module;
+
+            Node dx = value(turbulence.getXDistort(), offset(frame, Turbulence.X0, Turbulence.Y0, Turbulence.Z0));
+            Node dy = value(turbulence.getYDistort(), offset(frame, Turbulence.X1, Turbulence.Y1, Turbulence.Z1));
+            Node dz = value(turbulence.getZDistort(), offset(frame, Turbulence.X2, Turbulence.Y2, Turbulence.Z2));
+            Node displaced = displace(Instruction.TURBULENCE, frame, dx, dy, dz, new double[] { turbulence.getPower() });
+
+            return value(inputs.get(0), displaced);
+        }
+
+        // generators and anything else are sampled as they are
+        Node leaf = new Node(Instruction.LEAF);
+        leaf.module = module;
+        leaf.inputs = new Node[] { frame };
+        return leaf;
+    }
+
+    private boolean isUniform(Module module)
+    {
+        Boolean known = uniform.get(module);
+        if (known != null)
+            return known;
+
+        Class<?> type = module.getClass();
+        boolean result;
+
+        if (type == Const.class)
+            result = true;
+        else if (type == Scale.class || type == Translate.class || type == Rotate.class || type == Displace.class || type == Turbulence.class || type == Cache.class)
+            result = isUniform(module.getModules().get(0));
+        else if (isKnownOperator(type))
+        {
+            result = true;
+            for (Module input : module.getModules())
+                result &= isUniform(input);
+        }
+        else
+            result = false;
+
+        uniform.put(module, result);
+        return result;
+    }
+
+    private static boolean isKnownOperator(Class<?> type)
+    {
+        return type == Abs.class || type == Invert.class || type == Exponent.class || type == ScaleBias.class || type == Clamp.class || type == Curve.class || type == Terrace.class || type == Add.class
+                || type == Subtract.class || type == Multiply.class || type == Power.class || type == Max.class || type == Min.class || type == Blend.class || type == Select.class;
+    }
+
+    private Node unary(int op, Node source, double... params)
+    {
+        Node node = new Node(op);
+        node.inputs = new Node[] { source };
+        node.params = params;
+        return node;
+    }
+
+    private Node binary(int op, Node a, Node b)
+    {
+        Node node = new Node(op);
+        node.inputs = new Node[] { a, b };
+        return node;
+    }
+
+    // Scale, Translate and Rotate frames. params are what the operator itself applies, affine is
+    // the same transform as a 3x4 matrix, which is what gets composed when fusing.
+    private Node transform(int op, Node parent, double[] params, double[] affine)
+    {
+        if (fuseTransforms && parent.affine != null)
+        {
+            double[] fused = compose(affine, parent.affine);
+            return frame(Instruction.AFFINE, parent.inputs[0], fused, fused, null);
+        }
+
+        return frame(op, parent, params, affine, null);
+    }
+
+    // the translated frames Turbulence samples its distortion modules in
+    private Node offset(Node parent, double x, double y, double z)
+    {
+        return transform(Instruction.TRANSLATE, parent, new double[] { x, y, z }, new double[] { 1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z });
+    }
+
+    private Node displace(int op, Node parent, Node x, Node y, Node z, double[] params)
+    {
+        return frame(op, parent, params, null, new Node[] { x, y, z });
+    }
+
+    private Node frame(int op, Node parent, double[] params, double[] affine, Node[] displacement)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(op).append(':').append(parent.id);
+
+        if (displacement != null)
+        {
+            for (Node node : displacement)
+                key.append(':').append(node.id);
+        }
+
+        if (params != null)
+        {
+            for (double p : params)
+                key.append(':').append(Double.doubleToLongBits(p));
+        }
+
+        Node node = frames.get(key.toString());
+
+        if (node == null)
+        {
+            node = new Node(op);
+            node.params = params;
+            node.affine = affine;
+
+            if (displacement == null)
+                node.inputs = new Node[] { parent };
+            else
+                node.inputs = new Node[] { parent, displacement[0], displacement[1], displacement[2] };
+
+            frames.put(key.toString(), node);
+        }
+
+        return node;
+    }
+
+    // outer applied after inner, both 3x4 row major
+    private static double[] compose(double[] outer, double[] inner)
+    {
+        double[] result = new double[12];
+
+        for (int r = 0; r < 3; r++)
+        {
+            for (int c = 0; c < 4; c++)
+            {
+                double v = outer[r * 4] * inner[c] + outer[r * 4 + 1] * inner[4 + c] + outer[r * 4 + 2] * inner[8 + c];
+
+                if (c == 3)
+                    v += outer[r * 4 + 3];
+
+                result[r * 4 + c] = v;
+            }
+        }
+
+        return result;
+    }
+
+    /*** Nodes to program ***/
+
+    private CompiledModule link(Module source, Node root)
+    {
+        List<Node> order = new ArrayList<Node>();
+        collect(root, new HashSet<Node>(), order);
+
+        Map<Node, Set<Node>> parents = new HashMap<Node, Set<Node>>();
+
+        for (Node node : order)
+        {
+            if (node.inputs == null)
+                continue;
+
+            for (Node in : node.inputs)
+            {
+                Set<Node> set = parents.get(in);
+
+                if (set == null)
+                {
+                    set = new HashSet<Node>();
+                    parents.put(in, set);
+                }
+
+                set.add(node);
+            }
+        }
+
+        // for every select, the nodes only reachable through its A or B input
+        for (Node node : order)
+        {
+            if (node.op == Instruction.SELECT)
+            {
+                node.exclusiveA = exclusive(node, 0, order, parents);
+                node.exclusiveB = exclusive(node, 1, order, parents);
+            }
+        }
+
+        Program program = new Program();
+        emit(root, new HashSet<Node>(), program);
+
+        int[] registers = allocate(program);
+
+        return new CompiledModule(source, program.instructions.toArray(new Instruction[program.size()]), registers[0], registers[1], selectSlots, root.instruction.dst);
+    }
+
+    private void collect(Node node, Set<Node> seen, List<Node> order)
+    {
+        if (!seen.add(node))
+            return;
+
+        if (node.inputs != null)
+        {
+            for (Node in : node.inputs)
+                collect(in, seen, order);
+        }
+
+        order.add(node);
+    }
+
+    private static Set<Node> exclusive(Node select, int branch, List<Node> order, Map<Node, Set<Node>> parents)
+    {
+        Node start = select.inputs[branch];
+        Set<Node> result = new HashSet<Node>();
+
+        if (start.op == Instruction.UNIFORM || select.inputs[1 - branch] == start || select.inputs[2] == start || parents.get(start).size() != 1)
+            return result;
+
+        result.add(start);
+
+        // parents come after their inputs in order, so walking it backwards sees every parent first
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            Node node = order.get(i);
+            Set<Node> nodeParents = parents.get(node);
+
+            if (node == start || node.op == Instruction.INPUT || node.op == Instruction.UNIFORM || nodeParents == null)
+                continue;
+
+            if (result.containsAll(nodeParents))
+                result.add(node);
+        }
+
+        return result;
+    }
+
+    private void emit(Node node, Set<Node> emitted, Program program)
+    {
+        if (emitted.contains(node))
+            return;
+
+        if (node.op == Instruction.SELECT && (!node.exclusiveA.isEmpty() || !node.exclusiveB.isEmpty()))
+        {
+            emit(node.inputs[2], emitted, program);
+            emitShared(node.inputs[0], node.exclusiveA, emitted, program);
+            emitShared(node.inputs[1], node.exclusiveB, emitted, program);
+
+            Instruction mask = new Instruction(Instruction.MASK);
+            mask.params = node.params;
+            mask.slot = node.slot;
+            program.add(mask, new Node[] { node.inputs[2] });
+
+            for (int branch = 0; branch < 2; branch++)
+            {
+                if ((branch == 0 ? node.exclusiveA : node.exclusiveB).isEmpty())
+                    continue;
+
+                Instruction guard = new Instruction(Instruction.GUARD);
+                guard.slot = node.slot;
+                guard.branch = branch;
+                program.add(guard, null);
+
+                emit(node.inputs[branch], emitted, program);
+                program.add(new Instruction(Instruction.END), null);
+
+                guard.jump = program.size();
+            }
+        }
+        else if (node.inputs != null)
+        {
+            for (Node in : node.inputs)
+                emit(in, emitted, program);
+        }
+
+        if (node.op == Instruction.INPUT)
+        {
+            emitted.add(node);
+            return;
+        }
+
+        Instruction instruction = new Instruction(node.op);
+        instruction.params = node.params;
+        instruction.module = node.module;
+        instruction.slot = node.slot;
+        node.instruction = instruction;
+
+        program.add(instruction, node.inputs);
+        emitted.add(node);
+    }
+
+    // emits whatever the branch needs that is not exclusive to it, ahead of the guard
+    private void emitShared(Node node, Set<Node> exclusive, Set<Node> emitted, Program program)
+    {
+        if (!exclusive.contains(node))
+        {
+            emit(node, emitted, program);
+            return;
+        }
+
+        if (node.inputs != null)
+        {
+            for (Node in : node.inputs)
+                emitShared(in, exclusive, emitted, program);
+        }
+    }
+
+    // Hands out value and frame registers, reusing a register once the last instruction reading
+    // it has run. Frame register 0 always holds the input coordinates.
+    private static int[] allocate(Program program)
+    {
+        Map<Node, Integer> lastUse = new HashMap<Node, Integer>();
+
+        for (int pc = 0; pc < program.size(); pc++)
+        {
+            Node[] sources = program.sources.get(pc);
+
+            if (sources != null)
+            {
+                for (Node source : sources)
+                    lastUse.put(source, pc);
+            }
+        }
+
+        ArrayDeque<Integer> freeValues = new ArrayDeque<Integer>();
+        ArrayDeque<Integer> freeFrames = new ArrayDeque<Integer>();
+        Set<Node> released = new HashSet<Node>();
+        int valueCount = 0;
+        int frameCount = 1;
+
+        for (int pc = 0; pc < program.size(); pc++)
+        {
+            Instruction in = program.instructions.get(pc);
+            Node[] sources = program.sources.get(pc);
+
+            if (sources != null)
+            {
+                int[] operands = { -1, -1, -1, -1 };
+
+                for (int i = 0; i < sources.length; i++)
+                    operands[i] = sources[i].op == Instruction.INPUT ? 0 : sources[i].instruction.dst;
+
+                in.a = operands[0];
+                in.b = operands[1];
+                in.c = operands[2];
+                in.d = operands[3];
+
+                // a mask only reads the controller
+                if (in.op == Instruction.MASK)
+                {
+                    in.c = in.a;
+                    in.a = -1;
+                }
+            }
+
+            if (in.op != Instruction.MASK && in.op != Instruction.GUARD && in.op != Instruction.END)
+            {
+                if (Instruction.isFrame(in.op))
+                    in.dst = freeFrames.isEmpty() ? frameCount++ : freeFrames.pop();
+                else
+                    in.dst = freeValues.isEmpty() ? valueCount++ : freeValues.pop();
+            }
+
+            if (sources != null)
+            {
+                for (Node source : sources)
+                {
+                    if (source.op == Instruction.INPUT || lastUse.get(source) != pc || !released.add(source))
+                        continue;
+
+                    if (Instruction.isFrame(source.op))
+                        freeFrames.push(source.instruction.dst);
+                    else
+                        freeValues.push(source.instruction.dst);
+                }
+            }
+        }
+
+        return new int[] { Math.max(valueCount, 1), frameCount };
+    }
+
+    // instructions in order, with the nodes each one reads
+    private static final class Program
+    {
+        final List<Instruction> instructions = new ArrayList<Instruction>();
+        final List<Node[]> sources = new ArrayList<Node[]>();
+
+        void add(Instruction instruction, Node[] reads)
+        {
+            instructions.add(instruction);
+            sources.add(reads);
+        }
+
+        int size()
+        {
+            return instructions.size();
+        }
+    }
+
+    private final class Node
+    {
+        final int id;
+        final int op;
+        Node[] inputs;
+        double[] params;
+        double[] affine;
+        Module module;
+        int slot = -1;
+
+        Set<Node> exclusiveA = Collections.emptySet();
+        Set<Node> exclusiveB = Collections.emptySet();
+
+        Instruction instruction;
+
+        Node(int op)
+        {
+            this.id = nextId++;
+            this.op = op;
+        }
+    }
+}
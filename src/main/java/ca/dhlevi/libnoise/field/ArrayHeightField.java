@@ -0,0 +1,67 @@
+package ca.dhlevi.libnoise.field;
+
+import java.util.Arrays;
+
+public class ArrayHeightField extends HeightField
+{
+    private final double[] values;
+
+    public ArrayHeightField(int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+        this.values = new double[width * height];
+    }
+
+    // uses values as the backing array, row major
+    public ArrayHeightField(double[] values, int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+
+        if (values.length != width * height)
+            throw new IllegalArgumentException("Expected " + (width * height) + " values, got " + values.length);
+
+        this.values = values;
+    }
+
+    @Override
+    public double get(int index)
+    {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, double value)
+    {
+        values[index] = value;
+    }
+
+    @Override
+    public void getRow(int y, int x, double[] dst, int offset, int count)
+    {
+        System.arraycopy(values, y * getWidth() + x, dst, offset, count);
+    }
+
+    @Override
+    public void setRow(int y, int x, double[] src, int offset, int count)
+    {
+        System.arraycopy(src, offset, values, y * getWidth() + x, count);
+    }
+
+    @Override
+    public void fill(double value)
+    {
+        Arrays.fill(values, value);
+    }
+
+    @Override
+    public boolean hasArray()
+    {
+        return true;
+    }
+
+    @Override
+    public double[] array()
+    {
+        return values;
+    }
+}
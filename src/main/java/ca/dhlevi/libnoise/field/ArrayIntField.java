@@ -0,0 +1,67 @@
+package ca.dhlevi.libnoise.field;
+
+import java.util.Arrays;
+
+public class ArrayIntField extends IntField
+{
+    private final int[] values;
+
+    public ArrayIntField(int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+        this.values = new int[width * height];
+    }
+
+    // uses values as the backing array, row major
+    public ArrayIntField(int[] values, int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+
+        if (values.length != width * height)
+            throw new IllegalArgumentException("Expected " + (width * height) + " values, got " + values.length);
+
+        this.values = values;
+    }
+
+    @Override
+    public int get(int index)
+    {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, int value)
+    {
+        values[index] = value;
+    }
+
+    @Override
+    public void getRow(int y, int x, int[] dst, int offset, int count)
+    {
+        System.arraycopy(values, y * getWidth() + x, dst, offset, count);
+    }
+
+    @Override
+    public void setRow(int y, int x, int[] src, int offset, int count)
+    {
+        System.arraycopy(src, offset, values, y * getWidth() + x, count);
+    }
+
+    @Override
+    public void fill(int value)
+    {
+        Arrays.fill(values, value);
+    }
+
+    @Override
+    public boolean hasArray()
+    {
+        return true;
+    }
+
+    @Override
+    public int[] array()
+    {
+        return values;
+    }
+}
@@ -0,0 +1,50 @@
+package ca.dhlevi.libnoise.field;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+// Off-heap storage, the values don't count against the java heap. A single buffer is limited
+// to 2 GB, so this holds up to 268 million cells.
+public class DirectHeightField extends HeightField
+{
+    private final DoubleBuffer values;
+
+    public DirectHeightField(int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+
+        if ((long) width * height * Double.BYTES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A " + width + "x" + height + " field is too large for a direct buffer");
+
+        this.values = ByteBuffer.allocateDirect(width * height * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    @Override
+    public double get(int index)
+    {
+        return values.get(index);
+    }
+
+    @Override
+    public void set(int index, double value)
+    {
+        values.put(index, value);
+    }
+
+    @Override
+    public void getRow(int y, int x, double[] dst, int offset, int count)
+    {
+        DoubleBuffer view = values.duplicate();
+        view.position(y * getWidth() + x);
+        view.get(dst, offset, count);
+    }
+
+    @Override
+    public void setRow(int y, int x, double[] src, int offset, int count)
+    {
+        DoubleBuffer view = values.duplicate();
+        view.position(y * getWidth() + x);
+        view.put(src, offset, count);
+    }
+}
@@ -0,0 +1,50 @@
+package ca.dhlevi.libnoise.field;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// Off-heap storage, the values don't count against the java heap. A single buffer is limited
+// to 2 GB, so this holds up to 536 million cells.
+public class DirectIntField extends IntField
+{
+    private final IntBuffer values;
+
+    public DirectIntField(int width, int height, WrapMode wrapMode)
+    {
+        super(width, height, wrapMode);
+
+        if ((long) width * height * Integer.BYTES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A " + width + "x" + height + " field is too large for a direct buffer");
+
+        this.values = ByteBuffer.allocateDirect(width * height * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    @Override
+    public int get(int index)
+    {
+        return values.get(index);
+    }
+
+    @Override
+    public void set(int index, int value)
+    {
+        values.put(index, value);
+    }
+
+    @Override
+    public void getRow(int y, int x, int[] dst, int offset, int count)
+    {
+        IntBuffer view = values.duplicate();
+        view.position(y * getWidth() + x);
+        view.get(dst, offset, count);
+    }
+
+    @Override
+    public void setRow(int y, int x, int[] src, int offset, int count)
+    {
+        IntBuffer view = values.duplicate();
+        view.position(y * getWidth() + x);
+        view.put(src, offset, count);
+    }
+}
@@ -0,0 +1,31 @@
+package ca.dhlevi.libnoise.field;
+
+class FieldUtilities
+{
+    // largest number of cells a field can index, the usual headroom below Integer.MAX_VALUE for arrays
+    static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    static int resolveX(int x, int width, WrapMode wrapMode)
+    {
+        if (x >= 0 && x < width)
+            return x;
+
+        if (wrapMode == WrapMode.NONE)
+            return x < 0 ? 0 : width - 1;
+
+        int wrapped = x % width;
+        return wrapped < 0 ? wrapped + width : wrapped;
+    }
+
+    static int resolveY(int y, int height, WrapMode wrapMode)
+    {
+        if (y >= 0 && y < height)
+            return y;
+
+        if (wrapMode != WrapMode.BOTH)
+            return y < 0 ? 0 : height - 1;
+
+        int wrapped = y % height;
+        return wrapped < 0 ? wrapped + height : wrapped;
+    }
+}
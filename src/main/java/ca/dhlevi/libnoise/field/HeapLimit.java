@@ -0,0 +1,21 @@
+package ca.dhlevi.libnoise.field;
+
+// Stages that need the whole grid at once (hydraulic and particle erosion, basins, rivers, the
+// priority flood) hold it on the heap, copying a mapped or direct field in first. They call
+// check before allocating, so a field bigger than the heap fails up front with the stage and
+// sizes in the message instead of running out of memory part way through.
+public class HeapLimit
+{
+    public static void check(String stage, int width, int height, long bytesPerCell)
+    {
+        check(stage, width, height, bytesPerCell, Runtime.getRuntime().maxMemory());
+    }
+
+    static void check(String stage, int width, int height, long bytesPerCell, long maxBytes)
+    {
+        long bytes = (long) width * height * bytesPerCell;
+
+        if (bytes > maxBytes)
+            throw new IllegalArgumentException(stage + " works on the whole grid and needs about " + (bytes >> 20) + " MB of heap for a " + width + "x" + height + " field, more than the " + (maxBytes >> 20) + " MB heap");
+    }
+}
@@ -0,0 +1,219 @@
+package ca.dhlevi.libnoise.field;
+
+// A width x height grid of doubles stored row by row in one block of memory, index
+// y * width + x. Heap fields are backed by a double[] that stages can work on directly,
+// direct fields live off-heap in a DoubleBuffer.
+//
+// The pipeline's double[][] arrays are column major (data[x][y]), wrap, toArray, copyTo and
+// copyFrom convert between the two.
+public abstract class HeightField
+{
+    private final int width;
+    private final int height;
+    private WrapMode wrapMode;
+
+    protected HeightField(int width, int height, WrapMode wrapMode)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Field dimensions must be at least 1x1");
+        if ((long) width * height > FieldUtilities.MAX_CELLS)
+            throw new IllegalArgumentException("A " + width + "x" + height + " field does not fit in a single block");
+        if (wrapMode == null)
+            throw new NullPointerException("Wrap mode is null");
+
+        this.width = width;
+        this.height = height;
+        this.wrapMode = wrapMode;
+    }
+
+    public static HeightField allocate(int width, int height)
+    {
+        return new ArrayHeightField(width, height, WrapMode.NONE);
+    }
+
+    public static HeightField allocate(int width, int height, WrapMode wrapMode)
+    {
+        return new ArrayHeightField(width, height, wrapMode);
+    }
+
+    public static HeightField allocateDirect(int width, int height)
+    {
+        return new DirectHeightField(width, height, WrapMode.NONE);
+    }
+
+    public static HeightField allocateDirect(int width, int height, WrapMode wrapMode)
+    {
+        return new DirectHeightField(width, height, wrapMode);
+    }
+
+    // a heap field holding a copy of a column major array
+    public static HeightField wrap(double[][] data)
+    {
+        return wrap(data, WrapMode.NONE);
+    }
+
+    public static HeightField wrap(double[][] data, WrapMode wrapMode)
+    {
+        HeightField field = new ArrayHeightField(data.length, data[0].length, wrapMode);
+        field.copyFrom(data);
+        return field;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int size()
+    {
+        return width * height;
+    }
+
+    public WrapMode getWrapMode()
+    {
+        return wrapMode;
+    }
+
+    public void setWrapMode(WrapMode wrapMode)
+    {
+        if (wrapMode == null)
+            throw new NullPointerException("Wrap mode is null");
+
+        this.wrapMode = wrapMode;
+    }
+
+    public int index(int x, int y)
+    {
+        return y * width + x;
+    }
+
+    public abstract double get(int index);
+
+    public abstract void set(int index, double value);
+
+    public double get(int x, int y)
+    {
+        return get(y * width + x);
+    }
+
+    public void set(int x, int y, double value)
+    {
+        set(y * width + x, value);
+    }
+
+    public void add(int x, int y, double value)
+    {
+        int index = y * width + x;
+        set(index, get(index) + value);
+    }
+
+    // any coordinate, resolved with the wrap mode
+    public double sample(int x, int y)
+    {
+        return get(FieldUtilities.resolveX(x, width, wrapMode), FieldUtilities.resolveY(y, height, wrapMode));
+    }
+
+    // count values of row y starting at column x
+    public void getRow(int y, int x, double[] dst, int offset, int count)
+    {
+        int index = y * width + x;
+
+        for (int i = 0; i < count; i++)
+            dst[offset + i] = get(index + i);
+    }
+
+    public void setRow(int y, int x, double[] src, int offset, int count)
+    {
+        int index = y * width + x;
+
+        for (int i = 0; i < count; i++)
+            set(index + i, src[offset + i]);
+    }
+
+    public void fill(double value)
+    {
+        for (int i = 0; i < size(); i++)
+            set(i, value);
+    }
+
+    // true when the values sit in a heap array that array() hands out
+    public boolean hasArray()
+    {
+        return false;
+    }
+
+    public double[] array()
+    {
+        throw new UnsupportedOperationException("Field is not backed by an array");
+    }
+
+    // row major copies of the whole field
+    public void copyTo(double[] dst)
+    {
+        checkLength(dst.length);
+
+        for (int y = 0; y < height; y++)
+            getRow(y, 0, dst, y * width, width);
+    }
+
+    public void copyFrom(double[] src)
+    {
+        checkLength(src.length);
+
+        for (int y = 0; y < height; y++)
+            setRow(y, 0, src, y * width, width);
+    }
+
+    // column major copies, the layout the rest of the pipeline uses
+    public double[][] toArray()
+    {
+        double[][] data = new double[width][height];
+        copyTo(data);
+        return data;
+    }
+
+    public void copyTo(double[][] data)
+    {
+        checkDimensions(data.length, data[0].length);
+
+        double[] row = new double[width];
+        for (int y = 0; y < height; y++)
+        {
+            getRow(y, 0, row, 0, width);
+
+            for (int x = 0; x < width; x++)
+                data[x][y] = row[x];
+        }
+    }
+
+    public void copyFrom(double[][] data)
+    {
+        checkDimensions(data.length, data[0].length);
+
+        double[] row = new double[width];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                row[x] = data[x][y];
+
+            setRow(y, 0, row, 0, width);
+        }
+    }
+
+    private void checkLength(int length)
+    {
+        if (length != size())
+            throw new IllegalArgumentException("Expected " + size() + " values, got " + length);
+    }
+
+    private void checkDimensions(int width, int height)
+    {
+        if (width != this.width || height != this.height)
+            throw new IllegalArgumentException("Expected a " + this.width + "x" + this.height + " array, got " + width + "x" + height);
+    }
+}
@@ -0,0 +1,219 @@
+package ca.dhlevi.libnoise.field;
+
+// The int counterpart of HeightField for basins, rivers, regions and biomes. Stored row by row
+// in one block of memory, index y * width + x. Heap fields are backed by an int[] that stages
+// can work on directly, direct fields live off-heap in an IntBuffer.
+//
+// The pipeline's int[][] arrays are column major (data[x][y]), wrap, toArray, copyTo and
+// copyFrom convert between the two.
+public abstract class IntField
+{
+    private final int width;
+    private final int height;
+    private WrapMode wrapMode;
+
+    protected IntField(int width, int height, WrapMode wrapMode)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Field dimensions must be at least 1x1");
+        if ((long) width * height > FieldUtilities.MAX_CELLS)
+            throw new IllegalArgumentException("A " + width + "x" + height + " field does not fit in a single block");
+        if (wrapMode == null)
+            throw new NullPointerException("Wrap mode is null");
+
+        this.width = width;
+        this.height = height;
+        this.wrapMode = wrapMode;
+    }
+
+    public static IntField allocate(int width, int height)
+    {
+        return new ArrayIntField(width, height, WrapMode.NONE);
+    }
+
+    public static IntField allocate(int width, int height, WrapMode wrapMode)
+    {
+        return new ArrayIntField(width, height, wrapMode);
+    }
+
+    public static IntField allocateDirect(int width, int height)
+    {
+        return new DirectIntField(width, height, WrapMode.NONE);
+    }
+
+    public static IntField allocateDirect(int width, int height, WrapMode wrapMode)
+    {
+        return new DirectIntField(width, height, wrapMode);
+    }
+
+    // a heap field holding a copy of a column major array
+    public static IntField wrap(int[][] data)
+    {
+        return wrap(data, WrapMode.NONE);
+    }
+
+    public static IntField wrap(int[][] data, WrapMode wrapMode)
+    {
+        IntField field = new ArrayIntField(data.length, data[0].length, wrapMode);
+        field.copyFrom(data);
+        return field;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int size()
+    {
+        return width * height;
+    }
+
+    public WrapMode getWrapMode()
+    {
+        return wrapMode;
+    }
+
+    public void setWrapMode(WrapMode wrapMode)
+    {
+        if (wrapMode == null)
+            throw new NullPointerException("Wrap mode is null");
+
+        this.wrapMode = wrapMode;
+    }
+
+    public int index(int x, int y)
+    {
+        return y * width + x;
+    }
+
+    public abstract int get(int index);
+
+    public abstract void set(int index, int value);
+
+    public int get(int x, int y)
+    {
+        return get(y * width + x);
+    }
+
+    public void set(int x, int y, int value)
+    {
+        set(y * width + x, value);
+    }
+
+    public void add(int x, int y, int value)
+    {
+        int index = y * width + x;
+        set(index, get(index) + value);
+    }
+
+    // any coordinate, resolved with the wrap mode
+    public int sample(int x, int y)
+    {
+        return get(FieldUtilities.resolveX(x, width, wrapMode), FieldUtilities.resolveY(y, height, wrapMode));
+    }
+
+    // count values of row y starting at column x
+    public void getRow(int y, int x, int[] dst, int offset, int count)
+    {
+        int index = y * width + x;
+
+        for (int i = 0; i < count; i++)
+            dst[offset + i] = get(index + i);
+    }
+
+    public void setRow(int y, int x, int[] src, int offset, int count)
+    {
+        int index = y * width + x;
+
+        for (int i = 0; i < count; i++)
+            set(index + i, src[offset + i]);
+    }
+
+    public void fill(int value)
+    {
+        for (int i = 0; i < size(); i++)
+            set(i, value);
+    }
+
+    // true when the values sit in a heap array that array() hands out
+    public boolean hasArray()
+    {
+        return false;
+    }
+
+    public int[] array()
+    {
+        throw new UnsupportedOperationException("Field is not backed by an array");
+    }
+
+    // row major copies of the whole field
+    public void copyTo(int[] dst)
+    {
+        checkLength(dst.length);
+
+        for (int y = 0; y < height; y++)
+            getRow(y, 0, dst, y * width, width);
+    }
+
+    public void copyFrom(int[] src)
+    {
+        checkLength(src.length);
+
+        for (int y = 0; y < height; y++)
+            setRow(y, 0, src, y * width, width);
+    }
+
+    // column major copies, the layout the rest of the pipeline uses
+    public int[][] toArray()
+    {
+        int[][] data = new int[width][height];
+        copyTo(data);
+        return data;
+    }
+
+    public void copyTo(int[][] data)
+    {
+        checkDimensions(data.length, data[0].length);
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            getRow(y, 0, row, 0, width);
+
+            for (int x = 0; x < width; x++)
+                data[x][y] = row[x];
+        }
+    }
+
+    public void copyFrom(int[][] data)
+    {
+        checkDimensions(data.length, data[0].length);
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                row[x] = data[x][y];
+
+            setRow(y, 0, row, 0, width);
+        }
+    }
+
+    private void checkLength(int length)
+    {
+        if (length != size())
+            throw new IllegalArgumentException("Expected " + size() + " values, got " + length);
+    }
+
+    private void checkDimensions(int width, int height)
+    {
+        if (width != this.width || height != this.height)
+            throw new IllegalArgumentException("Expected a " + this.width + "x" + this.height + " array, got " + width + "x" + height);
+    }
+}
@@ -0,0 +1,208 @@
+package ca.dhlevi.libnoise.field;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A height field kept in a memory mapped file, for grids that don't fit on the heap. The OS
+// pages the file in and out as it is touched, so a stage walking the field tile by tile or
+// row by row only needs its working set in memory.
+//
+// A single mapping is limited to 2 GB, so the file is mapped in chunks of whole rows. Values
+// can be stored as floats to halve the file, reads then return the float widened to a double.
+//
+// The file is created when it doesn't exist (or is empty) and reused when it does, so a field
+// can be reopened later. It starts with a small header holding the width, height, precision and
+// byte order, and reopening it as anything else throws instead of misreading the values. Call
+// flush() to push writes to disk, and close() when done. Java has no way to unmap a buffer on
+// demand, the mappings are released once the field is garbage collected.
+public class MappedHeightField extends HeightField implements Closeable
+{
+    // size of one mapping, rounded down to whole rows
+    static final long DEFAULT_CHUNK_BYTES = 1L << 30;
+
+    // magic, format, width, height. Keeps the values after it 8 byte aligned
+    static final int HEADER_BYTES = 16;
+    static final int MAGIC = 0x4C4E4647; // "LNFG"
+    static final int FORMAT_DOUBLE = 1;
+    static final int FORMAT_FLOAT = 2;
+    static final int FORMAT_INT = 3;
+
+    private final RandomAccessFile file;
+    private final boolean floatPrecision;
+    private final int rowsPerChunk;
+    private final MappedByteBuffer[] mappings;
+    private final DoubleBuffer[] doubles;
+    private final FloatBuffer[] floats;
+
+    public MappedHeightField(File path, int width, int height, WrapMode wrapMode, boolean floatPrecision) throws IOException
+    {
+        this(path, width, height, wrapMode, floatPrecision, DEFAULT_CHUNK_BYTES);
+    }
+
+    MappedHeightField(File path, int width, int height, WrapMode wrapMode, boolean floatPrecision, long chunkBytes) throws IOException
+    {
+        super(width, height, wrapMode);
+
+        int valueBytes = floatPrecision ? Float.BYTES : Double.BYTES;
+        long rowBytes = (long) width * valueBytes;
+
+        this.floatPrecision = floatPrecision;
+        this.rowsPerChunk = (int) Math.max(1, Math.min(height, chunkBytes / rowBytes));
+
+        if (rowBytes * rowsPerChunk > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A single row of " + width + " values does not fit in one mapping");
+
+        int chunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+        this.mappings = new MappedByteBuffer[chunks];
+        this.doubles = floatPrecision ? null : new DoubleBuffer[chunks];
+        this.floats = floatPrecision ? new FloatBuffer[chunks] : null;
+
+        this.file = new RandomAccessFile(path, "rw");
+
+        try
+        {
+            prepare(file, path, floatPrecision ? FORMAT_FLOAT : FORMAT_DOUBLE, width, height, rowBytes * height);
+            FileChannel channel = file.getChannel();
+
+            for (int c = 0; c < chunks; c++)
+            {
+                int rows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+
+                mappings[c] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + rowBytes * c * rowsPerChunk, rowBytes * rows);
+                mappings[c].order(ByteOrder.nativeOrder());
+
+                if (floatPrecision)
+                    floats[c] = mappings[c].asFloatBuffer();
+                else
+                    doubles[c] = mappings[c].asDoubleBuffer();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    // writes the header of a new (empty) file, or checks that an existing one holds exactly this
+    // layout. The values are in native byte order, which is recorded in the format
+    static void prepare(RandomAccessFile file, File path, int format, int width, int height, long dataBytes) throws IOException
+    {
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+            format |= 0x100;
+
+        if (file.length() == 0)
+        {
+            file.writeInt(MAGIC);
+            file.writeInt(format);
+            file.writeInt(width);
+            file.writeInt(height);
+            file.setLength(HEADER_BYTES + dataBytes);
+            return;
+        }
+
+        if (file.length() < HEADER_BYTES || file.readInt() != MAGIC)
+            throw new IOException(path + " is not a mapped field");
+
+        int fileFormat = file.readInt();
+        int fileWidth = file.readInt();
+        int fileHeight = file.readInt();
+
+        if (fileFormat != format || fileWidth != width || fileHeight != height)
+            throw new IOException(path + " holds a " + fileWidth + " x " + fileHeight + " field of format " + Integer.toHexString(fileFormat) + ", expected " + width + " x " + height + " of format " + Integer.toHexString(format));
+        if (file.length() != HEADER_BYTES + dataBytes)
+            throw new IOException(path + " is " + file.length() + " bytes, expected " + (HEADER_BYTES + dataBytes));
+    }
+
+    public boolean isFloatPrecision()
+    {
+        return floatPrecision;
+    }
+
+    @Override
+    public double get(int index)
+    {
+        int cells = rowsPerChunk * getWidth();
+        int chunk = index / cells;
+        int offset = index - chunk * cells;
+
+        return floatPrecision ? floats[chunk].get(offset) : doubles[chunk].get(offset);
+    }
+
+    @Override
+    public void set(int index, double value)
+    {
+        int cells = rowsPerChunk * getWidth();
+        int chunk = index / cells;
+        int offset = index - chunk * cells;
+
+        if (floatPrecision)
+            floats[chunk].put(offset, (float) value);
+        else
+            doubles[chunk].put(offset, value);
+    }
+
+    // a row never straddles two chunks, so rows are copied in bulk
+    @Override
+    public void getRow(int y, int x, double[] dst, int offset, int count)
+    {
+        int chunk = y / rowsPerChunk;
+        int position = (y - chunk * rowsPerChunk) * getWidth() + x;
+
+        if (floatPrecision)
+        {
+            FloatBuffer values = floats[chunk];
+
+            for (int i = 0; i < count; i++)
+                dst[offset + i] = values.get(position + i);
+        }
+        else
+        {
+            DoubleBuffer view = doubles[chunk].duplicate();
+            view.position(position);
+            view.get(dst, offset, count);
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, double[] src, int offset, int count)
+    {
+        int chunk = y / rowsPerChunk;
+        int position = (y - chunk * rowsPerChunk) * getWidth() + x;
+
+        if (floatPrecision)
+        {
+            FloatBuffer values = floats[chunk];
+
+            for (int i = 0; i < count; i++)
+                values.put(position + i, (float) src[offset + i]);
+        }
+        else
+        {
+            DoubleBuffer view = doubles[chunk].duplicate();
+            view.position(position);
+            view.put(src, offset, count);
+        }
+    }
+
+    // writes any changes back to the file
+    public void flush()
+    {
+        for (MappedByteBuffer mapping : mappings)
+            mapping.force();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        file.close();
+    }
+}
@@ -0,0 +1,117 @@
+package ca.dhlevi.libnoise.field;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// The IntField counterpart of MappedHeightField, basins, rivers and regions for grids that
+// don't fit on the heap. Mapped in chunks of whole rows, created when the file doesn't exist
+// and reused when it does, with the same header and checks.
+public class MappedIntField extends IntField implements Closeable
+{
+    private final RandomAccessFile file;
+    private final int rowsPerChunk;
+    private final MappedByteBuffer[] mappings;
+    private final IntBuffer[] ints;
+
+    public MappedIntField(File path, int width, int height, WrapMode wrapMode) throws IOException
+    {
+        this(path, width, height, wrapMode, MappedHeightField.DEFAULT_CHUNK_BYTES);
+    }
+
+    MappedIntField(File path, int width, int height, WrapMode wrapMode, long chunkBytes) throws IOException
+    {
+        super(width, height, wrapMode);
+
+        long rowBytes = (long) width * Integer.BYTES;
+
+        this.rowsPerChunk = (int) Math.max(1, Math.min(height, chunkBytes / rowBytes));
+
+        if (rowBytes * rowsPerChunk > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A single row of " + width + " values does not fit in one mapping");
+
+        int chunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+        this.mappings = new MappedByteBuffer[chunks];
+        this.ints = new IntBuffer[chunks];
+
+        this.file = new RandomAccessFile(path, "rw");
+
+        try
+        {
+            MappedHeightField.prepare(file, path, MappedHeightField.FORMAT_INT, width, height, rowBytes * height);
+            FileChannel channel = file.getChannel();
+
+            for (int c = 0; c < chunks; c++)
+            {
+                int rows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+
+                mappings[c] = channel.map(FileChannel.MapMode.READ_WRITE, MappedHeightField.HEADER_BYTES + rowBytes * c * rowsPerChunk, rowBytes * rows);
+                mappings[c].order(ByteOrder.nativeOrder());
+                ints[c] = mappings[c].asIntBuffer();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int get(int index)
+    {
+        int cells = rowsPerChunk * getWidth();
+        int chunk = index / cells;
+
+        return ints[chunk].get(index - chunk * cells);
+    }
+
+    @Override
+    public void set(int index, int value)
+    {
+        int cells = rowsPerChunk * getWidth();
+        int chunk = index / cells;
+
+        ints[chunk].put(index - chunk * cells, value);
+    }
+
+    // a row never straddles two chunks, so rows are copied in bulk
+    @Override
+    public void getRow(int y, int x, int[] dst, int offset, int count)
+    {
+        int chunk = y / rowsPerChunk;
+
+        IntBuffer view = ints[chunk].duplicate();
+        view.position((y - chunk * rowsPerChunk) * getWidth() + x);
+        view.get(dst, offset, count);
+    }
+
+    @Override
+    public void setRow(int y, int x, int[] src, int offset, int count)
+    {
+        int chunk = y / rowsPerChunk;
+
+        IntBuffer view = ints[chunk].duplicate();
+        view.position((y - chunk * rowsPerChunk) * getWidth() + x);
+        view.put(src, offset, count);
+    }
+
+    // writes any changes back to the file
+    public void flush()
+    {
+        for (MappedByteBuffer mapping : mappings)
+            mapping.force();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        file.close();
+    }
+}
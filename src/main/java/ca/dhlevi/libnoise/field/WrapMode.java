@@ -0,0 +1,8 @@
+package ca.dhlevi.libnoise.field;
+
+// How a field answers for coordinates outside of it. NONE clamps to the nearest edge,
+// HORIZONTAL wraps east/west and clamps north/south like a world map, BOTH wraps everything.
+public enum WrapMode
+{
+    NONE, HORIZONTAL, BOTH
+}
@@ -23,4 +23,17 @@ public class Checker extends Generator
 
         return (ix & 1 ^ iy & 1 ^ iz & 1) != 0 ? -1.0 : 1.0;
     }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int ix = (int) (Math.floor(Utilities.makeInt32Range(xs[i])));
+            int iy = (int) (Math.floor(Utilities.makeInt32Range(ys[i])));
+            int iz = (int) (Math.floor(Utilities.makeInt32Range(zs[i])));
+
+            out[i] = (ix & 1 ^ iy & 1 ^ iz & 1) != 0 ? -1.0 : 1.0;
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package ca.dhlevi.libnoise.generator;
 
+import java.util.Arrays;
+
 public class Const extends Generator
 {
     private double value;
@@ -25,4 +27,10 @@ public class Const extends Generator
     {
         return value;
     }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        Arrays.fill(out, 0, count, value);
+    }
 }
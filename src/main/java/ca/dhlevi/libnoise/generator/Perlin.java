@@ -10,6 +10,9 @@ public class Perlin extends Generator
     private int octave;
     private double persistence;
     private int seed;
+    private double periodX;
+    private double periodY;
+    private double periodZ;
 
     public Perlin()
     {
@@ -40,6 +43,9 @@ public class Perlin extends Generator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
+        if (isPeriodic())
+            return getPeriodicValue(x, y, z, scale);
+
         double value = 0.0;
         double cp = 1.0;
 
@@ -68,6 +74,80 @@ public class Perlin extends Generator
         return value;
     }
 
+    // octave by octave over the whole batch, each point still sees exactly the
+    // same sequence of operations as it would through getValue
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        if (isPeriodic())
+        {
+            for (int i = 0; i < count; i++)
+                out[i] = getPeriodicValue(xs[i], ys[i], zs[i], scale);
+            return;
+        }
+
+        double[] px = new double[count];
+        double[] py = new double[count];
+        double[] pz = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            px[i] = xs[i] * frequency;
+            py[i] = ys[i] * frequency;
+            pz[i] = zs[i] * frequency;
+            out[i] = 0.0;
+        }
+
+        double cp = 1.0;
+
+        for (int o = 0; o < octave + scale; o++)
+        {
+            long modSeed = (seed + o) & 0xffffffff;
+
+            for (int i = 0; i < count; i++)
+            {
+                double nx = Utilities.makeInt32Range(px[i]);
+                double ny = Utilities.makeInt32Range(py[i]);
+                double nz = Utilities.makeInt32Range(pz[i]);
+
+                double signal = Utilities.gradientCoherentNoise3D(nx, ny, nz, modSeed, quality);
+
+                out[i] += signal * cp;
+
+                px[i] *= lacunarity;
+                py[i] *= lacunarity;
+                pz[i] *= lacunarity;
+            }
+
+            cp *= persistence;
+        }
+    }
+
+    private double getPeriodicValue(double x, double y, double z, int scale)
+    {
+        double value = 0.0;
+        double cp = 1.0;
+        double f = frequency;
+
+        for (int i = 0; i < octave + scale; i++)
+        {
+            double nx = Utilities.makeInt32Range(x * Utilities.latticeScale(periodX, f));
+            double ny = Utilities.makeInt32Range(y * Utilities.latticeScale(periodY, f));
+            double nz = Utilities.makeInt32Range(z * Utilities.latticeScale(periodZ, f));
+
+            long modSeed = (seed + i) & 0xffffffff;
+            double signal = Utilities.gradientCoherentNoise3D(nx, ny, nz, modSeed, quality,
+                    Utilities.latticePeriod(periodX, f), Utilities.latticePeriod(periodY, f), Utilities.latticePeriod(periodZ, f));
+
+            value += signal * cp;
+
+            f *= lacunarity;
+            cp *= persistence;
+        }
+
+        return value;
+    }
+
     public double getFrequency()
     {
         return frequency;
@@ -127,4 +207,37 @@ public class Perlin extends Generator
     {
         this.seed = seed;
     }
+
+    // makes the noise repeat every x, y and z along each axis, 0 leaves that axis unwrapped.
+    // Each octave's lattice is fitted to a whole number of cells per period, which bends its
+    // frequency slightly
+    public void setPeriod(double x, double y, double z)
+    {
+        if (x < 0 || y < 0 || z < 0)
+            throw new IllegalArgumentException("Periods can't be negative");
+
+        this.periodX = x;
+        this.periodY = y;
+        this.periodZ = z;
+    }
+
+    public double getPeriodX()
+    {
+        return periodX;
+    }
+
+    public double getPeriodY()
+    {
+        return periodY;
+    }
+
+    public double getPeriodZ()
+    {
+        return periodZ;
+    }
+
+    public boolean isPeriodic()
+    {
+        return periodX > 0 || periodY > 0 || periodZ > 0;
+    }
 }
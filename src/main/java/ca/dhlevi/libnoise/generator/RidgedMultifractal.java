@@ -9,6 +9,9 @@ public class RidgedMultifractal extends Generator
     private QualityMode quality;
     private int octave;
     private int seed;
+    private double periodX;
+    private double periodY;
+    private double periodZ;
 
     private double[] weights = new double[Utilities.MAX_OCTAVE];
 
@@ -54,6 +57,9 @@ public class RidgedMultifractal extends Generator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
+        if (isPeriodic())
+            return getPeriodicValue(x, y, z, scale);
+
         x *= frequency;
         y *= frequency;
         z *= frequency;
@@ -90,6 +96,102 @@ public class RidgedMultifractal extends Generator
         return (value * 1.25) - 1.0;
     }
 
+    // octave by octave over the whole batch, each point keeps its own running
+    // weight so the result matches getValue exactly
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        if (isPeriodic())
+        {
+            for (int i = 0; i < count; i++)
+                out[i] = getPeriodicValue(xs[i], ys[i], zs[i], scale);
+            return;
+        }
+
+        double[] px = new double[count];
+        double[] py = new double[count];
+        double[] pz = new double[count];
+        double[] pw = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            px[i] = xs[i] * frequency;
+            py[i] = ys[i] * frequency;
+            pz[i] = zs[i] * frequency;
+            pw[i] = 1.0;
+            out[i] = 0.0;
+        }
+
+        double offset = 1.0;
+        double gain = 2.0;
+
+        for (int o = 0; o < octave + scale; o++)
+        {
+            long modSeed = (seed + o) & 0x7fffffff;
+            double octaveWeight = weights[o];
+
+            for (int i = 0; i < count; i++)
+            {
+                double nx = Utilities.makeInt32Range(px[i]);
+                double ny = Utilities.makeInt32Range(py[i]);
+                double nz = Utilities.makeInt32Range(pz[i]);
+
+                double signal = Utilities.gradientCoherentNoise3D(nx, ny, nz, modSeed, quality);
+
+                signal = Math.abs(signal);
+                signal = offset - signal;
+                signal *= signal;
+                signal *= pw[i];
+
+                double weight = signal * gain;
+                pw[i] = Utilities.clamp((float) weight);
+
+                out[i] += (signal * octaveWeight);
+
+                px[i] *= lacunarity;
+                py[i] *= lacunarity;
+                pz[i] *= lacunarity;
+            }
+        }
+
+        for (int i = 0; i < count; i++)
+            out[i] = (out[i] * 1.25) - 1.0;
+    }
+
+    private double getPeriodicValue(double x, double y, double z, int scale)
+    {
+        double value = 0.0;
+        double weight = 1.0;
+        double offset = 1.0;
+        double gain = 2.0;
+        double f = frequency;
+
+        for (int i = 0; i < octave + scale; i++)
+        {
+            double nx = Utilities.makeInt32Range(x * Utilities.latticeScale(periodX, f));
+            double ny = Utilities.makeInt32Range(y * Utilities.latticeScale(periodY, f));
+            double nz = Utilities.makeInt32Range(z * Utilities.latticeScale(periodZ, f));
+
+            long modSeed = (seed + i) & 0x7fffffff;
+            double signal = Utilities.gradientCoherentNoise3D(nx, ny, nz, modSeed, quality,
+                    Utilities.latticePeriod(periodX, f), Utilities.latticePeriod(periodY, f), Utilities.latticePeriod(periodZ, f));
+
+            signal = Math.abs(signal);
+            signal = offset - signal;
+            signal *= signal;
+            signal *= weight;
+
+            weight = signal * gain;
+            weight = Utilities.clamp((float) weight);
+
+            value += (signal * weights[i]);
+
+            f *= lacunarity;
+        }
+
+        return (value * 1.25) - 1.0;
+    }
+
     public double getFrequency()
     {
         return frequency;
@@ -140,4 +242,37 @@ public class RidgedMultifractal extends Generator
     {
         this.seed = seed;
     }
+
+    // makes the noise repeat every x, y and z along each axis, 0 leaves that axis unwrapped.
+    // Each octave's lattice is fitted to a whole number of cells per period, which bends its
+    // frequency slightly
+    public void setPeriod(double x, double y, double z)
+    {
+        if (x < 0 || y < 0 || z < 0)
+            throw new IllegalArgumentException("Periods can't be negative");
+
+        this.periodX = x;
+        this.periodY = y;
+        this.periodZ = z;
+    }
+
+    public double getPeriodX()
+    {
+        return periodX;
+    }
+
+    public double getPeriodY()
+    {
+        return periodY;
+    }
+
+    public double getPeriodZ()
+    {
+        return periodZ;
+    }
+
+    public boolean isPeriodic()
+    {
+        return periodX > 0 || periodY > 0 || periodZ > 0;
+    }
 }
@@ -44,4 +44,22 @@ public class Sphere extends Generator
 
         return 1.0 - (nd * 4.0);
     }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            double x = xs[i] * frequency;
+            double y = ys[i] * frequency;
+            double z = zs[i] * frequency;
+
+            double dfc = Math.sqrt(x * x + y * y + z * z);
+            double dfss = dfc - Math.floor(dfc);
+            double dfls = 1.0 - dfss;
+            double nd = Math.min(dfss, dfls);
+
+            out[i] = 1.0 - (nd * 4.0);
+        }
+    }
 }
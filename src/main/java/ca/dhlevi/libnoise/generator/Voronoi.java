@@ -34,10 +34,19 @@ public class Voronoi extends Generator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
-        x *= frequency;
-        y *= frequency;
-        z *= frequency;
+        return evaluate(x * frequency, y * frequency, z * frequency);
+    }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        for (int i = 0; i < count; i++)
+            out[i] = evaluate(xs[i] * frequency, ys[i] * frequency, zs[i] * frequency);
+    }
 
+    // x, y and z are already scaled by the frequency
+    private double evaluate(double x, double y, double z)
+    {
         int xi = (x > 0.0 ? (int) x : (int) x - 1);
         int iy = (y > 0.0 ? (int) y : (int) y - 1);
         int iz = (z > 0.0 ? (int) z : (int) z - 1);
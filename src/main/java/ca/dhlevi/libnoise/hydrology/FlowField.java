@@ -0,0 +1,161 @@
+package ca.dhlevi.libnoise.hydrology;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
+
+// The result of PriorityFlood.analyze: the depression filled heights, an ocean/lake/land label,
+// the D8 flow direction and the flow accumulation of every pixel. Stored row by row, index
+// y * width + x.
+public class FlowField
+{
+    // same codes NoiseNormalizer.detectBasins uses
+    public static final int LAND = 1;
+    public static final int LAKE = 2;
+    public static final int OCEAN = 3;
+
+    // direction of pixels that don't flow anywhere, the ocean and the outlet of a map without one
+    public static final int NO_FLOW = -1;
+
+    // D8 neighbour offsets by direction, nw, n, ne, w, e, sw, s, se
+    static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+    private final int width;
+    private final int height;
+    private final double[] filled;
+    private final byte[] labels;
+    private final byte[] directions;
+    private final int[] accumulation;
+
+    FlowField(int width, int height, double[] filled, byte[] labels, byte[] directions, int[] accumulation)
+    {
+        this.width = width;
+        this.height = height;
+        this.filled = filled;
+        this.labels = labels;
+        this.directions = directions;
+        this.accumulation = accumulation;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    // height with every depression filled up to its spill point, plus just enough slope that
+    // water on it always has somewhere lower to go
+    public double getFilled(int x, int y)
+    {
+        return filled[y * width + x];
+    }
+
+    public int getLabel(int x, int y)
+    {
+        return labels[y * width + x];
+    }
+
+    // 0 to 7 in DX/DY order, or NO_FLOW
+    public int getDirection(int x, int y)
+    {
+        return directions[y * width + x];
+    }
+
+    // number of pixels draining through this one, itself included for land and lakes
+    public int getAccumulation(int x, int y)
+    {
+        return accumulation[y * width + x];
+    }
+
+    // index of the pixel this one drains into, or -1
+    public int downstream(int x, int y)
+    {
+        int direction = directions[y * width + x];
+        if (direction == NO_FLOW)
+            return -1;
+
+        int nx = x + DX[direction];
+        if (nx < 0)
+            nx = width - 1;
+        else if (nx == width)
+            nx = 0;
+
+        return (y + DY[direction]) * width + nx;
+    }
+
+    // the labels as a column major array, a drop in for the detectBasins output
+    public int[][] toBasinArray()
+    {
+        int[][] basins = new int[width][height];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                basins[x][y] = labels[y * width + x];
+        }
+
+        return basins;
+    }
+
+    public IntField toBasinField(WrapMode wrapMode)
+    {
+        IntField basins = IntField.allocate(width, height, wrapMode);
+
+        for (int i = 0; i < labels.length; i++)
+            basins.set(i, labels[i]);
+
+        return basins;
+    }
+
+    // writes the filled heights back, the equivalent of detectBasins with fillBasins
+    public void copyFilledTo(double[][] noise)
+    {
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                noise[x][y] = filled[y * width + x];
+        }
+    }
+
+    public void copyFilledTo(HeightField noise)
+    {
+        noise.copyFrom(filled);
+    }
+
+    // Rivers are the land pixels draining at least threshold pixels, marked with riverRank. Every
+    // river runs downhill into another river, a lake or the ocean, so confluences join up
+    public int[][] extractRivers(int threshold, int riverRank)
+    {
+        int[][] rivers = new int[width][height];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int i = y * width + x;
+                if (labels[i] == LAND && accumulation[i] >= threshold)
+                    rivers[x][y] = riverRank;
+            }
+        }
+
+        return rivers;
+    }
+
+    public IntField extractRivers(int threshold, int riverRank, WrapMode wrapMode)
+    {
+        IntField rivers = IntField.allocate(width, height, wrapMode);
+
+        for (int i = 0; i < labels.length; i++)
+        {
+            if (labels[i] == LAND && accumulation[i] >= threshold)
+                rivers.set(i, riverRank);
+        }
+
+        return rivers;
+    }
+}
@@ -0,0 +1,325 @@
+package ca.dhlevi.libnoise.hydrology;
+
+import java.util.Arrays;
+
+import ca.dhlevi.libnoise.field.HeapLimit;
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Depression filling and drainage in one pass, after Barnes, Lehman and Mulla's Priority-Flood.
+//
+// Water at or below sea level is split into connected bodies, those larger than oceanSize
+// pixels are ocean and the rest are lakes. The flood starts from the ocean's shore and always
+// grows from the lowest pixel reached so far, so every pixel is reached over the lowest possible
+// pass. A pixel lower than the one it was reached from sits in a depression and is raised to
+// just above it (the next double up), which fills lakes and pits to their spill point while
+// leaving a slope for water to follow out of them.
+//
+// On the filled heights every pixel off the ocean has a lower neighbour, its D8 direction is the
+// steepest of them. The flood reaches pixels in order of filled height, so walking that order
+// backwards visits every pixel before the one it drains into, which gives the flow accumulation
+// in a single sweep. East and west wrap, north and south don't.
+public class PriorityFlood
+{
+    private static final double DIAGONAL = Math.sqrt(2);
+
+    // heights, water labels, reached flags, flood order, accumulation, directions and the
+    // labelling queue
+    private static final int CELL_BYTES = Double.BYTES + 1 + 1 + Integer.BYTES + Integer.BYTES + 1 + Integer.BYTES;
+
+    public static FlowField analyze(double[][] noise, double seaLevel, int oceanSize)
+    {
+        HeightField field = HeightField.wrap(noise);
+        return analyze(field.array(), field.getWidth(), field.getHeight(), seaLevel, oceanSize);
+    }
+
+    // the flood needs the whole grid, the filled heights and the flow are all kept on the heap
+    public static FlowField analyze(HeightField noise, double seaLevel, int oceanSize)
+    {
+        HeapLimit.check("Priority flood", noise.getWidth(), noise.getHeight(), CELL_BYTES);
+
+        double[] heights = new double[noise.size()];
+        noise.copyTo(heights);
+
+        return analyze(heights, noise.getWidth(), noise.getHeight(), seaLevel, oceanSize);
+    }
+
+    // heights is row major, it is filled in place and kept by the returned field
+    private static FlowField analyze(double[] heights, int width, int height, double seaLevel, int oceanSize)
+    {
+        int size = width * height;
+
+        byte[] labels = labelWater(heights, width, height, seaLevel, oceanSize);
+        boolean[] reached = new boolean[size];
+        int[] order = new int[size];
+        int ordered = 0;
+
+        CellQueue queue = new CellQueue(1024);
+
+        // seed the flood with the ocean shore, the rest of the ocean never needs to be visited
+        boolean hasOcean = false;
+        for (int cell = 0; cell < size; cell++)
+        {
+            if (labels[cell] != FlowField.OCEAN)
+                continue;
+
+            hasOcean = true;
+            reached[cell] = true;
+
+            if (touchesLand(labels, cell, width, height))
+                queue.push(heights[cell], cell);
+        }
+
+        // without an ocean everything drains to the lowest pixel
+        if (!hasOcean)
+        {
+            int lowest = 0;
+            for (int cell = 1; cell < size; cell++)
+            {
+                if (heights[cell] < heights[lowest])
+                    lowest = cell;
+            }
+
+            reached[lowest] = true;
+            queue.push(heights[lowest], lowest);
+        }
+
+        while (queue.size() > 0)
+        {
+            double level = queue.peekKey();
+            int cell = queue.pop();
+
+            if (labels[cell] != FlowField.OCEAN)
+                order[ordered++] = cell;
+
+            int x = cell % width;
+            int y = cell / width;
+
+            for (int k = 0; k < 8; k++)
+            {
+                int next = neighbour(x, y, k, width, height);
+                if (next == -1 || reached[next])
+                    continue;
+
+                reached[next] = true;
+
+                if (heights[next] <= level)
+                    heights[next] = Math.nextUp(level);
+
+                queue.push(heights[next], next);
+            }
+        }
+
+        byte[] directions = flowDirections(heights, labels, width, height);
+
+        // upstream pixels come later in the flood order, so walking it backwards pushes each
+        // pixel's total downstream before its receiver passes it on
+        int[] accumulation = new int[size];
+        for (int i = ordered - 1; i >= 0; i--)
+        {
+            int cell = order[i];
+            accumulation[cell]++;
+
+            int direction = directions[cell];
+            if (direction != FlowField.NO_FLOW)
+                accumulation[neighbour(cell % width, cell / width, direction, width, height)] += accumulation[cell];
+        }
+
+        return new FlowField(width, height, heights, labels, directions, accumulation);
+    }
+
+    // 1 for land, and 2 or 3 for water depending on the size of the body it belongs to
+    private static byte[] labelWater(double[] heights, int width, int height, double seaLevel, int oceanSize)
+    {
+        int size = width * height;
+        byte[] labels = new byte[size];
+        int[] queue = new int[size];
+        int tail = 0;
+
+        for (int cell = 0; cell < size; cell++)
+        {
+            if (labels[cell] != 0)
+                continue;
+
+            if (heights[cell] > seaLevel)
+            {
+                labels[cell] = FlowField.LAND;
+                continue;
+            }
+
+            // breadth first over the water body, its pixels end up in queue[first] to queue[tail - 1]
+            int first = tail;
+            labels[cell] = FlowField.LAKE;
+            queue[tail++] = cell;
+
+            for (int head = first; head < tail; head++)
+            {
+                int current = queue[head];
+                int x = current % width;
+                int y = current / width;
+
+                for (int k = 0; k < 8; k++)
+                {
+                    int next = neighbour(x, y, k, width, height);
+                    if (next != -1 && labels[next] == 0 && heights[next] <= seaLevel)
+                    {
+                        labels[next] = FlowField.LAKE;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+
+            if (tail - first > oceanSize)
+            {
+                for (int i = first; i < tail; i++)
+                    labels[queue[i]] = FlowField.OCEAN;
+            }
+        }
+
+        return labels;
+    }
+
+    private static byte[] flowDirections(double[] filled, byte[] labels, int width, int height)
+    {
+        byte[] directions = new byte[width * height];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int cell = y * width + x;
+                int best = FlowField.NO_FLOW;
+                double bestSlope = 0;
+
+                if (labels[cell] != FlowField.OCEAN)
+                {
+                    for (int k = 0; k < 8; k++)
+                    {
+                        int next = neighbour(x, y, k, width, height);
+                        if (next == -1)
+                            continue;
+
+                        double drop = filled[cell] - filled[next];
+                        double slope = FlowField.DX[k] != 0 && FlowField.DY[k] != 0 ? drop / DIAGONAL : drop;
+
+                        if (drop > 0 && slope > bestSlope)
+                        {
+                            best = k;
+                            bestSlope = slope;
+                        }
+                    }
+                }
+
+                directions[cell] = (byte) best;
+            }
+        }
+
+        return directions;
+    }
+
+    private static boolean touchesLand(byte[] labels, int cell, int width, int height)
+    {
+        int x = cell % width;
+        int y = cell / width;
+
+        for (int k = 0; k < 8; k++)
+        {
+            int next = neighbour(x, y, k, width, height);
+            if (next != -1 && labels[next] != FlowField.OCEAN)
+                return true;
+        }
+
+        return false;
+    }
+
+    // index of neighbour k of x, y, wrapping east/west, or -1 off the top or bottom
+    private static int neighbour(int x, int y, int k, int width, int height)
+    {
+        int ny = y + FlowField.DY[k];
+        if (ny < 0 || ny >= height)
+            return -1;
+
+        int nx = x + FlowField.DX[k];
+        if (nx < 0)
+            nx = width - 1;
+        else if (nx == width)
+            nx = 0;
+
+        return ny * width + nx;
+    }
+
+    // binary min heap of pixels keyed by height
+    private static final class CellQueue
+    {
+        private double[] keys;
+        private int[] cells;
+        private int size;
+
+        CellQueue(int capacity)
+        {
+            keys = new double[capacity];
+            cells = new int[capacity];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        double peekKey()
+        {
+            return keys[0];
+        }
+
+        void push(double key, int cell)
+        {
+            if (size == keys.length)
+            {
+                keys = Arrays.copyOf(keys, size * 2);
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key)
+                    break;
+
+                keys[i] = keys[parent];
+                cells[i] = cells[parent];
+                i = parent;
+            }
+
+            keys[i] = key;
+            cells[i] = cell;
+        }
+
+        int pop()
+        {
+            int top = cells[0];
+            double key = keys[--size];
+            int cell = cells[size];
+
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && keys[child + 1] < keys[child])
+                    child++;
+                if (key <= keys[child])
+                    break;
+
+                keys[i] = keys[child];
+                cells[i] = cells[child];
+                i = child;
+            }
+
+            keys[i] = key;
+            cells[i] = cell;
+
+            return top;
+        }
+    }
+}
@@ -20,4 +20,13 @@ public class Abs extends Operator
     {
         return Math.abs(this.getModules().get(0).getValue(x, y, z, scale));
     }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        this.getModules().get(0).getValues(xs, ys, zs, out, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = Math.abs(out[i]);
+    }
 }
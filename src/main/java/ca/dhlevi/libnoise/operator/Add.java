@@ -22,6 +22,18 @@ public class Add extends Operator
         return getInputA().getValue(x, y, z, scale) + getInputB().getValue(x, y, z, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] rhs = new double[count];
+
+        getInputA().getValues(xs, ys, zs, out, count, scale);
+        getInputB().getValues(xs, ys, zs, rhs, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = out[i] + rhs[i];
+    }
+
     public Module getInputA()
     {
         return this.getModules().get(0);
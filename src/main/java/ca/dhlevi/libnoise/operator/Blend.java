@@ -28,6 +28,20 @@ public class Blend extends Operator
         return Utilities.interpolateLinear(a, b, c);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] b = new double[count];
+        double[] c = new double[count];
+
+        getInputA().getValues(xs, ys, zs, out, count, scale);
+        getInputB().getValues(xs, ys, zs, b, count, scale);
+        getController().getValues(xs, ys, zs, c, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = Utilities.interpolateLinear(out[i], b[i], (c[i] + 1.0) / 2.0);
+    }
+
     public Module getInputA()
     {
         return this.getModules().get(0);
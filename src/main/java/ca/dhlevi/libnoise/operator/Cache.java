@@ -1,11 +1,44 @@
 package ca.dhlevi.libnoise.operator;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 import ca.dhlevi.libnoise.Module;
 
+// Memoizes the wrapped module. A shared subgraph read by several operators at the same
+// coordinate (a Select controller that is also fed to a Terrace, say) is then only evaluated
+// once per sample.
+//
+// Every thread remembers the last coordinate and the last batch it asked for, which is what
+// catches the usual case of a node being read several times in a row by its parents. A
+// bounded LRU keyed on (x, y, z, scale) can be switched on as well for graphs that revisit
+// coordinates further apart, it is shared by all threads.
 public class Cache extends Operator
 {
+    private final ThreadLocal<LastValue> lastValue = ThreadLocal.withInitial(LastValue::new);
+    private final ThreadLocal<LastBatch> lastBatch = ThreadLocal.withInitial(LastBatch::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // bumped whenever the cached values become stale. The per thread entries check it, and a
+    // value worked out under an older generation is never put into the LRU
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private int capacity;
+    private Map<Key, Double> lru;
+
     public Cache(Module input)
     {
+        this(input, 0);
+    }
+
+    // capacity is the number of entries kept in the shared LRU, 0 keeps only the per thread last value
+    public Cache(Module input, int capacity)
+    {
+        setCapacity(capacity);
         this.getModules().add(input);
     }
 
@@ -18,7 +51,198 @@ public class Cache extends Operator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
-        return this.getCachedModule().getValue(x, y, z, scale);
+        int gen = generation.get();
+        LastValue last = lastValue.get();
+
+        if (last.matches(x, y, z, scale, gen))
+        {
+            hits.increment();
+            return last.value;
+        }
+
+        Map<Key, Double> lru = this.lru;
+        Key key = null;
+
+        if (lru != null)
+        {
+            key = new Key(x, y, z, scale);
+            Double cached;
+
+            synchronized (lru)
+            {
+                cached = lru.get(key);
+            }
+
+            if (cached != null)
+            {
+                hits.increment();
+                last.set(x, y, z, scale, gen, cached);
+                return cached;
+            }
+        }
+
+        misses.increment();
+        double value = this.getCachedModule().getValue(x, y, z, scale);
+
+        if (lru != null)
+        {
+            synchronized (lru)
+            {
+                if (generation.get() == gen)
+                    lru.put(key, value);
+            }
+        }
+
+        last.set(x, y, z, scale, gen, value);
+        return value;
+    }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        int gen = generation.get();
+        LastBatch last = lastBatch.get();
+
+        if (last.matches(xs, ys, zs, count, scale, gen))
+        {
+            hits.add(count);
+            System.arraycopy(last.values, 0, out, 0, count);
+            return;
+        }
+
+        Map<Key, Double> lru = this.lru;
+
+        if (lru == null)
+        {
+            misses.add(count);
+            this.getCachedModule().getValues(xs, ys, zs, out, count, scale);
+        }
+        else
+        {
+            getValuesThroughLru(lru, xs, ys, zs, out, count, scale, gen);
+        }
+
+        last.set(xs, ys, zs, out, count, scale, gen);
+    }
+
+    // looks every lane up in the LRU and only evaluates the ones that are missing
+    private void getValuesThroughLru(Map<Key, Double> lru, double[] xs, double[] ys, double[] zs, double[] out, int count, int scale, int gen)
+    {
+        Key[] keys = new Key[count];
+        int[] missing = new int[count];
+        int missCount = 0;
+
+        synchronized (lru)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                keys[i] = new Key(xs[i], ys[i], zs[i], scale);
+                Double cached = lru.get(keys[i]);
+
+                if (cached != null)
+                    out[i] = cached;
+                else
+                    missing[missCount++] = i;
+            }
+        }
+
+        hits.add(count - missCount);
+        misses.add(missCount);
+
+        if (missCount == 0)
+            return;
+
+        if (missCount == count)
+        {
+            this.getCachedModule().getValues(xs, ys, zs, out, count, scale);
+        }
+        else
+        {
+            double[] mx = new double[missCount];
+            double[] my = new double[missCount];
+            double[] mz = new double[missCount];
+            double[] mv = new double[missCount];
+
+            for (int i = 0; i < missCount; i++)
+            {
+                mx[i] = xs[missing[i]];
+                my[i] = ys[missing[i]];
+                mz[i] = zs[missing[i]];
+            }
+
+            this.getCachedModule().getValues(mx, my, mz, mv, missCount, scale);
+
+            for (int i = 0; i < missCount; i++)
+                out[missing[i]] = mv[i];
+        }
+
+        synchronized (lru)
+        {
+            if (generation.get() == gen)
+            {
+                for (int i = 0; i < missCount; i++)
+                    lru.put(keys[missing[i]], out[missing[i]]);
+            }
+        }
+    }
+
+    // drops everything cached so far, call this after changing anything below the cache
+    public void clear()
+    {
+        generation.incrementAndGet();
+
+        Map<Key, Double> lru = this.lru;
+        if (lru != null)
+        {
+            synchronized (lru)
+            {
+                lru.clear();
+            }
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public void resetStatistics()
+    {
+        hits.reset();
+        misses.reset();
+    }
+
+    // entries in the shared LRU
+    public int getSize()
+    {
+        Map<Key, Double> lru = this.lru;
+        if (lru == null)
+            return 0;
+
+        synchronized (lru)
+        {
+            return lru.size();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Cache capacity can not be negative");
+
+        this.capacity = capacity;
+        this.lru = capacity > 0 ? createLru(capacity) : null;
+        generation.incrementAndGet();
     }
 
     public Module getCachedModule()
@@ -29,5 +253,133 @@ public class Cache extends Operator
     public void setCachedModule(Module input)
     {
         this.getModules().set(0, input);
+        clear();
+    }
+
+    private static Map<Key, Double> createLru(final int capacity)
+    {
+        return new LinkedHashMap<Key, Double>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static final class Key
+    {
+        private final double x;
+        private final double y;
+        private final double z;
+        private final int scale;
+
+        Key(double x, double y, double z, int scale)
+        {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.scale = scale;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+            return Double.doubleToLongBits(x) == Double.doubleToLongBits(other.x) && Double.doubleToLongBits(y) == Double.doubleToLongBits(other.y)
+                    && Double.doubleToLongBits(z) == Double.doubleToLongBits(other.z) && scale == other.scale;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            long h = Double.doubleToLongBits(x);
+            h = h * 31 + Double.doubleToLongBits(y);
+            h = h * 31 + Double.doubleToLongBits(z);
+            h = h * 31 + scale;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    // the last single coordinate a thread asked for
+    private static final class LastValue
+    {
+        private boolean valid;
+        private int generation;
+        private double x;
+        private double y;
+        private double z;
+        private int scale;
+        private double value;
+
+        boolean matches(double x, double y, double z, int scale, int generation)
+        {
+            return valid && this.generation == generation && this.scale == scale && Double.doubleToLongBits(this.x) == Double.doubleToLongBits(x)
+                    && Double.doubleToLongBits(this.y) == Double.doubleToLongBits(y) && Double.doubleToLongBits(this.z) == Double.doubleToLongBits(z);
+        }
+
+        void set(double x, double y, double z, int scale, int generation, double value)
+        {
+            this.valid = true;
+            this.generation = generation;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.scale = scale;
+            this.value = value;
+        }
+    }
+
+    // the last batch a thread asked for, the coordinates are copied since callers reuse their arrays
+    private static final class LastBatch
+    {
+        private int count = -1;
+        private int generation;
+        private int scale;
+        private double[] xs = new double[0];
+        private double[] ys = new double[0];
+        private double[] zs = new double[0];
+        private double[] values = new double[0];
+
+        boolean matches(double[] xs, double[] ys, double[] zs, int count, int scale, int generation)
+        {
+            if (this.count != count || this.generation != generation || this.scale != scale)
+                return false;
+
+            for (int i = 0; i < count; i++)
+            {
+                if (Double.doubleToLongBits(this.xs[i]) != Double.doubleToLongBits(xs[i]) || Double.doubleToLongBits(this.ys[i]) != Double.doubleToLongBits(ys[i])
+                        || Double.doubleToLongBits(this.zs[i]) != Double.doubleToLongBits(zs[i]))
+                    return false;
+            }
+
+            return true;
+        }
+
+        void set(double[] xs, double[] ys, double[] zs, double[] values, int count, int scale, int generation)
+        {
+            if (this.xs.length < count)
+            {
+                this.xs = new double[count];
+                this.ys = new double[count];
+                this.zs = new double[count];
+                this.values = new double[count];
+            }
+
+            System.arraycopy(xs, 0, this.xs, 0, count);
+            System.arraycopy(ys, 0, this.ys, 0, count);
+            System.arraycopy(zs, 0, this.zs, 0, count);
+            System.arraycopy(values, 0, this.values, 0, count);
+
+            this.count = count;
+            this.scale = scale;
+            this.generation = generation;
+        }
     }
 }
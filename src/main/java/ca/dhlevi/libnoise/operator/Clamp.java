@@ -36,22 +36,50 @@ public class Clamp extends Operator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
-        if (min > max)
+        // swap locally rather than on the fields, modules can be sampled from several threads at once
+        double lower = min;
+        double upper = max;
+
+        if (lower > upper)
         {
-            double t = min;
-            min = max;
-            max = t;
+            lower = max;
+            upper = min;
         }
 
         double v = this.getModules().get(0).getValue(x, y, z, scale);
 
-        if (v < min)
-            return min;
-        if (v > max)
-            return max;
+        if (v < lower)
+            return lower;
+        if (v > upper)
+            return upper;
         return v;
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double lower = min;
+        double upper = max;
+
+        if (lower > upper)
+        {
+            lower = max;
+            upper = min;
+        }
+
+        this.getModules().get(0).getValues(xs, ys, zs, out, count, scale);
+
+        for (int i = 0; i < count; i++)
+        {
+            double v = out[i];
+
+            if (v < lower)
+                out[i] = lower;
+            else if (v > upper)
+                out[i] = upper;
+        }
+    }
+
     public double getMax()
     {
         return max;
@@ -53,8 +53,21 @@ public class Curve extends Operator
     @Override
     public double getValue(double x, double y, double z, int scale)
     {
-        double smv = this.getModules().get(0).getValue(x, y, z, scale);
+        return mapValue(this.getModules().get(0).getValue(x, y, z, scale));
+    }
+
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        this.getModules().get(0).getValues(xs, ys, zs, out, count, scale);
 
+        for (int i = 0; i < count; i++)
+            out[i] = mapValue(out[i]);
+    }
+
+    // runs a source value through the curve
+    public double mapValue(double smv)
+    {
         int ip = 0;
         for (int i = 0; i < controlPoints.size(); i++)
         {
@@ -28,6 +28,27 @@ public class Displace extends Operator
         return this.getInput().getValue(dx, dy, dz, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] dx = new double[count];
+        double[] dy = new double[count];
+        double[] dz = new double[count];
+
+        this.getX().getValues(xs, ys, zs, dx, count, scale);
+        this.getY().getValues(xs, ys, zs, dy, count, scale);
+        this.getZ().getValues(xs, ys, zs, dz, count, scale);
+
+        for (int i = 0; i < count; i++)
+        {
+            dx[i] = xs[i] + dx[i];
+            dy[i] = ys[i] + dy[i];
+            dz[i] = zs[i] + dz[i];
+        }
+
+        this.getInput().getValues(dx, dy, dz, out, count, scale);
+    }
+
     public Module getInput()
     {
         return this.getModules().get(0);
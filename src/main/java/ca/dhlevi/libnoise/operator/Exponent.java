@@ -26,6 +26,15 @@ public class Exponent extends Operator
         return (Math.pow(Math.abs((v + 1.0) / 2.0), this.value) * 2.0 - 1.0);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        this.getModules().get(0).getValues(xs, ys, zs, out, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = (Math.pow(Math.abs((out[i] + 1.0) / 2.0), this.value) * 2.0 - 1.0);
+    }
+
     public double getExponentValue()
     {
         return value;
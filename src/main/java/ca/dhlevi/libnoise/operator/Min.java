@@ -25,6 +25,18 @@ public class Min extends Operator
         return Math.min(a, b);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] rhs = new double[count];
+
+        getLeftHand().getValues(xs, ys, zs, out, count, scale);
+        getRightHand().getValues(xs, ys, zs, rhs, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = Math.min(out[i], rhs[i]);
+    }
+
     public Module getLeftHand()
     {
         return this.getModules().get(0);
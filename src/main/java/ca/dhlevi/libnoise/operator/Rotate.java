@@ -70,6 +70,33 @@ public class Rotate extends Operator
         return this.getModules().get(0).getValue(nx, ny, nz, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] nx = new double[count];
+        double[] ny = new double[count];
+        double[] nz = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            double x = xs[i];
+            double y = ys[i];
+            double z = zs[i];
+
+            nx[i] = (x1Matrix * x) + (y1Matrix * y) + (z1Matrix * z);
+            ny[i] = (x2Matrix * x) + (y2Matrix * y) + (z2Matrix * z);
+            nz[i] = (x3Matrix * x) + (y3Matrix * y) + (z3Matrix * z);
+        }
+
+        this.getModules().get(0).getValues(nx, ny, nz, out, count, scale);
+    }
+
+    // the rotation matrix row by row, as applied in getValue
+    public double[] getMatrix()
+    {
+        return new double[] { x1Matrix, y1Matrix, z1Matrix, x2Matrix, y2Matrix, z2Matrix, x3Matrix, y3Matrix, z3Matrix };
+    }
+
     public double getX()
     {
         return x;
@@ -33,6 +33,16 @@ public class ScaleBias extends Operator
         return this.getModules().get(0).getValue(x, y, z, scale) * scale + bias;
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        this.getModules().get(0).getValues(xs, ys, zs, out, count, scale);
+
+        // scale is the int parameter here, exactly as in getValue
+        for (int i = 0; i < count; i++)
+            out[i] = out[i] * scale + bias;
+    }
+
     public double getScale()
     {
         return scale;
@@ -82,6 +82,123 @@ public class Select extends Operator
         return this.getInputB().getValue(x, y, z, scale);
     }
 
+    // Only the lanes that actually need an input are sent to it, so a batch that sits
+    // entirely on one side of the selection never evaluates the other input at all.
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] cv = new double[count];
+        this.getController().getValues(xs, ys, zs, cv, count, scale);
+
+        int[] aLanes = new int[count];
+        int[] bLanes = new int[count];
+        int aCount = 0;
+        int bCount = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            double c = cv[i];
+
+            if (fallOff > 0.0)
+            {
+                if (c < (min - fallOff))
+                    aLanes[aCount++] = i;
+                else if (c < (min + fallOff) || (c >= (max - fallOff) && c < (max + fallOff)))
+                {
+                    aLanes[aCount++] = i;
+                    bLanes[bCount++] = i;
+                }
+                else if (c < (max - fallOff))
+                    bLanes[bCount++] = i;
+                else
+                    aLanes[aCount++] = i;
+            }
+            else if (c < min || c > max)
+                aLanes[aCount++] = i;
+            else
+                bLanes[bCount++] = i;
+        }
+
+        // common case, the whole batch takes a single input
+        if (aCount == count && bCount == 0)
+        {
+            this.getInputA().getValues(xs, ys, zs, out, count, scale);
+            return;
+        }
+        if (bCount == count && aCount == 0)
+        {
+            this.getInputB().getValues(xs, ys, zs, out, count, scale);
+            return;
+        }
+
+        double[] a = new double[count];
+        double[] b = new double[count];
+
+        evaluateLanes(this.getInputA(), aLanes, aCount, xs, ys, zs, a, count, scale);
+        evaluateLanes(this.getInputB(), bLanes, bCount, xs, ys, zs, b, count, scale);
+
+        for (int i = 0; i < count; i++)
+        {
+            double c = cv[i];
+
+            if (fallOff > 0.0)
+            {
+                if (c < (min - fallOff))
+                    out[i] = a[i];
+                else if (c < (min + fallOff))
+                {
+                    double lc = (min - fallOff);
+                    double uc = (min + fallOff);
+                    out[i] = Utilities.interpolateLinear(a[i], b[i], Utilities.mapCubicSCurve((c - lc) / (uc - lc)));
+                }
+                else if (c < (max - fallOff))
+                    out[i] = b[i];
+                else if (c < (max + fallOff))
+                {
+                    double lc = (max - fallOff);
+                    double uc = (max + fallOff);
+                    out[i] = Utilities.interpolateLinear(b[i], a[i], Utilities.mapCubicSCurve((c - lc) / (uc - lc)));
+                }
+                else
+                    out[i] = a[i];
+            }
+            else if (c < min || c > max)
+                out[i] = a[i];
+            else
+                out[i] = b[i];
+        }
+    }
+
+    // evaluates input for the listed lanes only, scattering the results back into dest
+    private static void evaluateLanes(Module input, int[] lanes, int laneCount, double[] xs, double[] ys, double[] zs, double[] dest, int count, int scale)
+    {
+        if (laneCount == 0)
+            return;
+
+        if (laneCount == count)
+        {
+            input.getValues(xs, ys, zs, dest, count, scale);
+            return;
+        }
+
+        double[] lx = new double[laneCount];
+        double[] ly = new double[laneCount];
+        double[] lz = new double[laneCount];
+        double[] lv = new double[laneCount];
+
+        for (int i = 0; i < laneCount; i++)
+        {
+            lx[i] = xs[lanes[i]];
+            ly[i] = ys[lanes[i]];
+            lz[i] = zs[lanes[i]];
+        }
+
+        input.getValues(lx, ly, lz, lv, laneCount, scale);
+
+        for (int i = 0; i < laneCount; i++)
+            dest[lanes[i]] = lv[i];
+    }
+
     public Module getInputA()
     {
         return this.getModules().get(0);
@@ -22,6 +22,18 @@ public class Subtract extends Operator
         return getLeftHand().getValue(x, y, z, scale) - getRightHand().getValue(x, y, z, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] rhs = new double[count];
+
+        getLeftHand().getValues(xs, ys, zs, out, count, scale);
+        getRightHand().getValues(xs, ys, zs, rhs, count, scale);
+
+        for (int i = 0; i < count; i++)
+            out[i] = out[i] - rhs[i];
+    }
+
     public Module getLeftHand()
     {
         return this.getModules().get(0);
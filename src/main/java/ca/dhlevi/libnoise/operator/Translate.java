@@ -38,6 +38,23 @@ public class Translate extends Operator
         return this.getModules().get(0).getValue(x + this.x, y + this.y, z + this.z, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] nx = new double[count];
+        double[] ny = new double[count];
+        double[] nz = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            nx[i] = xs[i] + this.x;
+            ny[i] = ys[i] + this.y;
+            nz[i] = zs[i] + this.z;
+        }
+
+        this.getModules().get(0).getValues(nx, ny, nz, out, count, scale);
+    }
+
     public double getX()
     {
         return x;
@@ -5,15 +5,15 @@ import ca.dhlevi.libnoise.generator.Perlin;
 
 public class Turbulence extends Operator
 {
-    private static double X0 = (12414.0 / 65536.0);
-    private static double Y0 = (65124.0 / 65536.0);
-    private static double Z0 = (31337.0 / 65536.0);
-    private static double X1 = (26519.0 / 65536.0);
-    private static double Y1 = (18128.0 / 65536.0);
-    private static double Z1 = (60493.0 / 65536.0);
-    private static double X2 = (53820.0 / 65536.0);
-    private static double Y2 = (11213.0 / 65536.0);
-    private static double Z2 = (44845.0 / 65536.0);
+    public static final double X0 = (12414.0 / 65536.0);
+    public static final double Y0 = (65124.0 / 65536.0);
+    public static final double Z0 = (31337.0 / 65536.0);
+    public static final double X1 = (26519.0 / 65536.0);
+    public static final double Y1 = (18128.0 / 65536.0);
+    public static final double Z1 = (60493.0 / 65536.0);
+    public static final double X2 = (53820.0 / 65536.0);
+    public static final double Y2 = (11213.0 / 65536.0);
+    public static final double Z2 = (44845.0 / 65536.0);
 
     private Perlin xDistort;
     private Perlin yDistort;
@@ -78,6 +78,43 @@ public class Turbulence extends Operator
         return this.getModules().get(0).getValue(xd, yd, zd, scale);
     }
 
+    @Override
+    public void getValues(double[] xs, double[] ys, double[] zs, double[] out, int count, int scale)
+    {
+        double[] ox = new double[count];
+        double[] oy = new double[count];
+        double[] oz = new double[count];
+        double[] xd = new double[count];
+        double[] yd = new double[count];
+        double[] zd = new double[count];
+
+        offset(xs, ys, zs, ox, oy, oz, count, X0, Y0, Z0);
+        xDistort.getValues(ox, oy, oz, xd, count, scale);
+        offset(xs, ys, zs, ox, oy, oz, count, X1, Y1, Z1);
+        yDistort.getValues(ox, oy, oz, yd, count, scale);
+        offset(xs, ys, zs, ox, oy, oz, count, X2, Y2, Z2);
+        zDistort.getValues(ox, oy, oz, zd, count, scale);
+
+        for (int i = 0; i < count; i++)
+        {
+            xd[i] = xs[i] + (xd[i] * power);
+            yd[i] = ys[i] + (yd[i] * power);
+            zd[i] = zs[i] + (zd[i] * power);
+        }
+
+        this.getModules().get(0).getValues(xd, yd, zd, out, count, scale);
+    }
+
+    private static void offset(double[] xs, double[] ys, double[] zs, double[] ox, double[] oy, double[] oz, int count, double dx, double dy, double dz)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            ox[i] = xs[i] + dx;
+            oy[i] = ys[i] + dy;
+            oz[i] = zs[i] + dz;
+        }
+    }
+
     public double getFrequency()
     {
         return frequency;
@@ -103,6 +140,21 @@ public class Turbulence extends Operator
         return roughness;
     }
 
+    public Perlin getXDistort()
+    {
+        return xDistort;
+    }
+
+    public Perlin getYDistort()
+    {
+        return yDistort;
+    }
+
+    public Perlin getZDistort()
+    {
+        return zDistort;
+    }
+
     public void setRoughness(double roughness)
     {
         this.roughness = roughness;
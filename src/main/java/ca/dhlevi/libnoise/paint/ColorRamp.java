@@ -0,0 +1,86 @@
+package ca.dhlevi.libnoise.paint;
+
+import java.awt.Color;
+
+// A colour ramp worked out once into a table of packed ARGB values, so colouring a pixel is
+// an array read instead of a gradient and a new Color. Stops run from low to high values,
+// between two stops the colours mix like PainterUtilities.gradient, and values past the ends
+// take the end colours.
+public class ColorRamp
+{
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final double min;
+    private final double max;
+    private final double scale;
+    private final int[] table;
+
+    // a two colour ramp from 0 to 1, the same as PainterUtilities.gradient(minColor, maxColor, value)
+    public ColorRamp(Color minColor, Color maxColor)
+    {
+        this(new double[] { 0, 1 }, new Color[] { minColor, maxColor }, DEFAULT_SIZE);
+    }
+
+    public ColorRamp(double[] stops, Color[] colors)
+    {
+        this(stops, colors, DEFAULT_SIZE);
+    }
+
+    public ColorRamp(double[] stops, Color[] colors, int size)
+    {
+        if (stops.length < 2 || stops.length != colors.length)
+            throw new IllegalArgumentException("A ramp needs at least two stops, each with a colour");
+        if (size < 2)
+            throw new IllegalArgumentException("Ramp size must be at least 2");
+
+        for (int i = 1; i < stops.length; i++)
+        {
+            if (!(stops[i] > stops[i - 1]))
+                throw new IllegalArgumentException("Ramp stops must be increasing");
+        }
+
+        this.min = stops[0];
+        this.max = stops[stops.length - 1];
+        this.scale = (size - 1) / (max - min);
+        this.table = new int[size];
+
+        int stop = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            double value = i == size - 1 ? max : min + i / scale;
+
+            while (stop < stops.length - 2 && value > stops[stop + 1])
+                stop++;
+
+            double t = (value - stops[stop]) / (stops[stop + 1] - stops[stop]);
+            table[i] = PainterUtilities.gradient(colors[stop].getRGB(), colors[stop + 1].getRGB(), Math.min(1, Math.max(0, t)));
+        }
+    }
+
+    // packed ARGB colour of the nearest table entry to value
+    public int getRGB(double value)
+    {
+        if (!(value > min))
+            return table[0];
+        if (value >= max)
+            return table[table.length - 1];
+
+        return table[(int) ((value - min) * scale + 0.5)];
+    }
+
+    public double getMin()
+    {
+        return min;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public int getSize()
+    {
+        return table.length;
+    }
+}
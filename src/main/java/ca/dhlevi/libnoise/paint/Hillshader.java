@@ -1,11 +1,29 @@
 package ca.dhlevi.libnoise.paint;
 
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.StripRunner;
+import ca.dhlevi.libnoise.field.HeightField;
 
 // Hillshader will apply a dark shading to a heightmap based on altitude and azimuth to simulate light on the map
 // not good for a heightmap needed for rendering terrain, but looks good when applied to a terrain map.
+//
+// The shade is worked out without trig: with the slope and aspect written in terms of the
+// 3x3 Horn gradient (gx, gy), a pixel's shade is (k0 + kx * gx + ky * gy) / sqrt(1 + kk * (gx^2 + gy^2)),
+// where the k's depend only on the light and are worked out once (see Light). shadeRaster runs
+// that over the whole map in strips of rows, on a pool if given one, into a byte per pixel.
 public class Hillshader
 {
+    public static final int STRIP_HEIGHT = 64;
+
+    // the light every method without one uses, altitude 80 and azimuth 315 with a z factor of 40
+    private static final Light DEFAULT_LIGHT = new Light(40.0, 80.0, 315.0, 1.0);
+
+    // the four lights of the multidirectional shade, from the south west round to the north
+    private static final double[] MULTIDIRECTIONAL_AZIMUTHS = { 225.0, 270.0, 315.0, 360.0 };
+
     public static HSLColor shadePixel(double[][] noise, int width, int height, int x, int y, int buffer)
     {
         double zFactor = 40.0; // the higher the 'Z' factor, the more pronounced the hillshading
@@ -25,14 +43,34 @@ public class Hillshader
 
     public static HSLColor shadePixel(double[][] noise, int width, int height, int x, int y, double zFactor, double Altitude, double Azimuth, double cellSize, int buffer)
     {
-        double zenithDeg = 90.0 - Altitude;
-        double zenithRad = zenithDeg * Math.PI / 180.0;
+        int hillshade = shadeValue(noise, width, height, x, y, zFactor, Altitude, Azimuth, cellSize, buffer);
+
+        return new HSLColor(new Color(hillshade, hillshade, hillshade, 255));
+    }
+
+    // shades a pixel from its eight neighbours, for callers that don't hold the whole map in an array.
+    // Uses the same defaults as shadePixel(noise, width, height, x, y, buffer)
+    public static HSLColor shadePixel(double nw, double n, double ne, double w, double e, double sw, double s, double se)
+    {
+        return shadePixel(nw, n, ne, w, e, sw, s, se, 40.0, 80.0, 315.0, 1.0);
+    }
+
+    public static HSLColor shadePixel(double nw, double n, double ne, double w, double e, double sw, double s, double se, double zFactor, double Altitude, double Azimuth, double cellSize)
+    {
+        int hillshade = shadeValue(nw, n, ne, w, e, sw, s, se, zFactor, Altitude, Azimuth, cellSize);
+
+        return new HSLColor(new Color(hillshade, hillshade, hillshade, 255));
+    }
 
-        double azimuthMath = 360.0 - Azimuth + 90.0;
-        if (azimuthMath >= 360.0)
-            azimuthMath = azimuthMath - 360.0;
-        double azimuthRad = azimuthMath * Math.PI / 180.0;
+    // the grey level shadePixel's colour would have, 0 - 255, without creating any colours.
+    // Same defaults as shadePixel(noise, width, height, x, y, buffer)
+    public static int shadeValue(double[][] noise, int width, int height, int x, int y, int buffer)
+    {
+        return shadeValue(noise, width, height, x, y, 40.0, 80.0, 315.0, 1.0, buffer);
+    }
 
+    public static int shadeValue(double[][] noise, int width, int height, int x, int y, double zFactor, double Altitude, double Azimuth, double cellSize, int buffer)
+    {
         int bx = x + buffer;
         int by = y + buffer;
 
@@ -45,37 +83,175 @@ public class Hillshader
         double s = by >= height - 1 ? 0 : noise[bx][by + 1];
         double se = bx >= width - 1 || by >= height - 1 ? 0 : noise[bx + 1][by + 1];
 
-        double xRateOfChange = ((ne + (2 * e) + se) - (nw + (2 * w) + sw)) / (8.0 * cellSize);
-        double yRateOfChange = ((sw + (2 * s) + se) - (nw + (2 * n) + ne)) / (8.0 * cellSize);
+        return shadeValue(nw, n, ne, w, e, sw, s, se, zFactor, Altitude, Azimuth, cellSize);
+    }
+
+    public static int shadeValue(double nw, double n, double ne, double w, double e, double sw, double s, double se)
+    {
+        return DEFAULT_LIGHT.shade(nw, n, ne, w, e, sw, s, se);
+    }
+
+    public static int shadeValue(double nw, double n, double ne, double w, double e, double sw, double s, double se, double zFactor, double Altitude, double Azimuth, double cellSize)
+    {
+        return new Light(zFactor, Altitude, Azimuth, cellSize).shade(nw, n, ne, w, e, sw, s, se);
+    }
+
+    // the shade of every pixel, row major (index y * width + x), read back with & 0xFF. The same
+    // values as shadeValue with a buffer of 0, so neighbours off the map count as 0
+    public static byte[] shadeRaster(double[][] noise, ForkJoinPool pool)
+    {
+        return shadeRaster(noise, new Light[] { DEFAULT_LIGHT }, pool);
+    }
+
+    public static byte[] shadeRaster(double[][] noise, double zFactor, double Altitude, double Azimuth, double cellSize, ForkJoinPool pool)
+    {
+        return shadeRaster(noise, new Light[] { new Light(zFactor, Altitude, Azimuth, cellSize) }, pool);
+    }
+
+    // shade lit from four directions at once (225, 270, 315 and 360 degrees), so slopes facing
+    // away from a single light still show their detail. Each pixel mixes the four lights weighted
+    // by sin^2 of the angle between the light and the pixel's aspect, favouring the lights that
+    // fall across the slope, as in Mark's multidirectional oblique weighting. Flat ground gets the
+    // same shade as with one light
+    public static byte[] shadeRasterMultidirectional(double[][] noise, ForkJoinPool pool)
+    {
+        return shadeRasterMultidirectional(noise, 40.0, 80.0, 1.0, pool);
+    }
+
+    public static byte[] shadeRasterMultidirectional(double[][] noise, double zFactor, double Altitude, double cellSize, ForkJoinPool pool)
+    {
+        Light[] lights = new Light[MULTIDIRECTIONAL_AZIMUTHS.length];
+        for (int i = 0; i < lights.length; i++)
+            lights[i] = new Light(zFactor, Altitude, MULTIDIRECTIONAL_AZIMUTHS[i], cellSize);
+
+        return shadeRaster(noise, lights, pool);
+    }
+
+    // field versions, the field is read a row at a time so it is never copied whole
+    public static byte[] shadeRaster(HeightField noise, ForkJoinPool pool)
+    {
+        return shadeRaster(noise, new Light[] { DEFAULT_LIGHT }, pool);
+    }
+
+    public static byte[] shadeRasterMultidirectional(HeightField noise, ForkJoinPool pool)
+    {
+        Light[] lights = new Light[MULTIDIRECTIONAL_AZIMUTHS.length];
+        for (int i = 0; i < lights.length; i++)
+            lights[i] = new Light(40.0, 80.0, MULTIDIRECTIONAL_AZIMUTHS[i], 1.0);
 
-        double slopeRad = Math.atan(zFactor * Math.sqrt((Math.pow(xRateOfChange, 2) + Math.pow(yRateOfChange, 2))));
+        return shadeRaster(noise, lights, pool);
+    }
 
-        double aspectRad = 0.0;
+    private static byte[] shadeRaster(double[][] noise, Light[] lights, ForkJoinPool pool)
+    {
+        int width = noise.length;
+        int height = noise[0].length;
+        byte[] raster = new byte[width * height];
+
+        StripRunner.run(height, STRIP_HEIGHT, pool, (top, bottom) -> shadeRows(noise, lights, raster, top, bottom));
+
+        return raster;
+    }
 
-        if (xRateOfChange != 0.0)
-            aspectRad = Math.atan2(yRateOfChange, -xRateOfChange);
-        if (aspectRad < 0.0)
-            aspectRad = (2.0 * Math.PI) + aspectRad;
+    private static byte[] shadeRaster(HeightField noise, Light[] lights, ForkJoinPool pool)
+    {
+        byte[] raster = new byte[noise.size()];
+
+        StripRunner.run(noise.getHeight(), STRIP_HEIGHT, pool, (top, bottom) -> shadeRows(noise, lights, raster, top, bottom));
+
+        return raster;
+    }
+
+    // rows top to bottom of the raster, a column at a time so the three columns of noise around
+    // it are read in order
+    private static void shadeRows(double[][] noise, Light[] lights, byte[] raster, int top, int bottom)
+    {
+        int width = noise.length;
+        int height = noise[0].length;
 
-        if (xRateOfChange == 0.0)
+        for (int x = 0; x < width; x++)
         {
-            if (yRateOfChange > 0.0)
-                aspectRad = Math.PI / 2.0;
-            else if (yRateOfChange < 0.0)
-                aspectRad = (2.0 * Math.PI) - (Math.PI / 2.0);
+            double[] west = x == 0 ? null : noise[x - 1];
+            double[] column = noise[x];
+            double[] east = x >= width - 1 ? null : noise[x + 1];
+
+            for (int y = top; y < bottom; y++)
+            {
+                double nw = valueAt(west, y - 1, height);
+                double n = valueAt(column, y - 1, height);
+                double ne = valueAt(east, y - 1, height);
+                double w = valueAt(west, y, height);
+                double e = valueAt(east, y, height);
+                double sw = valueAt(west, y + 1, height);
+                double s = valueAt(column, y + 1, height);
+                double se = valueAt(east, y + 1, height);
+
+                double gx = (ne + (2 * e) + se) - (nw + (2 * w) + sw);
+                double gy = (sw + (2 * s) + se) - (nw + (2 * n) + ne);
+
+                int shade = lights.length == 1 ? lights[0].shade(gx, gy) : Light.shade(lights, gx, gy);
+                raster[y * width + x] = (byte) shade;
+            }
         }
+    }
+
+    // the same over a field, keeping the rows above, on and below the one being shaded
+    private static void shadeRows(HeightField noise, Light[] lights, byte[] raster, int top, int bottom)
+    {
+        int width = noise.getWidth();
+        int height = noise.getHeight();
+
+        double[] north = new double[width];
+        double[] row = new double[width];
+        double[] south = new double[width];
+
+        readRow(noise, top - 1, north);
+        readRow(noise, top, row);
+
+        for (int y = top; y < bottom; y++)
+        {
+            readRow(noise, y + 1, south);
 
-        int hillshade = (int) Math.round((255.0 * ((Math.cos(zenithRad) * Math.cos(slopeRad)) + (Math.sin(zenithRad) * Math.sin(slopeRad) * Math.cos(azimuthRad - aspectRad)))));
+            for (int x = 0; x < width; x++)
+            {
+                boolean hasWest = x > 0;
+                boolean hasEast = x < width - 1;
+
+                double nw = hasWest ? north[x - 1] : 0;
+                double n = north[x];
+                double ne = hasEast ? north[x + 1] : 0;
+                double w = hasWest ? row[x - 1] : 0;
+                double e = hasEast ? row[x + 1] : 0;
+                double sw = hasWest ? south[x - 1] : 0;
+                double s = south[x];
+                double se = hasEast ? south[x + 1] : 0;
 
-        if (hillshade < 0)
-            hillshade = 0;
-        else if (hillshade > 255)
-            hillshade = 255;
+                double gx = (ne + (2 * e) + se) - (nw + (2 * w) + sw);
+                double gy = (sw + (2 * s) + se) - (nw + (2 * n) + ne);
 
-        // get pixel color
-        Color col = new Color(hillshade, hillshade, hillshade, 255);
+                int shade = lights.length == 1 ? lights[0].shade(gx, gy) : Light.shade(lights, gx, gy);
+                raster[y * width + x] = (byte) shade;
+            }
 
-        return new HSLColor(col);
+            double[] spare = north;
+            north = row;
+            row = south;
+            south = spare;
+        }
+    }
+
+    // rows off the map are 0
+    private static void readRow(HeightField noise, int y, double[] row)
+    {
+        if (y < 0 || y >= noise.getHeight())
+            Arrays.fill(row, 0);
+        else
+            noise.getRow(y, 0, row, 0, row.length);
+    }
+
+    private static double valueAt(double[] column, int y, int height)
+    {
+        return column == null || y < 0 || y >= height ? 0 : column[y];
     }
 
     public static HSLColor[][] shadeAllPixels(double[][] noise, int width, int height, int buffer)
@@ -101,7 +277,7 @@ public class Hillshader
 
         for (int x = 0; x < width; x++)
         {
-            for (int y = 0; y < width; y++)
+            for (int y = 0; y < height; y++)
             {
                 HSLColor color = shadePixel(noise, width, height, x, y, zFactor, Altitude, Azimuth, cellSize, buffer);
                 colors[x][y] = color;
@@ -110,4 +286,87 @@ public class Hillshader
 
         return colors;
     }
+
+    // the constants of one light. With Horn's gradient the slope and aspect give
+    //   cos(slope) = 1 / sqrt(1 + kk * (gx^2 + gy^2))
+    //   sin(slope) * cos(azimuth - aspect) = z * (sin(azimuth) * gy - cos(azimuth) * gx) / (8 * cellSize) * cos(slope)
+    // so the shade 255 * (cos(zenith) * cos(slope) + sin(zenith) * sin(slope) * cos(azimuth - aspect))
+    // is a ratio of a linear and a square root term in gx and gy
+    private static final class Light
+    {
+        private final double k0;
+        private final double kx;
+        private final double ky;
+        private final double kk;
+
+        // the light's direction in gradient space, for the multidirectional weights
+        private final double dx;
+        private final double dy;
+
+        Light(double zFactor, double Altitude, double Azimuth, double cellSize)
+        {
+            double zenithDeg = 90.0 - Altitude;
+            double zenithRad = zenithDeg * Math.PI / 180.0;
+
+            double azimuthMath = 360.0 - Azimuth + 90.0;
+            if (azimuthMath >= 360.0)
+                azimuthMath = azimuthMath - 360.0;
+            double azimuthRad = azimuthMath * Math.PI / 180.0;
+
+            double scale = zFactor / (8.0 * cellSize);
+
+            k0 = 255.0 * Math.cos(zenithRad);
+            kx = -255.0 * Math.sin(zenithRad) * Math.cos(azimuthRad) * scale;
+            ky = 255.0 * Math.sin(zenithRad) * Math.sin(azimuthRad) * scale;
+            kk = scale * scale;
+
+            dx = -Math.cos(azimuthRad);
+            dy = Math.sin(azimuthRad);
+        }
+
+        int shade(double nw, double n, double ne, double w, double e, double sw, double s, double se)
+        {
+            double gx = (ne + (2 * e) + se) - (nw + (2 * w) + sw);
+            double gy = (sw + (2 * s) + se) - (nw + (2 * n) + ne);
+
+            return shade(gx, gy);
+        }
+
+        int shade(double gx, double gy)
+        {
+            return clamp((k0 + kx * gx + ky * gy) / Math.sqrt(1 + kk * (gx * gx + gy * gy)));
+        }
+
+        // lights share a zenith, z factor and cell size, so k0 and kk. The sin^2 weights of
+        // lights 45 degrees apart over half a turn add up to 2 * (gx^2 + gy^2)
+        static int shade(Light[] lights, double gx, double gy)
+        {
+            double gg = gx * gx + gy * gy;
+            if (gg == 0)
+                return clamp(lights[0].k0);
+
+            double sum = 0;
+            for (Light light : lights)
+            {
+                double lit = light.k0 + light.kx * gx + light.ky * gy;
+                if (lit > 0)
+                {
+                    double across = gx * light.dy - gy * light.dx;
+                    sum += across * across * lit;
+                }
+            }
+
+            return clamp(sum / (2 * gg) / Math.sqrt(1 + lights[0].kk * gg));
+        }
+
+        private static int clamp(double value)
+        {
+            if (value <= 0)
+                return 0;
+            if (value >= 255)
+                return 255;
+
+            return (int) (value + 0.5);
+        }
+    }
 }
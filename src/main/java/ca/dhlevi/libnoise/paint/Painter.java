@@ -1,284 +1,378 @@
 package ca.dhlevi.libnoise.paint;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
 
-import ca.dhlevi.libnoise.Point;
-import ca.dhlevi.libnoise.Utilities;
+import ca.dhlevi.libnoise.StripRunner;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
 import ca.dhlevi.libnoise.spatial.Envelope;
-import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+import ca.dhlevi.libnoise.spatial.GridGeometry;
+
+// Paints maps as PNGs. The render methods write packed RGB values straight into the image's
+// int raster, a band of rows at a time, and with a pool the bands are painted in parallel.
+// Inside a band the data is read a column at a time, the way the arrays are laid out, while
+// the band's rows of pixels stay in cache. Every pixel is written by one band, so the image
+// is the same however the work is split.
 public class Painter
 {
+    public static final int BAND_HEIGHT = 64;
+
+    private static final int BLACK = PainterUtilities.rgb(0, 0, 0);
+    private static final int WHITE = PainterUtilities.rgb(255, 255, 255);
+    private static final int WATER = PainterUtilities.rgb(153, 217, 242);
+
+    private static final ColorRamp TERRAIN_RAMP = new ColorRamp(new Color(0, 102, 0, 255), new Color(220, 220, 220, 255));
+
+    // indexed by biome, anything else is painted white
+    private static final int[] BIOME_COLORS = { WHITE,
+            PainterUtilities.rgb(225, 225, 225), PainterUtilities.rgb(156, 153, 160), PainterUtilities.rgb(53, 76, 55),
+            PainterUtilities.rgb(92, 103, 84), PainterUtilities.rgb(15, 154, 58), PainterUtilities.rgb(2, 32, 21),
+            PainterUtilities.rgb(215, 187, 165), PainterUtilities.rgb(179, 168, 148), PainterUtilities.rgb(108, 107, 89) };
+
+    private interface BandPainter
+    {
+        void paint(int[] pixels, int top, int bottom);
+    }
+
     public static boolean paintHeightMap(double[][] data, String path) throws IOException
+    {
+        return paintHeightMap(data, path, null);
+    }
+
+    public static boolean paintHeightMap(double[][] data, String path, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderHeightMap(data, pool), path, "heightmap");
+    }
+
+    public static BufferedImage renderHeightMap(double[][] data, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
-
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            for (int x = 0; x < width; x++)
             {
-                double noiseValue = data[x][y];
-                if (noiseValue > 1)
-                    noiseValue = 1;
-                if (noiseValue < 0)
-                    noiseValue = 0;
+                double[] column = data[x];
 
-                int rgb = (int) Math.round(255 * noiseValue);
-
-                Color c = new Color(rgb, rgb, rgb, 255);
-
-                mapImage.setRGB(x, y, c.getRGB());
+                for (int y = top; y < bottom; y++)
+                    pixels[y * width + x] = heightPixel(column[y]);
             }
-        }
+        });
+    }
 
-        return saveBufferedImage(mapImage, path, "heightmap");
+    // grey level of one height map pixel, as packed RGB
+    public static int heightPixel(double noiseValue)
+    {
+        if (noiseValue > 1)
+            noiseValue = 1;
+        if (noiseValue < 0)
+            noiseValue = 0;
+
+        return PainterUtilities.grey((int) Math.round(255 * noiseValue));
     }
 
     public static boolean paintRegionMap(int[][] data, String path, int seed) throws IOException
+    {
+        return paintRegionMap(data, path, seed, null);
+    }
+
+    public static boolean paintRegionMap(int[][] data, String path, int seed, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderRegionMap(data, seed, pool), path, "regions");
+    }
+
+    public static BufferedImage renderRegionMap(int[][] data, int seed, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
+        HashMap<Integer, Integer> regionColors = regionColors(data, seed);
 
-        HashMap<Integer, Color> regionColors = new HashMap<Integer, Color>();
-        Random rand = new Random(seed);
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            // neighbouring pixels are nearly always the same region, only look up changes
+            int lastRegion = 0;
+            int lastColor = BLACK;
 
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
             {
-                int region = data[x][y];
-                Color regionColor = null;
+                int[] column = data[x];
 
-                if (region == 0)
-                {
-                    regionColor = Color.BLACK;
-                } 
-                else if (regionColors.containsKey(region))
+                for (int y = top; y < bottom; y++)
                 {
-                    regionColor = regionColors.get(region);
-                } 
-                else
-                {
-                    boolean uniqueColor = false;
-                    while (!uniqueColor)
+                    int region = column[y];
+                    if (region != lastRegion)
                     {
-                        regionColor = new Color(rand.nextInt(255), rand.nextInt(255), rand.nextInt(255));
-                        uniqueColor = !regionColors.containsValue(regionColor);
+                        lastRegion = region;
+                        lastColor = region == 0 ? BLACK : regionColors.get(region);
                     }
 
-                    regionColors.put(region, regionColor);
+                    pixels[y * width + x] = lastColor;
+                }
+            }
+        });
+    }
+
+    // a random colour for each region, region 0 is black. Colours are handed out in the order the
+    // regions are first met walking the map column by column, so a seed always gives a region
+    // the same colour, and no two regions share one
+    private static HashMap<Integer, Integer> regionColors(int[][] data, int seed)
+    {
+        HashMap<Integer, Integer> regionColors = new HashMap<Integer, Integer>();
+        HashSet<Integer> usedColors = new HashSet<Integer>();
+        Random rand = new Random(seed);
+        int lastRegion = 0;
+
+        for (int x = 0; x < data.length; x++)
+        {
+            for (int y = 0; y < data[x].length; y++)
+            {
+                int region = data[x][y];
+                if (region == 0 || region == lastRegion)
+                    continue;
+
+                lastRegion = region;
+                if (regionColors.containsKey(region))
+                    continue;
+
+                int regionColor;
+                do
+                {
+                    regionColor = PainterUtilities.rgb(rand.nextInt(255), rand.nextInt(255), rand.nextInt(255));
                 }
+                while (!usedColors.add(regionColor));
 
-                mapImage.setRGB(x, y, regionColor.getRGB());
+                regionColors.put(region, regionColor);
             }
         }
 
-        return saveBufferedImage(mapImage, path, "regions");
+        return regionColors;
     }
 
     public static boolean paintTerrainMap(double[][] data, int[][] rivers, double seaLevel, String path, boolean hillshade, boolean shadeWater) throws IOException
+    {
+        return paintTerrainMap(data, rivers, seaLevel, path, hillshade, shadeWater, null);
+    }
+
+    public static boolean paintTerrainMap(double[][] data, int[][] rivers, double seaLevel, String path, boolean hillshade, boolean shadeWater, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderTerrainMap(data, rivers, seaLevel, hillshade, shadeWater, pool), path, "terrain");
+    }
+
+    public static BufferedImage renderTerrainMap(double[][] data, int[][] rivers, double seaLevel, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        byte[] shade = hillshade || shadeWater ? Hillshader.shadeRaster(data, pool) : null;
+
+        return renderTerrainMap(data, rivers, seaLevel, shade, hillshade, shadeWater, pool);
+    }
+
+    // the same with a shade raster from Hillshader, e.g. a multidirectional one. It may be null
+    // when neither land nor water is shaded
+    public static BufferedImage renderTerrainMap(double[][] data, int[][] rivers, double seaLevel, byte[] shade, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
-
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            for (int x = 0; x < width; x++)
             {
-                double noiseValue = data[x][y];
-                if (noiseValue > 1)
-                    noiseValue = 1;
-                if (noiseValue < 0)
-                    noiseValue = 0;
-
-                // terrain painter
-                if (noiseValue < seaLevel || rivers[x][y] != 0)
-                {
-                    Color c = new Color(153, 217, 242, 255);
-                    if (shadeWater)
-                    {
-                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
-                        c = PainterUtilities.blend(c, shade);
-                    }
+                double[] column = data[x];
+                int[] riverColumn = rivers[x];
 
-                    mapImage.setRGB(x, y, c.getRGB());
-                }
-                else
+                for (int y = top; y < bottom; y++)
                 {
-                    Color c = PainterUtilities.gradient(new Color(0, 102, 0, 255), new Color(220, 220, 220, 255), noiseValue);
-                    if (hillshade)
-                    {
-                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
-                        c = PainterUtilities.blend(c, shade);
-                    }
+                    int i = y * width + x;
 
-                    mapImage.setRGB(x, y, c.getRGB());
+                    pixels[i] = terrainPixel(column[y], riverColumn[y] != 0, seaLevel, shade == null ? 0 : shade[i] & 0xFF, hillshade, shadeWater);
                 }
             }
-        }
+        });
+    }
+
+    // colour of one terrain map pixel, as packed RGB. shade is the pixel's hillshade, it may be
+    // null when neither land nor water is shaded
+    public static int terrainPixel(double noiseValue, boolean river, double seaLevel, HSLColor shade, boolean hillshade, boolean shadeWater)
+    {
+        return terrainPixel(noiseValue, river, seaLevel, shade == null ? 0 : shade.getRGB().getRed(), hillshade, shadeWater);
+    }
+
+    // the same with the hillshade as a grey level, see Hillshader.shadeValue
+    public static int terrainPixel(double noiseValue, boolean river, double seaLevel, int shade, boolean hillshade, boolean shadeWater)
+    {
+        if (noiseValue > 1)
+            noiseValue = 1;
+        if (noiseValue < 0)
+            noiseValue = 0;
+
+        // terrain painter
+        if (noiseValue < seaLevel || river)
+            return shadeWater ? PainterUtilities.blend(WATER, PainterUtilities.grey(shade)) : WATER;
 
-        return saveBufferedImage(mapImage, path, "terrain");
+        int c = TERRAIN_RAMP.getRGB(noiseValue);
+
+        return hillshade ? PainterUtilities.blend(c, PainterUtilities.grey(shade)) : c;
     }
 
     public static boolean paintBiomeMap(double[][] data, int[][] rivers, int[][] biomes, double seaLevel, String path, boolean hillshade, boolean shadeWater) throws IOException
+    {
+        return paintBiomeMap(data, rivers, biomes, seaLevel, path, hillshade, shadeWater, null);
+    }
+
+    public static boolean paintBiomeMap(double[][] data, int[][] rivers, int[][] biomes, double seaLevel, String path, boolean hillshade, boolean shadeWater, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderBiomeMap(data, rivers, biomes, seaLevel, hillshade, shadeWater, pool), path, "biome");
+    }
+
+    public static BufferedImage renderBiomeMap(double[][] data, int[][] rivers, int[][] biomes, double seaLevel, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        byte[] shade = hillshade || shadeWater ? Hillshader.shadeRaster(data, pool) : null;
+
+        return renderBiomeMap(data, rivers, biomes, seaLevel, shade, hillshade, shadeWater, pool);
+    }
+
+    public static BufferedImage renderBiomeMap(double[][] data, int[][] rivers, int[][] biomes, double seaLevel, byte[] shade, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
-
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            for (int x = 0; x < width; x++)
             {
-                double noiseValue = data[x][y];
-                if (noiseValue > 1)
-                    noiseValue = 1;
-                if (noiseValue < 0)
-                    noiseValue = 0;
-
-                // terrain painter
-                if ((noiseValue < seaLevel || rivers[x][y] != 0) && biomes[x][y] != 1)
-                {
-                    Color c = new Color(153, 217, 242, 255);
-                    if (shadeWater)
-                    {
-                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
-                        c = PainterUtilities.blend(c, shade);
-                    }
+                double[] column = data[x];
+                int[] riverColumn = rivers[x];
+                int[] biomeColumn = biomes[x];
 
-                    mapImage.setRGB(x, y, c.getRGB());
-                } 
-                else
+                for (int y = top; y < bottom; y++)
                 {
-                    Color c = Color.white;
-
-                    if (biomes[x][y] == 1)
-                        c = new Color(225, 225, 225, 255);
-                    if (biomes[x][y] == 2)
-                        c = new Color(156, 153, 160, 255);
-                    if (biomes[x][y] == 3)
-                        c = new Color(53, 76, 55, 255);
-
-                    if (biomes[x][y] == 4)
-                        c = new Color(92, 103, 84, 255);
-                    if (biomes[x][y] == 5)
-                        c = new Color(15, 154, 58, 255);
-                    if (biomes[x][y] == 6)
-                        c = new Color(2, 32, 21, 255);
-
-                    if (biomes[x][y] == 7)
-                        c = new Color(215, 187, 165, 255);
-                    if (biomes[x][y] == 8)
-                        c = new Color(179, 168, 148, 255);
-                    if (biomes[x][y] == 9)
-                        c = new Color(108, 107, 89, 255);
-
-                    if (hillshade)
-                    {
-                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
-                        c = PainterUtilities.blend(c, shade);
-                    }
+                    int i = y * width + x;
 
-                    mapImage.setRGB(x, y, c.getRGB());
+                    pixels[i] = biomePixel(column[y], riverColumn[y] != 0, biomeColumn[y], seaLevel, shade == null ? 0 : shade[i] & 0xFF, hillshade, shadeWater);
                 }
             }
-        }
+        });
+    }
+
+    // colour of one biome map pixel, as packed RGB, with the hillshade as a grey level
+    private static int biomePixel(double noiseValue, boolean river, int biome, double seaLevel, int shade, boolean hillshade, boolean shadeWater)
+    {
+        if (noiseValue > 1)
+            noiseValue = 1;
+        if (noiseValue < 0)
+            noiseValue = 0;
+
+        // terrain painter
+        if ((noiseValue < seaLevel || river) && biome != 1)
+            return shadeWater ? PainterUtilities.blend(WATER, PainterUtilities.grey(shade)) : WATER;
+
+        int c = biome > 0 && biome < BIOME_COLORS.length ? BIOME_COLORS[biome] : WHITE;
 
-        return saveBufferedImage(mapImage, path, "biome");
+        return hillshade ? PainterUtilities.blend(c, PainterUtilities.grey(shade)) : c;
     }
 
     public static boolean paintMoistureLevels(double[][] data, String path) throws IOException
+    {
+        return paintMoistureLevels(data, path, null);
+    }
+
+    public static boolean paintMoistureLevels(double[][] data, String path, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderMoistureLevels(data, pool), path, "moisture");
+    }
+
+    public static BufferedImage renderMoistureLevels(double[][] data, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
-
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            for (int x = 0; x < width; x++)
             {
-                double noiseValue = data[x][y];
-                if (noiseValue > 1)
-                    noiseValue = 1;
-                if (noiseValue < 0)
-                    noiseValue = 0;
+                double[] column = data[x];
 
-                int rgb = (int) Math.round(255 * noiseValue);
-
-                Color c = new Color(0, 0, rgb, 255);
-
-                mapImage.setRGB(x, y, c.getRGB());
+                for (int y = top; y < bottom; y++)
+                    pixels[y * width + x] = moisturePixel(column[y]);
             }
-        }
+        });
+    }
 
-        return saveBufferedImage(mapImage, path, "moisture");
+    private static int moisturePixel(double noiseValue)
+    {
+        if (noiseValue > 1)
+            noiseValue = 1;
+        if (noiseValue < 0)
+            noiseValue = 0;
+
+        return PainterUtilities.rgb(0, 0, (int) Math.round(255 * noiseValue));
     }
 
     public static boolean paintTempuratureBands(double[][] data, double tempRange, String path, Envelope bbox) throws IOException
+    {
+        return paintTempuratureBands(data, tempRange, path, bbox, null);
+    }
+
+    public static boolean paintTempuratureBands(double[][] data, double tempRange, String path, Envelope bbox, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderTempuratureBands(data, tempRange, bbox, pool), path, "tempuratures");
+    }
+
+    public static BufferedImage renderTempuratureBands(double[][] data, double tempRange, Envelope bbox, ForkJoinPool pool)
     {
         int width = data.length;
         int height = data[0].length;
 
-        BufferedImage mapImage = createMapImageBuffer(width, height);
+        GridGeometry geometry = new GridGeometry(width, height, bbox);
 
-        for (int x = 0; x < width; x++)
-        {
-            for (int y = 0; y < height; y++)
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            for (int x = 0; x < width; x++)
             {
-                double lat = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox).getY();
-                if (lat < 0)
-                    lat = lat * -1;
-                double temp = (tempRange * ((90 - lat) / 90)) * (1.0 - data[x][y]);
+                double[] column = data[x];
+
+                for (int y = top; y < bottom; y++)
+                    pixels[y * width + x] = tempuraturePixel(column[y], geometry.getLatitude(y), tempRange);
+            }
+        });
+    }
 
-                int rgb = (int) Math.round(255 * (temp / tempRange));
+    private static int tempuraturePixel(double noiseValue, double lat, double tempRange)
+    {
+        if (lat < 0)
+            lat = lat * -1;
+        double temp = (tempRange * ((90 - lat) / 90)) * (1.0 - noiseValue);
 
-                if(rgb < 0) rgb = 0;
-                if(rgb > 255) rgb = 255;
-                
-                Color c = new Color(0, 0, 0, 255);
+        int rgb = (int) Math.round(255 * (temp / tempRange));
 
-                if (temp < 10)
-                {
-                    c = new Color(0, 0, rgb, 255);
-                } 
-                else if (temp >= 10 && temp < 20)
-                {
-                    c = new Color(0, rgb, 0, 255);
-                } 
-                else if (temp >= 20)
-                {
-                    c = new Color(rgb, 0, 0, 255);
-                }
+        if (rgb < 0) rgb = 0;
+        if (rgb > 255) rgb = 255;
 
-                mapImage.setRGB(x, y, c.getRGB());
-            }
-        }
+        int c = BLACK;
+
+        if (temp < 10)
+            c = PainterUtilities.rgb(0, 0, rgb);
+        else if (temp >= 10 && temp < 20)
+            c = PainterUtilities.rgb(0, rgb, 0);
+        else if (temp >= 20)
+            c = PainterUtilities.rgb(rgb, 0, 0);
 
-        return saveBufferedImage(mapImage, path, "tempuratures");
+        return c;
     }
 
-    private static BufferedImage createMapImageBuffer(int width, int height)
+    private static BufferedImage render(int width, int height, ForkJoinPool pool, BandPainter painter)
     {
         BufferedImage mapImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = (Graphics2D) mapImage.getGraphics();
-        g.setColor(Color.BLACK);
-        g.fillRect(0, 0, width, height);
+        int[] pixels = ((DataBufferInt) mapImage.getRaster().getDataBuffer()).getData();
+
+        StripRunner.run(height, BAND_HEIGHT, pool, (top, bottom) -> painter.paint(pixels, top, bottom));
 
         return mapImage;
     }
@@ -296,4 +390,265 @@ public class Painter
 
         return success;
     }
+
+    // Field versions. Fields are row major like the image, so a band is read a row at a time
+    // straight from the field and nothing is copied whole. They paint the same pixels as the
+    // array versions
+
+    public static boolean paintHeightMap(HeightField data, String path) throws IOException
+    {
+        return paintHeightMap(data, path, null);
+    }
+
+    public static boolean paintHeightMap(HeightField data, String path, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderHeightMap(data, pool), path, "heightmap");
+    }
+
+    public static BufferedImage renderHeightMap(HeightField data, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+
+        return render(width, data.getHeight(), pool, (pixels, top, bottom) -> {
+            double[] row = new double[width];
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+
+                for (int x = 0; x < width; x++)
+                    pixels[y * width + x] = heightPixel(row[x]);
+            }
+        });
+    }
+
+    public static boolean paintRegionMap(IntField data, String path, int seed) throws IOException
+    {
+        return paintRegionMap(data, path, seed, null);
+    }
+
+    public static boolean paintRegionMap(IntField data, String path, int seed, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderRegionMap(data, seed, pool), path, "regions");
+    }
+
+    public static BufferedImage renderRegionMap(IntField data, int seed, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+
+        HashMap<Integer, Integer> regionColors = regionColors(data, seed);
+
+        return render(width, data.getHeight(), pool, (pixels, top, bottom) -> {
+            int[] row = new int[width];
+            int lastRegion = 0;
+            int lastColor = BLACK;
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+
+                for (int x = 0; x < width; x++)
+                {
+                    int region = row[x];
+                    if (region != lastRegion)
+                    {
+                        lastRegion = region;
+                        lastColor = region == 0 ? BLACK : regionColors.get(region);
+                    }
+
+                    pixels[y * width + x] = lastColor;
+                }
+            }
+        });
+    }
+
+    // the colours the array version hands out, which go by the order regions are first met
+    // column by column. That order is found from the rows: the first pixel of a region in column
+    // order is the first of one of its runs along a row, so only run starts are looked at
+    private static HashMap<Integer, Integer> regionColors(IntField data, int seed)
+    {
+        int width = data.getWidth();
+        int height = data.getHeight();
+
+        HashMap<Integer, Long> firstPixels = new HashMap<Integer, Long>();
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++)
+        {
+            data.getRow(y, 0, row, 0, width);
+
+            for (int x = 0; x < width; x++)
+            {
+                int region = row[x];
+                if (region == 0 || (x > 0 && row[x - 1] == region))
+                    continue;
+
+                long pixel = (long) x * height + y;
+                Long first = firstPixels.get(region);
+                if (first == null || pixel < first)
+                    firstPixels.put(region, pixel);
+            }
+        }
+
+        ArrayList<Map.Entry<Integer, Long>> order = new ArrayList<Map.Entry<Integer, Long>>(firstPixels.entrySet());
+        order.sort(Map.Entry.comparingByValue());
+
+        HashMap<Integer, Integer> regionColors = new HashMap<Integer, Integer>();
+        HashSet<Integer> usedColors = new HashSet<Integer>();
+        Random rand = new Random(seed);
+
+        for (Map.Entry<Integer, Long> region : order)
+        {
+            int regionColor;
+            do
+            {
+                regionColor = PainterUtilities.rgb(rand.nextInt(255), rand.nextInt(255), rand.nextInt(255));
+            }
+            while (!usedColors.add(regionColor));
+
+            regionColors.put(region.getKey(), regionColor);
+        }
+
+        return regionColors;
+    }
+
+    public static boolean paintTerrainMap(HeightField data, IntField rivers, double seaLevel, String path, boolean hillshade, boolean shadeWater) throws IOException
+    {
+        return paintTerrainMap(data, rivers, seaLevel, path, hillshade, shadeWater, null);
+    }
+
+    public static boolean paintTerrainMap(HeightField data, IntField rivers, double seaLevel, String path, boolean hillshade, boolean shadeWater, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderTerrainMap(data, rivers, seaLevel, hillshade, shadeWater, pool), path, "terrain");
+    }
+
+    public static BufferedImage renderTerrainMap(HeightField data, IntField rivers, double seaLevel, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        byte[] shade = hillshade || shadeWater ? Hillshader.shadeRaster(data, pool) : null;
+
+        return renderTerrainMap(data, rivers, seaLevel, shade, hillshade, shadeWater, pool);
+    }
+
+    public static BufferedImage renderTerrainMap(HeightField data, IntField rivers, double seaLevel, byte[] shade, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+
+        return render(width, data.getHeight(), pool, (pixels, top, bottom) -> {
+            double[] row = new double[width];
+            int[] riverRow = new int[width];
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+                rivers.getRow(y, 0, riverRow, 0, width);
+
+                for (int x = 0; x < width; x++)
+                {
+                    int i = y * width + x;
+
+                    pixels[i] = terrainPixel(row[x], riverRow[x] != 0, seaLevel, shade == null ? 0 : shade[i] & 0xFF, hillshade, shadeWater);
+                }
+            }
+        });
+    }
+
+    public static boolean paintBiomeMap(HeightField data, IntField rivers, IntField biomes, double seaLevel, String path, boolean hillshade, boolean shadeWater) throws IOException
+    {
+        return paintBiomeMap(data, rivers, biomes, seaLevel, path, hillshade, shadeWater, null);
+    }
+
+    public static boolean paintBiomeMap(HeightField data, IntField rivers, IntField biomes, double seaLevel, String path, boolean hillshade, boolean shadeWater, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderBiomeMap(data, rivers, biomes, seaLevel, hillshade, shadeWater, pool), path, "biome");
+    }
+
+    public static BufferedImage renderBiomeMap(HeightField data, IntField rivers, IntField biomes, double seaLevel, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        byte[] shade = hillshade || shadeWater ? Hillshader.shadeRaster(data, pool) : null;
+
+        return renderBiomeMap(data, rivers, biomes, seaLevel, shade, hillshade, shadeWater, pool);
+    }
+
+    public static BufferedImage renderBiomeMap(HeightField data, IntField rivers, IntField biomes, double seaLevel, byte[] shade, boolean hillshade, boolean shadeWater, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+
+        return render(width, data.getHeight(), pool, (pixels, top, bottom) -> {
+            double[] row = new double[width];
+            int[] riverRow = new int[width];
+            int[] biomeRow = new int[width];
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+                rivers.getRow(y, 0, riverRow, 0, width);
+                biomes.getRow(y, 0, biomeRow, 0, width);
+
+                for (int x = 0; x < width; x++)
+                {
+                    int i = y * width + x;
+
+                    pixels[i] = biomePixel(row[x], riverRow[x] != 0, biomeRow[x], seaLevel, shade == null ? 0 : shade[i] & 0xFF, hillshade, shadeWater);
+                }
+            }
+        });
+    }
+
+    public static boolean paintMoistureLevels(HeightField data, String path) throws IOException
+    {
+        return paintMoistureLevels(data, path, null);
+    }
+
+    public static boolean paintMoistureLevels(HeightField data, String path, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderMoistureLevels(data, pool), path, "moisture");
+    }
+
+    public static BufferedImage renderMoistureLevels(HeightField data, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+
+        return render(width, data.getHeight(), pool, (pixels, top, bottom) -> {
+            double[] row = new double[width];
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+
+                for (int x = 0; x < width; x++)
+                    pixels[y * width + x] = moisturePixel(row[x]);
+            }
+        });
+    }
+
+    public static boolean paintTempuratureBands(HeightField data, double tempRange, String path, Envelope bbox) throws IOException
+    {
+        return paintTempuratureBands(data, tempRange, path, bbox, null);
+    }
+
+    public static boolean paintTempuratureBands(HeightField data, double tempRange, String path, Envelope bbox, ForkJoinPool pool) throws IOException
+    {
+        return saveBufferedImage(renderTempuratureBands(data, tempRange, bbox, pool), path, "tempuratures");
+    }
+
+    public static BufferedImage renderTempuratureBands(HeightField data, double tempRange, Envelope bbox, ForkJoinPool pool)
+    {
+        int width = data.getWidth();
+        int height = data.getHeight();
+
+        GridGeometry geometry = new GridGeometry(width, height, bbox);
+
+        return render(width, height, pool, (pixels, top, bottom) -> {
+            double[] row = new double[width];
+
+            for (int y = top; y < bottom; y++)
+            {
+                data.getRow(y, 0, row, 0, width);
+                double lat = geometry.getLatitude(y);
+
+                for (int x = 0; x < width; x++)
+                    pixels[y * width + x] = tempuraturePixel(row[x], lat, tempRange);
+            }
+        });
+    }
 }
@@ -26,4 +26,46 @@ public class PainterUtilities
 
         return new Color(red, green, blue);
     }
+
+    // packed ARGB versions of the above, for painting straight into an int raster. They give
+    // the same channels as the Color versions
+
+    public static int rgb(int red, int green, int blue)
+    {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    public static int grey(int level)
+    {
+        return 0xFF000000 | (level << 16) | (level << 8) | level;
+    }
+
+    public static int blend(int argb0, int argb1)
+    {
+        int a0 = argb0 >>> 24;
+        int a1 = argb1 >>> 24;
+
+        // two opaque colours, the usual case, are an even mix
+        if (a0 == 255 && a1 == 255)
+            return 0xFF000000 | ((argb0 & 0xFEFEFE) >>> 1) + ((argb1 & 0xFEFEFE) >>> 1) + (argb0 & argb1 & 0x010101);
+
+        double totalAlpha = a0 + a1;
+        double weight0 = a0 / totalAlpha;
+        double weight1 = a1 / totalAlpha;
+
+        int r = (int) (weight0 * ((argb0 >> 16) & 0xFF) + weight1 * ((argb1 >> 16) & 0xFF));
+        int g = (int) (weight0 * ((argb0 >> 8) & 0xFF) + weight1 * ((argb1 >> 8) & 0xFF));
+        int b = (int) (weight0 * (argb0 & 0xFF) + weight1 * (argb1 & 0xFF));
+
+        return (Math.max(a0, a1) << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static int gradient(int minRGB, int maxRGB, double value)
+    {
+        int red = (int) (((maxRGB >> 16) & 0xFF) * value + ((minRGB >> 16) & 0xFF) * (1 - value));
+        int green = (int) (((maxRGB >> 8) & 0xFF) * value + ((minRGB >> 8) & 0xFF) * (1 - value));
+        int blue = (int) ((maxRGB & 0xFF) * value + (minRGB & 0xFF) * (1 - value));
+
+        return rgb(red, green, blue);
+    }
 }
@@ -0,0 +1,185 @@
+package ca.dhlevi.libnoise.spatial;
+
+// Latitude, longitude and distance tables for an equirectangular grid of width x height pixels
+// over an envelope, worked out once so per pixel code does no trig and allocates nothing.
+// Pixels map to lat/long exactly as SpatialUtilities.pixelsToLatLong maps them, y grows with
+// latitude from the envelope's minimum.
+//
+// Every pixel of a row shares its latitude, and of a column its longitude, so the tables are
+// per row and per column. Step lengths are great circle distances, east along a row, south
+// from a row to the next and diagonally between them.
+public class GridGeometry
+{
+    private final int width;
+    private final int height;
+    private final Envelope bbox;
+    private final double longitudeStep;
+    private final double latitudeStep;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    // the unit vector of a pixel is (cosLat cosLon, cosLat sinLon, sinLat)
+    private final double[] cosLat;
+    private final double[] sinLat;
+    private final double[] cosLon;
+    private final double[] sinLon;
+
+    private final double[] eastKm;
+    private final double[] southKm;
+    private final double[] diagonalKm;
+
+    public GridGeometry(int width, int height, Envelope bbox)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Grid must be at least 1 x 1, got " + width + " x " + height);
+
+        this.width = width;
+        this.height = height;
+        this.bbox = bbox;
+
+        // same arithmetic as pixelsToLatLong, so the values match it to the bit
+        double long1 = bbox.getMinX() + 180.0;
+        double long2 = bbox.getMaxX() + 180.0;
+        double lat1 = bbox.getMinY() + 90.0;
+        double lat2 = bbox.getMaxY() + 90.0;
+
+        this.longitudeStep = (long2 - long1) / width;
+        this.latitudeStep = (lat2 - lat1) / height;
+
+        latitudes = new double[height];
+        cosLat = new double[height];
+        sinLat = new double[height];
+        eastKm = new double[height];
+        southKm = new double[height];
+        diagonalKm = new double[height];
+
+        for (int y = 0; y < height; y++)
+        {
+            double lat = (y * latitudeStep) + (lat1 - 90.0);
+            double nextLat = lat + latitudeStep;
+
+            latitudes[y] = lat;
+            cosLat[y] = Math.cos(Math.toRadians(lat));
+            sinLat[y] = Math.sin(Math.toRadians(lat));
+            eastKm[y] = SpatialUtilities.haversineDistance(lat, 0, lat, longitudeStep) / 1000;
+            southKm[y] = SpatialUtilities.haversineDistance(lat, 0, nextLat, 0) / 1000;
+            diagonalKm[y] = SpatialUtilities.haversineDistance(lat, 0, nextLat, longitudeStep) / 1000;
+        }
+
+        longitudes = new double[width];
+        cosLon = new double[width];
+        sinLon = new double[width];
+
+        for (int x = 0; x < width; x++)
+        {
+            double lon = (x * longitudeStep) + (long1 - 180.0);
+
+            longitudes[x] = lon;
+            cosLon[x] = Math.cos(Math.toRadians(lon));
+            sinLon[x] = Math.sin(Math.toRadians(lon));
+        }
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public Envelope getEnvelope()
+    {
+        return bbox;
+    }
+
+    // degrees of longitude per pixel
+    public double getLongitudeStep()
+    {
+        return longitudeStep;
+    }
+
+    // degrees of latitude per pixel
+    public double getLatitudeStep()
+    {
+        return latitudeStep;
+    }
+
+    public double getLatitude(int y)
+    {
+        return latitudes[y];
+    }
+
+    public double getLongitude(int x)
+    {
+        return longitudes[x];
+    }
+
+    public double getCosLatitude(int y)
+    {
+        return cosLat[y];
+    }
+
+    public double getSinLatitude(int y)
+    {
+        return sinLat[y];
+    }
+
+    public double getCosLongitude(int x)
+    {
+        return cosLon[x];
+    }
+
+    public double getSinLongitude(int x)
+    {
+        return sinLon[x];
+    }
+
+    // length of one pixel along row y
+    public double getEastKm(int y)
+    {
+        return eastKm[y];
+    }
+
+    // from row y to row y + 1
+    public double getSouthKm(int y)
+    {
+        return southKm[y];
+    }
+
+    // from a pixel on row y to its diagonal neighbour on row y + 1
+    public double getDiagonalKm(int y)
+    {
+        return diagonalKm[y];
+    }
+
+    public Coordinate toLatLong(int x, int y)
+    {
+        return new Coordinate(longitudes[x], latitudes[y]);
+    }
+
+    // straight line distance through the globe, never longer than the great circle
+    public double chordKm(int x1, int y1, int x2, int y2)
+    {
+        double dx = cosLat[y1] * cosLon[x1] - cosLat[y2] * cosLon[x2];
+        double dy = cosLat[y1] * sinLon[x1] - cosLat[y2] * sinLon[x2];
+        double dz = sinLat[y1] - sinLat[y2];
+
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) * SpatialUtilities.RADIUS / 1000;
+    }
+
+    // great circle distance, the same as haversineDistance between the two pixels' lat/longs
+    public double distanceKm(int x1, int y1, int x2, int y2)
+    {
+        double dx = cosLat[y1] * cosLon[x1] - cosLat[y2] * cosLon[x2];
+        double dy = cosLat[y1] * sinLon[x1] - cosLat[y2] * sinLon[x2];
+        double dz = sinLat[y1] - sinLat[y2];
+
+        double halfChord = Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+
+        return 2 * Math.asin(Math.min(1, halfChord)) * SpatialUtilities.RADIUS / 1000;
+    }
+}
@@ -0,0 +1,299 @@
+package ca.dhlevi.libnoise.spatial;
+
+import java.util.Arrays;
+
+import ca.dhlevi.libnoise.field.WrapMode;
+
+// The nearest feature pixel (water, river, region...) to every pixel of a map, built once with
+// a Felzenszwalb-Huttenlocher distance transform so a lookup is a single array read. The grid
+// is row major, index y * width + x, and any non zero value is a feature.
+//
+// The transform runs down each column first, finding the nearest feature row, then along each
+// row taking the lower envelope of one parabola per column, so the whole build is linear.
+// With a wrap mode the rows (and with BOTH the columns) wrap around.
+//
+// Without an envelope distances are plain pixels. With one the map is taken as lat/long, the
+// same mapping as SpatialUtilities.pixelsToLatLong, and a step along a row is shortened by the
+// cosine of that row's latitude, so near the poles the nearest feature along the row wins over
+// one the same number of pixels north or south. distanceKm gives the great circle distance to
+// the feature found.
+public class NearestFeatureIndex
+{
+    // columns swept together in the column pass, so it walks the grid a row at a time
+    private static final int COLUMN_BLOCK = 16;
+
+    // rows so close to a pole the row length is taken as this instead of zero
+    private static final double MIN_ROW_SCALE = 1e-6;
+
+    private final int width;
+    private final int height;
+    private final boolean wrapX;
+    private final boolean wrapY;
+    private final GridGeometry geometry;
+    private final int[] nearest;
+
+    // square of the length of a step along each row over the length of a step down a column
+    private final double[] rowWeight;
+
+    public NearestFeatureIndex(int[] features, int width, int height, WrapMode wrapMode, Envelope bbox)
+    {
+        if (width < 1 || height < 1 || features.length != width * height)
+            throw new IllegalArgumentException("Expected " + width * height + " features, got " + features.length);
+
+        this.width = width;
+        this.height = height;
+        this.wrapX = wrapMode != WrapMode.NONE;
+        this.wrapY = wrapMode == WrapMode.BOTH;
+        this.geometry = bbox == null ? null : new GridGeometry(width, height, bbox);
+        this.nearest = new int[width * height];
+        this.rowWeight = new double[height];
+
+        if (geometry == null)
+        {
+            Arrays.fill(rowWeight, 1);
+        }
+        else
+        {
+            double aspect = geometry.getLongitudeStep() / geometry.getLatitudeStep();
+
+            for (int y = 0; y < height; y++)
+            {
+                double scale = Math.max(MIN_ROW_SCALE, geometry.getCosLatitude(y) * aspect);
+                rowWeight[y] = scale * scale;
+            }
+        }
+
+        nearestRows(features);
+        nearestColumns();
+    }
+
+    // column major int[][] version, the usual layout of basins, rivers and regions
+    public static NearestFeatureIndex of(int[][] features, WrapMode wrapMode, Envelope bbox)
+    {
+        int width = features.length;
+        int height = features[0].length;
+        int[] grid = new int[width * height];
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                grid[y * width + x] = features[x][y];
+        }
+
+        return new NearestFeatureIndex(grid, width, height, wrapMode, bbox);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    // index of the feature closest to x, y, or -1 when there are no features
+    public int getNearest(int x, int y)
+    {
+        return nearest[y * width + x];
+    }
+
+    public int getNearestX(int x, int y)
+    {
+        int feature = nearest[y * width + x];
+        return feature < 0 ? -1 : feature % width;
+    }
+
+    public int getNearestY(int x, int y)
+    {
+        int feature = nearest[y * width + x];
+        return feature < 0 ? -1 : feature / width;
+    }
+
+    // straight line distance in pixels to the nearest feature, the shorter way around when
+    // wrapping. Infinite when there are no features
+    public double distance(int x, int y)
+    {
+        int feature = nearest[y * width + x];
+        if (feature < 0)
+            return Double.POSITIVE_INFINITY;
+
+        int dx = Math.abs(feature % width - x);
+        int dy = Math.abs(feature / width - y);
+
+        if (wrapX)
+            dx = Math.min(dx, width - dx);
+        if (wrapY)
+            dy = Math.min(dy, height - dy);
+
+        return Math.hypot(dx, dy);
+    }
+
+    // great circle distance in km to the nearest feature, needs an envelope
+    public double distanceKm(int x, int y)
+    {
+        if (geometry == null)
+            throw new IllegalStateException("Distances in km need an envelope");
+
+        int feature = nearest[y * width + x];
+        if (feature < 0)
+            return Double.POSITIVE_INFINITY;
+
+        return geometry.distanceKm(x, y, feature % width, feature / width);
+    }
+
+    // first pass, the nearest feature row in each column, stored in nearest for now. Sweeps down
+    // and then up a block of columns at a time, with wrapping the sweeps start from the last
+    // (first) feature of the column moved a map height up (down)
+    private void nearestRows(int[] features)
+    {
+        int[] last = new int[COLUMN_BLOCK];
+        int none = Integer.MIN_VALUE / 2;
+
+        for (int x0 = 0; x0 < width; x0 += COLUMN_BLOCK)
+        {
+            int columns = Math.min(COLUMN_BLOCK, width - x0);
+
+            for (int c = 0; c < columns; c++)
+            {
+                last[c] = none;
+
+                if (wrapY)
+                {
+                    for (int y = height - 1; y >= 0; y--)
+                    {
+                        if (features[y * width + x0 + c] != 0)
+                        {
+                            last[c] = y - height;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (int y = 0; y < height; y++)
+            {
+                int row = y * width + x0;
+
+                for (int c = 0; c < columns; c++)
+                {
+                    if (features[row + c] != 0)
+                        last[c] = y;
+
+                    nearest[row + c] = last[c];
+                }
+            }
+
+            for (int c = 0; c < columns; c++)
+            {
+                last[c] = none;
+
+                if (wrapY)
+                {
+                    for (int y = 0; y < height; y++)
+                    {
+                        if (features[y * width + x0 + c] != 0)
+                        {
+                            last[c] = y + height;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (int y = height - 1; y >= 0; y--)
+            {
+                int row = y * width + x0;
+
+                for (int c = 0; c < columns; c++)
+                {
+                    if (features[row + c] != 0)
+                        last[c] = y;
+
+                    int above = nearest[row + c];
+                    int below = last[c];
+
+                    // the row as it sits on the map, -1 for a column with no features
+                    int best = below != none && (above == none || below - y < y - above) ? below : above;
+                    nearest[row + c] = best == none ? -1 : (best + height) % height;
+                }
+            }
+        }
+    }
+
+    // second pass, along each row the column whose nearest feature is closest. Every column
+    // with a feature is a parabola weight * (x - column)^2 + dy^2, the lower envelope of the
+    // parabolas is built left to right and then read off at every pixel. With wrapping each
+    // column also appears a map width to the left and right
+    private void nearestColumns()
+    {
+        int copies = wrapX ? 3 : 1;
+        int offset = wrapX ? width : 0;
+
+        int[] rows = new int[width];
+        int[] sites = new int[width * copies];
+        double[] values = new double[width * copies];
+        double[] bounds = new double[width * copies + 1];
+
+        for (int y = 0; y < height; y++)
+        {
+            int row = y * width;
+            double weight = rowWeight[y];
+
+            System.arraycopy(nearest, row, rows, 0, width);
+
+            int k = -1;
+
+            for (int j = 0; j < width * copies; j++)
+            {
+                int column = j % width;
+                if (rows[column] < 0)
+                    continue;
+
+                int position = j - offset;
+                int dy = Math.abs(rows[column] - y);
+                if (wrapY)
+                    dy = Math.min(dy, height - dy);
+
+                double value = (double) dy * dy;
+                double bound = Double.NEGATIVE_INFINITY;
+
+                while (k >= 0)
+                {
+                    int site = sites[k];
+                    bound = ((value + weight * position * position) - (values[k] + weight * site * site)) / (2 * weight * (position - site));
+
+                    if (bound > bounds[k])
+                        break;
+
+                    k--;
+                    bound = Double.NEGATIVE_INFINITY;
+                }
+
+                k++;
+                sites[k] = position;
+                values[k] = value;
+                bounds[k] = bound;
+            }
+
+            if (k < 0)
+            {
+                Arrays.fill(nearest, row, row + width, -1);
+                continue;
+            }
+
+            bounds[k + 1] = Double.POSITIVE_INFINITY;
+
+            int s = 0;
+            for (int x = 0; x < width; x++)
+            {
+                while (bounds[s + 1] < x)
+                    s++;
+
+                int column = (sites[s] % width + width) % width;
+                nearest[row + x] = rows[column] * width + column;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+
+// A horizontal slice of the world handed down a BandPipeline. The band owns rows firstRow to
+// lastRow (exclusive), and its field also holds the halo rows above and below them that the
+// stages need to see their neighbours. Field row 0 is world row top.
+public class Band
+{
+    private final HeightField field;
+    private final int top;
+    private final int firstRow;
+    private final int lastRow;
+    private final int worldHeight;
+    private int[] pixels;
+
+    Band(HeightField field, int top, int firstRow, int lastRow, int worldHeight)
+    {
+        this.field = field;
+        this.top = top;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.worldHeight = worldHeight;
+    }
+
+    public HeightField getField()
+    {
+        return field;
+    }
+
+    public int getWidth()
+    {
+        return field.getWidth();
+    }
+
+    public int getWorldHeight()
+    {
+        return worldHeight;
+    }
+
+    // world row of the first field row
+    public int getTop()
+    {
+        return top;
+    }
+
+    // world row after the last field row
+    public int getBottom()
+    {
+        return top + field.getHeight();
+    }
+
+    public int getFirstRow()
+    {
+        return firstRow;
+    }
+
+    public int getLastRow()
+    {
+        return lastRow;
+    }
+
+    public boolean hasPixels()
+    {
+        return pixels != null;
+    }
+
+    // packed RGB of the owned rows only, row by row. Created on first use by a paint stage
+    public int[] getPixels()
+    {
+        if (pixels == null)
+            pixels = new int[getWidth() * (lastRow - firstRow)];
+
+        return pixels;
+    }
+}
@@ -0,0 +1,160 @@
+package ca.dhlevi.libnoise.stream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.MappedHeightField;
+import ca.dhlevi.libnoise.field.WrapMode;
+
+// Runs generation, the local stages and the output a band of rows at a time, so only
+// width x (bandHeight + halo) heights are in memory instead of the whole world.
+//
+// Each band is read from the source with enough rows above and below it to cover the halos of
+// all the band stages, the stages run on it in order and the band's own rows go to the sink.
+// A global stage splits the pipeline: the bands so far are spilled into a full size field, a
+// memory mapped file when a spill directory is set, the stage runs on that, and the stages
+// after it stream their bands back out of the spill.
+public class BandPipeline
+{
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    private final BandSource source;
+    private final int bandHeight;
+    private final List<Object> stages = new ArrayList<Object>();
+    private File spillDirectory;
+    private boolean floatSpill;
+
+    public BandPipeline(BandSource source)
+    {
+        this(source, DEFAULT_BAND_HEIGHT);
+    }
+
+    public BandPipeline(BandSource source, int bandHeight)
+    {
+        if (bandHeight < 1)
+            throw new IllegalArgumentException("Band height must be at least 1 row");
+
+        this.source = source;
+        this.bandHeight = bandHeight;
+    }
+
+    public BandPipeline add(BandStage stage)
+    {
+        stages.add(stage);
+        return this;
+    }
+
+    public BandPipeline add(GlobalStage stage)
+    {
+        stages.add(stage);
+        return this;
+    }
+
+    public File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    // where global stages spill the world to. When null the spill is kept on the heap
+    public void setSpillDirectory(File spillDirectory)
+    {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public boolean isFloatSpill()
+    {
+        return floatSpill;
+    }
+
+    // store mapped spills as floats, halving the file
+    public void setFloatSpill(boolean floatSpill)
+    {
+        this.floatSpill = floatSpill;
+    }
+
+    public void run(BandSink sink) throws Exception
+    {
+        List<HeightField> spills = new ArrayList<HeightField>();
+        List<File> spillFiles = new ArrayList<File>();
+
+        try
+        {
+            BandSource current = source;
+            List<BandStage> segment = new ArrayList<BandStage>();
+
+            for (Object stage : stages)
+            {
+                if (stage instanceof BandStage)
+                {
+                    segment.add((BandStage) stage);
+                    continue;
+                }
+
+                HeightField spill;
+                if (spillDirectory == null)
+                {
+                    spill = HeightField.allocate(current.getWidth(), current.getHeight(), WrapMode.HORIZONTAL);
+                }
+                else
+                {
+                    File file = File.createTempFile("spill", ".bin", spillDirectory);
+                    spillFiles.add(file);
+                    spill = new MappedHeightField(file, current.getWidth(), current.getHeight(), WrapMode.HORIZONTAL, floatSpill);
+                }
+                spills.add(spill);
+
+                runSegment(current, segment, new FieldSink(spill));
+                ((GlobalStage) stage).process(spill);
+
+                current = new FieldSource(spill);
+                segment = new ArrayList<BandStage>();
+            }
+
+            runSegment(current, segment, sink);
+        }
+        finally
+        {
+            for (HeightField spill : spills)
+            {
+                if (spill instanceof Closeable)
+                    ((Closeable) spill).close();
+            }
+
+            for (File file : spillFiles)
+                file.delete();
+        }
+    }
+
+    private void runSegment(BandSource source, List<BandStage> segment, BandSink sink) throws Exception
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        int halo = 0;
+        for (BandStage stage : segment)
+            halo += stage.getHalo();
+
+        sink.begin(width, height);
+
+        for (int y0 = 0; y0 < height; y0 += bandHeight)
+        {
+            int y1 = Math.min(height, y0 + bandHeight);
+            int top = Math.max(0, y0 - halo);
+            int bottom = Math.min(height, y1 + halo);
+
+            HeightField rows = HeightField.allocate(width, bottom - top, WrapMode.HORIZONTAL);
+            source.fill(rows, top);
+
+            Band band = new Band(rows, top, y0, y1, height);
+            for (BandStage stage : segment)
+                stage.process(band);
+
+            sink.write(band);
+        }
+
+        sink.end();
+    }
+}
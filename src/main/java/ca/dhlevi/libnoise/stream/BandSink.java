@@ -0,0 +1,13 @@
+package ca.dhlevi.libnoise.stream;
+
+import java.io.IOException;
+
+// Receives the finished bands in order, top to bottom
+public interface BandSink
+{
+    void begin(int width, int height) throws IOException;
+
+    void write(Band band) throws IOException;
+
+    void end() throws IOException;
+}
@@ -0,0 +1,14 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Where a BandPipeline gets its heights. fill writes world rows top to top + rows.getHeight()
+// into rows, and is called once per band.
+public interface BandSource
+{
+    int getWidth();
+
+    int getHeight();
+
+    void fill(HeightField rows, int top) throws Exception;
+}
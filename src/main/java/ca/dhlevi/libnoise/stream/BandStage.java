@@ -0,0 +1,11 @@
+package ca.dhlevi.libnoise.stream;
+
+// A stage that only needs the pixels near the ones it is working on. The halo is how many rows
+// above and below a band the stage has to see to get the band's own rows right, the pipeline
+// fetches that many extra rows for it.
+public interface BandStage
+{
+    int getHalo();
+
+    void process(Band band) throws Exception;
+}
@@ -0,0 +1,44 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Writes the owned rows of each band into a full size field
+public class FieldSink implements BandSink
+{
+    private final HeightField field;
+
+    public FieldSink(HeightField field)
+    {
+        this.field = field;
+    }
+
+    public HeightField getField()
+    {
+        return field;
+    }
+
+    @Override
+    public void begin(int width, int height)
+    {
+        if (width != field.getWidth() || height != field.getHeight())
+            throw new IllegalArgumentException("Field is " + field.getWidth() + "x" + field.getHeight() + ", the pipeline produces " + width + "x" + height);
+    }
+
+    @Override
+    public void write(Band band)
+    {
+        int width = band.getWidth();
+        double[] row = new double[width];
+
+        for (int y = band.getFirstRow(); y < band.getLastRow(); y++)
+        {
+            band.getField().getRow(y - band.getTop(), 0, row, 0, width);
+            field.setRow(y, 0, row, 0, width);
+        }
+    }
+
+    @Override
+    public void end()
+    {
+    }
+}
@@ -0,0 +1,39 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Streams bands out of an existing field, a spill or a mapped file from an earlier run
+public class FieldSource implements BandSource
+{
+    private final HeightField field;
+
+    public FieldSource(HeightField field)
+    {
+        this.field = field;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return field.getWidth();
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return field.getHeight();
+    }
+
+    @Override
+    public void fill(HeightField rows, int top)
+    {
+        int width = field.getWidth();
+        double[] row = new double[width];
+
+        for (int y = 0; y < rows.getHeight(); y++)
+        {
+            field.getRow(top + y, 0, row, 0, width);
+            rows.setRow(y, 0, row, 0, width);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+
+// A stage that needs the whole world at once, basins, hydraulic erosion and the like. The
+// pipeline spills the bands before it into a full size field, memory mapped when a spill
+// directory is set, runs the stage on it, then streams the result into the stages after it.
+public interface GlobalStage
+{
+    void process(HeightField world) throws Exception;
+}
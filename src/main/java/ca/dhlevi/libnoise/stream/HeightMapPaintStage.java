@@ -0,0 +1,31 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.paint.Painter;
+
+// Paints the band's own rows as a grey height map, the same pixels as Painter.paintHeightMap
+public class HeightMapPaintStage implements BandStage
+{
+    @Override
+    public int getHalo()
+    {
+        return 0;
+    }
+
+    @Override
+    public void process(Band band)
+    {
+        HeightField field = band.getField();
+        int width = band.getWidth();
+        int[] pixels = band.getPixels();
+
+        for (int y = band.getFirstRow(); y < band.getLastRow(); y++)
+        {
+            int row = y - band.getTop();
+            int offset = (y - band.getFirstRow()) * width;
+
+            for (int x = 0; x < width; x++)
+                pixels[offset + x] = Painter.heightPixel(field.get(x, row));
+        }
+    }
+}
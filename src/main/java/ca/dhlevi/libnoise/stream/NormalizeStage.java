@@ -0,0 +1,28 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.NoiseNormalizer;
+
+// Removes single pixel dangles a band at a time. Normalizing looks one pixel around each pixel,
+// but a pixel it changed can flip the pixel after it, so rows next to a band edge can differ
+// slightly from normalizing the whole map at once.
+public class NormalizeStage implements BandStage
+{
+    private final double seaLevel;
+
+    public NormalizeStage(double seaLevel)
+    {
+        this.seaLevel = seaLevel;
+    }
+
+    @Override
+    public int getHalo()
+    {
+        return 1;
+    }
+
+    @Override
+    public void process(Band band)
+    {
+        NoiseNormalizer.normalize(band.getField(), seaLevel);
+    }
+}
@@ -0,0 +1,167 @@
+package ca.dhlevi.libnoise.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Encodes the painted bands straight into a PNG as they arrive, so the image never has to be
+// held in memory. Rows are written as 8 bit RGB with the Up filter, which compresses smooth
+// terrain well, and the deflate output is cut into IDAT chunks of CHUNK_SIZE bytes.
+public class PngStreamWriter implements BandSink
+{
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILTER_UP = 2;
+
+    private final DataOutputStream out;
+    private final boolean closeOnEnd;
+    private final Deflater deflater;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+
+    private int width;
+    private int height;
+    private int rowsWritten;
+    private byte[] row;
+    private byte[] previous;
+    private byte[] filtered;
+
+    // the stream is left open, the caller closes it
+    public PngStreamWriter(OutputStream out)
+    {
+        this(out, false, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    // writes to a file, closed once the image is finished
+    public PngStreamWriter(File file) throws IOException
+    {
+        this(new FileOutputStream(file), true, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public PngStreamWriter(OutputStream out, boolean closeOnEnd, int compressionLevel)
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+        this.closeOnEnd = closeOnEnd;
+        this.deflater = new Deflater(compressionLevel);
+    }
+
+    @Override
+    public void begin(int width, int height) throws IOException
+    {
+        this.width = width;
+        this.height = height;
+        this.rowsWritten = 0;
+        this.row = new byte[1 + width * 3];
+        this.previous = new byte[1 + width * 3];
+        this.filtered = new byte[1 + width * 3];
+
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // truecolour
+        writeChunk("IHDR", header, header.length);
+    }
+
+    @Override
+    public void write(Band band) throws IOException
+    {
+        if (!band.hasPixels())
+            throw new IllegalStateException("Band has not been painted, add a paint stage before writing a PNG");
+
+        int[] pixels = band.getPixels();
+        int rows = band.getLastRow() - band.getFirstRow();
+
+        for (int y = 0; y < rows; y++)
+        {
+            int offset = y * width;
+
+            for (int x = 0; x < width; x++)
+            {
+                int rgb = pixels[offset + x];
+                int i = 1 + x * 3;
+
+                row[i] = (byte) (rgb >> 16);
+                row[i + 1] = (byte) (rgb >> 8);
+                row[i + 2] = (byte) rgb;
+            }
+
+            // each byte is stored as the difference from the byte above it
+            filtered[0] = FILTER_UP;
+            for (int i = 1; i < row.length; i++)
+                filtered[i] = (byte) (row[i] - previous[i]);
+
+            deflater.setInput(filtered);
+            drain(false);
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        rowsWritten += rows;
+    }
+
+    @Override
+    public void end() throws IOException
+    {
+        if (rowsWritten != height)
+            throw new IllegalStateException("Expected " + height + " rows, got " + rowsWritten);
+
+        deflater.finish();
+        drain(true);
+        if (chunkLength > 0)
+            writeChunk("IDAT", chunk, chunkLength);
+        deflater.end();
+
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+
+        if (closeOnEnd)
+            out.close();
+    }
+
+    private void drain(boolean finishing) throws IOException
+    {
+        while (finishing ? !deflater.finished() : !deflater.needsInput())
+        {
+            chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+
+            if (chunkLength == CHUNK_SIZE)
+            {
+                writeChunk("IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException
+    {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value)
+    {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
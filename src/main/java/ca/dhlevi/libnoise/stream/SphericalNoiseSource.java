@@ -0,0 +1,54 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.RasterSampler;
+import ca.dhlevi.libnoise.field.HeightField;
+
+// Generates spherical noise a band at a time. The world is the same raster
+// NoiseFactory.generateSpherical returns for width x height, border included.
+public class SphericalNoiseSource implements BandSource
+{
+    private final Module module;
+    private final int width;
+    private final int height;
+    private final double south;
+    private final double north;
+    private final double west;
+    private final double east;
+    private final boolean isNormalized;
+    private final int scale;
+    private final RasterSampler sampler;
+
+    public SphericalNoiseSource(Module module, int width, int height, double south, double north, double west, double east, boolean isNormalized, int scale, RasterSampler sampler)
+    {
+        this.module = module;
+        this.width = width;
+        this.height = height;
+        this.south = south;
+        this.north = north;
+        this.west = west;
+        this.east = east;
+        this.isNormalized = isNormalized;
+        this.scale = scale;
+        this.sampler = sampler;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width + 2;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height + 2;
+    }
+
+    @Override
+    public void fill(HeightField rows, int top) throws Exception
+    {
+        NoiseFactory.generateSphericalRows(module, width, height, south, north, west, east, isNormalized, scale, sampler, rows, top);
+    }
+}
@@ -0,0 +1,70 @@
+package ca.dhlevi.libnoise.stream;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.paint.Hillshader;
+import ca.dhlevi.libnoise.paint.Painter;
+
+// Paints the band's own rows as a terrain map. Hillshading needs the rows either side, taken
+// from the halo, so the pixels are the same as Painter.paintTerrainMap with no rivers.
+public class TerrainPaintStage implements BandStage
+{
+    private final double seaLevel;
+    private final boolean hillshade;
+    private final boolean shadeWater;
+
+    public TerrainPaintStage(double seaLevel, boolean hillshade, boolean shadeWater)
+    {
+        this.seaLevel = seaLevel;
+        this.hillshade = hillshade;
+        this.shadeWater = shadeWater;
+    }
+
+    @Override
+    public int getHalo()
+    {
+        return hillshade || shadeWater ? 1 : 0;
+    }
+
+    @Override
+    public void process(Band band)
+    {
+        HeightField field = band.getField();
+        int width = band.getWidth();
+        int worldHeight = band.getWorldHeight();
+        int[] pixels = band.getPixels();
+
+        for (int y = band.getFirstRow(); y < band.getLastRow(); y++)
+        {
+            int row = y - band.getTop();
+            int offset = (y - band.getFirstRow()) * width;
+
+            // like the hillshader, neighbours off the edge of the world count as 0
+            boolean top = y == 0;
+            boolean bottom = y >= worldHeight - 1;
+
+            for (int x = 0; x < width; x++)
+            {
+                int shade = 0;
+
+                if (hillshade || shadeWater)
+                {
+                    boolean left = x == 0;
+                    boolean right = x >= width - 1;
+
+                    double nw = left || top ? 0 : field.get(x - 1, row - 1);
+                    double n = top ? 0 : field.get(x, row - 1);
+                    double ne = right || top ? 0 : field.get(x + 1, row - 1);
+                    double w = left ? 0 : field.get(x - 1, row);
+                    double e = right ? 0 : field.get(x + 1, row);
+                    double sw = left || bottom ? 0 : field.get(x - 1, row + 1);
+                    double s = bottom ? 0 : field.get(x, row + 1);
+                    double se = right || bottom ? 0 : field.get(x + 1, row + 1);
+
+                    shade = Hillshader.shadeValue(nw, n, ne, w, e, sw, s, se);
+                }
+
+                pixels[offset + x] = Painter.terrainPixel(field.get(x, row), false, seaLevel, shade, hillshade, shadeWater);
+            }
+        }
+    }
+}
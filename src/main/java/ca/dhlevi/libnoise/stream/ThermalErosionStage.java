@@ -0,0 +1,40 @@
+package ca.dhlevi.libnoise.stream;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.Erosion;
+
+// Thermal erosion a band at a time. Each sweep moves material at most one pixel, so the halo is
+// one row per iteration. Material moved in the halo rows is thrown away with them, and a sweep
+// works through the pixels in order, so the result is close to but not the same as eroding the
+// whole map at once.
+public class ThermalErosionStage implements BandStage
+{
+    private final double talusAngle;
+    private final int iterations;
+    private final ForkJoinPool pool;
+
+    public ThermalErosionStage(double talusAngle, int iterations)
+    {
+        this(talusAngle, iterations, null);
+    }
+
+    public ThermalErosionStage(double talusAngle, int iterations, ForkJoinPool pool)
+    {
+        this.talusAngle = talusAngle;
+        this.iterations = iterations;
+        this.pool = pool;
+    }
+
+    @Override
+    public int getHalo()
+    {
+        return iterations;
+    }
+
+    @Override
+    public void process(Band band)
+    {
+        Erosion.thermalErosion(band.getField(), talusAngle, iterations, pool);
+    }
+}
@@ -0,0 +1,56 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// Writes tiles as root/zoom/x/y.png, the layout slippy map clients and static file servers expect.
+// A tile is written to a temporary file and moved into place, so a reader never sees half of one
+public class DirectoryTileSink implements TileSink
+{
+    private final File root;
+
+    public DirectoryTileSink(File root)
+    {
+        this.root = root;
+    }
+
+    public File getRoot()
+    {
+        return root;
+    }
+
+    public File getFile(int zoom, int x, int y)
+    {
+        return new File(root, zoom + File.separator + x + File.separator + y + ".png");
+    }
+
+    @Override
+    public void write(int zoom, int x, int y, byte[] png) throws IOException
+    {
+        File file = getFile(zoom, x, y);
+        File directory = file.getParentFile();
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Can't create " + directory);
+
+        Path partial = Files.createTempFile(directory.toPath(), y + "-", ".part");
+
+        try
+        {
+            Files.write(partial, png);
+            Files.move(partial, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
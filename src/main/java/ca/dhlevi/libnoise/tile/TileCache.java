@@ -0,0 +1,123 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// An LRU of encoded tiles bounded by their total size in bytes rather than a tile count, PNGs
+// of open ocean and of mountains differ by an order of magnitude. Shared by all threads.
+public class TileCache
+{
+    private final long capacity;
+    private final Map<Long, byte[]> tiles = new LinkedHashMap<Long, byte[]>(256, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // capacity in bytes, 0 caches nothing
+    public TileCache(long capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity can't be negative");
+
+        this.capacity = capacity;
+    }
+
+    public byte[] get(int zoom, int x, int y)
+    {
+        byte[] png;
+
+        synchronized (tiles)
+        {
+            png = tiles.get(TilePack.key(zoom, x, y));
+        }
+
+        if (png == null)
+            misses.increment();
+        else
+            hits.increment();
+
+        return png;
+    }
+
+    // the same lookup without counting a hit or a miss
+    public byte[] peek(int zoom, int x, int y)
+    {
+        synchronized (tiles)
+        {
+            return tiles.get(TilePack.key(zoom, x, y));
+        }
+    }
+
+    // a tile bigger than the whole cache isn't kept
+    public void put(int zoom, int x, int y, byte[] png)
+    {
+        if (png.length > capacity)
+            return;
+
+        synchronized (tiles)
+        {
+            byte[] previous = tiles.put(TilePack.key(zoom, x, y), png);
+            if (previous != null)
+                size -= previous.length;
+            size += png.length;
+
+            // least recently used first
+            Iterator<byte[]> eldest = tiles.values().iterator();
+            while (size > capacity)
+            {
+                size -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (tiles)
+        {
+            tiles.clear();
+            size = 0;
+        }
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    // bytes of tiles held
+    public long getSize()
+    {
+        synchronized (tiles)
+        {
+            return size;
+        }
+    }
+
+    public int getCount()
+    {
+        synchronized (tiles)
+        {
+            return tiles.size();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public void resetStatistics()
+    {
+        hits.reset();
+        misses.reset();
+    }
+}
@@ -0,0 +1,95 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads a pyramid written by TilePackSink, a whole tile set in one file so a deep pyramid
+// isn't millions of little files. The file is
+//
+//   MAGIC, VERSION
+//   the PNGs, back to back
+//   the tile count, then zoom, x, y, offset and length of every tile
+//   the offset of that index
+//
+// The index is loaded when the pack is opened, after that a tile is one seek and one read.
+public class TilePack implements Closeable
+{
+    static final int MAGIC = 0x4C4E5450; // "LNTP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    private final RandomAccessFile file;
+    private final Map<Long, long[]> index = new HashMap<Long, long[]>();
+
+    public TilePack(File path) throws IOException
+    {
+        this.file = new RandomAccessFile(path, "r");
+
+        try
+        {
+            if (file.length() < HEADER_SIZE + 12 || file.readInt() != MAGIC || file.readInt() != VERSION)
+                throw new IOException(path + " is not a tile pack");
+
+            file.seek(file.length() - 8);
+            file.seek(file.readLong());
+
+            int count = file.readInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                int zoom = file.readInt();
+                int x = file.readInt();
+                int y = file.readInt();
+                long offset = file.readLong();
+                int length = file.readInt();
+
+                index.put(key(zoom, x, y), new long[] { offset, length });
+            }
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    // zoom, x and y packed into one long, x and y have 29 bits each
+    static long key(int zoom, int x, int y)
+    {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    public int size()
+    {
+        return index.size();
+    }
+
+    public boolean contains(int zoom, int x, int y)
+    {
+        return index.containsKey(key(zoom, x, y));
+    }
+
+    // the tile's PNG, or null when the pack doesn't have it
+    public synchronized byte[] read(int zoom, int x, int y) throws IOException
+    {
+        long[] entry = index.get(key(zoom, x, y));
+        if (entry == null)
+            return null;
+
+        byte[] png = new byte[(int) entry[1]];
+        file.seek(entry[0]);
+        file.readFully(png);
+
+        return png;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
@@ -0,0 +1,70 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes every tile into one file, see TilePack for the layout and for reading it back. Tiles
+// are appended as they arrive and the index is written on close, so the pack is only readable
+// once it has been closed
+public class TilePackSink implements TileSink
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final List<long[]> entries = new ArrayList<long[]>();
+    private long offset;
+    private boolean closed;
+
+    public TilePackSink(File file) throws IOException
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+
+        out.writeInt(TilePack.MAGIC);
+        out.writeInt(TilePack.VERSION);
+        offset = TilePack.HEADER_SIZE;
+    }
+
+    @Override
+    public synchronized void write(int zoom, int x, int y, byte[] png) throws IOException
+    {
+        if (closed)
+            throw new IllegalStateException("Tile pack is closed");
+
+        out.write(png);
+        entries.add(new long[] { zoom, x, y, offset, png.length });
+        offset += png.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        try
+        {
+            out.writeInt(entries.size());
+
+            for (long[] entry : entries)
+            {
+                out.writeInt((int) entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+                out.writeLong(entry[3]);
+                out.writeInt((int) entry[4]);
+            }
+
+            out.writeLong(offset);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
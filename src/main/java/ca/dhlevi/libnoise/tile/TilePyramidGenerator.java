@@ -0,0 +1,132 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Renders every tile of a range of zoom levels, or of a block of one level, and hands the PNGs
+// to a sink. Tiles render on a fixed number of threads fed through a bounded queue: once the
+// queue is full the calling thread renders the next tile itself, so however many tiles a level
+// has only threads + queue size of them are in memory at once.
+//
+// Each tile is sampled at its own resolution by the TileRenderer, nothing is downsampled from
+// a bigger raster, so a deep level or a small block of one can be made on its own. The first
+// tile that fails stops the run and its exception is thrown once the tiles in flight are done.
+// The sink is not closed.
+public class TilePyramidGenerator
+{
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private final TileRenderer renderer;
+    private final int threads;
+    private final int queueSize;
+
+    public TilePyramidGenerator(TileRenderer renderer)
+    {
+        this(renderer, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+    }
+
+    public TilePyramidGenerator(TileRenderer renderer, int threads, int queueSize)
+    {
+        if (threads < 1 || queueSize < 1)
+            throw new IllegalArgumentException("Needs at least one thread and a queue of at least one tile");
+
+        this.renderer = renderer;
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    public TileRenderer getRenderer()
+    {
+        return renderer;
+    }
+
+    // every tile of levels minZoom to maxZoom
+    public void generate(int minZoom, int maxZoom, TileSink sink) throws IOException
+    {
+        if (minZoom < 0 || maxZoom > TileRenderer.MAX_ZOOM || minZoom > maxZoom)
+            throw new IllegalArgumentException("Invalid zoom range " + minZoom + " to " + maxZoom);
+
+        int[][] blocks = new int[maxZoom - minZoom + 1][];
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++)
+            blocks[zoom - minZoom] = new int[] { zoom, 0, 0, (1 << zoom) - 1, (1 << zoom) - 1 };
+
+        generate(blocks, sink);
+    }
+
+    // tiles minX to maxX and minY to maxY, inclusive, of one level
+    public void generate(int zoom, int minX, int minY, int maxX, int maxY, TileSink sink) throws IOException
+    {
+        if (!TileRenderer.isTile(zoom, minX, minY) || !TileRenderer.isTile(zoom, maxX, maxY) || minX > maxX || minY > maxY)
+            throw new IllegalArgumentException("Invalid tile block " + zoom + "/" + minX + "/" + minY + " to " + maxX + "/" + maxY);
+
+        generate(new int[][] { { zoom, minX, minY, maxX, maxY } }, sink);
+    }
+
+    private void generate(int[][] blocks, TileSink sink) throws IOException
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        try
+        {
+            for (int[] block : blocks)
+            {
+                int zoom = block[0];
+
+                for (int y = block[2]; y <= block[4] && failure.get() == null; y++)
+                {
+                    for (int x = block[1]; x <= block[3] && failure.get() == null; x++)
+                    {
+                        int tileX = x;
+                        int tileY = y;
+
+                        executor.execute(() ->
+                        {
+                            if (failure.get() != null)
+                                return;
+
+                            try
+                            {
+                                sink.write(zoom, tileX, tileY, renderer.renderPng(zoom, tileX, tileY));
+                            }
+                            catch (Throwable e)
+                            {
+                                failure.compareAndSet(null, e);
+                            }
+                        });
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering tiles");
+        }
+
+        Throwable e = failure.get();
+
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e != null)
+            throw new IOException(e);
+    }
+}
@@ -0,0 +1,215 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.Utilities;
+import ca.dhlevi.libnoise.paint.Painter;
+import ca.dhlevi.libnoise.spatial.Coordinate;
+import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+
+// Renders web mercator tiles (the XYZ scheme, tile 0, 0 in the north west) of a module's
+// spherical noise. Every tile is sampled directly at its own resolution: pixel centres are
+// taken through transformWebMercatorToGeo and evaluated the same way as
+// NoiseFactory.generateSphericalPoint, so a deep tile costs the same as a shallow one.
+//
+// The scale handed to the module grows by one per zoom level from baseScale, adding an octave
+// of detail each time the pixels halve, and stops at maxScale. Values are normalized to
+// (value + 1) / 2 and painted with Painter's terrain colours, sampled with a one pixel border
+// so the hillshade carries across tile edges. Unlike NoiseFactory's arrays, row 0 of a
+// sampled tile is its northern edge, the way the tile is drawn.
+public class TileRenderer
+{
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final int DEFAULT_MAX_SCALE = 20;
+
+    // x and y of a tile have to fit in 29 bits, see TilePack
+    public static final int MAX_ZOOM = 29;
+
+    // half the width of the web mercator world in metres
+    private static final double EXTENT = 20037508.3427892;
+
+    private final Module module;
+    private final int tileSize;
+    private final int[][] noRivers;
+
+    private double seaLevel = 0.4;
+    private boolean hillshade = true;
+    private boolean shadeWater = true;
+    private int baseScale = 1;
+    private int maxScale = DEFAULT_MAX_SCALE;
+
+    public TileRenderer(Module module)
+    {
+        this(module, DEFAULT_TILE_SIZE);
+    }
+
+    public TileRenderer(Module module, int tileSize)
+    {
+        if (module == null)
+            throw new NullPointerException("Module is null");
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1");
+
+        this.module = module;
+        this.tileSize = tileSize;
+        this.noRivers = new int[tileSize + 2][tileSize + 2];
+    }
+
+    public Module getModule()
+    {
+        return module;
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    // the scale a tile of this zoom level is sampled at
+    public int getScale(int zoom)
+    {
+        return Math.min(baseScale + zoom, maxScale);
+    }
+
+    // normalized noise of the tile plus a one pixel border, column major, [tileSize + 2][tileSize + 2]
+    public double[][] sample(int zoom, int x, int y)
+    {
+        checkTile(zoom, x, y);
+
+        int size = tileSize + 2;
+        int scale = getScale(zoom);
+        double pixel = 2 * EXTENT / ((double) tileSize * (1L << zoom));
+
+        // like generateSpherical the trig only depends on the row or the column
+        double[] cosLat = new double[size];
+        double[] sinLat = new double[size];
+        double[] cosLon = new double[size];
+        double[] sinLon = new double[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            double mx = -EXTENT + ((double) x * tileSize + i - 0.5) * pixel;
+            double my = EXTENT - ((double) y * tileSize + i - 0.5) * pixel;
+
+            // the border wraps around the date line and stops at the edge of the world
+            if (mx < -EXTENT)
+                mx += 2 * EXTENT;
+            else if (mx > EXTENT)
+                mx -= 2 * EXTENT;
+            my = Math.max(-EXTENT, Math.min(EXTENT, my));
+
+            double lon = SpatialUtilities.transformWebMercatorToGeo(new Coordinate(mx, 0)).getX();
+            double lat = SpatialUtilities.transformWebMercatorToGeo(new Coordinate(0, my)).getY();
+
+            cosLat[i] = Math.cos(Utilities.degreesToRadians() * lat);
+            sinLat[i] = Math.sin(Utilities.degreesToRadians() * lat);
+            cosLon[i] = Math.cos(Utilities.degreesToRadians() * lon);
+            sinLon[i] = Math.sin(Utilities.degreesToRadians() * lon);
+        }
+
+        double[][] data = new double[size][size];
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        double[] zs = new double[size];
+
+        for (int c = 0; c < size; c++)
+        {
+            for (int r = 0; r < size; r++)
+            {
+                xs[r] = cosLat[r] * cosLon[c];
+                ys[r] = sinLat[r];
+                zs[r] = cosLat[r] * sinLon[c];
+            }
+
+            double[] column = data[c];
+            module.getValues(xs, ys, zs, column, size, scale);
+
+            for (int r = 0; r < size; r++)
+                column[r] = (column[r] + 1) / 2;
+        }
+
+        return data;
+    }
+
+    public BufferedImage render(int zoom, int x, int y)
+    {
+        double[][] data = sample(zoom, x, y);
+        BufferedImage image = Painter.renderTerrainMap(data, noRivers, seaLevel, hillshade, shadeWater, null);
+
+        return image.getSubimage(1, 1, tileSize, tileSize);
+    }
+
+    public byte[] renderPng(int zoom, int x, int y) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(render(zoom, x, y), "png", out);
+
+        return out.toByteArray();
+    }
+
+    public static boolean isTile(int zoom, int x, int y)
+    {
+        return zoom >= 0 && zoom <= MAX_ZOOM && x >= 0 && y >= 0 && x < (1 << zoom) && y < (1 << zoom);
+    }
+
+    private static void checkTile(int zoom, int x, int y)
+    {
+        if (!isTile(zoom, x, y))
+            throw new IllegalArgumentException("No tile " + zoom + "/" + x + "/" + y);
+    }
+
+    public double getSeaLevel()
+    {
+        return seaLevel;
+    }
+
+    public void setSeaLevel(double seaLevel)
+    {
+        this.seaLevel = seaLevel;
+    }
+
+    public boolean isHillshade()
+    {
+        return hillshade;
+    }
+
+    public void setHillshade(boolean hillshade)
+    {
+        this.hillshade = hillshade;
+    }
+
+    public boolean isShadeWater()
+    {
+        return shadeWater;
+    }
+
+    public void setShadeWater(boolean shadeWater)
+    {
+        this.shadeWater = shadeWater;
+    }
+
+    public int getBaseScale()
+    {
+        return baseScale;
+    }
+
+    public void setBaseScale(int baseScale)
+    {
+        this.baseScale = baseScale;
+    }
+
+    public int getMaxScale()
+    {
+        return maxScale;
+    }
+
+    public void setMaxScale(int maxScale)
+    {
+        this.maxScale = maxScale;
+    }
+}
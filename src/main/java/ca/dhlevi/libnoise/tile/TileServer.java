@@ -0,0 +1,295 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.dhlevi.libnoise.DefaultModules;
+
+// Serves tiles rendered on demand as GET /tiles/z/x/y.png, over the JDK's built in HTTP server.
+//
+// A tile is looked for in an in-memory LRU of encoded tiles, then in an optional cache
+// directory laid out like DirectoryTileSink, and only rendered when neither has it. Requests
+// for a tile that is already being rendered wait for that render instead of starting their
+// own. Requests are handled on a fixed pool with a thread per core, and the thread that
+// starts a render does it itself, so waiting on another render can't starve the pool.
+//
+// The disk tier is best effort, a tile that can't be written there is still served.
+public class TileServer
+{
+    public static final long DEFAULT_MEMORY_CACHE = 64L * 1024 * 1024;
+    public static final String PATH = "/tiles/";
+
+    private final TileRenderer renderer;
+    private final TileCache memory;
+    private final DirectoryTileSink disk;
+    private final ConcurrentHashMap<Long, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<Long, CompletableFuture<byte[]>>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public TileServer(TileRenderer renderer)
+    {
+        this(renderer, DEFAULT_MEMORY_CACHE, null);
+    }
+
+    // cacheDirectory may be null for no disk tier
+    public TileServer(TileRenderer renderer, long memoryCache, File cacheDirectory)
+    {
+        this.renderer = renderer;
+        this.memory = new TileCache(memoryCache);
+        this.disk = cacheDirectory == null ? null : new DirectoryTileSink(cacheDirectory);
+    }
+
+    // args: port, seed and optionally a cache directory
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int seed = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        File cacheDirectory = args.length > 2 ? new File(args[2]) : null;
+
+        TileServer server = new TileServer(new TileRenderer(DefaultModules.getContinentNoise(seed)), DEFAULT_MEMORY_CACHE, cacheDirectory);
+        server.start(new InetSocketAddress(port));
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException
+    {
+        if (server != null)
+            throw new IllegalStateException("Tile server is already running");
+
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // waits up to delay seconds for the requests being handled
+    public synchronized void stop(int delay)
+    {
+        if (server == null)
+            return;
+
+        server.stop(delay);
+        executor.shutdown();
+
+        try
+        {
+            executor.awaitTermination(delay, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        server = null;
+        executor = null;
+    }
+
+    // the port actually bound, useful when started on port 0
+    public synchronized int getPort()
+    {
+        if (server == null)
+            throw new IllegalStateException("Tile server is not running");
+
+        return server.getAddress().getPort();
+    }
+
+    public TileRenderer getRenderer()
+    {
+        return renderer;
+    }
+
+    public TileCache getMemoryCache()
+    {
+        return memory;
+    }
+
+    // the tile's PNG from whichever tier has it, rendering it if none do
+    public byte[] getTile(int zoom, int x, int y) throws IOException
+    {
+        if (!TileRenderer.isTile(zoom, x, y))
+            throw new IllegalArgumentException("No tile " + zoom + "/" + x + "/" + y);
+
+        byte[] png = memory.get(zoom, x, y);
+        if (png != null)
+            return png;
+
+        Long key = TilePack.key(zoom, x, y);
+        CompletableFuture<byte[]> render = new CompletableFuture<byte[]>();
+        CompletableFuture<byte[]> running = rendering.putIfAbsent(key, render);
+
+        if (running != null)
+            return await(running);
+
+        try
+        {
+            // checked again now the tile is ours, a render may have finished since the first look.
+            // Not counted, the first look already counted the miss
+            png = memory.peek(zoom, x, y);
+            if (png == null)
+            {
+                png = readDisk(zoom, x, y);
+                if (png == null)
+                {
+                    png = renderer.renderPng(zoom, x, y);
+                    writeDisk(zoom, x, y, png);
+                }
+
+                memory.put(zoom, x, y, png);
+            }
+
+            render.complete(png);
+            return png;
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            render.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            rendering.remove(key);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> render) throws IOException
+    {
+        try
+        {
+            return render.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a tile", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new CompletionException(cause);
+        }
+    }
+
+    private byte[] readDisk(int zoom, int x, int y)
+    {
+        if (disk == null)
+            return null;
+
+        File file = disk.getFile(zoom, x, y);
+
+        try
+        {
+            return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    private void writeDisk(int zoom, int x, int y, byte[] png)
+    {
+        if (disk == null)
+            return;
+
+        try
+        {
+            disk.write(zoom, x, y, png);
+        }
+        catch (IOException e)
+        {
+            // served from memory and rendered again next time it's evicted
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!"GET".equals(exchange.getRequestMethod()))
+            {
+                send(exchange, 405, "text/plain", "Only GET is supported".getBytes("UTF-8"));
+                return;
+            }
+
+            int[] tile = parse(exchange.getRequestURI().getPath());
+            if (tile == null)
+            {
+                send(exchange, 404, "text/plain", "No such tile".getBytes("UTF-8"));
+                return;
+            }
+
+            byte[] png;
+
+            try
+            {
+                png = getTile(tile[0], tile[1], tile[2]);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                send(exchange, 500, "text/plain", ("Tile failed: " + e).getBytes("UTF-8"));
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            send(exchange, 200, "image/png", png);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    // zoom, x and y of /tiles/z/x/y.png, or null when the path isn't a tile
+    static int[] parse(String path)
+    {
+        if (!path.startsWith(PATH) || !path.endsWith(".png"))
+            return null;
+
+        String[] parts = path.substring(PATH.length(), path.length() - 4).split("/");
+        if (parts.length != 3)
+            return null;
+
+        try
+        {
+            int zoom = Integer.parseInt(parts[0]);
+            int x = Integer.parseInt(parts[1]);
+            int y = Integer.parseInt(parts[2]);
+
+            return TileRenderer.isTile(zoom, x, y) ? new int[] { zoom, x, y } : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Where a TilePyramidGenerator puts the finished tiles, as encoded PNGs. write is called from
+// several threads at once
+public interface TileSink extends Closeable
+{
+    void write(int zoom, int x, int y, byte[] png) throws IOException;
+}
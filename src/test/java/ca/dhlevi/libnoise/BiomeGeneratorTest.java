@@ -0,0 +1,75 @@
+package ca.dhlevi.libnoise;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
+import ca.dhlevi.libnoise.spatial.Envelope;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BiomeGeneratorTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public BiomeGeneratorTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(BiomeGeneratorTest.class);
+    }
+
+    public void testEveryPixelHasBiome() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(5), 254, 126, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(noise, 0.4);
+        int[][] basins = NoiseNormalizer.detectBasins(noise, 128, 0.4, true, true, 5);
+        Envelope bbox = new Envelope(-180, -90, 180, 90);
+        int[][] rivers = RiverGenerator.createRiversAStar(noise, basins, null, 0.4, 20, false, bbox, 1, 5);
+
+        int[][] biomes = BiomeGenerator.generateBiomes(noise, rivers, basins, bbox, 0.4, 0, 0, 5);
+
+        int[][] field = BiomeGenerator.generateBiomes(HeightField.wrap(noise, WrapMode.HORIZONTAL), IntField.wrap(rivers, WrapMode.HORIZONTAL), IntField.wrap(basins, WrapMode.HORIZONTAL), bbox, 0.4, 0, 0, 5).toArray();
+
+        for (int x = 0; x < biomes.length; x++)
+        {
+            for (int y = 0; y < biomes[0].length; y++)
+            {
+                assertTrue(biomes[x][y] >= 1 && biomes[x][y] <= 9);
+                assertEquals(biomes[x][y], field[x][y]);
+            }
+        }
+    }
+
+    public void testRainShadow() throws Exception
+    {
+        // sea down the west edge, a ridge, then plains, all in the northern westerlies
+        // where the wind blows east
+        int width = 200;
+        int height = 20;
+        double[][] noise = new double[width][height];
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                noise[x][y] = x < 10 || x >= width - 10 ? 0.1 : x >= 14 && x < 17 ? 0.95 : 0.5;
+        }
+
+        int[][] none = new int[width][height];
+        int[][] biomes = BiomeGenerator.generateBiomes(noise, none, none, new Envelope(-180, 30, 180, 45), 0.4, 0, 0, 1);
+
+        // forest on the windward side of the ridge, steppe behind it
+        assertEquals(5, biomes[12][10]);
+        assertEquals(4, biomes[20][10]);
+    }
+}
@@ -0,0 +1,126 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.WrapMode;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ComponentLabellerTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public ComponentLabellerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ComponentLabellerTest.class);
+    }
+
+    public void testConnectivityAndWrap()
+    {
+        int width = 8;
+        int height = 4;
+        int[] classes = new int[width * height];
+
+        // a diagonal pair at the west, a block of twos and a run of ones split by the east/west edge
+        classes[0 * width + 1] = 1;
+        classes[1 * width + 2] = 1;
+        classes[2 * width + 3] = 2;
+        classes[2 * width + 4] = 2;
+        classes[3 * width + 3] = 2;
+        classes[3 * width + 0] = 1;
+        classes[3 * width + 7] = 1;
+
+        Components four = ComponentLabeller.label(classes, width, height, false, WrapMode.NONE);
+        assertEquals(5, four.getCount());
+
+        Components eight = ComponentLabeller.label(classes, width, height, true, WrapMode.NONE);
+        assertEquals(4, eight.getCount());
+        assertEquals(eight.getLabel(1, 0), eight.getLabel(2, 1));
+
+        Components wrapped = ComponentLabeller.label(classes, width, height, true, WrapMode.HORIZONTAL);
+        assertEquals(3, wrapped.getCount());
+        assertEquals(wrapped.getLabel(0, 3), wrapped.getLabel(7, 3));
+
+        // the block of twos, ids are handed out row by row so it is second
+        int block = wrapped.getLabel(3, 2);
+        assertEquals(2, block);
+        assertEquals(2, wrapped.getValue(block));
+        assertEquals(3, wrapped.getSize(block));
+        assertEquals(3, wrapped.getMinX(block));
+        assertEquals(4, wrapped.getMaxX(block));
+        assertEquals(2, wrapped.getMinY(block));
+        assertEquals(3, wrapped.getMaxY(block));
+        assertEquals(0, wrapped.getLabel(0, 0));
+    }
+
+    public void testStripsMatchSinglePass()
+    {
+        int width = 97;
+        int height = 61;
+        int[] classes = new int[width * height];
+        Random rand = new Random(5);
+
+        for (int i = 0; i < classes.length; i++)
+            classes[i] = rand.nextInt(3);
+
+        Components whole = ComponentLabeller.label(classes, width, height, true, WrapMode.BOTH, null, height);
+        Components strips;
+        ForkJoinPool pool = new ForkJoinPool(3);
+
+        try
+        {
+            strips = ComponentLabeller.label(classes, width, height, true, WrapMode.BOTH, pool, 4);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        assertEquals(whole.getCount(), strips.getCount());
+        assertTrue(Arrays.equals(whole.getLabels(), strips.getLabels()));
+
+        // every pixel is joined to its matching neighbours, and the sizes add up
+        int total = 0;
+        for (int id = 1; id <= whole.getCount(); id++)
+            total += whole.getSize(id);
+
+        int background = 0;
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = classes[y * width + x];
+                if (value == 0)
+                {
+                    background++;
+                    continue;
+                }
+
+                int east = (x + 1) % width;
+                int south = (y + 1) % height;
+
+                if (classes[y * width + east] == value)
+                    assertEquals(whole.getLabel(x, y), whole.getLabel(east, y));
+                if (classes[south * width + east] == value)
+                    assertEquals(whole.getLabel(x, y), whole.getLabel(east, south));
+            }
+        }
+
+        assertEquals(classes.length - background, total);
+    }
+}
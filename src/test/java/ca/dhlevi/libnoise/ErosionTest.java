@@ -0,0 +1,435 @@
+package ca.dhlevi.libnoise;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ErosionTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public ErosionTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ErosionTest.class);
+    }
+
+    public void testThermalErosionMatchesLegacy() throws Exception
+    {
+        double[][] expected = heightmap(96, 48, 5);
+        double[][] actual = copy(expected);
+
+        legacyThermalErosion(expected, 0.01, 5);
+        Erosion.thermalErosion(actual, 0.01, 5);
+
+        assertIdentical(expected, actual);
+    }
+
+    public void testParallelThermalErosionIsDeterministic() throws Exception
+    {
+        double[][] source = heightmap(96, 50, 6);
+        double[][] single = copy(source);
+        double[][] many = copy(source);
+
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+
+        try
+        {
+            Erosion.thermalErosion(single, 0.01, 5, one, 4);
+            Erosion.thermalErosion(many, 0.01, 5, four, 4);
+        }
+        finally
+        {
+            one.shutdown();
+            four.shutdown();
+        }
+
+        assertIdentical(single, many);
+
+        // material only moves between pixels
+        assertEquals(sum(source), sum(many), 1e-6);
+    }
+
+    public void testHydraulicErosionMatchesLegacy() throws Exception
+    {
+        for (boolean reset : new boolean[] { true, false })
+        {
+            double[][] source = heightmap(80, 40, 9);
+            NoiseNormalizer.normalize(source, 0.3);
+
+            double[][] expected = copy(source);
+            double[][] actual = copy(source);
+
+            double[][] expectedWater = legacyHydraulicErosion(expected, 0.001, 0.01, 0.3, 4, reset, 60);
+            double[][] actualWater = Erosion.advancedHydraulicErosion(actual, 0.001, 0.01, 0.3, 4, reset, 60);
+
+            assertIdentical(expected, actual);
+            assertIdentical(expectedWater, actualWater);
+        }
+    }
+
+    // direct fields are worked on through windows of rows, tall enough here to take several
+    public void testFieldWindowsMatchArrays() throws Exception
+    {
+        double[][] expected = heightmap(60, 150, 8);
+        HeightField serial = HeightField.allocateDirect(62, 152);
+        HeightField banded = HeightField.allocateDirect(62, 152);
+        serial.copyFrom(expected);
+        banded.copyFrom(expected);
+
+        double[][] bandedExpected = copy(expected);
+        ForkJoinPool pool = new ForkJoinPool(3);
+
+        try
+        {
+            Erosion.thermalErosion(bandedExpected, 0.01, 4, pool, 5);
+            Erosion.thermalErosion(banded, 0.01, 4, pool, 5);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        legacyThermalErosion(expected, 0.01, 4);
+        Erosion.thermalErosion(serial, 0.01, 4);
+
+        assertIdentical(expected, serial.toArray());
+        assertIdentical(bandedExpected, banded.toArray());
+
+        double[][] expectedWater = new double[62][152];
+        Random rand = new Random(3);
+        for (int x = 0; x < 62; x++)
+        {
+            for (int y = 0; y < 152; y++)
+                expectedWater[x][y] = rand.nextDouble() * 0.05;
+        }
+
+        HeightField water = HeightField.allocateDirect(62, 152);
+        water.copyFrom(expectedWater);
+
+        legacyWaterDistribution(expected, expectedWater, 152, 62);
+        Erosion.waterDistribution(serial, water);
+
+        assertIdentical(expectedWater, water.toArray());
+    }
+
+    private static double[][] heightmap(int width, int height, int seed) throws Exception
+    {
+        return NoiseFactory.generateSpherical(DefaultModules.getSimpleNoise(seed), width, height, -90, 90, -180, 180, true, 1);
+    }
+
+    private static double[][] copy(double[][] data)
+    {
+        double[][] result = new double[data.length][];
+
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+
+    private static double sum(double[][] data)
+    {
+        double total = 0;
+
+        for (double[] column : data)
+        {
+            for (double v : column)
+                total += v;
+        }
+
+        return total;
+    }
+
+    private static void assertIdentical(double[][] expected, double[][] actual)
+    {
+        for (int x = 0; x < expected.length; x++)
+        {
+            for (int y = 0; y < expected[x].length; y++)
+                assertEquals("pixel " + x + "," + y, Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+    }
+
+    // the original boxed implementation
+    private static void legacyThermalErosion(double[][] data, double talusAngle, int iterations)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        for (int i = 0; i < iterations; i++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    // this pixel height value
+                    double heightValue = data[x][y];
+
+                    // neighbouring height values
+                    // if we're on an e/w edge, loop around the map. North and
+                    // south do not loop.
+
+                    double nw = y == 0 ? -1 : x == 0 ? data[width - 1][y - 1] : data[x - 1][y - 1];
+                    double n = y == 0 ? -1 : data[x][y - 1];
+                    double ne = y == 0 ? -1 : x == width - 1 ? data[0][y - 1] : data[x + 1][y - 1];
+                    double e = x == width - 1 ? data[0][y] : data[x + 1][y];
+                    double se = y == height - 1 ? -1 : x == width - 1 ? data[0][y + 1] : data[x + 1][y + 1];
+                    double s = y == height - 1 ? -1 : data[x][y + 1];
+                    double sw = y == height - 1 ? -1 : x == 0 ? data[width - 1][y + 1] : data[x - 1][y + 1];
+                    double w = x == 0 ? data[width - 1][y] : data[x - 1][y];
+
+                    List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
+
+                    flows.add(new Pair<Integer, Double>(1, nw));
+                    flows.add(new Pair<Integer, Double>(2, n));
+                    flows.add(new Pair<Integer, Double>(3, ne));
+                    flows.add(new Pair<Integer, Double>(4, w));
+                    flows.add(new Pair<Integer, Double>(5, e));
+                    flows.add(new Pair<Integer, Double>(6, sw));
+                    flows.add(new Pair<Integer, Double>(7, s));
+                    flows.add(new Pair<Integer, Double>(8, se));
+
+                    // order slopes by highest to lowest
+
+                    flows.sort(Comparator.comparing(Pair::getValue)); // ordered
+                                                                      // by
+                                                                      // value,
+                                                                      // lowest
+                    Collections.reverse(flows); // flip to highest
+
+                    for (Pair<Integer, Double> slope : flows)
+                    {
+                        if (slope.getValue() != -1 && heightValue > slope.getValue())
+                        {
+                            double difference = heightValue - slope.getValue();
+
+                            if (difference >= talusAngle)
+                            {
+                                heightValue = heightValue - (difference / 2);
+                                // apply the difference that moved from the
+                                // height to the correct neighbour
+                                if (slope.getKey() == 1)
+                                    data[x > 0 ? x - 1 : width - 1][y - 1] += difference / 2;
+                                else if (slope.getKey() == 2)
+                                    data[x][y - 1] += difference / 2;
+                                else if (slope.getKey() == 3)
+                                    data[x < width - 1 ? x + 1 : 0][y - 1] += difference / 2;
+                                else if (slope.getKey() == 4)
+                                    data[x > 0 ? x - 1 : width - 1][y] += difference / 2;
+                                else if (slope.getKey() == 5)
+                                    data[x < width - 1 ? x + 1 : 0][y] += difference / 2;
+                                else if (slope.getKey() == 6)
+                                    data[x > 0 ? x - 1 : width - 1][y + 1] += difference / 2;
+                                else if (slope.getKey() == 7)
+                                    data[x][y + 1] += difference / 2;
+                                else if (slope.getKey() == 8)
+                                    data[x < width - 1 ? x + 1 : 0][y + 1] += difference / 2;
+                            }
+                        }
+                    }
+
+                    // we're done, update the main pixel height data
+                    data[x][y] = heightValue;
+                }
+            }
+        }
+    }
+
+    // the original boxed hydraulic erosion, trimmed of its comments
+    private static double[][] legacyHydraulicErosion(double[][] data, double erosionAmount, double waterFloodAmount, double seaLevel, int iterations, boolean resetFloodAfterEachIteration, int maxPathLength)
+    {
+        int width = data.length;
+        int height = data[0].length;
+        double[][] waterBuildup = new double[width][height];
+
+        for (int i = 0; i < iterations; i++)
+        {
+            if (resetFloodAfterEachIteration)
+            {
+                waterBuildup = new double[width][height];
+            }
+            else if (i > 0)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    for (int x = 0; x < width; x++)
+                    {
+                        double val = waterBuildup[x][y];
+                        if (val > 0)
+                            waterBuildup[x][y] = val / 2.0;
+                        else if (val < 0)
+                            waterBuildup[x][y] = 0.0;
+                    }
+                }
+
+                legacyWaterDistribution(data, waterBuildup, height, width);
+            }
+
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    boolean processing = true;
+                    int currentX = x;
+                    int currentY = y;
+                    double dataHeight = data[x][y] + waterBuildup[x][y];
+                    double sediment = 0.0;
+                    int loopCount = 0;
+
+                    while (processing)
+                    {
+                        loopCount++;
+
+                        if (dataHeight > seaLevel)
+                        {
+                            double nw = currentY == 0 ? 99.0f : currentX == 0 ? data[width - 1][currentY - 1] + waterBuildup[width - 1][currentY - 1] : data[currentX - 1][currentY - 1] + waterBuildup[currentX - 1][currentY - 1];
+                            double n = currentY == 0 ? 99.0f : data[currentX][currentY - 1] + waterBuildup[currentX][currentY - 1];
+                            double ne = currentY == 0 ? 99.0f : currentX == width - 1 ? data[0][currentY - 1] + waterBuildup[0][currentY - 1] : data[currentX + 1][currentY - 1] + waterBuildup[currentX + 1][currentY - 1];
+                            double e = currentX == width - 1 ? 99.0f : data[currentX + 1][currentY] + waterBuildup[currentX + 1][currentY];
+                            double se = currentY == height - 1 ? 99.0f : currentX == width - 1 ? data[0][currentY + 1] + waterBuildup[0][currentY + 1] : data[currentX + 1][currentY + 1] + waterBuildup[currentX + 1][currentY + 1];
+                            double s = currentY == height - 1 ? 99.0f : data[currentX][currentY + 1] + waterBuildup[currentX][currentY + 1];
+                            double sw = currentY == height - 1 ? 99.0f : currentX == 0 ? data[width - 1][currentY + 1] + waterBuildup[width - 1][currentY + 1] : data[currentX - 1][currentY + 1] + waterBuildup[currentX - 1][currentY + 1];
+                            double w = currentX == 0 ? 99.0f : data[currentX - 1][currentY] + waterBuildup[currentX - 1][currentY];
+
+                            List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
+                            flows.add(new Pair<Integer, Double>(1, nw));
+                            flows.add(new Pair<Integer, Double>(2, n));
+                            flows.add(new Pair<Integer, Double>(3, ne));
+                            flows.add(new Pair<Integer, Double>(4, w));
+                            flows.add(new Pair<Integer, Double>(5, e));
+                            flows.add(new Pair<Integer, Double>(6, sw));
+                            flows.add(new Pair<Integer, Double>(7, s));
+                            flows.add(new Pair<Integer, Double>(8, se));
+                            flows.sort(Comparator.comparing(Pair::getValue));
+
+                            List<Pair<Integer, Double>> finalFlows = new ArrayList<Pair<Integer, Double>>();
+                            for (Pair<Integer, Double> pair : flows)
+                            {
+                                if (pair.getValue() != 99.0)
+                                    finalFlows.add(pair);
+                            }
+
+                            if (finalFlows.size() > 0)
+                            {
+                                Pair<Integer, Double> lowestNeighbour = finalFlows.get(0);
+
+                                if (lowestNeighbour.getValue() <= dataHeight)
+                                {
+                                    data[currentX][currentY] = data[currentX][currentY] - erosionAmount;
+                                    sediment += erosionAmount;
+
+                                    int key = lowestNeighbour.getKey();
+                                    if (key == 1 || key == 4 || key == 6)
+                                        currentX = currentX > 0 ? currentX - 1 : width - 1;
+                                    else if (key == 3 || key == 5 || key == 8)
+                                        currentX = currentX < width - 1 ? currentX + 1 : 0;
+
+                                    if (key <= 3)
+                                        currentY = currentY - 1;
+                                    else if (key >= 6)
+                                        currentY = currentY + 1;
+
+                                    dataHeight = data[currentX][currentY];
+                                }
+                                else
+                                {
+                                    data[currentX][currentY] = data[currentX][currentY] + sediment;
+                                    waterBuildup[currentX][currentY] = waterBuildup[currentX][currentY] + waterFloodAmount;
+                                    processing = false;
+                                }
+                            }
+                            else
+                            {
+                                processing = false;
+                            }
+                        }
+                        else
+                        {
+                            data[currentX][currentY] = data[currentX][currentY] + (sediment / 2);
+                            processing = false;
+                        }
+
+                        if (loopCount > maxPathLength)
+                        {
+                            data[currentX][currentY] = data[currentX][currentY] + sediment;
+                            waterBuildup[currentX][currentY] = waterBuildup[currentX][currentY] + waterFloodAmount;
+                            processing = false;
+                        }
+                    }
+                }
+            }
+        }
+
+        legacyWaterDistribution(data, waterBuildup, height, width);
+
+        return waterBuildup;
+    }
+
+    private static void legacyWaterDistribution(double[][] data, double[][] water, int height, int width)
+    {
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                double val = water[x][y];
+
+                double n = y == 0 ? 99.0f : data[x][y - 1] + water[x][y - 1];
+                double e = x == width - 1 ? 99.0f : data[x + 1][y] + water[x + 1][y];
+                double s = y == height - 1 ? 99.0f : data[x][y + 1] + water[x][y + 1];
+                double w = x == 0 ? 99.0f : data[x - 1][y] + water[x - 1][y];
+
+                List<Pair<Integer, Double>> flows = new ArrayList<Pair<Integer, Double>>();
+                flows.add(new Pair<Integer, Double>(1, n));
+                flows.add(new Pair<Integer, Double>(2, e));
+                flows.add(new Pair<Integer, Double>(3, s));
+                flows.add(new Pair<Integer, Double>(4, w));
+                flows.sort(Comparator.comparing(Pair::getValue));
+
+                List<Pair<Integer, Double>> finalFlows = new ArrayList<Pair<Integer, Double>>();
+                for (Pair<Integer, Double> pair : flows)
+                {
+                    if (pair.getValue() != 99.0 && pair.getValue() < (val + data[x][y]))
+                        finalFlows.add(pair);
+                }
+
+                if (finalFlows.size() > 0)
+                {
+                    double diff = (val + data[x][y]) - finalFlows.get(0).getValue();
+                    double thisWater = water[x][y] - (diff / 2.0);
+
+                    water[x][y] = thisWater > 0 ? thisWater : 0.0;
+
+                    int key = finalFlows.get(0).getKey();
+                    if (key == 1)
+                        water[x][y - 1] = water[x][y - 1] + (diff / 2.0);
+                    else if (key == 2)
+                        water[x + 1][y] = water[x + 1][y] + (diff / 2.0);
+                    else if (key == 3)
+                        water[x][y + 1] = water[x][y + 1] + (diff / 2.0);
+                    else
+                        water[x - 1][y] = water[x - 1][y] + (diff / 2.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.Module.QualityMode;
+import ca.dhlevi.libnoise.generator.Billow;
+import ca.dhlevi.libnoise.generator.Perlin;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class NoiseFactoryTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public NoiseFactoryTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(NoiseFactoryTest.class);
+    }
+
+    public void testParallelSphericalMatchesSerial() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(1234);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try
+        {
+            double[][] serial = NoiseFactory.generateSpherical(module, 150, 75, -90, 90, -180, 180, true, 1);
+            double[][] parallel = NoiseFactory.generateSpherical(module, 150, 75, -90, 90, -180, 180, true, 1, new RasterSampler(pool, 16));
+            double[][] oddTiles = NoiseFactory.generateSpherical(module, 150, 75, -90, 90, -180, 180, true, 1, new RasterSampler(ForkJoinPool.commonPool(), 7));
+
+            assertIdentical(serial, parallel);
+            assertIdentical(serial, oddTiles);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testParallelCylindricalAndPlanarMatchSerial() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(42);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        RasterSampler sampler = new RasterSampler(pool, 10);
+
+        // a rotated module can't tile, so the seamless planar map takes the four sample blend
+        Module rotated = new Perlin().rotate(0, 30, 0);
+        assertFalse(NoiseFactory.isTileable(rotated, 4, 2));
+
+        try
+        {
+            assertIdentical(NoiseFactory.generateCylindrical(module, 60, 40, -180, 180, -1, 1, false, 1), NoiseFactory.generateCylindrical(module, 60, 40, -180, 180, -1, 1, false, 1, sampler));
+            assertIdentical(NoiseFactory.generatePlanar(rotated, 60, 40, 0, 4, 0, 2, true, true, 1), NoiseFactory.generatePlanar(rotated, 60, 40, 0, 4, 0, 2, true, true, 1, sampler));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testBatchMatchesPointEvaluation() throws Exception
+    {
+        Module[] modules = { DefaultModules.getSimpleNoise(7), DefaultModules.getDetailedNoise(7), DefaultModules.getContinentNoise(7) };
+
+        for (Module module : modules)
+        {
+            double[][] batched = NoiseFactory.generateSpherical(module, 40, 20, -90, 90, -180, 180, false, 1);
+
+            double xd = 360.0 / 39.0;
+            double yd = 180.0 / 19.0;
+            double lon = -180;
+
+            for (int x = 0; x < batched.length; x++)
+            {
+                double lat = -90;
+
+                for (int y = 0; y < batched[x].length; y++)
+                {
+                    double expected = NoiseFactory.generateSphericalPoint(module, lat, lon, 1);
+                    assertEquals("pixel " + x + "," + y, Double.doubleToLongBits(expected), Double.doubleToLongBits(batched[x][y]));
+                    lat += yd;
+                }
+
+                lon += xd;
+            }
+        }
+    }
+
+    public void testTileableModuleRepeats() throws Exception
+    {
+        Module module = new Perlin(1.3, 2.0, 0.5, 4, 3, QualityMode.Medium).scale(0.75, 1, 0.75).turbulence(2, 0.2, 1, 5).add(new Billow(0.9, 2.0, 0.5, 3, 8, QualityMode.Medium));
+
+        assertFalse(NoiseFactory.isTileable(module, 4, 2));
+        NoiseFactory.makeTileable(module, 4, 2);
+        assertTrue(NoiseFactory.isTileable(module, 4, 2));
+
+        double[][] data = NoiseFactory.generatePlanar(module, 40, 20, 0, 4, 0, 2, true, false, 1);
+
+        for (int y = 0; y < 22; y++)
+            assertEquals("row " + y, data[0][y], data[40][y], 1e-9);
+        for (int x = 0; x < 42; x++)
+            assertEquals("column " + x, data[x][1], data[x][21], 1e-9);
+    }
+
+    public void testRotationCannotTile()
+    {
+        try
+        {
+            NoiseFactory.makeTileable(new Perlin().rotate(0, 30, 0), 4, 4);
+            fail("A rotated module can't tile");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    private static void assertIdentical(double[][] expected, double[][] actual)
+    {
+        assertEquals(expected.length, actual.length);
+
+        for (int x = 0; x < expected.length; x++)
+        {
+            assertEquals(expected[x].length, actual[x].length);
+
+            for (int y = 0; y < expected[x].length; y++)
+                assertEquals("pixel " + x + "," + y, Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+    }
+}
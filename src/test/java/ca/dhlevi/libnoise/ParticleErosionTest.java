@@ -0,0 +1,92 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ParticleErosionTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public ParticleErosionTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ParticleErosionTest.class);
+    }
+
+    public void testResultDoesNotDependOnThreads() throws Exception
+    {
+        double[][] source = NoiseFactory.generateSpherical(DefaultModules.getSimpleNoise(3), 120, 60, -90, 90, -180, 180, true, 1);
+
+        ParticleErosion erosion = new ParticleErosion();
+        erosion.setBatchSize(500);
+
+        double[][] serial = copy(source);
+        double[][] single = copy(source);
+        double[][] many = copy(source);
+
+        erosion.erode(serial, 3000, 17);
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+
+        try
+        {
+            erosion.erode(single, 3000, 17, one);
+            erosion.erode(many, 3000, 17, four);
+        }
+        finally
+        {
+            one.shutdown();
+            four.shutdown();
+        }
+
+        boolean changed = false;
+
+        for (int x = 0; x < source.length; x++)
+        {
+            for (int y = 0; y < source[x].length; y++)
+            {
+                assertEquals(Double.doubleToLongBits(serial[x][y]), Double.doubleToLongBits(single[x][y]));
+                assertEquals(Double.doubleToLongBits(serial[x][y]), Double.doubleToLongBits(many[x][y]));
+                changed |= serial[x][y] != source[x][y];
+            }
+        }
+
+        assertTrue(changed);
+    }
+
+    public void testRejectsSingleRow()
+    {
+        try
+        {
+            new ParticleErosion().erode(new double[20][1], 10, 1);
+            fail("A single row heightmap can't be eroded");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    private static double[][] copy(double[][] data)
+    {
+        double[][] result = new double[data.length][];
+
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.field.WrapMode;
+import ca.dhlevi.libnoise.spatial.Envelope;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RegionGeneratorTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public RegionGeneratorTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RegionGeneratorTest.class);
+    }
+
+    public void testRegionsCoverMap() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(7), 254, 126, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(noise, 0.4);
+        int[][] basins = NoiseNormalizer.detectBasins(noise, 128, 0.4, true, true, 7);
+        Envelope bbox = new Envelope(-180, -90, 180, 90);
+        int[][] rivers = RiverGenerator.createRiversAStar(noise, basins, null, 0.4, 50, false, bbox, 1, 7);
+
+        int[][] regions = RegionGenerator.generateRegions(noise, basins, rivers, 0.4, 30, 30, bbox, 7);
+
+        int[][] field = RegionGenerator.generateRegions(HeightField.wrap(noise, WrapMode.HORIZONTAL), IntField.wrap(basins, WrapMode.HORIZONTAL), IntField.wrap(rivers, WrapMode.HORIZONTAL), 0.4, 30, 30, bbox, 7).toArray();
+
+        for (int x = 0; x < regions.length; x++)
+        {
+            for (int y = 0; y < regions[0].length; y++)
+            {
+                assertTrue(regions[x][y] > 0);
+                assertEquals(regions[x][y], field[x][y]);
+            }
+        }
+    }
+
+    public void testGrowthIndependentOfThreads() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(3), 254, 126, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(noise, 0.4);
+
+        int[][] expected = seeds(noise.length, noise[0].length);
+        RegionGrowth serial = new RegionGrowth(expected, noise, null, 0.4, 5, null);
+        serial.grow(serial.frontier(), 0.025, false, true);
+        serial.grow(serial.frontier(), 1.0, false, false);
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            int[][] regions = seeds(noise.length, noise[0].length);
+            RegionGrowth parallel = new RegionGrowth(regions, noise, null, 0.4, 5, pool, 8);
+            parallel.grow(parallel.frontier(), 0.025, false, true);
+            parallel.grow(parallel.frontier(), 1.0, false, false);
+
+            int grown = 0;
+            for (int x = 0; x < expected.length; x++)
+            {
+                for (int y = 0; y < expected[0].length; y++)
+                {
+                    assertEquals(expected[x][y], regions[x][y]);
+                    if (expected[x][y] != 0)
+                        grown++;
+                }
+            }
+            assertTrue(grown > 100);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // a seed every 16 pixels
+    private static int[][] seeds(int width, int height)
+    {
+        int[][] regions = new int[width][height];
+        int region = 0;
+
+        for (int x = 8; x < width; x += 16)
+        {
+            for (int y = 8; y < height; y += 16)
+                regions[x][y] = ++region;
+        }
+
+        return regions;
+    }
+}
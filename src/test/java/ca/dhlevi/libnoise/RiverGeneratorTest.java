@@ -0,0 +1,138 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.spatial.Envelope;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RiverGeneratorTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public RiverGeneratorTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RiverGeneratorTest.class);
+    }
+
+    public void testParallelRiversIndependentOfThreads() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(7), 254, 126, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(noise, 0.4);
+        int[][] basins = NoiseNormalizer.detectBasins(noise, 128, 0.4, true, true, 7);
+        Envelope bbox = new Envelope(-180, -90, 180, 90);
+
+        for (boolean allowTribs : new boolean[] { false, true })
+        {
+            double[][] expectedGrid = copy(noise);
+            int[][] expected = RiverGenerator.createRiversAStar(expectedGrid, basins, null, 0.4, 150, allowTribs, bbox, 1, 11, null);
+
+            int riverPixels = 0;
+            for (int[] column : expected)
+            {
+                for (int value : column)
+                    riverPixels += value;
+            }
+            assertTrue(riverPixels > 0);
+
+            for (int threads = 1; threads <= 3; threads += 2)
+            {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try
+                {
+                    double[][] grid = copy(noise);
+                    int[][] rivers = RiverGenerator.createRiversAStar(grid, basins, null, 0.4, 150, allowTribs, bbox, 1, 11, pool);
+
+                    for (int x = 0; x < expected.length; x++)
+                    {
+                        for (int y = 0; y < expected[0].length; y++)
+                        {
+                            assertEquals(expected[x][y], rivers[x][y]);
+                            assertEquals(Double.doubleToLongBits(expectedGrid[x][y]), Double.doubleToLongBits(grid[x][y]));
+                        }
+                    }
+                }
+                finally
+                {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    public void testFieldsMatchArrays() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(8), 126, 62, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(noise, 0.4);
+        int[][] basins = NoiseNormalizer.detectBasins(noise, 128, 0.4, true, true, 8);
+        Envelope bbox = new Envelope(-180, -90, 180, 90);
+
+        double[][] expectedGrid = copy(noise);
+        int[][] existing = RiverGenerator.createRiversAStar(expectedGrid, basins, null, 0.4, 20, false, bbox, 1, 3);
+        int[][] expected = RiverGenerator.createRiversAStar(expectedGrid, basins, copy(existing), 0.4, 20, true, bbox, 2, 4);
+
+        int tributaries = 0;
+        for (int[] column : expected)
+        {
+            for (int value : column)
+                tributaries += value == 2 ? 1 : 0;
+        }
+        assertTrue(tributaries > 0);
+
+        for (boolean direct : new boolean[] { false, true })
+        {
+            int width = noise.length;
+            int height = noise[0].length;
+
+            HeightField grid = direct ? HeightField.allocateDirect(width, height) : HeightField.allocate(width, height);
+            IntField basinField = direct ? IntField.allocateDirect(width, height) : IntField.allocate(width, height);
+            grid.copyFrom(noise);
+            basinField.copyFrom(basins);
+
+            IntField rivers = RiverGenerator.createRiversAStar(grid, basinField, null, 0.4, 20, false, bbox, 1, 3);
+            assertSame(rivers, RiverGenerator.createRiversAStar(grid, basinField, rivers, 0.4, 20, true, bbox, 2, 4));
+
+            for (int x = 0; x < width; x++)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    assertEquals(expected[x][y], rivers.get(x, y));
+                    assertEquals(Double.doubleToLongBits(expectedGrid[x][y]), Double.doubleToLongBits(grid.get(x, y)));
+                }
+            }
+        }
+    }
+
+    private static double[][] copy(double[][] data)
+    {
+        double[][] result = new double[data.length][];
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+
+    private static int[][] copy(int[][] data)
+    {
+        int[][] result = new int[data.length][];
+        for (int x = 0; x < data.length; x++)
+            result[x] = data[x].clone();
+
+        return result;
+    }
+}
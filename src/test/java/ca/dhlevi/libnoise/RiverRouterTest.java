@@ -0,0 +1,86 @@
+package ca.dhlevi.libnoise;
+
+import ca.dhlevi.libnoise.spatial.Envelope;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RiverRouterTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public RiverRouterTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RiverRouterTest.class);
+    }
+
+    public void testRoutesThroughGapInRidge()
+    {
+        int width = 64;
+        int height = 32;
+        double[] heights = new double[width * height];
+
+        // sea along the first columns, land rising gently to the east, and a high ridge at
+        // x = 20 with a gap at the southern end. A second ridge at x = 60 stops the river
+        // wrapping around to the sea the other way
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                double value = x < 4 ? 0.2 : 0.5 + x * 0.001;
+                if ((x == 20 && y < 28) || x == 60)
+                    value = 50;
+
+                heights[y * width + x] = value;
+            }
+        }
+
+        int[] rivers = new int[width * height];
+        RiverRouter router = new RiverRouter(heights, null, rivers, width, height, 0.4, new Envelope(-10, -5, 10, 5));
+
+        int start = 4 * width + 40;
+        int[] path = router.route(start, 4 * width + 3, false);
+
+        assertNotNull(path);
+        assertEquals(start, path[0]);
+        assertTrue(router.isWater(path[path.length - 1]));
+
+        boolean throughGap = false;
+        for (int i = 0; i < path.length; i++)
+        {
+            int x = path[i] % width;
+            int y = path[i] / width;
+
+            if (x == 20)
+                throughGap |= y >= 28;
+
+            if (i > 0)
+            {
+                int dx = Math.abs(x - path[i - 1] % width);
+                int dy = Math.abs(y - path[i - 1] / width);
+                assertTrue(dx <= 1 && dy <= 1);
+            }
+        }
+        assertTrue(throughGap);
+
+        // a second river keeps clear of the first
+        router.markRiver(path, 1);
+        int[] second = router.route(2 * width + 40, 2 * width + 3, false);
+
+        assertNotNull(second);
+        for (int cell : second)
+            assertFalse(router.isAdjacentToRiver(cell) && cell != second[0]);
+    }
+}
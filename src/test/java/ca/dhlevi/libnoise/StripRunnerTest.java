@@ -0,0 +1,73 @@
+package ca.dhlevi.libnoise;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class StripRunnerTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public StripRunnerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(StripRunnerTest.class);
+    }
+
+    public void testEveryItemRunsOnceInAlignedStrips()
+    {
+        ForkJoinPool pool = new ForkJoinPool(3);
+
+        try
+        {
+            for (int count : new int[] { 0, 1, 7, 64, 65, 200 })
+            {
+                for (ForkJoinPool runner : new ForkJoinPool[] { null, pool })
+                {
+                    AtomicIntegerArray runs = new AtomicIntegerArray(count);
+
+                    StripRunner.run(count, 7, runner, (from, to) -> {
+                        assertEquals(0, from % 7);
+                        assertEquals(Math.min(count, from + 7), to);
+
+                        for (int i = from; i < to; i++)
+                            runs.incrementAndGet(i);
+                    });
+
+                    for (int i = 0; i < count; i++)
+                        assertEquals(1, runs.get(i));
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testRejectsEmptyStrips()
+    {
+        try
+        {
+            StripRunner.run(10, 0, null, (from, to) -> fail());
+            fail("A strip size of 0 can't cover anything");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+}
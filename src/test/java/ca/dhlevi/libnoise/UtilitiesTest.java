@@ -0,0 +1,142 @@
+package ca.dhlevi.libnoise;
+
+import java.util.Random;
+
+import ca.dhlevi.libnoise.Module.QualityMode;
+import ca.dhlevi.libnoise.generator.Perlin;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class UtilitiesTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public UtilitiesTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(UtilitiesTest.class);
+    }
+
+    public void testLowQualityMatchesReferenceExactly()
+    {
+        Random random = new Random(3);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            double x = random.nextGaussian() * 50;
+            double y = random.nextGaussian() * 50;
+            double z = random.nextGaussian() * 50;
+            long seed = random.nextInt();
+
+            assertEquals(Double.doubleToLongBits(reference(x, y, z, seed, QualityMode.Low)), Double.doubleToLongBits(Utilities.gradientCoherentNoise3D(x, y, z, seed, QualityMode.Low)));
+        }
+    }
+
+    public void testSmoothQualitiesMatchReferenceWithinEpsilon()
+    {
+        Random random = new Random(5);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            double x = random.nextGaussian() * 50;
+            double y = random.nextGaussian() * 50;
+            double z = random.nextGaussian() * 50;
+            long seed = random.nextInt();
+
+            assertEquals(reference(x, y, z, seed, QualityMode.Medium), Utilities.gradientCoherentNoise3D(x, y, z, seed, QualityMode.Medium), Utilities.NOISE_EPSILON);
+            assertEquals(reference(x, y, z, seed, QualityMode.High), Utilities.gradientCoherentNoise3D(x, y, z, seed, QualityMode.High), Utilities.NOISE_EPSILON);
+        }
+    }
+
+    public void testPerlinMatchesReferenceWithinEpsilon()
+    {
+        Perlin perlin = new Perlin();
+        Random random = new Random(11);
+
+        for (int i = 0; i < 2000; i++)
+        {
+            double x = random.nextDouble() * 2 - 1;
+            double y = random.nextDouble() * 2 - 1;
+            double z = random.nextDouble() * 2 - 1;
+
+            // same octave loop as Perlin.getValue, on top of the reference noise
+            double value = 0.0;
+            double cp = 1.0;
+            double px = x * perlin.getFrequency();
+            double py = y * perlin.getFrequency();
+            double pz = z * perlin.getFrequency();
+
+            for (int o = 0; o < perlin.getOctave() + 3; o++)
+            {
+                long seed = (perlin.getSeed() + o) & 0xffffffff;
+                value += reference(Utilities.makeInt32Range(px), Utilities.makeInt32Range(py), Utilities.makeInt32Range(pz), seed, perlin.getQuality()) * cp;
+
+                px *= perlin.getLacunarity();
+                py *= perlin.getLacunarity();
+                pz *= perlin.getLacunarity();
+                cp *= perlin.getPersistence();
+            }
+
+            assertEquals(value, perlin.getValue(x, y, z, 3), Utilities.NOISE_EPSILON);
+        }
+    }
+
+    // the original implementation, Math.pow fades on top of the per corner gradientNoise3D
+    private static double reference(double x, double y, double z, long seed, QualityMode quality)
+    {
+        int x0 = x > 0.0 ? (int) x : (int) x - 1;
+        int x1 = x0 + 1;
+        int y0 = y > 0.0 ? (int) y : (int) y - 1;
+        int y1 = y0 + 1;
+        int z0 = z > 0.0 ? (int) z : (int) z - 1;
+        int z1 = z0 + 1;
+
+        double xs = x - x0;
+        double ys = y - y0;
+        double zs = z - z0;
+
+        if (quality == QualityMode.Medium)
+        {
+            xs = Math.pow(xs, 2.0) * (3.0 - 2.0 * xs);
+            ys = Math.pow(ys, 2.0) * (3.0 - 2.0 * ys);
+            zs = Math.pow(zs, 2.0) * (3.0 - 2.0 * zs);
+        }
+        else if (quality == QualityMode.High)
+        {
+            xs = quintic(xs);
+            ys = quintic(ys);
+            zs = quintic(zs);
+        }
+
+        double ix0 = Utilities.interpolateLinear(Utilities.gradientNoise3D(x, y, z, x0, y0, z0, seed), Utilities.gradientNoise3D(x, y, z, x1, y0, z0, seed), xs);
+        double ix1 = Utilities.interpolateLinear(Utilities.gradientNoise3D(x, y, z, x0, y1, z0, seed), Utilities.gradientNoise3D(x, y, z, x1, y1, z0, seed), xs);
+        double iy0 = Utilities.interpolateLinear(ix0, ix1, ys);
+
+        ix0 = Utilities.interpolateLinear(Utilities.gradientNoise3D(x, y, z, x0, y0, z1, seed), Utilities.gradientNoise3D(x, y, z, x1, y0, z1, seed), xs);
+        ix1 = Utilities.interpolateLinear(Utilities.gradientNoise3D(x, y, z, x0, y1, z1, seed), Utilities.gradientNoise3D(x, y, z, x1, y1, z1, seed), xs);
+        double iy1 = Utilities.interpolateLinear(ix0, ix1, ys);
+
+        return Utilities.interpolateLinear(iy0, iy1, zs);
+    }
+
+    private static double quintic(double value)
+    {
+        double a3 = Math.pow(value, 3.0);
+        double a4 = a3 * value;
+        double a5 = a4 * value;
+
+        return (6.0 * a5) - (15.0 * a4) + (10.0 * a3);
+    }
+}
@@ -0,0 +1,94 @@
+package ca.dhlevi.libnoise.compiler;
+
+import java.util.Random;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.generator.Billow;
+import ca.dhlevi.libnoise.generator.Const;
+import ca.dhlevi.libnoise.generator.Perlin;
+import ca.dhlevi.libnoise.generator.RidgedMultifractal;
+import ca.dhlevi.libnoise.operator.Displace;
+import ca.dhlevi.libnoise.operator.Select;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ModuleCompilerTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public ModuleCompilerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ModuleCompilerTest.class);
+    }
+
+    public void testDefaultModulesCompileExactly()
+    {
+        Module[] modules = { DefaultModules.getSimpleNoise(3), DefaultModules.getDetailedNoise(3), DefaultModules.getContinentNoise(3) };
+
+        for (Module module : modules)
+            assertMatches(module, ModuleCompiler.compile(module, false), 0.0);
+    }
+
+    public void testTransformsAndConstantsCompile()
+    {
+        Perlin perlin = new Perlin();
+        RidgedMultifractal ridged = new RidgedMultifractal();
+
+        // constant chain, stacked transforms, displacement and a select on a shared controller
+        Module offset = new Const(0.25).scaleBias(0.5, 0.125).invert().exponent(2);
+        Module warped = new Displace(perlin.scale(2, 3, 4).translate(0.5, 0.25, 0.125).rotate(10, 20, 30), ridged, new Const(0.1), perlin);
+        Module graph = new Select(warped.add(offset), new Billow().scaleBias(0.5, 0.1), perlin, -0.25, 0.25, 0.125).clamp(0.75, -0.75);
+
+        assertMatches(graph, ModuleCompiler.compile(graph, false), 0.0);
+        assertMatches(graph, ModuleCompiler.compile(graph, true), 1e-9);
+    }
+
+    private static void assertMatches(Module expected, Module compiled, double epsilon)
+    {
+        Random random = new Random(9);
+        int count = 700;
+
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        double[] zs = new double[count];
+        double[] out = new double[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            xs[i] = random.nextDouble() * 2 - 1;
+            ys[i] = random.nextDouble() * 2 - 1;
+            zs[i] = random.nextDouble() * 2 - 1;
+        }
+
+        compiled.getValues(xs, ys, zs, out, count, 1);
+
+        for (int i = 0; i < count; i++)
+        {
+            double value = expected.getValue(xs[i], ys[i], zs[i], 1);
+
+            if (epsilon == 0.0)
+            {
+                assertEquals("sample " + i, Double.doubleToLongBits(value), Double.doubleToLongBits(out[i]));
+                assertEquals("point " + i, Double.doubleToLongBits(value), Double.doubleToLongBits(compiled.getValue(xs[i], ys[i], zs[i], 1)));
+            }
+            else
+            {
+                assertEquals("sample " + i, value, out[i], epsilon);
+            }
+        }
+    }
+}
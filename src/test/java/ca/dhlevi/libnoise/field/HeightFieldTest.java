@@ -0,0 +1,167 @@
+package ca.dhlevi.libnoise.field;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Erosion;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.NoiseNormalizer;
+import ca.dhlevi.libnoise.ParticleErosion;
+import ca.dhlevi.libnoise.RasterSampler;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class HeightFieldTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public HeightFieldTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(HeightFieldTest.class);
+    }
+
+    public void testArrayRoundTripAndWrapModes()
+    {
+        double[][] data = new double[5][3];
+        for (int x = 0; x < 5; x++)
+        {
+            for (int y = 0; y < 3; y++)
+                data[x][y] = x * 10 + y;
+        }
+
+        HeightField heap = HeightField.wrap(data, WrapMode.HORIZONTAL);
+        HeightField direct = HeightField.allocateDirect(5, 3, WrapMode.BOTH);
+        direct.copyFrom(data);
+
+        assertEquals(21.0, heap.get(2, 1));
+        assertEquals(heap.index(2, 1), 1 * 5 + 2);
+        assertEquals(21.0, heap.array()[7]);
+        assertIdentical(data, heap.toArray());
+        assertIdentical(data, direct.toArray());
+
+        // east/west wraps, north/south clamps unless wrapping both ways
+        assertEquals(40.0, heap.sample(-1, 0));
+        assertEquals(2.0, heap.sample(5, 7));
+        assertEquals(42.0, direct.sample(-1, -1));
+        assertEquals(0.0, HeightField.wrap(data).sample(-3, -3));
+    }
+
+    public void testFieldPipelineMatchesArrays() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(21);
+
+        double[][] expected = NoiseFactory.generateSpherical(module, 64, 32, -90, 90, -180, 180, true, 1);
+
+        HeightField heap = HeightField.allocate(66, 34, WrapMode.HORIZONTAL);
+        HeightField direct = HeightField.allocateDirect(66, 34, WrapMode.HORIZONTAL);
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try
+        {
+            NoiseFactory.generateSpherical(module, heap, -90, 90, -180, 180, true, 1, new RasterSampler(pool, 16));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        NoiseFactory.generateSpherical(module, direct, -90, 90, -180, 180, true, 1, RasterSampler.serial());
+
+        assertIdentical(expected, heap.toArray());
+        assertIdentical(expected, direct.toArray());
+
+        Erosion.thermalErosion(expected, 0.01, 3, ForkJoinPool.commonPool(), 4);
+        Erosion.thermalErosion(heap, 0.01, 3, ForkJoinPool.commonPool(), 4);
+        Erosion.thermalErosion(direct, 0.01, 3, ForkJoinPool.commonPool(), 4);
+
+        double[][] expectedWater = Erosion.advancedHydraulicErosion(expected, 0.001, 0.01, 0.4, 3, false, 50);
+        HeightField heapWater = Erosion.advancedHydraulicErosion(heap, 0.001, 0.01, 0.4, 3, false, 50);
+        HeightField directWater = Erosion.advancedHydraulicErosion(direct, 0.001, 0.01, 0.4, 3, false, 50);
+
+        ParticleErosion particles = new ParticleErosion();
+        particles.erode(expected, 500, 3);
+        particles.erode(heap, 500, 3);
+        particles.erode(direct, 500, 3, ForkJoinPool.commonPool());
+
+        NoiseNormalizer.normalize(expected, 0.4);
+        NoiseNormalizer.normalize(heap, 0.4);
+        NoiseNormalizer.normalize(direct, 0.4);
+
+        assertIdentical(expected, heap.toArray());
+        assertIdentical(expected, direct.toArray());
+        assertIdentical(expectedWater, heapWater.toArray());
+        assertIdentical(expectedWater, directWater.toArray());
+    }
+
+    // the field is fixed a row at a time and the arrays a column at a time, on a speckled map
+    // where fixes run into each other both give the same heights
+    public void testNormalizeRowsMatchColumns() throws Exception
+    {
+        double[][] expected = new double[40][30];
+        Random rand = new Random(4);
+
+        for (int x = 0; x < 40; x++)
+        {
+            for (int y = 0; y < 30; y++)
+                expected[x][y] = 0.3 + rand.nextDouble() * 0.2;
+        }
+
+        HeightField direct = HeightField.allocateDirect(40, 30);
+        direct.copyFrom(expected);
+
+        NoiseNormalizer.normalize(expected, 0.4);
+        NoiseNormalizer.normalize(direct, 0.4);
+
+        assertIdentical(expected, direct.toArray());
+    }
+
+    public void testHeapLimit()
+    {
+        HeapLimit.check("Test", 1024, 1024, 8, 8L << 20);
+
+        try
+        {
+            HeapLimit.check("Test", 1024, 1025, 8, 8L << 20);
+            fail("8 MB and a row don't fit in 8 MB");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().startsWith("Test works on the whole grid"));
+        }
+
+        // the real heap can't hold a 2^20 x 2^20 grid
+        try
+        {
+            HeapLimit.check("Test", 1 << 20, 1 << 20, 8);
+            fail("8 TB fit on the heap");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    private static void assertIdentical(double[][] expected, double[][] actual)
+    {
+        assertEquals(expected.length, actual.length);
+
+        for (int x = 0; x < expected.length; x++)
+        {
+            for (int y = 0; y < expected[x].length; y++)
+                assertEquals("pixel " + x + "," + y, Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+    }
+}
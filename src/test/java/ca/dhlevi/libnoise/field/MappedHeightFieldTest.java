@@ -0,0 +1,130 @@
+package ca.dhlevi.libnoise.field;
+
+import java.io.File;
+import java.io.IOException;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.NoiseNormalizer;
+import ca.dhlevi.libnoise.RasterSampler;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class MappedHeightFieldTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public MappedHeightFieldTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(MappedHeightFieldTest.class);
+    }
+
+    public void testGenerateIntoChunkedMapping() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(5);
+        double[][] expected = NoiseFactory.generateSpherical(module, 62, 30, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(expected, 0.4);
+
+        File file = File.createTempFile("heights", ".bin");
+        file.deleteOnExit();
+
+        // 7 rows of 64 doubles per mapping, so the 32 rows span 5 chunks
+        try (MappedHeightField field = new MappedHeightField(file, 64, 32, WrapMode.HORIZONTAL, false, 7 * 64 * Double.BYTES))
+        {
+            NoiseFactory.generateSpherical(module, field, -90, 90, -180, 180, true, 1, RasterSampler.parallel());
+            NoiseNormalizer.normalize(field, 0.4);
+
+            assertIdentical(expected, field.toArray());
+        }
+
+        // reopening the file gives back what was written
+        try (MappedHeightField field = new MappedHeightField(file, 64, 32, WrapMode.HORIZONTAL, false, 7 * 64 * Double.BYTES))
+        {
+            assertIdentical(expected, field.toArray());
+        }
+    }
+
+    public void testFloatPrecision() throws Exception
+    {
+        File file = File.createTempFile("heights", ".bin");
+        file.deleteOnExit();
+
+        try (MappedHeightField field = new MappedHeightField(file, 10, 9, WrapMode.NONE, true, 4 * 10 * Float.BYTES))
+        {
+            assertEquals(MappedHeightField.HEADER_BYTES + 10 * 9 * Float.BYTES, file.length());
+
+            for (int i = 0; i < field.size(); i++)
+                field.set(i, i / 3.0);
+
+            for (int i = 0; i < field.size(); i++)
+                assertEquals((double) (float) (i / 3.0), field.get(i));
+        }
+
+        // the file only reopens with the layout it was written with
+        assertReopenFails(file, 10, 9, false);
+        assertReopenFails(file, 9, 10, true);
+        assertEquals(MappedHeightField.HEADER_BYTES + 10 * 9 * Float.BYTES, file.length());
+    }
+
+    private static void assertReopenFails(File file, int width, int height, boolean floatPrecision)
+    {
+        try (MappedHeightField field = new MappedHeightField(file, width, height, WrapMode.NONE, floatPrecision))
+        {
+            fail("Reopened a 10 x 9 float field as " + field.getWidth() + " x " + field.getHeight());
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    public void testMappedIntField() throws Exception
+    {
+        File file = File.createTempFile("basins", ".bin");
+        file.deleteOnExit();
+
+        int[][] data = new int[12][11];
+        for (int x = 0; x < 12; x++)
+        {
+            for (int y = 0; y < 11; y++)
+                data[x][y] = x * 100 + y;
+        }
+
+        try (MappedIntField field = new MappedIntField(file, 12, 11, WrapMode.NONE, 3 * 12 * Integer.BYTES))
+        {
+            field.copyFrom(data);
+            assertEquals(507, field.get(5, 7));
+
+            int[][] copy = field.toArray();
+            for (int x = 0; x < 12; x++)
+            {
+                for (int y = 0; y < 11; y++)
+                    assertEquals(data[x][y], copy[x][y]);
+            }
+        }
+    }
+
+    private static void assertIdentical(double[][] expected, double[][] actual)
+    {
+        assertEquals(expected.length, actual.length);
+
+        for (int x = 0; x < expected.length; x++)
+        {
+            for (int y = 0; y < expected[x].length; y++)
+                assertEquals("pixel " + x + "," + y, Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ca.dhlevi.libnoise.hydrology;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.NoiseFactory;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class PriorityFloodTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public PriorityFloodTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(PriorityFloodTest.class);
+    }
+
+    public void testFillsPitAndDrainsToOcean()
+    {
+        // ocean along the west edge, land rising to the east, with a pit at 10, 5 whose
+        // lowest rim pixel is 10, 4
+        double[][] noise = new double[20][10];
+        for (int x = 0; x < 20; x++)
+        {
+            for (int y = 0; y < 10; y++)
+                noise[x][y] = x < 3 ? 0.1 : 0.5 + x * 0.01;
+        }
+        for (int x = 9; x <= 11; x++)
+        {
+            for (int y = 4; y <= 6; y++)
+                noise[x][y] = 0.9;
+        }
+        noise[10][4] = 0.8;
+        noise[10][5] = 0.3;
+
+        FlowField flow = PriorityFlood.analyze(noise, 0.4, 5);
+
+        assertEquals(FlowField.OCEAN, flow.getLabel(0, 0));
+        assertEquals(FlowField.LAKE, flow.getLabel(10, 5));
+        assertEquals(FlowField.LAND, flow.getLabel(15, 5));
+
+        // the pit is filled to just above its rim and drains over it
+        assertTrue(flow.getFilled(10, 5) > 0.8 && flow.getFilled(10, 5) < 0.8 + 1e-9);
+        assertEquals(4 * 20 + 10, flow.downstream(10, 5));
+
+        // the rim pixel drains the pit as well as itself
+        assertTrue(flow.getAccumulation(10, 4) >= 2);
+        assertEquals(1, flow.getAccumulation(19, 0));
+        assertEquals(FlowField.NO_FLOW, flow.getDirection(0, 5));
+    }
+
+    public void testEveryPixelReachesOcean() throws Exception
+    {
+        double[][] noise = NoiseFactory.generateSpherical(DefaultModules.getContinentNoise(3), 126, 62, -90, 90, -180, 180, true, 1);
+        FlowField flow = PriorityFlood.analyze(noise, 0.4, 100);
+
+        int width = flow.getWidth();
+        int land = 0;
+        long drained = 0;
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < flow.getHeight(); y++)
+            {
+                assertTrue(flow.getFilled(x, y) >= noise[x][y]);
+
+                if (flow.getLabel(x, y) == FlowField.OCEAN)
+                {
+                    drained += flow.getAccumulation(x, y);
+                    continue;
+                }
+
+                land++;
+
+                // every step goes strictly downhill on the filled surface
+                int next = flow.downstream(x, y);
+                assertTrue(next != -1);
+                assertTrue(flow.getFilled(next % width, next / width) < flow.getFilled(x, y));
+            }
+        }
+
+        // and all the land and lakes end up in the ocean
+        assertEquals(land, drained);
+    }
+}
@@ -0,0 +1,167 @@
+package ca.dhlevi.libnoise.operator;
+
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.generator.Const;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CacheTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public CacheTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(CacheTest.class);
+    }
+
+    public void testSharedSubgraphEvaluatedOncePerSample()
+    {
+        Counting counting = new Counting();
+        Cache cache = counting.cache();
+        Module graph = cache.add(cache.abs());
+
+        for (int i = 0; i < 10; i++)
+            assertEquals(2.0 * i, graph.getValue(i, 0, 0, 1));
+
+        assertEquals(10, counting.evaluated);
+        assertEquals(10, cache.getMisses());
+        assertEquals(10, cache.getHits());
+
+        double[] xs = { 1, 2, 3, 4, 5 };
+        double[] zeros = new double[5];
+        double[] out = new double[5];
+
+        graph.getValues(xs, zeros, zeros, out, 5, 1);
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(2 * xs[i], out[i]);
+        assertEquals(15, counting.evaluated);
+        assertEquals(15, cache.getMisses());
+        assertEquals(15, cache.getHits());
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    public void testLruStaysWithinCapacity()
+    {
+        Counting counting = new Counting();
+        Cache cache = new Cache(counting, 4);
+
+        for (int i = 0; i < 10; i++)
+        {
+            cache.getValue(i, 0, 0, 1);
+            assertTrue(cache.getSize() <= 4);
+        }
+
+        // the last four are kept, the first six were evicted
+        for (int i = 9; i >= 6; i--)
+            cache.getValue(i, 0, 0, 1);
+        assertEquals(10, counting.evaluated);
+
+        cache.getValue(0, 0, 0, 1);
+        assertEquals(11, counting.evaluated);
+
+        double[] xs = new double[12];
+        double[] zeros = new double[12];
+        for (int i = 0; i < xs.length; i++)
+            xs[i] = 100 + i;
+
+        cache.getValues(xs, zeros, zeros, new double[12], 12, 1);
+        assertEquals(4, cache.getSize());
+        assertEquals(10 + 1 + 12, cache.getMisses());
+        assertEquals(4, cache.getHits());
+    }
+
+    public void testChangesInvalidateEarlierValues()
+    {
+        Counting counting = new Counting();
+        Cache cache = new Cache(counting, 16);
+        double[] xs = { 1, 2 };
+        double[] zeros = new double[2];
+        double[] out = new double[2];
+
+        assertEquals(1.0, cache.getValue(1, 0, 0, 1));
+        cache.getValues(xs, zeros, zeros, out, 2, 1);
+
+        counting.offset = 10;
+        assertEquals(1.0, cache.getValue(1, 0, 0, 1));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(11.0, cache.getValue(1, 0, 0, 1));
+        cache.getValues(xs, zeros, zeros, out, 2, 1);
+        assertEquals(12.0, out[1]);
+
+        counting.offset = 20;
+        cache.setCapacity(8);
+        assertEquals(21.0, cache.getValue(1, 0, 0, 1));
+        cache.getValues(xs, zeros, zeros, out, 2, 1);
+        assertEquals(22.0, out[1]);
+
+        cache.setCachedModule(new Const(5));
+        assertEquals(5.0, cache.getValue(1, 0, 0, 1));
+        cache.getValues(xs, zeros, zeros, out, 2, 1);
+        assertEquals(5.0, out[0]);
+        assertEquals(5.0, out[1]);
+    }
+
+    public void testValueFromBeforeClearIsNotCached()
+    {
+        Cache[] cache = new Cache[1];
+
+        // clears the cache in the middle of its own evaluation, as another thread could
+        Counting clearing = new Counting()
+        {
+            @Override
+            public double getValue(double x, double y, double z, int scale)
+            {
+                cache[0].clear();
+                return super.getValue(x, y, z, scale);
+            }
+        };
+        cache[0] = new Cache(clearing, 16);
+
+        cache[0].getValue(1, 0, 0, 1);
+        assertEquals(0, cache[0].getSize());
+
+        double[] xs = { 1, 2, 3 };
+        double[] zeros = new double[3];
+        cache[0].getValues(xs, zeros, zeros, new double[3], 3, 1);
+        assertEquals(0, cache[0].getSize());
+    }
+
+    // x plus an offset, counting every sample it works out
+    private static class Counting extends Module
+    {
+        int evaluated;
+        double offset;
+
+        @Override
+        public double getValue()
+        {
+            return getValue(0, 0, 0, 1);
+        }
+
+        @Override
+        public double getValue(double x, double y, double z, int scale)
+        {
+            evaluated++;
+            return x + offset;
+        }
+    }
+}
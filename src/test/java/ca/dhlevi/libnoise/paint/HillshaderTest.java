@@ -0,0 +1,182 @@
+package ca.dhlevi.libnoise.paint;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.field.HeightField;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class HillshaderTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public HillshaderTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(HillshaderTest.class);
+    }
+
+    public void testRasterMatchesPixels()
+    {
+        int width = 70;
+        int height = 150;
+        double[][] noise = new double[width][height];
+        Random rand = new Random(5);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                noise[x][y] = Math.sin(x * 0.2) * Math.cos(y * 0.1) * 0.05 + rand.nextDouble() * 0.01;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            byte[] serial = Hillshader.shadeRaster(noise, null);
+            byte[] parallel = Hillshader.shadeRaster(noise, pool);
+            byte[] multidirectional = Hillshader.shadeRasterMultidirectional(noise, pool);
+
+            // taller than wide, every row has to be shaded
+            HSLColor[][] colors = Hillshader.shadeAllPixels(noise, width, height, 0);
+
+            for (int x = 0; x < width; x++)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    int expected = Hillshader.shadeValue(noise, width, height, x, y, 0);
+
+                    assertEquals(expected, serial[y * width + x] & 0xFF);
+                    assertEquals(expected, parallel[y * width + x] & 0xFF);
+                    assertEquals(expected, colors[x][y].getRGB().getRed());
+                }
+            }
+
+            // flat ground is lit the same from every direction
+            assertEquals(Hillshader.shadeValue(0, 0, 0, 0, 0, 0, 0, 0), Hillshader.shadeRasterMultidirectional(new double[3][3], null)[4] & 0xFF);
+            assertEquals(width * height, multidirectional.length);
+
+            HeightField field = HeightField.allocateDirect(width, height);
+            field.copyFrom(noise);
+
+            assertTrue(Arrays.equals(serial, Hillshader.shadeRaster(field, pool)));
+            assertTrue(Arrays.equals(multidirectional, Hillshader.shadeRasterMultidirectional(field, null)));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // the rational form rounds to the same shade as the atan/atan2 form it replaced, over
+    // steep and flat ground and lights from every side
+    public void testMatchesTrigShade()
+    {
+        int width = 60;
+        int height = 40;
+        double[][] noise = new double[width][height];
+        Random rand = new Random(9);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                noise[x][y] = x < 10 ? 0.25 : Math.sin(x * 0.3) * Math.cos(y * 0.2) * rand.nextDouble() * (y % 3 == 0 ? 0.2 : 0.01);
+        }
+
+        double[] azimuths = { 0.0, 45.0, 90.0, 180.0, 225.0, 315.0, 360.0 };
+        double[] altitudes = { 10.0, 45.0, 80.0 };
+        double[] zFactors = { 1.0, 40.0 };
+
+        for (double azimuth : azimuths)
+        {
+            for (double altitude : altitudes)
+            {
+                for (double zFactor : zFactors)
+                {
+                    for (int x = 0; x < width; x++)
+                    {
+                        for (int y = 0; y < height; y++)
+                        {
+                            int expected = trigShade(noise, width, height, x, y, zFactor, altitude, azimuth, 1.0, 0);
+                            int actual = Hillshader.shadeValue(noise, width, height, x, y, zFactor, altitude, azimuth, 1.0, 0);
+
+                            assertEquals("pixel " + x + "," + y + " altitude " + altitude + " azimuth " + azimuth + " z " + zFactor, expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                assertEquals(trigShade(noise, width, height, x, y, 40.0, 80.0, 315.0, 1.0, 0), Hillshader.shadePixel(noise, width, height, x, y, 0).getRGB().getRed());
+        }
+    }
+
+    // shadePixel as it was before the rational form, returning the grey level
+    private static int trigShade(double[][] noise, int width, int height, int x, int y, double zFactor, double Altitude, double Azimuth, double cellSize, int buffer)
+    {
+        double zenithDeg = 90.0 - Altitude;
+        double zenithRad = zenithDeg * Math.PI / 180.0;
+
+        double azimuthMath = 360.0 - Azimuth + 90.0;
+        if (azimuthMath >= 360.0)
+            azimuthMath = azimuthMath - 360.0;
+        double azimuthRad = azimuthMath * Math.PI / 180.0;
+
+        int bx = x + buffer;
+        int by = y + buffer;
+
+        double nw = bx == 0 || by == 0 ? 0 : noise[bx - 1][by - 1];
+        double n = by == 0 ? 0 : noise[bx][by - 1];
+        double ne = bx >= width - 1 || by == 0 ? 0 : noise[bx + 1][by - 1];
+        double w = bx == 0 ? 0 : noise[bx - 1][by];
+        double e = bx >= width - 1 ? 0 : noise[bx + 1][by];
+        double sw = bx == 0 || by >= height - 1 ? 0 : noise[bx - 1][by + 1];
+        double s = by >= height - 1 ? 0 : noise[bx][by + 1];
+        double se = bx >= width - 1 || by >= height - 1 ? 0 : noise[bx + 1][by + 1];
+
+        double xRateOfChange = ((ne + (2 * e) + se) - (nw + (2 * w) + sw)) / (8.0 * cellSize);
+        double yRateOfChange = ((sw + (2 * s) + se) - (nw + (2 * n) + ne)) / (8.0 * cellSize);
+
+        double slopeRad = Math.atan(zFactor * Math.sqrt((Math.pow(xRateOfChange, 2) + Math.pow(yRateOfChange, 2))));
+
+        double aspectRad = 0.0;
+
+        if (xRateOfChange != 0.0)
+            aspectRad = Math.atan2(yRateOfChange, -xRateOfChange);
+        if (aspectRad < 0.0)
+            aspectRad = (2.0 * Math.PI) + aspectRad;
+
+        if (xRateOfChange == 0.0)
+        {
+            if (yRateOfChange > 0.0)
+                aspectRad = Math.PI / 2.0;
+            else if (yRateOfChange < 0.0)
+                aspectRad = (2.0 * Math.PI) - (Math.PI / 2.0);
+        }
+
+        int hillshade = (int) Math.round((255.0 * ((Math.cos(zenithRad) * Math.cos(slopeRad)) + (Math.sin(zenithRad) * Math.sin(slopeRad) * Math.cos(azimuthRad - aspectRad)))));
+
+        if (hillshade < 0)
+            hillshade = 0;
+        else if (hillshade > 255)
+            hillshade = 255;
+
+        return hillshade;
+    }
+}
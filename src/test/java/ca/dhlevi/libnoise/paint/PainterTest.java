@@ -0,0 +1,476 @@
+package ca.dhlevi.libnoise.paint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.Point;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.field.IntField;
+import ca.dhlevi.libnoise.spatial.Envelope;
+import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class PainterTest extends TestCase
+{
+    private static final double SEA_LEVEL = 0.45;
+    private static final Envelope BBOX = new Envelope(-180, -90, 180, 90);
+
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public PainterTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(PainterTest.class);
+    }
+
+    public void testHeightMapMatchesLegacy() throws Exception
+    {
+        double[][] data = heightmap(90, 150, 3);
+
+        assertIdentical(legacyHeightMap(data), Painter.renderHeightMap(data, null), 0);
+    }
+
+    public void testRegionMapMatchesLegacy() throws Exception
+    {
+        int[][] regions = codes(heightmap(90, 150, 3), 40, 7);
+
+        assertIdentical(legacyRegionMap(regions, 11), Painter.renderRegionMap(regions, 11, null), 0);
+    }
+
+    public void testTerrainMapMatchesLegacy() throws Exception
+    {
+        double[][] data = heightmap(90, 150, 4);
+        int[][] rivers = codes(data, 2, 8);
+
+        // the terrain colours come from a ramp, which can be a level off the exact gradient
+        for (boolean hillshade : new boolean[] { true, false })
+        {
+            for (boolean shadeWater : new boolean[] { true, false })
+                assertIdentical(legacyTerrainMap(data, rivers, hillshade, shadeWater), Painter.renderTerrainMap(data, rivers, SEA_LEVEL, hillshade, shadeWater, null), 1);
+        }
+    }
+
+    public void testBiomeMapMatchesLegacy() throws Exception
+    {
+        double[][] data = heightmap(90, 150, 5);
+        int[][] rivers = codes(data, 2, 9);
+        int[][] biomes = codes(data, 11, 10);
+
+        for (boolean hillshade : new boolean[] { true, false })
+        {
+            for (boolean shadeWater : new boolean[] { true, false })
+                assertIdentical(legacyBiomeMap(data, rivers, biomes, hillshade, shadeWater), Painter.renderBiomeMap(data, rivers, biomes, SEA_LEVEL, hillshade, shadeWater, null), 0);
+        }
+    }
+
+    public void testMoistureLevelsMatchLegacy() throws Exception
+    {
+        double[][] data = heightmap(90, 150, 6);
+
+        assertIdentical(legacyMoistureLevels(data), Painter.renderMoistureLevels(data, null), 0);
+    }
+
+    public void testTempuratureBandsMatchLegacy() throws Exception
+    {
+        double[][] data = heightmap(90, 150, 7);
+
+        assertIdentical(legacyTempuratureBands(data, 40, BBOX), Painter.renderTempuratureBands(data, 40, BBOX, null), 0);
+    }
+
+    public void testPoolDoesNotChangeImage() throws Exception
+    {
+        // several bands, the last one short
+        double[][] data = heightmap(70, 200, 8);
+        int[][] rivers = codes(data, 2, 12);
+        int[][] biomes = codes(data, 11, 13);
+        int[][] regions = codes(data, 40, 14);
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            assertIdentical(Painter.renderHeightMap(data, null), Painter.renderHeightMap(data, pool), 0);
+            assertIdentical(Painter.renderRegionMap(regions, 2, null), Painter.renderRegionMap(regions, 2, pool), 0);
+            assertIdentical(Painter.renderTerrainMap(data, rivers, SEA_LEVEL, true, true, null), Painter.renderTerrainMap(data, rivers, SEA_LEVEL, true, true, pool), 0);
+            assertIdentical(Painter.renderBiomeMap(data, rivers, biomes, SEA_LEVEL, true, true, null), Painter.renderBiomeMap(data, rivers, biomes, SEA_LEVEL, true, true, pool), 0);
+            assertIdentical(Painter.renderMoistureLevels(data, null), Painter.renderMoistureLevels(data, pool), 0);
+            assertIdentical(Painter.renderTempuratureBands(data, 40, BBOX, null), Painter.renderTempuratureBands(data, 40, BBOX, pool), 0);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testFieldsMatchArrays() throws Exception
+    {
+        double[][] data = heightmap(70, 140, 15);
+        int[][] rivers = codes(data, 2, 16);
+        int[][] biomes = codes(data, 11, 17);
+        int[][] regions = codes(data, 40, 18);
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            for (boolean direct : new boolean[] { false, true })
+            {
+                HeightField dataField = field(data, direct);
+                IntField riverField = field(rivers, direct);
+                IntField biomeField = field(biomes, direct);
+                IntField regionField = field(regions, direct);
+
+                assertIdentical(Painter.renderHeightMap(data, null), Painter.renderHeightMap(dataField, pool), 0);
+                assertIdentical(Painter.renderRegionMap(regions, 2, null), Painter.renderRegionMap(regionField, 2, pool), 0);
+                assertIdentical(Painter.renderTerrainMap(data, rivers, SEA_LEVEL, true, true, null), Painter.renderTerrainMap(dataField, riverField, SEA_LEVEL, true, true, pool), 0);
+                assertIdentical(Painter.renderBiomeMap(data, rivers, biomes, SEA_LEVEL, true, false, null), Painter.renderBiomeMap(dataField, riverField, biomeField, SEA_LEVEL, true, false, pool), 0);
+                assertIdentical(Painter.renderMoistureLevels(data, null), Painter.renderMoistureLevels(dataField, pool), 0);
+                assertIdentical(Painter.renderTempuratureBands(data, 40, BBOX, null), Painter.renderTempuratureBands(dataField, 40, BBOX, pool), 0);
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static double[][] heightmap(int width, int height, int seed) throws Exception
+    {
+        return NoiseFactory.generateSpherical(DefaultModules.getSimpleNoise(seed), width, height, -90, 90, -180, 180, true, 1);
+    }
+
+    // a grid the size of data of random codes below count, in runs so neighbouring pixels often share one
+    private static int[][] codes(double[][] data, int count, int seed)
+    {
+        int width = data.length;
+        int height = data[0].length;
+        int[][] codes = new int[width][height];
+        Random rand = new Random(seed);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+                codes[x][y] = y > 0 && rand.nextInt(4) != 0 ? codes[x][y - 1] : rand.nextInt(count);
+        }
+
+        return codes;
+    }
+
+    private static HeightField field(double[][] data, boolean direct)
+    {
+        HeightField field = direct ? HeightField.allocateDirect(data.length, data[0].length) : HeightField.allocate(data.length, data[0].length);
+        field.copyFrom(data);
+        return field;
+    }
+
+    private static IntField field(int[][] data, boolean direct)
+    {
+        IntField field = direct ? IntField.allocateDirect(data.length, data[0].length) : IntField.allocate(data.length, data[0].length);
+        field.copyFrom(data);
+        return field;
+    }
+
+    private static void assertIdentical(BufferedImage expected, BufferedImage actual, int tolerance)
+    {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        for (int x = 0; x < expected.getWidth(); x++)
+        {
+            for (int y = 0; y < expected.getHeight(); y++)
+            {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+
+                for (int shift = 0; shift < 32; shift += 8)
+                    assertEquals("pixel " + x + "," + y, (e >> shift) & 0xFF, (a >> shift) & 0xFF, tolerance);
+            }
+        }
+    }
+
+    // the original per pixel painters, without the saving
+
+    private static BufferedImage legacyHeightMap(double[][] data)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                double noiseValue = data[x][y];
+                if (noiseValue > 1)
+                    noiseValue = 1;
+                if (noiseValue < 0)
+                    noiseValue = 0;
+
+                int rgb = (int) Math.round(255 * noiseValue);
+
+                Color c = new Color(rgb, rgb, rgb, 255);
+
+                mapImage.setRGB(x, y, c.getRGB());
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage legacyRegionMap(int[][] data, int seed)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        HashMap<Integer, Color> regionColors = new HashMap<Integer, Color>();
+        Random rand = new Random(seed);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                int region = data[x][y];
+                Color regionColor = null;
+
+                if (region == 0)
+                {
+                    regionColor = Color.BLACK;
+                }
+                else if (regionColors.containsKey(region))
+                {
+                    regionColor = regionColors.get(region);
+                }
+                else
+                {
+                    boolean uniqueColor = false;
+                    while (!uniqueColor)
+                    {
+                        regionColor = new Color(rand.nextInt(255), rand.nextInt(255), rand.nextInt(255));
+                        uniqueColor = !regionColors.containsValue(regionColor);
+                    }
+
+                    regionColors.put(region, regionColor);
+                }
+
+                mapImage.setRGB(x, y, regionColor.getRGB());
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage legacyTerrainMap(double[][] data, int[][] rivers, boolean hillshade, boolean shadeWater)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                double noiseValue = data[x][y];
+                if (noiseValue > 1)
+                    noiseValue = 1;
+                if (noiseValue < 0)
+                    noiseValue = 0;
+
+                // terrain painter
+                if (noiseValue < SEA_LEVEL || rivers[x][y] != 0)
+                {
+                    Color c = new Color(153, 217, 242, 255);
+                    if (shadeWater)
+                    {
+                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
+                        c = PainterUtilities.blend(c, shade);
+                    }
+
+                    mapImage.setRGB(x, y, c.getRGB());
+                }
+                else
+                {
+                    Color c = PainterUtilities.gradient(new Color(0, 102, 0, 255), new Color(220, 220, 220, 255), noiseValue);
+                    if (hillshade)
+                    {
+                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
+                        c = PainterUtilities.blend(c, shade);
+                    }
+
+                    mapImage.setRGB(x, y, c.getRGB());
+                }
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage legacyBiomeMap(double[][] data, int[][] rivers, int[][] biomes, boolean hillshade, boolean shadeWater)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                double noiseValue = data[x][y];
+                if (noiseValue > 1)
+                    noiseValue = 1;
+                if (noiseValue < 0)
+                    noiseValue = 0;
+
+                // terrain painter
+                if ((noiseValue < SEA_LEVEL || rivers[x][y] != 0) && biomes[x][y] != 1)
+                {
+                    Color c = new Color(153, 217, 242, 255);
+                    if (shadeWater)
+                    {
+                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
+                        c = PainterUtilities.blend(c, shade);
+                    }
+
+                    mapImage.setRGB(x, y, c.getRGB());
+                }
+                else
+                {
+                    Color c = Color.white;
+
+                    if (biomes[x][y] == 1)
+                        c = new Color(225, 225, 225, 255);
+                    if (biomes[x][y] == 2)
+                        c = new Color(156, 153, 160, 255);
+                    if (biomes[x][y] == 3)
+                        c = new Color(53, 76, 55, 255);
+
+                    if (biomes[x][y] == 4)
+                        c = new Color(92, 103, 84, 255);
+                    if (biomes[x][y] == 5)
+                        c = new Color(15, 154, 58, 255);
+                    if (biomes[x][y] == 6)
+                        c = new Color(2, 32, 21, 255);
+
+                    if (biomes[x][y] == 7)
+                        c = new Color(215, 187, 165, 255);
+                    if (biomes[x][y] == 8)
+                        c = new Color(179, 168, 148, 255);
+                    if (biomes[x][y] == 9)
+                        c = new Color(108, 107, 89, 255);
+
+                    if (hillshade)
+                    {
+                        Color shade = Hillshader.shadePixel(data, width, height, x, y, 0).getRGB();
+                        c = PainterUtilities.blend(c, shade);
+                    }
+
+                    mapImage.setRGB(x, y, c.getRGB());
+                }
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage legacyMoistureLevels(double[][] data)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                double noiseValue = data[x][y];
+                if (noiseValue > 1)
+                    noiseValue = 1;
+                if (noiseValue < 0)
+                    noiseValue = 0;
+
+                int rgb = (int) Math.round(255 * noiseValue);
+
+                Color c = new Color(0, 0, rgb, 255);
+
+                mapImage.setRGB(x, y, c.getRGB());
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage legacyTempuratureBands(double[][] data, double tempRange, Envelope bbox)
+    {
+        int width = data.length;
+        int height = data[0].length;
+
+        BufferedImage mapImage = createMapImageBuffer(width, height);
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                double lat = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox).getY();
+                if (lat < 0)
+                    lat = lat * -1;
+                double temp = (tempRange * ((90 - lat) / 90)) * (1.0 - data[x][y]);
+
+                int rgb = (int) Math.round(255 * (temp / tempRange));
+
+                if (rgb < 0) rgb = 0;
+                if (rgb > 255) rgb = 255;
+
+                Color c = new Color(0, 0, 0, 255);
+
+                if (temp < 10)
+                {
+                    c = new Color(0, 0, rgb, 255);
+                }
+                else if (temp >= 10 && temp < 20)
+                {
+                    c = new Color(0, rgb, 0, 255);
+                }
+                else if (temp >= 20)
+                {
+                    c = new Color(rgb, 0, 0, 255);
+                }
+
+                mapImage.setRGB(x, y, c.getRGB());
+            }
+        }
+
+        return mapImage;
+    }
+
+    private static BufferedImage createMapImageBuffer(int width, int height)
+    {
+        BufferedImage mapImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = (Graphics2D) mapImage.getGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+
+        return mapImage;
+    }
+}
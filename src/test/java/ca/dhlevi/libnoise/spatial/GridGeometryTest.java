@@ -0,0 +1,59 @@
+package ca.dhlevi.libnoise.spatial;
+
+import ca.dhlevi.libnoise.Point;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class GridGeometryTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public GridGeometryTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(GridGeometryTest.class);
+    }
+
+    public void testMatchesSpatialUtilities()
+    {
+        int width = 90;
+        int height = 50;
+        Envelope bbox = new Envelope(-150, -60, 120, 75);
+        GridGeometry geometry = new GridGeometry(width, height, bbox);
+
+        for (int y = 0; y < height; y += 7)
+        {
+            for (int x = 0; x < width; x += 11)
+            {
+                Coordinate expected = SpatialUtilities.pixelsToLatLong(new Point(x, y), width, height, bbox);
+                assertEquals(expected.getX(), geometry.getLongitude(x), 0);
+                assertEquals(expected.getY(), geometry.getLatitude(y), 0);
+
+                Coordinate other = SpatialUtilities.pixelsToLatLong(new Point(width - 1 - x, height - 1 - y), width, height, bbox);
+                double km = SpatialUtilities.haversineDistance(expected, other) / 1000;
+
+                assertEquals(km, geometry.distanceKm(x, y, width - 1 - x, height - 1 - y), 1e-6);
+                assertTrue(geometry.chordKm(x, y, width - 1 - x, height - 1 - y) <= km + 1e-6);
+            }
+
+            Coordinate here = SpatialUtilities.pixelsToLatLong(new Point(0, y), width, height, bbox);
+            Coordinate east = SpatialUtilities.pixelsToLatLong(new Point(1, y), width, height, bbox);
+            Coordinate south = SpatialUtilities.pixelsToLatLong(new Point(0, y + 1), width, height, bbox);
+
+            assertEquals(SpatialUtilities.haversineDistance(here, east) / 1000, geometry.getEastKm(y), 1e-9);
+            assertEquals(SpatialUtilities.haversineDistance(here, south) / 1000, geometry.getSouthKm(y), 1e-9);
+        }
+    }
+}
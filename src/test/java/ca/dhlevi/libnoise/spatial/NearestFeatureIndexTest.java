@@ -0,0 +1,89 @@
+package ca.dhlevi.libnoise.spatial;
+
+import java.util.Random;
+
+import ca.dhlevi.libnoise.field.WrapMode;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class NearestFeatureIndexTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public NearestFeatureIndexTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(NearestFeatureIndexTest.class);
+    }
+
+    public void testMatchesBruteForce()
+    {
+        int width = 61;
+        int height = 37;
+        Envelope bbox = new Envelope(-180, -90, 180, 90);
+        Random rand = new Random(3);
+
+        for (int trial = 0; trial < 6; trial++)
+        {
+            int[] features = new int[width * height];
+            for (int i = 0; i < features.length; i++)
+                features[i] = rand.nextInt(40) == 0 ? 1 : 0;
+
+            WrapMode wrapMode = WrapMode.values()[trial % 3];
+            boolean wrapX = wrapMode != WrapMode.NONE;
+            boolean wrapY = wrapMode == WrapMode.BOTH;
+            boolean geographic = trial >= 3;
+
+            NearestFeatureIndex index = new NearestFeatureIndex(features, width, height, wrapMode, geographic ? bbox : null);
+
+            for (int y = 0; y < height; y++)
+            {
+                double scale = geographic ? Math.cos(Math.toRadians(y * 180.0 / height - 90)) * (360.0 / width) / (180.0 / height) : 1;
+                double weight = Math.max(1e-6, scale) * Math.max(1e-6, scale);
+
+                for (int x = 0; x < width; x++)
+                {
+                    double best = Double.POSITIVE_INFINITY;
+                    for (int i = 0; i < features.length; i++)
+                    {
+                        if (features[i] != 0)
+                            best = Math.min(best, metric(x, y, i % width, i / width, width, height, wrapX, wrapY, weight));
+                    }
+
+                    int found = index.getNearest(x, y);
+                    assertTrue(found >= 0 && features[found] != 0);
+                    assertEquals(best, metric(x, y, index.getNearestX(x, y), index.getNearestY(x, y), width, height, wrapX, wrapY, weight), 1e-9);
+                }
+            }
+        }
+
+        NearestFeatureIndex empty = new NearestFeatureIndex(new int[width * height], width, height, WrapMode.HORIZONTAL, bbox);
+        assertEquals(-1, empty.getNearest(5, 5));
+        assertEquals(Double.POSITIVE_INFINITY, empty.distanceKm(5, 5));
+    }
+
+    private static double metric(int x, int y, int fx, int fy, int width, int height, boolean wrapX, boolean wrapY, double weight)
+    {
+        int dx = Math.abs(fx - x);
+        int dy = Math.abs(fy - y);
+
+        if (wrapX)
+            dx = Math.min(dx, width - dx);
+        if (wrapY)
+            dy = Math.min(dy, height - dy);
+
+        return weight * dx * dx + dy * dy;
+    }
+}
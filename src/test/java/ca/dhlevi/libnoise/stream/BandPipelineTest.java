@@ -0,0 +1,99 @@
+package ca.dhlevi.libnoise.stream;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.NoiseNormalizer;
+import ca.dhlevi.libnoise.RasterSampler;
+import ca.dhlevi.libnoise.field.HeightField;
+import ca.dhlevi.libnoise.paint.Painter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BandPipelineTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public BandPipelineTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(BandPipelineTest.class);
+    }
+
+    public void testStreamedTerrainMatchesPainter() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(3);
+        double[][] data = NoiseFactory.generateSpherical(module, 96, 45, -90, 90, -180, 180, true, 1);
+
+        File directory = Files.createTempDirectory("terrain").toFile();
+        Painter.paintTerrainMap(data, new int[data.length][data[0].length], 0.4, directory.getPath(), true, true);
+        File painted = new File(directory, "terrain.png");
+        BufferedImage expected = ImageIO.read(painted);
+        painted.delete();
+        directory.delete();
+
+        // 10 row bands, so the 47 rows end on a short band
+        BandPipeline pipeline = new BandPipeline(new SphericalNoiseSource(module, 96, 45, -90, 90, -180, 180, true, 1, RasterSampler.parallel()), 10);
+        pipeline.add(new TerrainPaintStage(0.4, true, true));
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        pipeline.run(new PngStreamWriter(png));
+        BufferedImage streamed = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+
+        assertEquals(expected.getWidth(), streamed.getWidth());
+        assertEquals(expected.getHeight(), streamed.getHeight());
+
+        for (int x = 0; x < expected.getWidth(); x++)
+        {
+            for (int y = 0; y < expected.getHeight(); y++)
+                assertEquals(expected.getRGB(x, y), streamed.getRGB(x, y));
+        }
+    }
+
+    public void testGlobalStageSpillsToDisk() throws Exception
+    {
+        Module module = DefaultModules.getSimpleNoise(8);
+        double[][] expected = NoiseFactory.generateSpherical(module, 62, 30, -90, 90, -180, 180, true, 1);
+        NoiseNormalizer.normalize(expected, 0.4);
+
+        File directory = Files.createTempDirectory("spill").toFile();
+
+        BandPipeline pipeline = new BandPipeline(new SphericalNoiseSource(module, 62, 30, -90, 90, -180, 180, true, 1, RasterSampler.serial()), 7);
+        pipeline.setSpillDirectory(directory);
+        pipeline.add((GlobalStage) world -> NoiseNormalizer.normalize(world, 0.4));
+
+        HeightField result = HeightField.allocate(64, 32);
+        pipeline.run(new FieldSink(result));
+
+        // the spill file is removed once the pipeline is done
+        assertEquals(0, directory.list().length);
+        directory.delete();
+
+        double[][] actual = result.toArray();
+        for (int x = 0; x < expected.length; x++)
+        {
+            for (int y = 0; y < expected[0].length; y++)
+                assertEquals(Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+    }
+}
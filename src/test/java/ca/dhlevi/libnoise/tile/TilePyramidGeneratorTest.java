@@ -0,0 +1,108 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import ca.dhlevi.libnoise.Module;
+import ca.dhlevi.libnoise.NoiseFactory;
+import ca.dhlevi.libnoise.spatial.Coordinate;
+import ca.dhlevi.libnoise.spatial.SpatialUtilities;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TilePyramidGeneratorTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public TilePyramidGeneratorTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(TilePyramidGeneratorTest.class);
+    }
+
+    public void testSamplesMatchSphericalPoints()
+    {
+        Module module = DefaultModules.getSimpleNoise(11);
+        TileRenderer renderer = new TileRenderer(module, 16);
+        double[][] data = renderer.sample(2, 1, 2);
+
+        // pixel 5, 9 of tile 2/1/2, the border shifts it by one
+        double pixel = 2 * 20037508.3427892 / 64;
+        double mx = -20037508.3427892 + (16 + 5 + 0.5) * pixel;
+        double my = 20037508.3427892 - (32 + 9 + 0.5) * pixel;
+
+        double lon = SpatialUtilities.transformWebMercatorToGeo(new Coordinate(mx, 0)).getX();
+        double lat = SpatialUtilities.transformWebMercatorToGeo(new Coordinate(0, my)).getY();
+        double expected = (NoiseFactory.generateSphericalPoint(module, lat, lon, renderer.getScale(2)) + 1) / 2;
+
+        assertEquals(18, data.length);
+        assertEquals(expected, data[6][10], 1e-12);
+    }
+
+    public void testDirectoryAndPackHoldTheSameTiles() throws Exception
+    {
+        File root = Files.createTempDirectory("tiles").toFile();
+        File pack = new File(root, "world.tiles");
+
+        try
+        {
+            TilePyramidGenerator generator = new TilePyramidGenerator(new TileRenderer(DefaultModules.getSimpleNoise(3), 16), 3, 2);
+
+            try (DirectoryTileSink sink = new DirectoryTileSink(new File(root, "xyz")))
+            {
+                generator.generate(0, 2, sink);
+            }
+            try (TilePackSink sink = new TilePackSink(pack))
+            {
+                generator.generate(0, 2, sink);
+            }
+
+            DirectoryTileSink directory = new DirectoryTileSink(new File(root, "xyz"));
+
+            try (TilePack tiles = new TilePack(pack))
+            {
+                assertEquals(1 + 4 + 16, tiles.size());
+                assertNull(tiles.read(3, 0, 0));
+
+                for (int zoom = 0; zoom <= 2; zoom++)
+                {
+                    for (int x = 0; x < 1 << zoom; x++)
+                    {
+                        for (int y = 0; y < 1 << zoom; y++)
+                            assertTrue(Arrays.equals(Files.readAllBytes(directory.getFile(zoom, x, y).toPath()), tiles.read(zoom, x, y)));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            deleteTree(root);
+        }
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                deleteTree(child);
+        }
+
+        file.delete();
+    }
+}
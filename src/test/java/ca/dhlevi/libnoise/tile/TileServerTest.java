@@ -0,0 +1,133 @@
+package ca.dhlevi.libnoise.tile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.dhlevi.libnoise.DefaultModules;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TileServerTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName
+     *            name of the test case
+     */
+    public TileServerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(TileServerTest.class);
+    }
+
+    public void testServesTilesOverHttp() throws Exception
+    {
+        File cache = Files.createTempDirectory("tilecache").toFile();
+
+        try
+        {
+            TileRenderer renderer = new TileRenderer(DefaultModules.getSimpleNoise(5), 16);
+            TileServer server = new TileServer(renderer, 1024 * 1024, cache);
+
+            server.start(new InetSocketAddress("localhost", 0));
+
+            try
+            {
+                String base = "http://localhost:" + server.getPort() + TileServer.PATH;
+
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + "1/0/1.png").openConnection();
+                assertEquals(200, connection.getResponseCode());
+                assertEquals("image/png", connection.getContentType());
+                assertTrue(Arrays.equals(renderer.renderPng(1, 0, 1), readAll(connection.getInputStream())));
+
+                assertEquals(404, ((HttpURLConnection) new URL(base + "1/2/0.png").openConnection()).getResponseCode());
+                assertEquals(404, ((HttpURLConnection) new URL(base + "1/a/0.png").openConnection()).getResponseCode());
+            }
+            finally
+            {
+                server.stop(0);
+            }
+
+            assertTrue(new DirectoryTileSink(cache).getFile(1, 0, 1).isFile());
+        }
+        finally
+        {
+            deleteTree(cache);
+        }
+    }
+
+    public void testConcurrentRequestsShareOneTile() throws Exception
+    {
+        TileServer server = new TileServer(new TileRenderer(DefaultModules.getSimpleNoise(9), 32), 1024 * 1024, null);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+
+        try
+        {
+            List<Future<byte[]>> requests = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 8; i++)
+                requests.add(threads.submit(() -> server.getTile(3, 2, 5)));
+
+            byte[] first = requests.get(0).get();
+            for (Future<byte[]> request : requests)
+                assertSame(first, request.get());
+
+            assertEquals(1, server.getMemoryCache().getCount());
+
+            // one cold tile is one miss, whichever request rendered it
+            server.getMemoryCache().resetStatistics();
+            server.getTile(3, 2, 6);
+            server.getTile(3, 2, 6);
+            assertEquals(1, server.getMemoryCache().getMisses());
+            assertEquals(1, server.getMemoryCache().getHits());
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                deleteTree(child);
+        }
+
+        file.delete();
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+        in.close();
+
+        return out.toByteArray();
+    }
+}